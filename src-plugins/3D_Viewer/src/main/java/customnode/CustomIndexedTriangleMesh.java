@@ -19,11 +19,13 @@
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
+import marchingcubes.MCMesh;
+
 import vib.InterpolatedImage;
 
 public class CustomIndexedTriangleMesh extends CustomMesh {
 
-	protected Point3f[] vertices;
+	protected float[] coordinates;
 	protected Color3f[] colors;
 	protected int[] faces;
 	protected int nFaces;
@@ -38,9 +40,22 @@ public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces) {
 	}
 
 	public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces, Color3f color, float transp) {
-		this.nVertices = vertices.length;
+		this(toCoordinates(vertices), faces, color, transp);
+	}
+
+	public CustomIndexedTriangleMesh(MCMesh mesh, Color3f color, float transp) {
+		this(mesh.getCoordinates(), mesh.getFaces(), color, transp);
+	}
+
+	/**
+	 * @param coordinates x, y and z of each vertex; the array is used
+	 *        directly, without creating an object per vertex.
+	 * @param faces three vertex indices per triangle
+	 */
+	public CustomIndexedTriangleMesh(float[] coordinates, int[] faces, Color3f color, float transp) {
+		this.nVertices = coordinates.length / 3;
 		this.nFaces = faces.length;
-		this.vertices = vertices;
+		this.coordinates = coordinates;
 		this.faces = faces;
 		if(color != null)
 			setColor(color);
@@ -52,6 +67,16 @@ public CustomIndexedTriangleMesh(Point3f[] vertices, int[] faces, Color3f color,
 		update();
 	}
 
+	private static float[] toCoordinates(Point3f[] vertices) {
+		float[] coordinates = new float[3 * vertices.length];
+		for(int i = 0; i < vertices.length; i++) {
+			coordinates[3 * i]     = vertices[i].x;
+			coordinates[3 * i + 1] = vertices[i].y;
+			coordinates[3 * i + 2] = vertices[i].z;
+		}
+		return coordinates;
+	}
+
 	@Override
 	public String getFile() {
 		return loadedFromFile;
@@ -108,7 +133,7 @@ public void setShaded(boolean b) {
 	public void calculateMinMaxCenterPoint(Point3f min,
 				Point3f max, Point3f center) {
 
-		if(vertices == null || nVertices == 0) {
+		if(coordinates == null || nVertices == 0) {
 			min.set(0, 0, 0);
 			max.set(0, 0, 0);
 			center.set(0, 0, 0);
@@ -117,14 +142,16 @@ public void calculateMinMaxCenterPoint(Point3f min,
 
 		min.x = min.y = min.z = Float.MAX_VALUE;
 		max.x = max.y = max.z = Float.MIN_VALUE;
-		for(int i = 0; i < nVertices; i++) {
-			Point3f p = vertices[i];
-			if(p.x < min.x) min.x = p.x;
-			if(p.y < min.y) min.y = p.y;
-			if(p.z < min.z) min.z = p.z;
-			if(p.x > max.x) max.x = p.x;
-			if(p.y > max.y) max.y = p.y;
-			if(p.z > max.z) max.z = p.z;
+		for(int i = 0; i < 3 * nVertices; i += 3) {
+			float x = coordinates[i];
+			float y = coordinates[i + 1];
+			float z = coordinates[i + 2];
+			if(x < min.x) min.x = x;
+			if(y < min.y) min.y = y;
+			if(z < min.z) min.z = z;
+			if(x > max.x) max.x = x;
+			if(y > max.y) max.y = y;
+			if(z > max.z) max.z = z;
 		}
 		center.x = (max.x + min.x) / 2;
 		center.y = (max.y + min.y) / 2;
@@ -158,8 +185,9 @@ public int[] vertexIndicesOfPoint(Point3f p) {
 
 	public int vertexIndexOfPoint(Point3f p) {
 		for(int i = 0; i < nVertices; i++) {
-			Point3f v = vertices[i];
-			if(p.equals(v))
+			if(p.x == coordinates[3 * i] &&
+					p.y == coordinates[3 * i + 1] &&
+					p.z == coordinates[3 * i + 2])
 				return i;
 		}
 		return -1;
@@ -168,7 +196,7 @@ public int vertexIndexOfPoint(Point3f p) {
 	@Override
 	public void setCoordinate(int i, Point3f p) {
 		changed = true;
-		vertices[i].set(p);
+		setVertex(i, p);
 		((GeometryArray)getGeometry()).setCoordinate(i, p);
 	}
 
@@ -178,10 +206,16 @@ public void setCoordinates(int[] indices, Point3f p) {
 		GeometryArray ga = (GeometryArray)getGeometry();
 		for(int i = 0; i < indices.length; i++) {
 			ga.setCoordinate(indices[i], p);
-			vertices[indices[i]].set(p);
+			setVertex(indices[i], p);
 		}
 	}
 
+	private void setVertex(int i, Point3f p) {
+		coordinates[3 * i]     = p.x;
+		coordinates[3 * i + 1] = p.y;
+		coordinates[3 * i + 2] = p.z;
+	}
+
 	@Override
 	public void recalculateNormals(GeometryArray ga) {
 	}
@@ -198,8 +232,8 @@ protected void removeVertices(int[] indices) {
 
 	@Override
 	public void setColor(Color3f color) {
-		if(this.colors == null || this.colors.length != this.vertices.length)
-			this.colors = new Color3f[this.vertices.length];
+		if(this.colors == null || this.colors.length != nVertices)
+			this.colors = new Color3f[nVertices];
 		this.color = color != null ? color : DEFAULT_COLOR;
 		for(int i = 0; i < nVertices; i++)
 			colors[i] = this.color;
@@ -251,11 +285,10 @@ public void loadSurfaceColorsFromImage(ImagePlus imp) {
 		double ph = cal.pixelHeight;
 		double pd = cal.pixelDepth;
 		for(int i = 0; i < nVertices; i++) {
-			Point3f coord = vertices[i];
 			int v = (int)Math.round(ii.interpol.get(
-				coord.x / pw,
-				coord.y / ph,
-				coord.z / pd));
+				coordinates[3 * i] / pw,
+				coordinates[3 * i + 1] / ph,
+				coordinates[3 * i + 2] / pd));
 			colors[i] = new Color3f(
 				((v & 0xff0000) >> 16) / 255f,
 				((v & 0xff00) >> 8) / 255f,
@@ -342,7 +375,7 @@ protected GeometryArray createGeometry() {
 		if(nVertices == 0)
 			return null;
 		IndexedTriangleArray ta = new IndexedTriangleArray(
-			vertices.length,
+			nVertices,
 				TriangleArray.COORDINATES |
 				TriangleArray.COLOR_3 |
 				TriangleArray.NORMALS,
@@ -350,13 +383,13 @@ protected GeometryArray createGeometry() {
 
 		ta.setValidIndexCount(nFaces);
 
-		ta.setCoordinates(0, vertices);
+		ta.setCoordinates(0, coordinates);
 		ta.setColors(0, colors);
 
 		ta.setCoordinateIndices(0, faces);
 		ta.setColorIndices(0, faces);
 
-		ta.setNormals(0, getNormals());
+		ta.setNormals(0, computeNormals());
 		ta.setNormalIndices(0, faces);
 
 		ta.setCapability(GeometryArray.ALLOW_COLOR_WRITE);
@@ -366,26 +399,44 @@ protected GeometryArray createGeometry() {
 	}
 
 	public Vector3f[] getNormals() {
+		float[] n = computeNormals();
 		Vector3f[] normals = new Vector3f[nVertices];
 		for (int i = 0; i < nVertices; i++)
-			normals[i] = new Vector3f();
+			normals[i] = new Vector3f(n[3 * i], n[3 * i + 1], n[3 * i + 2]);
+		return normals;
+	}
 
-		Vector3f v1 = new Vector3f(), v2 = new Vector3f();
+	/**
+	 * Returns x, y and z of the normal of each vertex, averaged over
+	 * the adjacent triangles.
+	 */
+	protected float[] computeNormals() {
+		float[] normals = new float[3 * nVertices];
+		float[] c = coordinates;
 		for (int i = 0; i < nFaces; i += 3) {
-			int f1 = faces[i];
-			int f2 = faces[i + 1];
-			int f3 = faces[i + 2];
+			int f1 = 3 * faces[i];
+			int f2 = 3 * faces[i + 1];
+			int f3 = 3 * faces[i + 2];
+
+			float x1 = c[f2] - c[f1], y1 = c[f2 + 1] - c[f1 + 1], z1 = c[f2 + 2] - c[f1 + 2];
+			float x2 = c[f3] - c[f1], y2 = c[f3 + 1] - c[f1 + 1], z2 = c[f3 + 2] - c[f1 + 2];
 
-			v1.sub(vertices[f2], vertices[f1]);
-			v2.sub(vertices[f3], vertices[f1]);
-			v1.cross(v1, v2);
+			float nx = y1 * z2 - z1 * y2;
+			float ny = z1 * x2 - x1 * z2;
+			float nz = x1 * y2 - y1 * x2;
 
-			normals[f1].add(v1);
-			normals[f2].add(v1);
-			normals[f3].add(v1);
+			normals[f1] += nx; normals[f1 + 1] += ny; normals[f1 + 2] += nz;
+			normals[f2] += nx; normals[f2 + 1] += ny; normals[f2 + 2] += nz;
+			normals[f3] += nx; normals[f3 + 1] += ny; normals[f3 + 2] += nz;
+		}
+		for (int i = 0; i < normals.length; i += 3) {
+			float l = (float)Math.sqrt(normals[i] * normals[i] +
+				normals[i + 1] * normals[i + 1] +
+				normals[i + 2] * normals[i + 2]);
+			normals[i] /= l;
+			normals[i + 1] /= l;
+			normals[i + 2] /= l;
 		}
-		for (int i = 0; i < nVertices; i++)
-			normals[i].normalize();
 
 		return normals;
 	}
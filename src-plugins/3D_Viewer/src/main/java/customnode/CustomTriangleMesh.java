@@ -23,6 +23,8 @@
 
 import java.util.ArrayList;
 
+import marchingcubes.MCMesh;
+
 
 public class CustomTriangleMesh extends CustomMesh {
 
@@ -41,6 +43,16 @@ public CustomTriangleMesh(List<Point3f> mesh, Color3f col, float trans) {
 		}
 	}
 
+	/**
+	 * Creates a mesh from the output of marching cubes. The triangles
+	 * are expanded into a list of points, which all editing methods of
+	 * this class work on; CustomIndexedTriangleMesh displays an MCMesh
+	 * without creating an object per vertex.
+	 */
+	public CustomTriangleMesh(MCMesh mesh, Color3f col, float trans) {
+		this(mesh.getTriangles(), col, trans);
+	}
+
 	public void setMesh(List<Point3f> mesh) {
 		this.mesh = mesh;
 		update();
@@ -420,6 +420,49 @@ public int load(int x, int y, int z) {
 		}
 	}
 
+	/**
+	 * Load the values of the plane z, as load() would. The value at x, y
+	 * is stored at values[offset + y * stride + x].
+	 *
+	 * Unlike load(), this may be called by several threads at once: the
+	 * built-in loaders keep a buffer per instance, which is not used
+	 * here. Volumes without such a loader are read with load(),
+	 * synchronized on this volume.
+	 * @param z
+	 * @param values
+	 * @param offset
+	 * @param stride
+	 */
+	public void loadPlane(int z, int[] values, int offset, int stride) {
+		final Loader l = loader;
+		final Img img = image;
+		if(img != null && l instanceof AverageByteLoader) {
+			final int[] color = new int[3];
+			for(int y = 0; y < yDim; y++) {
+				int i = offset + y * stride;
+				for(int x = 0; x < xDim; x++) {
+					img.get(x, y, z, color);
+					values[i++] = (color[0] + color[1] + color[2]) / 3;
+				}
+			}
+		} else if(img != null && (l instanceof ByteLoader ||
+					l instanceof IntLoader)) {
+			for(int y = 0; y < yDim; y++) {
+				int i = offset + y * stride;
+				for(int x = 0; x < xDim; x++)
+					values[i++] = img.get(x, y, z);
+			}
+		} else {
+			synchronized(this) {
+				for(int y = 0; y < yDim; y++) {
+					int i = offset + y * stride;
+					for(int x = 0; x < xDim; x++)
+						values[i++] = load(x, y, z);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Load the color at the specified position
 	 * @param x
@@ -196,17 +196,10 @@ public static final List<Point3f> getTriangles(Volume volume, int thresh){
 		if (volume instanceof ImgLibVolume && ((ImgLibVolume)volume).getImage().getContainer() instanceof ShapeList) {
 			getShapeListImageTriangles((ImgLibVolume)volume, car, tri);
 		} else {
-			MCCube cube = new MCCube();
-			for(int z = -1; z < car.d+1; z+=1){
-				for(int x = -1; x < car.w+1; x+=1){
-					for(int y = -1; y < car.h+1; y+=1){
-						cube.init(x, y, z);
-						cube.computeEdges(car);
-						cube.getTriangles(tri, car);
-					}
-				}
-				IJ.showProgress(z, car.d-2);
-			}
+			// same triangles, but computed in parallel and without
+			// creating objects for intermediate results
+			return ParallelMarchingCubes.getMesh(volume, thresh)
+				.getTriangles();
 		}
 
 		// convert pixel coordinates
@@ -362,7 +355,7 @@ private static final void getShapeListImageTriangles(final ImgLibVolume volume,
 	};        
 
 	// triangles to be drawn in each case
-	private static final int faces[] =
+	static final int faces[] =
 	{
 		-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
 		0, 8, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
@@ -0,0 +1,64 @@
+package marchingcubes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+/**
+ * A triangle mesh as created by {@link ParallelMarchingCubes}, stored in
+ * primitive arrays: three coordinates per vertex, and three vertex
+ * indices per triangle. Vertices are shared by all triangles that
+ * touch them.
+ */
+public class MCMesh {
+
+	protected final float[] coordinates;
+	protected final int[] faces;
+
+	/**
+	 * @param coordinates x, y and z of each vertex
+	 * @param faces three vertex indices for each triangle
+	 */
+	public MCMesh(float[] coordinates, int[] faces) {
+		this.coordinates = coordinates;
+		this.faces = faces;
+	}
+
+	/**
+	 * Returns x, y and z of each vertex; the array is not copied.
+	 */
+	public float[] getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * Returns three vertex indices per triangle; the array is not copied.
+	 */
+	public int[] getFaces() {
+		return faces;
+	}
+
+	public int getVertexCount() {
+		return coordinates.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return faces.length / 3;
+	}
+
+	/**
+	 * Expands the mesh into the list format of {@link MCCube}: three
+	 * subsequent points specify one triangle, and every entry is a
+	 * Point3f object of its own.
+	 */
+	public List<Point3f> getTriangles() {
+		List<Point3f> tri = new ArrayList<Point3f>(faces.length);
+		for(int i = 0; i < faces.length; i++) {
+			int v = 3 * faces[i];
+			tri.add(new Point3f(coordinates[v],
+				coordinates[v + 1], coordinates[v + 2]));
+		}
+		return tri;
+	}
+}
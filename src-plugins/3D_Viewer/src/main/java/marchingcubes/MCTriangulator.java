@@ -40,6 +40,30 @@ public List getTriangles(ImagePlus image, int threshold,
 		return l;
 	}
 
+	/**
+	 * Like getTriangles(), but returns the triangles as an indexed
+	 * mesh in primitive arrays, which takes a fraction of the memory.
+	 */
+	public MCMesh getMesh(ImagePlus image, int threshold,
+					boolean[] channels, int resamplingF) {
+
+		if(resamplingF != 1)
+			image = NaiveResampler.resample(image, resamplingF);
+		Volume volume = new Volume(image, channels);
+		volume.setAverage(true);
+
+		return ParallelMarchingCubes.getMesh(volume, threshold);
+	}
+
+	/**
+	 * @param img The Image<? extends RealType> instance to use.
+	 * @param threshold The cut-off (inclusive) of pixel values considered inside.
+	 * @param origin The translation of the origin, in 3D.
+	 */
+	public<T extends RealType<T>> MCMesh getMesh(Image<T> img, int threshold, float[] origin) throws Exception {
+		return ParallelMarchingCubes.getMesh(new ImgLibVolume(img, origin), threshold);
+	}
+
 	/**
 	 * @param img The Image<? extends RealType> instance to use.
 	 * @param threshold The cut-off (inclusive) of pixel values considered inside.
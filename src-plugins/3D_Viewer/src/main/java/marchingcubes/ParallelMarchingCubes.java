@@ -0,0 +1,420 @@
+package marchingcubes;
+
+import ij.IJ;
+import ij3d.Volume;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Marching cubes which splits the volume into slabs along z and
+ * triangulates the slabs in parallel. Vertices are written into
+ * primitive arrays and shared by all triangles that touch them, so
+ * no object is created per vertex or per triangle.
+ *
+ * The cubes, the lookup table and the interpolation along the edges
+ * are the same as in {@link MCCube}: expanding the resulting
+ * {@link MCMesh} yields exactly the triangles of
+ * {@link MCCube#getTriangles(Volume, int)}, in the same order.
+ *
+ * Each grid edge that is cut by the surface gets one vertex. Within a
+ * slab, the vertices are looked up in index planes which are reused
+ * from one z layer to the next; the vertices in the plane between two
+ * slabs are merged when the slabs are concatenated.
+ *
+ * The threads read whole planes with {@link Volume#loadPlane}, never
+ * with {@link Volume#load}, whose loaders are not thread safe.
+ */
+public class ParallelMarchingCubes {
+
+	private ParallelMarchingCubes() {}
+
+	/**
+	 * Create a mesh from the specified image data and the given
+	 * isovalue, using all available processors.
+	 */
+	public static MCMesh getMesh(Volume volume, int thresh) {
+		return getMesh(volume, thresh,
+			Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a mesh from the specified image data and the given
+	 * isovalue.
+	 * @param volume
+	 * @param thresh
+	 * @param numThreads the number of threads
+	 */
+	public static MCMesh getMesh(final Volume volume, final int thresh,
+						final int numThreads) {
+		final int w = volume.xDim, h = volume.yDim, d = volume.zDim;
+		final float threshold = thresh + 0.5f;
+
+		// the cubes start at -1 and end at w, h and d, as in MCCube
+		final int nLayers = d + 2;
+		final int nSlabs = Math.max(1, Math.min(nLayers,
+			numThreads == 1 ? 1 : 4 * numThreads));
+		final Slab[] slabs = new Slab[nSlabs];
+		for(int s = 0; s < nSlabs; s++)
+			slabs[s] = new Slab(-1 + (int)((long)s * nLayers / nSlabs),
+				-1 + (int)((long)(s + 1) * nLayers / nSlabs));
+
+		final AtomicInteger nextSlab = new AtomicInteger(0);
+		final AtomicInteger layersDone = new AtomicInteger(0);
+		final Throwable[] error = new Throwable[1];
+
+		Thread[] threads = new Thread[Math.min(numThreads, nSlabs)];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						SlabTriangulator st = new SlabTriangulator(
+							volume, threshold);
+						for(int s = nextSlab.getAndIncrement();
+							s < slabs.length;
+							s = nextSlab.getAndIncrement()) {
+							st.triangulate(slabs[s],
+								layersDone, nLayers);
+						}
+					} catch(Throwable t) {
+						synchronized(error) {
+							if(error[0] == null)
+								error[0] = t;
+						}
+						// stop the other threads
+						nextSlab.set(slabs.length);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		try {
+			for(int i = 0; i < threads.length; i++)
+				threads[i].join();
+		} catch(InterruptedException e) {
+			nextSlab.set(slabs.length);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		IJ.showProgress(1.0);
+
+		if(error[0] instanceof RuntimeException)
+			throw (RuntimeException)error[0];
+		if(error[0] instanceof Error)
+			throw (Error)error[0];
+		if(error[0] != null)
+			throw new RuntimeException(error[0]);
+
+		return merge(slabs, (w + 3) * (h + 3));
+	}
+
+	/**
+	 * Concatenates the slabs, replacing the vertices in the bottom plane
+	 * of each slab by the same vertices in the top plane of the slab
+	 * below.
+	 */
+	private static MCMesh merge(Slab[] slabs, int planeSize) {
+		int[] plane = new int[2 * planeSize];
+		Arrays.fill(plane, -1);
+
+		int nVertices = 0, nIndices = 0;
+		for(int s = 0; s < slabs.length; s++) {
+			Slab slab = slabs[s];
+			int nLocal = slab.coordinates.size / 3;
+			slab.remap = new int[nLocal];
+			Arrays.fill(slab.remap, -1);
+
+			if(s > 0) {
+				Slab below = slabs[s - 1];
+				IntArray top = below.top;
+				for(int i = 0; i < top.size; i += 2)
+					plane[top.data[i]] = below.remap[top.data[i + 1]];
+				IntArray bottom = slab.bottom;
+				for(int i = 0; i < bottom.size; i += 2)
+					slab.remap[bottom.data[i + 1]] = plane[bottom.data[i]];
+				for(int i = 0; i < top.size; i += 2)
+					plane[top.data[i]] = -1;
+			}
+
+			for(int v = 0; v < nLocal; v++)
+				if(slab.remap[v] < 0)
+					slab.remap[v] = nVertices++;
+			nIndices += slab.faces.size;
+		}
+
+		float[] coordinates = new float[3 * nVertices];
+		int[] faces = new int[nIndices];
+		int nextVertex = 0, nextIndex = 0;
+		for(int s = 0; s < slabs.length; s++) {
+			Slab slab = slabs[s];
+			float[] c = slab.coordinates.data;
+			int nLocal = slab.coordinates.size / 3;
+			for(int v = 0; v < nLocal; v++) {
+				// vertices of this slab are numbered consecutively,
+				// except for those shared with the slab below
+				if(slab.remap[v] != nextVertex)
+					continue;
+				coordinates[3 * nextVertex]     = c[3 * v];
+				coordinates[3 * nextVertex + 1] = c[3 * v + 1];
+				coordinates[3 * nextVertex + 2] = c[3 * v + 2];
+				nextVertex++;
+			}
+			int[] f = slab.faces.data;
+			for(int i = 0; i < slab.faces.size; i++)
+				faces[nextIndex++] = slab.remap[f[i]];
+
+			slab.coordinates = null;
+			slab.faces = null;
+			if(s > 0)
+				slabs[s - 1].remap = null;
+		}
+		return new MCMesh(coordinates, faces);
+	}
+
+	/**
+	 * The result of triangulating the cubes with z in [z0, z1).
+	 */
+	private static final class Slab {
+		final int z0, z1;
+		FloatArray coordinates = new FloatArray(3 * 1024);
+		IntArray faces = new IntArray(3 * 1024);
+
+		// pairs of (edge key, vertex) in the planes z0 and z1
+		IntArray bottom = new IntArray(64);
+		IntArray top = new IntArray(64);
+
+		// the global index of each vertex, set when merging
+		int[] remap;
+
+		Slab(int z0, int z1) {
+			this.z0 = z0;
+			this.z1 = z1;
+		}
+	}
+
+	/**
+	 * Triangulates slabs, one at a time. The planes of intensities and
+	 * vertex indices are allocated once per thread.
+	 */
+	private static final class SlabTriangulator {
+		private final Volume volume;
+		private final float threshold;
+		private final int w, h, d;
+
+		// width and height of the planes, from -1 to w + 1 and h + 1
+		private final int planeW, planeH;
+
+		private int[] lowIntensity, highIntensity;
+
+		// index of the vertex on the edge in x and y direction
+		// starting at a grid point in the lower and upper plane,
+		// and on the edge in z direction between them; -1 if unknown
+		private int[] xLow, yLow, xHigh, yHigh, zEdge;
+
+		private final float[] wc = new float[3];
+
+		SlabTriangulator(Volume volume, float threshold) {
+			this.volume = volume;
+			this.threshold = threshold;
+			this.w = volume.xDim;
+			this.h = volume.yDim;
+			this.d = volume.zDim;
+			this.planeW = w + 3;
+			this.planeH = h + 3;
+			int n = planeW * planeH;
+			lowIntensity = new int[n];
+			highIntensity = new int[n];
+			xLow = new int[n];
+			yLow = new int[n];
+			xHigh = new int[n];
+			yHigh = new int[n];
+			zEdge = new int[n];
+		}
+
+		private void loadPlane(int z, int[] intensities) {
+			Arrays.fill(intensities, 0);
+			if(z < 0 || z >= d)
+				return;
+			volume.loadPlane(z, intensities, planeW + 1, planeW);
+		}
+
+		void triangulate(Slab slab, AtomicInteger layersDone,
+							int nLayers) {
+			Arrays.fill(xLow, -1);
+			Arrays.fill(yLow, -1);
+			loadPlane(slab.z0, lowIntensity);
+
+			final int[] faces = MCCube.faces;
+			final float thr = threshold;
+
+			for(int z = slab.z0; z < slab.z1; z++) {
+				loadPlane(z + 1, highIntensity);
+				Arrays.fill(xHigh, -1);
+				Arrays.fill(yHigh, -1);
+				Arrays.fill(zEdge, -1);
+
+				final int[] lo = lowIntensity, hi = highIntensity;
+
+				for(int x = -1; x < w + 1; x++) {
+					for(int y = -1; y < h + 1; y++) {
+						final int i = (y + 1) * planeW + x + 1;
+						final int i0 = lo[i];
+						final int i1 = lo[i + 1];
+						final int i2 = lo[i + 1 + planeW];
+						final int i3 = lo[i + planeW];
+						final int i4 = hi[i];
+						final int i5 = hi[i + 1];
+						final int i6 = hi[i + 1 + planeW];
+						final int i7 = hi[i + planeW];
+
+						int cn = 0;
+						if(i0 - thr > 0) cn |= 1;
+						if(i1 - thr > 0) cn |= 2;
+						if(i2 - thr > 0) cn |= 4;
+						if(i3 - thr > 0) cn |= 8;
+						if(i4 - thr > 0) cn |= 16;
+						if(i5 - thr > 0) cn |= 32;
+						if(i6 - thr > 0) cn |= 64;
+						if(i7 - thr > 0) cn |= 128;
+						if(cn == 0 || cn == 255)
+							continue;
+
+						int offset = cn * 15;
+						for(int t = 0; t < 5; t++, offset += 3) {
+							if(faces[offset] == -1)
+								continue;
+							for(int k = 0; k < 3; k++) {
+								slab.faces.add(vertex(slab,
+									faces[offset + k], x, y, z, i,
+									i0, i1, i2, i3, i4, i5, i6, i7));
+							}
+						}
+					}
+				}
+
+				if(z == slab.z0)
+					collectPlane(xLow, yLow, slab.bottom);
+
+				int[] tmp = lowIntensity;
+				lowIntensity = highIntensity;
+				highIntensity = tmp;
+				tmp = xLow; xLow = xHigh; xHigh = tmp;
+				tmp = yLow; yLow = yHigh; yHigh = tmp;
+
+				IJ.showProgress(layersDone.incrementAndGet(), nLayers);
+			}
+			collectPlane(xLow, yLow, slab.top);
+		}
+
+		private void collectPlane(int[] xPlane, int[] yPlane,
+							IntArray list) {
+			for(int i = 0; i < xPlane.length; i++) {
+				if(xPlane[i] >= 0) {
+					list.add(2 * i);
+					list.add(xPlane[i]);
+				}
+				if(yPlane[i] >= 0) {
+					list.add(2 * i + 1);
+					list.add(yPlane[i]);
+				}
+			}
+		}
+
+		/**
+		 * Returns the index of the vertex on the given edge of the
+		 * cube at x, y, z, which is computed if the edge was not
+		 * visited before. The edges are numbered as in MCCube.
+		 */
+		private int vertex(Slab slab, int edge, int x, int y, int z,
+				int i, int i0, int i1, int i2, int i3,
+				int i4, int i5, int i6, int i7) {
+			int[] plane;
+			int index, gx = x, gy = y, gz = z, axis, a, b;
+			switch(edge) {
+				case 0:  plane = xLow;  index = i;
+					axis = 0; a = i0; b = i1; break;
+				case 1:  plane = yLow;  index = i + 1;      gx++;
+					axis = 1; a = i1; b = i2; break;
+				case 2:  plane = xLow;  index = i + planeW; gy++;
+					axis = 0; a = i3; b = i2; break;
+				case 3:  plane = yLow;  index = i;
+					axis = 1; a = i0; b = i3; break;
+				case 4:  plane = xHigh; index = i;          gz++;
+					axis = 0; a = i4; b = i5; break;
+				case 5:  plane = yHigh; index = i + 1;      gx++; gz++;
+					axis = 1; a = i5; b = i6; break;
+				case 6:  plane = xHigh; index = i + planeW; gy++; gz++;
+					axis = 0; a = i7; b = i6; break;
+				case 7:  plane = yHigh; index = i;          gz++;
+					axis = 1; a = i4; b = i7; break;
+				case 8:  plane = zEdge; index = i;
+					axis = 2; a = i0; b = i4; break;
+				case 9:  plane = zEdge; index = i + 1;      gx++;
+					axis = 2; a = i1; b = i5; break;
+				case 10: plane = zEdge; index = i + planeW; gy++;
+					axis = 2; a = i3; b = i7; break;
+				case 11: plane = zEdge; index = i + 1 + planeW; gx++; gy++;
+					axis = 2; a = i2; b = i6; break;
+				default:
+					throw new IllegalArgumentException(
+						"Invalid edge " + edge);
+			}
+			if(plane[index] >= 0)
+				return plane[index];
+
+			// interpolate from the end point with the lower
+			// intensity, exactly as MCCube.computeEdge() does
+			wc[0] = gx;
+			wc[1] = gy;
+			wc[2] = gz;
+			if(a < b) {
+				float t = (threshold - a) / (float) (b - a);
+				wc[axis] = wc[axis] + t;
+			} else {
+				float t = (threshold - b) / (float) (a - b);
+				wc[axis] = -t + (wc[axis] + 1);
+			}
+
+			int v = slab.coordinates.size / 3;
+			slab.coordinates.add(
+				(float) (wc[0] * volume.pw + volume.minCoord.x));
+			slab.coordinates.add(
+				(float) (wc[1] * volume.ph + volume.minCoord.y));
+			slab.coordinates.add(
+				(float) (wc[2] * volume.pd + volume.minCoord.z));
+			plane[index] = v;
+			return v;
+		}
+	}
+
+	private static final class FloatArray {
+		float[] data;
+		int size = 0;
+
+		FloatArray(int capacity) {
+			data = new float[capacity];
+		}
+
+		void add(float f) {
+			if(size == data.length)
+				data = Arrays.copyOf(data, 2 * data.length);
+			data[size++] = f;
+		}
+	}
+
+	private static final class IntArray {
+		int[] data;
+		int size = 0;
+
+		IntArray(int capacity) {
+			data = new int[capacity];
+		}
+
+		void add(int i) {
+			if(size == data.length)
+				data = Arrays.copyOf(data, 2 * data.length);
+			data[size++] = i;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package marchingcubes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+import ij3d.Volume;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelMarchingCubesTest {
+
+	private static final int W = 40, H = 35, D = 30;
+	private static final int THRESHOLD = 100;
+
+	private static ImagePlus imp;
+
+	/**
+	 * An RGB stack of a few blobs, with different values in each channel,
+	 * so that averaging the channels matters.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		Random rnd = new Random(42);
+		int nBlobs = 6;
+		double[][] blobs = new double[nBlobs][];
+		for(int b = 0; b < nBlobs; b++)
+			blobs[b] = new double[] { rnd.nextDouble() * W,
+				rnd.nextDouble() * H, rnd.nextDouble() * D,
+				4 + rnd.nextDouble() * 6 };
+
+		ImageStack stack = new ImageStack(W, H);
+		for(int z = 0; z < D; z++) {
+			int[] pixels = new int[W * H];
+			for(int y = 0; y < H; y++) {
+				for(int x = 0; x < W; x++) {
+					double v = 0;
+					for(double[] blob : blobs) {
+						double dx = x - blob[0], dy = y - blob[1],
+							dz = z - blob[2];
+						double r2 = dx * dx + dy * dy + dz * dz;
+						v += 255 * Math.exp(-r2 / (blob[3] * blob[3]));
+					}
+					int r = (int)Math.min(255, v);
+					int g = rnd.nextInt(256);
+					int b = (int)Math.min(255, 0.5 * v + rnd.nextInt(64));
+					pixels[y * W + x] = (r << 16) | (g << 8) | b;
+				}
+			}
+			stack.addSlice("", new ColorProcessor(W, H, pixels));
+		}
+		imp = new ImagePlus("blobs", stack);
+	}
+
+	private static Volume averagedVolume() {
+		Volume volume = new Volume(imp);
+		volume.setAverage(true);
+		return volume;
+	}
+
+	@Test
+	public void testLoadPlane() {
+		Volume volume = averagedVolume();
+		int stride = W + 3, offset = 2 * stride + 1;
+		int[] plane = new int[offset + H * stride];
+		for(int z = 0; z < D; z++) {
+			volume.loadPlane(z, plane, offset, stride);
+			for(int y = 0; y < H; y++)
+				for(int x = 0; x < W; x++)
+					assertEquals(volume.load(x, y, z),
+						plane[offset + y * stride + x]);
+		}
+	}
+
+	@Test
+	public void testSameMeshForAnyNumberOfThreads() {
+		Volume volume = averagedVolume();
+		MCMesh expected = ParallelMarchingCubes.getMesh(volume,
+				THRESHOLD, 1);
+		assertTrue(expected.getTriangleCount() > 0);
+
+		for(int numThreads : new int[] { 2, 3, 8 }) {
+			for(int run = 0; run < 5; run++) {
+				MCMesh mesh = ParallelMarchingCubes.getMesh(
+					averagedVolume(), THRESHOLD, numThreads);
+				assertArrayEquals(expected.getFaces(), mesh.getFaces());
+				assertArrayEquals(expected.getCoordinates(),
+					mesh.getCoordinates(), 0f);
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@
 
 
 import archipelago.compute.*;
+import archipelago.data.DataChunk;
 import archipelago.listen.ClusterStateListener;
 import archipelago.listen.NodeStateListener;
 import archipelago.listen.ProcessListener;
@@ -29,32 +30,55 @@ public class Cluster implements ExecutorService, NodeStateListener
     
 
     /**
-     * This is a very dumb scheduler. It attempts to submit the first ProcessManager in its
-     * queue to the first ClusterNode that it finds available. This should work well as long as
-     * all ProcessManagers are more-or-less equals, and all ClusterNodes can accept them as
-     * equally as any other. There is code here that will attempt to recover in the case that
-     * a ProcessManager is rejected, but if this becomes a common occurrence, then this
-     * scheduler should be replaced with something more sophisticated.
+     * Locality-aware, work-stealing scheduler.
+     *
+     * Each ClusterNode has its own deque of jobs. A job whose ProcessManager reports a preferred
+     * node (see archipelago.data.LocalityAware) is queued on that node's deque, while other jobs
+     * go on a shared queue. When a node has a free thread, it is given, in order, a job that is
+     * being re-scheduled, a job from its own deque, a job from the shared queue, or, failing
+     * all of those, a job stolen from the back of the longest deque of another node. This
+     * keeps jobs close to their data while letting fast nodes take work from slow ones.
+     *
+     * Once a few jobs have finished, a node that would otherwise sit idle may also be given a
+     * copy of a job that has been running for much longer than the mean job time. Whichever
+     * copy finishes first is used, and the other one is cancelled, so that a single slow or
+     * overloaded node does not hold up the end of a batch.
+     *
+     * Job timing and queue depth are available from the Cluster, and every change is
+     * announced to the ClusterStateListeners.
      * @author Larry Lindsey
      */
     public class ProcessScheduler extends Thread
     {
-        private final LinkedBlockingQueue<ProcessManager> jobQueue, priorityJobQueue;
+        private final LinkedList<ProcessManager> jobQueue, priorityJobQueue;
+        private final HashMap<Long, LinkedList<ProcessManager>> nodeQueues;
         private final AtomicInteger pollTime;
         private final AtomicBoolean running;
         private final Hashtable<Long, ProcessManager> runningProcesses;
+        private final Hashtable<Long, ProcessManager> speculativeProcesses;
+        private final Hashtable<Long, Long> startTimes;
         private final Vector<ProcessManager<?>> remainingJobList;
         private final int guaranteeCapacity;
+        private double speculationFactor;
+        private long finishedJobs, totalJobTime, lastJobTime, speculativeJobs;
 
         private ProcessScheduler(int jobCapacity, int t)
         {
-            jobQueue = new LinkedBlockingQueue<ProcessManager>();
-            priorityJobQueue = new LinkedBlockingQueue<ProcessManager>();
+            jobQueue = new LinkedList<ProcessManager>();
+            priorityJobQueue = new LinkedList<ProcessManager>();
+            nodeQueues = new HashMap<Long, LinkedList<ProcessManager>>();
             running = new AtomicBoolean(true);
             pollTime = new AtomicInteger(t);
             runningProcesses = new Hashtable<Long, ProcessManager>();
+            speculativeProcesses = new Hashtable<Long, ProcessManager>();
+            startTimes = new Hashtable<Long, Long>();
             remainingJobList = new Vector<ProcessManager<?>>();
             guaranteeCapacity = jobCapacity;
+            speculationFactor = DEFAULT_SPECULATION_FACTOR;
+            finishedJobs = 0;
+            totalJobTime = 0;
+            lastJobTime = 0;
+            speculativeJobs = 0;
         }
         
 
@@ -63,6 +87,17 @@ public void setPollTimeMillis(int t)
             pollTime.set(t);
         }
 
+        /**
+         * Sets how much longer than the mean job time a job must have been running before a
+         * copy of it is started on an idle node.
+         * @param factor the speculation factor. Set to zero or less to disable speculative
+         *               execution.
+         */
+        public synchronized void setSpeculationFactor(double factor)
+        {
+            speculationFactor = factor;
+        }
+
         public synchronized <T> boolean queueJob(Callable<T> c, long id)
         {
             return queueJob(c, id, false);
@@ -76,33 +111,121 @@ public synchronized <T> boolean queueJob(Callable<T> c, long id, boolean priorit
         
         public synchronized boolean queueJob(ProcessManager pm, boolean priority)
         {
-
-            BlockingQueue<ProcessManager> queue = priority ? priorityJobQueue : jobQueue;
-
             // This is done in the event that the ProcessManager in question is being
             // re-queued.
             pm.setRunningOn(null);
 
-            try
+            if (priority)
             {
-                queue.put(pm);
-                return true;
-            } catch (InterruptedException ie)
+                priorityJobQueue.addLast(pm);
+            }
+            else
             {
-                return false;
+                final long preferred = pm.getPreferredNode();
+                if (preferred >= 0 && getNode(preferred) != null)
+                {
+                    getNodeQueue(preferred).addLast(pm);
+                }
+                else
+                {
+                    jobQueue.addLast(pm);
+                }
             }
+
+            notifyAll();
+            return true;
         }
-        
-        private synchronized ClusterNode getFreeNode()
+
+        private LinkedList<ProcessManager> getNodeQueue(long nodeID)
+        {
+            LinkedList<ProcessManager> queue = nodeQueues.get(nodeID);
+            if (queue == null)
+            {
+                queue = new LinkedList<ProcessManager>();
+                nodeQueues.put(nodeID, queue);
+            }
+            return queue;
+        }
+
+        /**
+         * Finds the next job for the given node, which must have a free thread.
+         */
+        private synchronized ProcessManager<?> nextJob(ClusterNode node)
         {
-            for (ClusterNode node : nodes)
+            if (!priorityJobQueue.isEmpty())
             {
-                if (node.numAvailableThreads() > 0)
+                return priorityJobQueue.removeFirst();
+            }
+
+            LinkedList<ProcessManager> queue = nodeQueues.get(node.getID());
+            if (queue != null && !queue.isEmpty())
+            {
+                return queue.removeFirst();
+            }
+
+            if (!jobQueue.isEmpty())
+            {
+                return jobQueue.removeFirst();
+            }
+
+            // Steal from the back of the longest deque, where the jobs that its owner would
+            // only get to last are.
+            LinkedList<ProcessManager> victim = null;
+            for (LinkedList<ProcessManager> q : nodeQueues.values())
+            {
+                if (!q.isEmpty() && (victim == null || q.size() > victim.size()))
+                {
+                    victim = q;
+                }
+            }
+
+            return victim == null ? null : victim.removeLast();
+        }
+
+        /**
+         * Finds a job that has been running for much longer than usual on a node other than
+         * the given one, and returns a copy of it to run on the given node.
+         */
+        private synchronized ProcessManager<?> nextSpeculativeJob(ClusterNode node)
+        {
+            if (speculationFactor <= 0 || finishedJobs < MIN_SPECULATION_SAMPLES)
+            {
+                return null;
+            }
+
+            final long now = System.currentTimeMillis();
+            final double threshold = speculationFactor * totalJobTime / finishedJobs;
+            ProcessManager<?> straggler = null;
+            long longest = 0;
+
+            for (ProcessManager<?> pm : runningProcesses.values())
+            {
+                final Long start = startTimes.get(pm.getID());
+                final long elapsed = start == null ? 0 : now - start;
+                if (elapsed > threshold && elapsed > longest
+                        && pm.getRunningOn() != node.getID()
+                        && pm.getCallable() != null
+                        && !speculativeProcesses.containsKey(pm.getID()))
                 {
-                    return node;
+                    straggler = pm;
+                    longest = elapsed;
                 }
             }
-            return null;
+
+            if (straggler == null)
+            {
+                return null;
+            }
+            else
+            {
+                ProcessManager<?> copy = new ProcessManager(straggler.getCallable(),
+                        straggler.getID());
+                speculativeProcesses.put(copy.getID(), copy);
+                ++speculativeJobs;
+                FijiArchipelago.log("Scheduler: job " + copy.getID() + " has been running for "
+                        + longest + "ms, starting a copy on " + node.getHost());
+                return copy;
+            }
         }
 
         public void start()
@@ -118,86 +241,206 @@ public void run()
         {
             FijiArchipelago.log("Scheduler: Started. Running flag: " + running.get());
 
+            // Clear any interrupt left over from a close() before this thread was started.
+            Thread.interrupted();
+
             while (running.get())
             {
-                ProcessManager<?> pm;
-                ClusterNode node;
+                boolean dispatched = false;
 
-                try
+                for (ClusterNode node : new ArrayList<ClusterNode>(nodes))
                 {
-                    node = getFreeNode();
-                    if (node == null)
+                    if (running.get() && node.isReady() && node.numAvailableThreads() > 0)
                     {
-                        Thread.sleep(pollTime.get());
+                        ProcessManager<?> pm = nextJob(node);
+                        if (pm != null)
+                        {
+                            dispatch(pm, node, false);
+                            dispatched = true;
+                        }
+                        else
+                        {
+                            pm = nextSpeculativeJob(node);
+                            if (pm != null)
+                            {
+                                dispatch(pm, node, true);
+                                dispatched = true;
+                            }
+                        }
                     }
-
-                }
-                catch (InterruptedException ie)
-                {
-                    FijiArchipelago.log("Scheduler interrupted while sleeping, stopping.");
-                    running.set(false);
-                    node = null;
                 }
 
-                if (node != null)
+                if (!dispatched)
                 {
-
                     try
                     {
-                        pm = jobQueue.poll(pollTime.get(), TimeUnit.MILLISECONDS);
+                        synchronized (this)
+                        {
+                            wait(pollTime.get());
+                        }
                     }
                     catch (InterruptedException ie)
                     {
                         FijiArchipelago.log("Scheduler interrupted while waiting for jobs, stopping.");
                         running.set(false);
-                        pm = null;
                     }
+                }
+            }
+            FijiArchipelago.log("Scheduler exited");
+        }
 
-                    if (pm != null)
-                    {
-                        ProcessListener listener = new ProcessListener() {
-                            public boolean processFinished(ProcessManager<?> process) {
-                                final long id = process.getID();
-                                final ArchipelagoFuture<?> future = futures.remove(id);
-
-                                runningProcesses.remove(id);
-                                decrementJobCount();
-                                
-                                try
-                                {
-                                    FijiArchipelago.debug("Scheduler: Finishing Future " + future.getID());
-                                    future.finish(process);
-                                    return true;
-                                }
-                                catch (ClassCastException cce)
-                                {
-                                    return false;
-                                }
-                            }
-                        };
+        private void dispatch(final ProcessManager<?> pm, final ClusterNode node,
+                              final boolean speculative)
+        {
+            final long id = pm.getID();
 
-                        /*
-                        Here, we have a ProcessManager, a ProcessListener, and a ClusterNode.
-                        The PM has been removed from the queue already.
-                        If we successfully submit it on a ClusterNode, we're done. If that didn't
-                        work, we push it back onto the priority queue. Unless we're awash in
-                        closed ClusterNodes, scheduling should be re-attempted later.
-                         */
+            ProcessListener listener = new ProcessListener() {
+                public boolean processFinished(ProcessManager<?> process) {
+                    return finishJob(process, node);
+                }
+            };
 
-                        if (node.submit(pm, listener))
-                        {
-                            runningProcesses.put(pm.getID(), pm);
-                            incrementJobCount();
-                        }
-                        else
-                        {
-                            queueJob(pm, true);
-                        }
+            if (!speculative)
+            {
+                runningProcesses.put(id, pm);
+                startTimes.put(id, System.currentTimeMillis());
+            }
 
-                    }
+            /*
+            If we successfully submit the ProcessManager on the ClusterNode, we're done. If that
+            didn't work, we push it back onto the priority queue. Unless we're awash in closed
+            ClusterNodes, scheduling should be re-attempted later. A speculative copy is simply
+            dropped, since the original is still running.
+             */
+            if (node.submit(pm, listener))
+            {
+                if (!speculative)
+                {
+                    incrementJobCount();
                 }
             }
-            FijiArchipelago.log("Scheduler exited");
+            else if (speculative)
+            {
+                speculativeProcesses.remove(id);
+            }
+            else
+            {
+                runningProcesses.remove(id);
+                startTimes.remove(id);
+                queueJob(pm, true);
+            }
+        }
+
+        private boolean finishJob(final ProcessManager<?> process, final ClusterNode node)
+        {
+            final long id = process.getID();
+            final ArchipelagoFuture<?> future;
+            ClusterNode otherNode = null;
+
+            synchronized (this)
+            {
+                future = futures.remove(id);
+
+                if (future == null)
+                {
+                    // The other copy of a speculatively executed job finished first, or the
+                    // job was cancelled.
+                    FijiArchipelago.debug("Scheduler: Discarding late result for job " + id);
+                    return true;
+                }
+
+                final ProcessManager<?> original = runningProcesses.remove(id);
+                final ProcessManager<?> copy = speculativeProcesses.remove(id);
+                final Long start = startTimes.remove(id);
+
+                if (start != null)
+                {
+                    lastJobTime = System.currentTimeMillis() - start;
+                    totalJobTime += lastJobTime;
+                    ++finishedJobs;
+                }
+
+                if (copy != null && original != null)
+                {
+                    otherNode = getNode(original.getRunningOn() == node.getID() ?
+                            copy.getRunningOn() : original.getRunningOn());
+                }
+
+                // The node that produced a result chunk is the best place to process it next.
+                if (process.getOutput() instanceof DataChunk)
+                {
+                    ((DataChunk<?>)process.getOutput()).setPreferredNode(node.getID());
+                }
+
+                notifyAll();
+            }
+
+            if (otherNode != null)
+            {
+                otherNode.cancelJob(id);
+            }
+
+            decrementJobCount();
+
+            try
+            {
+                FijiArchipelago.debug("Scheduler: Finishing Future " + future.getID());
+                future.finish(process);
+                return true;
+            }
+            catch (ClassCastException cce)
+            {
+                return false;
+            }
+        }
+
+        /**
+         * Called when a ClusterNode stops. Jobs that were queued for the node are moved to the
+         * shared queue, and jobs that were running on it are re-queued, unless a copy of them
+         * is still running elsewhere.
+         * @param node the ClusterNode that stopped
+         * @return the ProcessManagers that were re-queued
+         */
+        public synchronized List<ProcessManager<?>> nodeStopped(ClusterNode node)
+        {
+            final ArrayList<ProcessManager<?>> requeued = new ArrayList<ProcessManager<?>>();
+            final LinkedList<ProcessManager> queue = nodeQueues.remove(node.getID());
+
+            if (queue != null)
+            {
+                jobQueue.addAll(queue);
+            }
+
+            for (ProcessManager<?> pm : node.getRunningProcesses())
+            {
+                final long id = pm.getID();
+                final ProcessManager<?> copy = speculativeProcesses.get(id);
+                final ProcessManager<?> original = runningProcesses.get(id);
+
+                if (copy != null && copy.getRunningOn() != node.getID())
+                {
+                    // The copy becomes the original
+                    speculativeProcesses.remove(id);
+                    runningProcesses.put(id, copy);
+                }
+                else if (copy != null)
+                {
+                    // We lost a copy, but the original is still running.
+                    speculativeProcesses.remove(id);
+                }
+                else if (original != null)
+                {
+                    runningProcesses.remove(id);
+                    startTimes.remove(id);
+                    FijiArchipelago.debug("Rescheduling job " + id);
+                    queueJob(original, true);
+                    requeued.add(original);
+                    decrementJobCount();
+                }
+            }
+
+            notifyAll();
+            return requeued;
         }
 
         public synchronized void setActive(boolean active)
@@ -215,58 +458,16 @@ public synchronized void setActive(boolean active)
          */
         public synchronized boolean cancelJob(long id, boolean force)
         {
-            final ArrayList<ProcessManager> pmInQ = new ArrayList<ProcessManager>();
-            boolean cont = true;
-
-            // These for loops look funny because we're running concurrently
-
-            for (ProcessManager pm : priorityJobQueue)
-            {
-                pmInQ.add(pm);
-            }
-            
-            for (int i = 0; cont && i < pmInQ.size(); ++i)
-            {
-                final ProcessManager pm = pmInQ.get(i);
-                if (pm.getID() == id)
-                {
-                    /*
-                    It is very possible that we popped the ProcessManager in question off
-                    of the queue and submitted it to a node in between copying the job queue
-                    into pmInQ and finding the correct ProcessManager.
-
-                    This handles that potential case.
-                     */
-                    if(priorityJobQueue.remove(pm))
-                    {
-                        return true;
-                    }
-                    else
-                    {
-                        cont = false;
-                    }
-                }
-            }
-            
-            pmInQ.clear();
-            for (ProcessManager pm : jobQueue)
+            if (removeQueued(priorityJobQueue, id) || removeQueued(jobQueue, id))
             {
-                pmInQ.add(pm);
+                return true;
             }
 
-            for (int i = 0; cont && i < pmInQ.size(); ++i)
+            for (LinkedList<ProcessManager> queue : nodeQueues.values())
             {
-                final ProcessManager pm = pmInQ.get(i);
-                if (pm.getID() == id)
+                if (removeQueued(queue, id))
                 {
-                    if(jobQueue.remove(pm))
-                    {
-                        return true;
-                    }
-                    else
-                    {
-                        cont = false;
-                    }
+                    return true;
                 }
             }
 
@@ -283,7 +484,17 @@ public synchronized boolean cancelJob(long id, boolean force)
                 {
                     if (runningOn.cancelJob(id))
                     {
+                        final ProcessManager<?> copy = speculativeProcesses.remove(id);
+                        final ClusterNode copyOn = copy == null ? null :
+                                getNode(copy.getRunningOn());
+                        if (copyOn != null)
+                        {
+                            copyOn.cancelJob(id);
+                        }
+
                         runningProcesses.remove(id);
+                        startTimes.remove(id);
+                        futures.remove(id);
                         decrementJobCount();
                         return true;
 
@@ -319,6 +530,20 @@ public synchronized boolean cancelJob(long id, boolean force)
                 return false;
             }
         }
+
+        private boolean removeQueued(LinkedList<ProcessManager> queue, long id)
+        {
+            Iterator<ProcessManager> it = queue.iterator();
+            while (it.hasNext())
+            {
+                if (it.next().getID() == id)
+                {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
         
         public Vector<ProcessManager<?>> remainingJobs()
         {
@@ -332,13 +557,14 @@ public synchronized void close()
             
             remainingJobList.clear();
 
-            for (ProcessManager pm : priorityJobQueue)
+            final ArrayList<ProcessManager> queued = new ArrayList<ProcessManager>(priorityJobQueue);
+            queued.addAll(jobQueue);
+            for (LinkedList<ProcessManager> queue : nodeQueues.values())
             {
-                remainingJobList.add(pm);
-                futures.get(pm.getID()).cancel(false);
+                queued.addAll(queue);
             }
-            
-            for (ProcessManager pm : jobQueue)
+
+            for (ProcessManager pm : queued)
             {
                 remainingJobList.add(pm);
                 futures.get(pm.getID()).cancel(false);
@@ -346,16 +572,58 @@ public synchronized void close()
 
             priorityJobQueue.clear();
             jobQueue.clear();
+            nodeQueues.clear();
         }
         
-        public int queuedJobCount()
+        public synchronized int queuedJobCount()
+        {
+            int n = priorityJobQueue.size() + jobQueue.size();
+            for (LinkedList<ProcessManager> queue : nodeQueues.values())
+            {
+                n += queue.size();
+            }
+            return n;
+        }
+
+        /**
+         * Returns the number of jobs that are queued for the given node because of their
+         * locality hints. These may still be stolen by other nodes.
+         * @param node a ClusterNode
+         * @return the depth of the node's queue.
+         */
+        public synchronized int queuedJobCount(ClusterNode node)
+        {
+            LinkedList<ProcessManager> queue = nodeQueues.get(node.getID());
+            return queue == null ? 0 : queue.size();
+        }
+
+        public synchronized long finishedJobCount()
+        {
+            return finishedJobs;
+        }
+
+        public synchronized long meanJobTime()
+        {
+            return finishedJobs == 0 ? 0 : totalJobTime / finishedJobs;
+        }
+
+        public synchronized long lastJobTime()
+        {
+            return lastJobTime;
+        }
+
+        public synchronized long speculativeJobCount()
         {
-            return priorityJobQueue.size() + jobQueue.size();
+            return speculativeJobs;
         }
 
     }
 
     public static final int DEFAULT_PORT = 3501;
+    /** A job is re-executed elsewhere once it runs this many times longer than the mean. */
+    public static final double DEFAULT_SPECULATION_FACTOR = 3;
+    /** Number of jobs that must have finished before any job is re-executed. */
+    public static final int MIN_SPECULATION_SAMPLES = 8;
     private static Cluster cluster = null;    
 
     public static boolean initCluster(int port)
@@ -558,10 +826,8 @@ public synchronized void stateChanged(ClusterNode node, ClusterNodeState stateNo
 
                 FijiArchipelago.debug("Got state change to stopped for " + node.getHost());
 
-                for (ProcessManager<?> pm : node.getRunningProcesses())
+                for (ProcessManager<?> pm : scheduler.nodeStopped(node))
                 {
-                    FijiArchipelago.debug("Rescheduling job " + pm.getID());
-                    scheduler.queueJob(pm, true);
                     if (isShutdown())
                     {
                         FijiArchipelago.debug("Cancelling running job " + pm.getID());
@@ -749,6 +1015,41 @@ public int getQueuedJobCount()
     {
         return scheduler.queuedJobCount();
     }
+
+    public int getQueuedJobCount(ClusterNode node)
+    {
+        return scheduler.queuedJobCount(node);
+    }
+
+    public long getFinishedJobCount()
+    {
+        return scheduler.finishedJobCount();
+    }
+
+    /**
+     * Returns the mean wall-clock time, in milliseconds, from submitting a job to a node until
+     * its result came back, over all of the jobs that have finished so far.
+     * @return the mean job time in milliseconds.
+     */
+    public long getMeanJobTime()
+    {
+        return scheduler.meanJobTime();
+    }
+
+    public long getLastJobTime()
+    {
+        return scheduler.lastJobTime();
+    }
+
+    public long getSpeculativeJobCount()
+    {
+        return scheduler.speculativeJobCount();
+    }
+
+    public void setSpeculationFactor(double factor)
+    {
+        scheduler.setSpeculationFactor(factor);
+    }
     
     public synchronized void shutdown()
     {
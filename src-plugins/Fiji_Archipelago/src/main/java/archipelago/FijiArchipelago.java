@@ -22,17 +22,18 @@
     private static class ClusterStateUpdater implements ClusterStateListener
     {
         private final Frame stopFrame;
-        private final Label nodeCount, jobCount, queuedCount, state;
+        private final Label nodeCount, jobCount, queuedCount, jobTime, state;
         
         public ClusterStateUpdater()
         {
             final Button stopButton = new Button("Stop Cluster");
 
             stopFrame = new Frame("Cluster is Running");            
-            stopFrame.setLayout(new GridLayout(5,1));
+            stopFrame.setLayout(new GridLayout(6,1));
             nodeCount = new Label();
             jobCount = new Label();
             queuedCount = new Label();
+            jobTime = new Label();
             state = new Label();
             
             stopButton.addActionListener(new ActionListener() {
@@ -51,6 +52,7 @@ public void actionPerformed(ActionEvent actionEvent) {
             stopFrame.add(nodeCount);
             stopFrame.add(queuedCount);
             stopFrame.add(jobCount);
+            stopFrame.add(jobTime);
             stopFrame.add(stopButton);
 
             stopFrame.setSize(new Dimension(256, 256));
@@ -78,6 +80,9 @@ else if (cluster.isTerminated())
             jobCount.setText("Running jobs: " + cluster.getRunningJobCount());
             queuedCount.setText("Queued jobs: " + cluster.getQueuedJobCount());
             nodeCount.setText("Running Nodes: " + cluster.getRunningNodeCount());
+            jobTime.setText("Mean job time: " + cluster.getMeanJobTime() + "ms ("
+                    + cluster.getFinishedJobCount() + " done, "
+                    + cluster.getSpeculativeJobCount() + " re-run)");
 
             stopFrame.repaint();
         }
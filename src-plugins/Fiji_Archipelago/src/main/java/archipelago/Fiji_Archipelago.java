@@ -1,5 +1,6 @@
 package archipelago;
 
+import archipelago.network.SimulatedLink;
 import archipelago.network.client.ArchipelagoClient;
 import archipelago.util.PrintStreamLogger;
 import ij.plugin.PlugIn;
@@ -30,13 +31,17 @@ public static void main(String[] args) throws IOException, InterruptedException
         System.out.println("Fiji Archipelago main called");
         
         
-        if (args.length == 3)
+        if (args.length == 3 || args.length == 5)
         {
             Socket s;
             ArchipelagoClient client;
             String host = args[0];
             int port = Integer.parseInt(args[1]);
             long id = Long.parseLong(args[2]);
+            // Optional latency and bandwidth, used by LocalNodeShell to simulate a network.
+            SimulatedLink link = args.length == 5 ?
+                    new SimulatedLink(Long.parseLong(args[3]), Long.parseLong(args[4])) :
+                    new SimulatedLink(0, 0);
 
             FijiArchipelago.setDebugLogger(new PrintStreamLogger());
             FijiArchipelago.setErrorLogger(new PrintStreamLogger());
@@ -44,7 +49,8 @@ public static void main(String[] args) throws IOException, InterruptedException
 
             s = new Socket(host, port);
             
-            client = new ArchipelagoClient(id, host, s.getInputStream(), s.getOutputStream());
+            client = new ArchipelagoClient(id, host, link.wrap(s.getInputStream()),
+                    link.wrap(s.getOutputStream()));
             
             while (client.isActive())
             {
@@ -55,7 +61,7 @@ public static void main(String[] args) throws IOException, InterruptedException
         }
         else
         {
-            System.err.println("Usage: Fiji_Archipelago host port ID");
+            System.err.println("Usage: Fiji_Archipelago host port ID [latency_ms bytes_per_second]");
         }
 
 
@@ -1,5 +1,6 @@
 package archipelago.compute;
 
+import archipelago.data.LocalityAware;
 import archipelago.network.node.ClusterNode;
 
 import java.io.Serializable;
@@ -62,6 +63,17 @@ public T getOutput()
         return output;
     }
     
+    /**
+     * Returns the id of the ClusterNode that this ProcessManager should preferably run on, if
+     * its Callable implements LocalityAware.
+     * @return a ClusterNode id, or -1 if there is no preference.
+     */
+    public long getPreferredNode()
+    {
+        return callable instanceof LocalityAware ?
+                ((LocalityAware)callable).getPreferredNode() : -1;
+    }
+
     public Callable<T> getCallable()
     {
         return callable;
@@ -9,17 +9,19 @@
  * @author Larry Lindsey
  */
 
-public abstract class DataChunk<T> implements Serializable
+public abstract class DataChunk<T> implements Serializable, LocalityAware
 {
     
     private long lastOn;
     private long lastTime = -1;
     private long id;
     private final int mark;
+    private long preferredNode;
 
     public DataChunk()
     {
         lastOn = -1;
+        preferredNode = -1;
         id = FijiArchipelago.getUniqueID();
         mark = 0;
     }
@@ -27,6 +29,8 @@ public DataChunk()
     public DataChunk(DataChunk chunk)
     {
         lastOn = -1;
+        // A chunk derived from another one is likely to live where its parent was processed.
+        preferredNode = chunk.getPreferredNode();
         id = chunk.id;
         mark = chunk.mark + 1;
     }
@@ -47,6 +51,26 @@ public long lastProcessedOn()
     {
         return lastOn;
     }
+
+    /**
+     * Sets the id of the ClusterNode that holds, or has cached, the data for this chunk.
+     * @param nodeID a ClusterNode id, or -1 for no preference.
+     */
+    public void setPreferredNode(long nodeID)
+    {
+        preferredNode = nodeID;
+    }
+
+    /**
+     * Returns the id of the ClusterNode that this chunk should preferably be processed on. This
+     * is the node set by setPreferredNode(), or if there is none, the node that this chunk was
+     * last processed on.
+     * @return a ClusterNode id, or -1 if there is no preference.
+     */
+    public long getPreferredNode()
+    {
+        return preferredNode >= 0 ? preferredNode : lastOn;
+    }
     
     /**
      * Returns the data contained in this DataChunk, or null if that is
@@ -21,6 +21,18 @@ public FileChunk(String path)
         fileName = FijiArchipelago.truncateFileRoot(f.getAbsolutePath());
     }
     
+    /**
+     * Creates a FileChunk for a file that is cheaper to read on the given node, for instance
+     * because it lives on that node's local disk.
+     * @param path the path to the file
+     * @param nodeID the id of the ClusterNode that holds the file.
+     */
+    public FileChunk(String path, long nodeID)
+    {
+        this(path);
+        setPreferredNode(nodeID);
+    }
+
     public FileChunk(String path, DataChunk oldChunk)
     {
         super(oldChunk);
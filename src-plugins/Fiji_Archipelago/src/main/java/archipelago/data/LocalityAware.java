@@ -0,0 +1,19 @@
+package archipelago.data;
+
+/**
+ * Implemented by objects whose data is cheaper to process on one particular ClusterNode, for
+ * instance because that node produced it, or holds it on a local disk or in a cache. A
+ * Callable that is submitted to the Cluster and implements this interface is queued for its
+ * preferred node first, and only runs elsewhere if another node runs out of work.
+ *
+ * DataChunk implements this interface, so a Callable that works on a single chunk may simply
+ * return its chunk's preferred node.
+ */
+public interface LocalityAware
+{
+    /**
+     * Returns the id of the ClusterNode that should preferably process this object.
+     * @return a ClusterNode id, or -1 if there is no preference.
+     */
+    public long getPreferredNode();
+}
@@ -0,0 +1,134 @@
+package archipelago.example;
+
+import archipelago.Cluster;
+import archipelago.FijiArchipelago;
+import archipelago.listen.ShellExecListener;
+import archipelago.network.node.NodeManager;
+import archipelago.network.shell.LocalNodeShell;
+import archipelago.util.NullLogger;
+import archipelago.util.PrintStreamLogger;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FloatArray2DSIFT;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Runs Cluster_SIFT over a directory of images, on a Cluster made of nodes on the local
+ * machine, and reports how long it took. This makes it possible to load-test the scheduler
+ * and the transport without a real cluster, by varying the number of nodes, their threads,
+ * and the latency and bandwidth of the simulated network between them.
+ *
+ * Usage: Local_Cluster_Benchmark directory [nodes [threads [latency_ms [bytes_per_second
+ *  [jvm]]]]]
+ *
+ * The directory becomes the cluster file root. Pass "jvm" as the last argument to start each
+ * node in a JVM of its own, instead of in this one.
+ */
+public class Local_Cluster_Benchmark
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: Local_Cluster_Benchmark directory [nodes [threads"
+                    + " [latency_ms [bytes_per_second [jvm]]]]]");
+            System.exit(1);
+        }
+
+        final File dir = new File(args[0]);
+        final int numNodes = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        final long latency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        final long bandwidth = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        final boolean jvm = args.length > 5 && args[5].equals("jvm");
+
+        final String[] names = dir.list();
+        final ArrayList<String> fileNames = new ArrayList<String>();
+
+        if (names == null)
+        {
+            System.err.println("Not a directory: " + dir);
+            System.exit(1);
+        }
+
+        Arrays.sort(names);
+        for (String name : names)
+        {
+            File f = new File(dir, name);
+            if (f.isFile() && !f.isHidden())
+            {
+                fileNames.add(f.getAbsolutePath());
+            }
+        }
+
+        FijiArchipelago.setInfoLogger(new PrintStreamLogger());
+        FijiArchipelago.setErrorLogger(new PrintStreamLogger(System.err));
+        FijiArchipelago.setDebugLogger(new NullLogger());
+        FijiArchipelago.setFileRoot(dir.getAbsolutePath());
+
+        Cluster.initCluster(Cluster.DEFAULT_PORT);
+        final Cluster cluster = Cluster.getCluster();
+        final NodeManager nodeManager = cluster.getNodeManager();
+        final ShellExecListener listener = new ShellExecListener() {
+            public void execFinished(long nodeID, Exception e)
+            {
+                if (e != null)
+                {
+                    FijiArchipelago.log("Local node " + nodeID + " exited with " + e);
+                }
+            }
+        };
+
+        nodeManager.setStdShell(new LocalNodeShell(jvm, latency, bandwidth));
+        nodeManager.setStdFileRoot(dir.getAbsolutePath());
+        nodeManager.setStdUser(System.getProperty("user.name"));
+
+        if (!cluster.startServer())
+        {
+            System.err.println("Could not start the cluster server");
+            System.exit(1);
+        }
+
+        for (int i = 0; i < numNodes; ++i)
+        {
+            NodeManager.NodeParameters param = nodeManager.newParam("localhost");
+            param.setNumThreads(numThreads);
+            cluster.startNode(param, listener);
+        }
+
+        // Wait for all of the nodes, not just the first one.
+        cluster.waitUntilReady(60000);
+        for (int i = 0; i < 600 && cluster.countReadyNodes() < numNodes; ++i)
+        {
+            Thread.sleep(100);
+        }
+
+        FijiArchipelago.log("Benchmark: " + fileNames.size() + " images, "
+                + cluster.countReadyNodes() + " nodes with " + numThreads + " threads each, "
+                + latency + "ms latency, "
+                + (bandwidth > 0 ? bandwidth + " bytes/s" : "unlimited bandwidth")
+                + (jvm ? ", separate JVMs" : ", in process"));
+
+        final long sTime = System.currentTimeMillis();
+        final ArrayList<ArrayList<Feature>> features =
+                Cluster_SIFT.clusterSIFTExtraction(fileNames, new FloatArray2DSIFT.Param());
+        final long time = System.currentTimeMillis() - sTime;
+
+        int numFeatures = 0;
+        for (ArrayList<Feature> f : features)
+        {
+            numFeatures += f == null ? 0 : f.size();
+        }
+
+        FijiArchipelago.log("Benchmark: extracted " + numFeatures + " features in " + time
+                + "ms, " + (fileNames.size() * 1000f / time) + " images/s");
+        FijiArchipelago.log("Benchmark: mean job time " + cluster.getMeanJobTime() + "ms over "
+                + cluster.getFinishedJobCount() + " jobs, "
+                + cluster.getSpeculativeJobCount() + " speculatively re-run");
+
+        cluster.shutdown();
+        System.exit(0);
+    }
+}
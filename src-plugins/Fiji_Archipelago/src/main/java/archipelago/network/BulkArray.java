@@ -0,0 +1,248 @@
+package archipelago.network;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A primitive array that is sent or received as raw bytes, in chunks, by MessageXC.
+ * The array is never copied as a whole: chunks are moved directly between the array and a
+ * ByteBuffer of at most one chunk's size.
+ */
+class BulkArray
+{
+    public static final byte BYTE = 0, SHORT = 1, INT = 2, FLOAT = 3, DOUBLE = 4, LONG = 5, CHAR = 6;
+
+    private final Object array;
+    private final byte type;
+    private final int length, elementSize;
+    private final long numBytes;
+    private long position;
+
+    public BulkArray(final byte type, final int length)
+    {
+        this(type, allocate(type, length));
+    }
+
+    public BulkArray(final Object array)
+    {
+        this(typeOf(array), array);
+    }
+
+    private BulkArray(final byte type, final Object array)
+    {
+        this.array = array;
+        this.type = type;
+        length = java.lang.reflect.Array.getLength(array);
+        elementSize = elementSize(type);
+        numBytes = (long)length * elementSize;
+        position = 0;
+    }
+
+    public Object getArray()
+    {
+        return array;
+    }
+
+    public byte getType()
+    {
+        return type;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public long getNumBytes()
+    {
+        return numBytes;
+    }
+
+    public boolean isDone()
+    {
+        return position >= numBytes;
+    }
+
+    /**
+     * Copies the next chunk of the array into the given buffer, which is cleared first.
+     * The buffer's capacity must be a multiple of 8, so that chunks always end on an element
+     * boundary.
+     * @param buffer the buffer to fill. On return, it is flipped and ready to be read.
+     */
+    public void get(final ByteBuffer buffer)
+    {
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        final int n = (int)Math.min(buffer.capacity(), numBytes - position) / elementSize;
+        final int offset = (int)(position / elementSize);
+
+        switch (type)
+        {
+            case BYTE:
+                buffer.put((byte[])array, offset, n);
+                break;
+            case SHORT:
+                buffer.asShortBuffer().put((short[])array, offset, n);
+                break;
+            case CHAR:
+                buffer.asCharBuffer().put((char[])array, offset, n);
+                break;
+            case INT:
+                buffer.asIntBuffer().put((int[])array, offset, n);
+                break;
+            case FLOAT:
+                buffer.asFloatBuffer().put((float[])array, offset, n);
+                break;
+            case LONG:
+                buffer.asLongBuffer().put((long[])array, offset, n);
+                break;
+            case DOUBLE:
+                buffer.asDoubleBuffer().put((double[])array, offset, n);
+                break;
+        }
+
+        buffer.position(n * elementSize);
+        buffer.flip();
+        position += n * elementSize;
+    }
+
+    /**
+     * Copies the contents of the given buffer, from its position to its limit, into the next
+     * part of the array.
+     * @param buffer a buffer holding a chunk that was produced by get() on the sending side.
+     */
+    public void put(final ByteBuffer buffer)
+    {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        final int n = buffer.remaining() / elementSize;
+        final int offset = (int)(position / elementSize);
+
+        if (position + n * elementSize > numBytes)
+        {
+            throw new IllegalStateException("Received more data than expected for bulk array");
+        }
+
+        switch (type)
+        {
+            case BYTE:
+                buffer.get((byte[])array, offset, n);
+                break;
+            case SHORT:
+                buffer.asShortBuffer().get((short[])array, offset, n);
+                break;
+            case CHAR:
+                buffer.asCharBuffer().get((char[])array, offset, n);
+                break;
+            case INT:
+                buffer.asIntBuffer().get((int[])array, offset, n);
+                break;
+            case FLOAT:
+                buffer.asFloatBuffer().get((float[])array, offset, n);
+                break;
+            case LONG:
+                buffer.asLongBuffer().get((long[])array, offset, n);
+                break;
+            case DOUBLE:
+                buffer.asDoubleBuffer().get((double[])array, offset, n);
+                break;
+        }
+
+        position += n * elementSize;
+    }
+
+    /**
+     * Returns the number of bytes taken by the given object if it is a primitive array that
+     * BulkArray can handle, or -1 otherwise.
+     */
+    public static long bulkSize(final Object o)
+    {
+        if (o == null || !o.getClass().isArray() || !o.getClass().getComponentType().isPrimitive()
+                || o instanceof boolean[])
+        {
+            return -1;
+        }
+        else
+        {
+            return (long)java.lang.reflect.Array.getLength(o) * elementSize(typeOf(o));
+        }
+    }
+
+    private static byte typeOf(final Object array)
+    {
+        if (array instanceof byte[])
+        {
+            return BYTE;
+        }
+        else if (array instanceof short[])
+        {
+            return SHORT;
+        }
+        else if (array instanceof char[])
+        {
+            return CHAR;
+        }
+        else if (array instanceof int[])
+        {
+            return INT;
+        }
+        else if (array instanceof float[])
+        {
+            return FLOAT;
+        }
+        else if (array instanceof long[])
+        {
+            return LONG;
+        }
+        else if (array instanceof double[])
+        {
+            return DOUBLE;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Not a supported primitive array: " + array);
+        }
+    }
+
+    private static int elementSize(final byte type)
+    {
+        switch (type)
+        {
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown bulk array type " + type);
+        }
+    }
+
+    private static Object allocate(final byte type, final int length)
+    {
+        switch (type)
+        {
+            case BYTE:
+                return new byte[length];
+            case SHORT:
+                return new short[length];
+            case CHAR:
+                return new char[length];
+            case INT:
+                return new int[length];
+            case FLOAT:
+                return new float[length];
+            case LONG:
+                return new long[length];
+            case DOUBLE:
+                return new double[length];
+            default:
+                throw new IllegalArgumentException("Unknown bulk array type " + type);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package archipelago.network;
+
+import java.io.Serializable;
+
+/**
+ * Placeholder written into a serialized ClusterMessage in place of a large primitive array.
+ * The array itself is sent by MessageXC as raw data frames on its own stream, and is swapped
+ * back in for this reference on the receiving side.
+ */
+class BulkReference implements Serializable
+{
+    public final int streamId;
+
+    public BulkReference(final int id)
+    {
+        streamId = id;
+    }
+}
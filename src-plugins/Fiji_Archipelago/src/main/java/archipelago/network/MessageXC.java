@@ -1,21 +1,152 @@
 package archipelago.network;
 
 import archipelago.FijiArchipelago;
+import archipelago.compute.ProcessManager;
 import archipelago.data.ClusterMessage;
 import archipelago.listen.TransceiverListener;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Message transciever class
+ *
+ * Messages are sent as frames over a single connection. Each frame carries a stream id, a
+ * frame type, some flags and a length, followed by the payload. A ClusterMessage is serialized
+ * into a single message frame, except for primitive arrays larger than BULK_THRESHOLD bytes
+ * (the pixels of a FloatProcessorChunk, for instance), which are taken out of the serialized
+ * object graph and sent as raw data on their own stream, in chunks of CHUNK_SIZE bytes. The
+ * chunks of all pending transfers are interleaved with each other and with small messages,
+ * so that a large transfer never holds up control messages like ping or cancel.
+ *
+ * Note that, as a consequence, a small message may overtake a large one that was queued
+ * before it, unless both concern the same job: a message that carries a ProcessManager, or a
+ * cancel message for its id, is held back until the bulk data of the messages queued before it
+ * for that job has been sent. A cancel therefore never arrives before the process it cancels.
  */
 public class MessageXC
 {
 
+    /**
+     * ObjectOutputStream that replaces large primitive arrays by a BulkReference, and collects
+     * them to be sent separately.
+     */
+    private class BulkObjectOutputStream extends ObjectOutputStream
+    {
+        private final ArrayList<BulkArray> arrays = new ArrayList<BulkArray>();
+        private final ArrayList<Integer> ids = new ArrayList<Integer>();
+
+        public BulkObjectOutputStream(OutputStream os) throws IOException
+        {
+            super(os);
+            enableReplaceObject(true);
+        }
+
+        protected Object replaceObject(Object o)
+        {
+            if (BulkArray.bulkSize(o) > BULK_THRESHOLD)
+            {
+                int id = nextStreamId();
+                arrays.add(new BulkArray(o));
+                ids.add(id);
+                return new BulkReference(id);
+            }
+            else
+            {
+                return o;
+            }
+        }
+    }
+
+    /**
+     * ObjectInputStream that swaps received bulk arrays back in for their BulkReference.
+     */
+    private class BulkObjectInputStream extends ObjectInputStream
+    {
+        public BulkObjectInputStream(InputStream is) throws IOException
+        {
+            super(is);
+            enableResolveObject(true);
+        }
+
+        protected Object resolveObject(Object o) throws IOException
+        {
+            if (o instanceof BulkReference)
+            {
+                BulkArray array = incoming.remove(((BulkReference)o).streamId);
+                if (array == null || !array.isDone())
+                {
+                    throw new StreamCorruptedException("Bulk data for stream "
+                            + ((BulkReference)o).streamId + " is missing or incomplete");
+                }
+                return array.getArray();
+            }
+            else
+            {
+                return o;
+            }
+        }
+    }
+
+    /**
+     * A message whose bulk arrays are still being sent.
+     */
+    private class Transfer
+    {
+        private final byte[] message;
+        private final ArrayList<BulkArray> arrays;
+        private final ArrayList<Integer> ids;
+        private final Long jobId;
+        /** Messages for the same job, to be sent once this transfer is complete. */
+        private final ArrayList<ClusterMessage> held;
+        private int current;
+
+        public Transfer(byte[] message, ArrayList<BulkArray> arrays, ArrayList<Integer> ids,
+                        Long jobId)
+        {
+            this.message = message;
+            this.arrays = arrays;
+            this.ids = ids;
+            this.jobId = jobId;
+            held = new ArrayList<ClusterMessage>();
+            current = 0;
+        }
+
+        /**
+         * Sends the next chunk of this transfer, followed by the message itself if that was
+         * the last chunk.
+         * @return true if this transfer is complete
+         * @throws IOException if the connection fails
+         */
+        public boolean sendNextChunk() throws IOException
+        {
+            BulkArray array = arrays.get(current);
+            array.get(chunkBuffer);
+            writeFrame(ids.get(current), FRAME_BULK_DATA,
+                    chunkBuffer.array(), chunkBuffer.limit());
+
+            if (array.isDone() && ++current >= arrays.size())
+            {
+                writeFrame(0, FRAME_MESSAGE, message, message.length);
+                return true;
+            }
+            else
+            {
+                return false;
+            }
+        }
+    }
+
     private class RXThread extends Thread
     {
         public void run()
@@ -24,10 +155,7 @@ public void run()
             {
                 try
                 {
-                    ClusterMessage message = (ClusterMessage)objectInputStream.readObject();
-                    FijiArchipelago.debug("RX: " + hostName + " Recieved message " + message.message);
-                    xcListener.handleMessage(message);
-                    objectInputStream = new ObjectInputStream(inStream);
+                    readFrame();
                 }
                 catch (ClassCastException cce)
                 {
@@ -54,7 +182,9 @@ public void run()
                 ClusterMessage nextMessage = null;
                 try
                 {
-                    nextMessage = messageQ.poll(waitTime, tUnit);
+                    // Only wait for a message when there is no pending bulk data to send.
+                    nextMessage = transfers.isEmpty() ?
+                            messageQ.poll(waitTime, tUnit) : messageQ.poll();
                 }
                 catch (InterruptedException ie)
                 {
@@ -62,19 +192,28 @@ public void run()
                 }
 
                 if (nextMessage != null)
+                {
+                    dispatch(nextMessage);
+                }
+
+                if (!transfers.isEmpty() && active.get())
                 {
                     try
                     {
-                        objectOutputStream.writeObject(nextMessage);
-                        objectOutputStream.flush();
-                        FijiArchipelago.debug("TX: Successfully wrote message "
-                                + nextMessage.message + " to " + hostName);
-                        objectOutputStream = new ObjectOutputStream(outStream);
-                    }
-                    catch (NotSerializableException nse)
-                    {
-                        FijiArchipelago.err("TX " + hostName
-                                + " tried to send a non serializable object: " + nse);
+                        // Round robin over the pending transfers, one chunk at a time.
+                        Transfer transfer = transfers.removeFirst();
+                        if (!transfer.sendNextChunk())
+                        {
+                            transfers.addLast(transfer);
+                        }
+                        else
+                        {
+                            // Release the messages that were waiting for this job's data, in order.
+                            for (ClusterMessage message : transfer.held)
+                            {
+                                dispatch(message);
+                            }
+                        }
                     }
                     catch (IOException ioe)
                     {
@@ -83,15 +222,22 @@ public void run()
                         active.set(false);
                         close();
                     }
-                    catch (ConcurrentModificationException ccme)
-                    {
-                        FijiArchipelago.err("TX: Concurrent modification exception: " + ccme);
-                    }
-                    catch (Exception e)
+                }
+
+                try
+                {
+                    if (active.get())
                     {
-                        FijiArchipelago.err("TX: Caught unexpected exception: " + e);
+                        dataOut.flush();
                     }
                 }
+                catch (IOException ioe)
+                {
+                    FijiArchipelago.err("TX " + hostName + " failed: " + ioe);
+
+                    active.set(false);
+                    close();
+                }
             }
         }
     }
@@ -99,17 +245,37 @@ public void run()
     public static final long DEFAULT_WAIT = 10000;
     public static final TimeUnit DEFAULT_UNIT = TimeUnit.MILLISECONDS;
 
+    /** Primitive arrays larger than this many bytes are sent as raw bulk data. */
+    public static final int BULK_THRESHOLD = 16384;
+    /** Size in bytes of the chunks in which bulk data is sent. Must be a multiple of 8. */
+    public static final int CHUNK_SIZE = 65536;
+
+    private static final int MAGIC = 0x41524348;
+    private static final byte FRAME_MESSAGE = 0, FRAME_BULK_START = 1, FRAME_BULK_DATA = 2;
+    private static final byte FLAG_DEFLATED = 1;
+
     private final ArrayBlockingQueue<ClusterMessage> messageQ;
-    private ObjectOutputStream objectOutputStream;
-    private ObjectInputStream objectInputStream;
     private final Thread txThread, rxThread;
     private final AtomicBoolean active;
+    private final AtomicBoolean compress;
     private final long waitTime;
     private final TimeUnit tUnit;
     private final String hostName;
     private final TransceiverListener xcListener;
-    private final OutputStream outStream;
-    private final InputStream inStream;
+    private final DataOutputStream dataOut;
+    private final DataInputStream dataIn;
+
+    // TX state, only touched by the TX thread.
+    private final LinkedList<Transfer> transfers;
+    private final ByteBuffer chunkBuffer;
+    private final Deflater deflater;
+    private byte[] deflateBuffer;
+    private int streamId;
+
+    // RX state, only touched by the RX thread.
+    private final HashMap<Integer, BulkArray> incoming;
+    private final Inflater inflater;
+    private byte[] rxBuffer, inflateBuffer;
 
     public MessageXC(InputStream inStream, OutputStream outStream, final TransceiverListener listener, String hostName) throws IOException
     {
@@ -120,15 +286,32 @@ public MessageXC(InputStream inStream, OutputStream outStream, final Transceiver
     {
         hostName = name;
         messageQ = new ArrayBlockingQueue<ClusterMessage>(16, true);
-        objectOutputStream = new ObjectOutputStream(outStream);
-        objectInputStream =  new ObjectInputStream(inStream);
-        this.inStream = inStream;
-        this.outStream = outStream;
+        dataOut = new DataOutputStream(new BufferedOutputStream(outStream, CHUNK_SIZE + 64));
+        dataOut.writeInt(MAGIC);
+        dataOut.flush();
+        dataIn = new DataInputStream(new BufferedInputStream(inStream, CHUNK_SIZE + 64));
+        if (dataIn.readInt() != MAGIC)
+        {
+            throw new StreamCorruptedException("Unexpected stream header from " + hostName);
+        }
+
         active = new AtomicBoolean(true);
+        compress = new AtomicBoolean(false);
         waitTime = wait;
         tUnit = unit;
         xcListener = listener;
 
+        transfers = new LinkedList<Transfer>();
+        chunkBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        deflateBuffer = new byte[CHUNK_SIZE];
+        streamId = 0;
+
+        incoming = new HashMap<Integer, BulkArray>();
+        inflater = new Inflater();
+        rxBuffer = new byte[CHUNK_SIZE];
+        inflateBuffer = new byte[CHUNK_SIZE];
+
         txThread = new TXThread();
         rxThread = new RXThread();
 
@@ -136,6 +319,250 @@ public MessageXC(InputStream inStream, OutputStream outStream, final Transceiver
         txThread.start();
     }
 
+    /**
+     * Sets whether outgoing frames should be compressed. Compression only pays off on slow
+     * links, or for data that compresses well, like label images. Frames that do not shrink
+     * are always sent as they are. Incoming frames are decompressed as needed, whatever this
+     * is set to.
+     * @param enable true to compress outgoing frames, false otherwise
+     */
+    public void setCompression(boolean enable)
+    {
+        compress.set(enable);
+    }
+
+    public boolean isCompressing()
+    {
+        return compress.get();
+    }
+
+    private int nextStreamId()
+    {
+        streamId = streamId == Integer.MAX_VALUE ? 1 : streamId + 1;
+        return streamId;
+    }
+
+    /**
+     * Returns the id of the job the given message is about, or null if it is not about a job.
+     */
+    private static Long jobId(ClusterMessage message)
+    {
+        if (message.o instanceof ProcessManager)
+        {
+            return ((ProcessManager<?>)message.o).getID();
+        }
+        else if ("cancel".equals(message.message) && message.o instanceof Long)
+        {
+            return (Long)message.o;
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the given message, unless the bulk data of an earlier message for the same job is
+     * still being sent, in which case it is held back until that transfer is complete.
+     * Called by the TX thread only.
+     */
+    private void dispatch(ClusterMessage message)
+    {
+        Long job = jobId(message);
+        if (job != null)
+        {
+            for (Transfer transfer : transfers)
+            {
+                if (job.equals(transfer.jobId))
+                {
+                    transfer.held.add(message);
+                    FijiArchipelago.debug("TX: Holding message " + message.message
+                            + " for job " + job + " until its data has been sent");
+                    return;
+                }
+            }
+        }
+
+        try
+        {
+            sendMessage(message, job);
+            FijiArchipelago.debug("TX: Successfully wrote message "
+                    + message.message + " to " + hostName);
+        }
+        catch (NotSerializableException nse)
+        {
+            FijiArchipelago.err("TX " + hostName
+                    + " tried to send a non serializable object: " + nse);
+        }
+        catch (IOException ioe)
+        {
+            FijiArchipelago.err("TX " + hostName + " failed: " + ioe);
+
+            active.set(false);
+            close();
+        }
+        catch (ConcurrentModificationException ccme)
+        {
+            FijiArchipelago.err("TX: Concurrent modification exception: " + ccme);
+        }
+        catch (Exception e)
+        {
+            FijiArchipelago.err("TX: Caught unexpected exception: " + e);
+        }
+    }
+
+    private void sendMessage(ClusterMessage message, Long job) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BulkObjectOutputStream oos = new BulkObjectOutputStream(bytes);
+        oos.writeObject(message);
+        oos.close();
+
+        if (oos.arrays.isEmpty())
+        {
+            byte[] payload = bytes.toByteArray();
+            writeFrame(0, FRAME_MESSAGE, payload, payload.length);
+        }
+        else
+        {
+            byte[] header = new byte[5];
+            for (int i = 0; i < oos.arrays.size(); ++i)
+            {
+                BulkArray array = oos.arrays.get(i);
+                ByteBuffer.wrap(header).put(array.getType()).putInt(array.getLength());
+                writeFrame(oos.ids.get(i), FRAME_BULK_START, header, header.length);
+            }
+            transfers.addLast(new Transfer(bytes.toByteArray(), oos.arrays, oos.ids, job));
+        }
+    }
+
+    private void writeFrame(int id, byte type, byte[] payload, int length) throws IOException
+    {
+        if (compress.get() && type != FRAME_BULK_START && length > 64)
+        {
+            if (deflateBuffer.length < length)
+            {
+                deflateBuffer = new byte[length];
+            }
+
+            deflater.reset();
+            deflater.setInput(payload, 0, length);
+            deflater.finish();
+            int compressed = 0;
+            while (!deflater.finished() && compressed < length - 4)
+            {
+                compressed += deflater.deflate(deflateBuffer, compressed, length - 4 - compressed);
+            }
+
+            if (deflater.finished())
+            {
+                dataOut.writeInt(id);
+                dataOut.writeByte(type);
+                dataOut.writeByte(FLAG_DEFLATED);
+                dataOut.writeInt(compressed + 4);
+                dataOut.writeInt(length);
+                dataOut.write(deflateBuffer, 0, compressed);
+                return;
+            }
+        }
+
+        dataOut.writeInt(id);
+        dataOut.writeByte(type);
+        dataOut.writeByte(0);
+        dataOut.writeInt(length);
+        dataOut.write(payload, 0, length);
+    }
+
+    private void readFrame() throws IOException, ClassNotFoundException
+    {
+        final int id = dataIn.readInt();
+        final byte type = dataIn.readByte();
+        final byte flags = dataIn.readByte();
+        int length = dataIn.readInt();
+        byte[] payload;
+
+        if (length < 0)
+        {
+            throw new StreamCorruptedException("Negative frame length from " + hostName);
+        }
+
+        if (rxBuffer.length < length)
+        {
+            rxBuffer = new byte[length];
+        }
+        dataIn.readFully(rxBuffer, 0, length);
+        payload = rxBuffer;
+
+        if ((flags & FLAG_DEFLATED) != 0)
+        {
+            int rawLength = ByteBuffer.wrap(rxBuffer).getInt();
+            if (inflateBuffer.length < rawLength)
+            {
+                inflateBuffer = new byte[rawLength];
+            }
+
+            inflater.reset();
+            inflater.setInput(rxBuffer, 4, length - 4);
+            try
+            {
+                int n = 0;
+                while (n < rawLength && !inflater.finished())
+                {
+                    int m = inflater.inflate(inflateBuffer, n, rawLength - n);
+                    if (m == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+                    n += m;
+                }
+                if (n != rawLength)
+                {
+                    throw new StreamCorruptedException("Truncated compressed frame from "
+                            + hostName);
+                }
+            }
+            catch (DataFormatException dfe)
+            {
+                throw new StreamCorruptedException("Bad compressed frame from " + hostName
+                        + ": " + dfe);
+            }
+
+            payload = inflateBuffer;
+            length = rawLength;
+        }
+
+        switch (type)
+        {
+            case FRAME_MESSAGE:
+                ObjectInputStream ois = new BulkObjectInputStream(
+                        new ByteArrayInputStream(payload, 0, length));
+                ClusterMessage message = (ClusterMessage)ois.readObject();
+                FijiArchipelago.debug("RX: " + hostName + " Recieved message " + message.message);
+                xcListener.handleMessage(message);
+                break;
+
+            case FRAME_BULK_START:
+                ByteBuffer header = ByteBuffer.wrap(payload, 0, length);
+                byte arrayType = header.get();
+                incoming.put(id, new BulkArray(arrayType, header.getInt()));
+                break;
+
+            case FRAME_BULK_DATA:
+                BulkArray array = incoming.get(id);
+                if (array == null)
+                {
+                    throw new StreamCorruptedException("Bulk data for unknown stream " + id
+                            + " from " + hostName);
+                }
+                array.put(ByteBuffer.wrap(payload, 0, length));
+                break;
+
+            default:
+                throw new StreamCorruptedException("Unknown frame type " + type
+                        + " from " + hostName);
+        }
+    }
+
     public void close()
     {
         if (active.get())
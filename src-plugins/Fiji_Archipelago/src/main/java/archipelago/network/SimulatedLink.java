@@ -0,0 +1,278 @@
+package archipelago.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a slow network link on top of a pair of streams, by delaying the data that goes
+ * through them by a fixed latency, and by limiting their bandwidth. This is used to test the
+ * Cluster against nodes that run on the local machine, as if they were on a real network.
+ *
+ * Each wrapped stream models one direction of the link. Data is packetized as it is written
+ * or read, and each packet is delivered once it has been transmitted at the given bandwidth,
+ * plus the latency.
+ */
+public class SimulatedLink
+{
+
+    private static class Packet
+    {
+        public final byte[] data;
+        public final long due;
+        public int offset;
+
+        public Packet(byte[] d, long t)
+        {
+            data = d;
+            due = t;
+            offset = 0;
+        }
+    }
+
+    /**
+     * One direction of the link. Computes when a packet that is sent now will arrive.
+     */
+    private class Direction
+    {
+        private long nextFree = 0;
+
+        public synchronized long arrival(int numBytes)
+        {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFree);
+            long transmission = bytesPerSecond > 0 ?
+                    numBytes * 1000000000L / bytesPerSecond : 0;
+            nextFree = start + transmission;
+            return nextFree + latencyNanos;
+        }
+    }
+
+    private class LinkOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final ArrayBlockingQueue<Packet> queue;
+        private final Direction direction;
+        private final Thread sendThread;
+        private volatile IOException error;
+
+        public LinkOutputStream(OutputStream os)
+        {
+            out = os;
+            queue = new ArrayBlockingQueue<Packet>(QUEUE_SIZE);
+            direction = new Direction();
+            error = null;
+
+            sendThread = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            Packet packet = queue.take();
+                            if (packet.data == null)
+                            {
+                                out.close();
+                                return;
+                            }
+                            waitUntil(packet.due);
+                            out.write(packet.data);
+                            if (queue.isEmpty())
+                            {
+                                out.flush();
+                            }
+                        }
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        error = new InterruptedIOException("Simulated link interrupted");
+                    }
+                    catch (IOException ioe)
+                    {
+                        error = ioe;
+                    }
+                }
+            };
+            sendThread.setDaemon(true);
+            sendThread.start();
+        }
+
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        public synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            if (error != null)
+            {
+                throw error;
+            }
+
+            byte[] data = new byte[len];
+            System.arraycopy(b, off, data, 0, len);
+            put(new Packet(data, direction.arrival(len)));
+        }
+
+        public synchronized void close() throws IOException
+        {
+            put(new Packet(null, 0));
+        }
+
+        private void put(Packet packet) throws IOException
+        {
+            try
+            {
+                queue.put(packet);
+            }
+            catch (InterruptedException ie)
+            {
+                throw new InterruptedIOException("Interrupted while writing to simulated link");
+            }
+        }
+    }
+
+    private class LinkInputStream extends InputStream
+    {
+        private final ArrayBlockingQueue<Packet> queue;
+        private final Direction direction;
+        private Packet current;
+        private volatile IOException error;
+
+        public LinkInputStream(final InputStream in)
+        {
+            queue = new ArrayBlockingQueue<Packet>(QUEUE_SIZE);
+            direction = new Direction();
+            current = null;
+            error = null;
+
+            Thread receiveThread = new Thread()
+            {
+                public void run()
+                {
+                    final byte[] buffer = new byte[PACKET_SIZE];
+                    try
+                    {
+                        int n;
+                        while ((n = in.read(buffer)) >= 0)
+                        {
+                            byte[] data = new byte[n];
+                            System.arraycopy(buffer, 0, data, 0, n);
+                            queue.put(new Packet(data, direction.arrival(n)));
+                        }
+                    }
+                    catch (IOException ioe)
+                    {
+                        error = ioe;
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        // Fall through
+                    }
+
+                    try
+                    {
+                        queue.put(new Packet(null, 0));
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        // Nothing to do
+                    }
+                }
+            };
+            receiveThread.setDaemon(true);
+            receiveThread.start();
+        }
+
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) throws IOException
+        {
+            try
+            {
+                if (current == null)
+                {
+                    current = queue.take();
+                    if (current.data == null)
+                    {
+                        // Leave the end marker in place for any further reads.
+                        queue.put(current);
+                        current = null;
+                        if (error != null)
+                        {
+                            throw error;
+                        }
+                        return -1;
+                    }
+                    waitUntil(current.due);
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                throw new InterruptedIOException("Interrupted while reading from simulated link");
+            }
+
+            int n = Math.min(len, current.data.length - current.offset);
+            System.arraycopy(current.data, current.offset, b, off, n);
+            current.offset += n;
+            if (current.offset >= current.data.length)
+            {
+                current = null;
+            }
+            return n;
+        }
+    }
+
+    private static final int QUEUE_SIZE = 64;
+    private static final int PACKET_SIZE = 65536;
+
+    private final long latencyNanos;
+    private final long bytesPerSecond;
+
+    /**
+     * Creates a SimulatedLink.
+     * @param latencyMillis the one-way latency of the link, in milliseconds.
+     * @param bytesPerSecond the bandwidth of the link, in each direction, or 0 for no limit.
+     */
+    public SimulatedLink(long latencyMillis, long bytesPerSecond)
+    {
+        latencyNanos = latencyMillis * 1000000L;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Returns true if this link actually slows anything down.
+     */
+    public boolean isLimited()
+    {
+        return latencyNanos > 0 || bytesPerSecond > 0;
+    }
+
+    public InputStream wrap(InputStream is)
+    {
+        return isLimited() ? new LinkInputStream(is) : is;
+    }
+
+    public OutputStream wrap(OutputStream os)
+    {
+        return isLimited() ? new LinkOutputStream(os) : os;
+    }
+
+    private static void waitUntil(long due) throws InterruptedException
+    {
+        long wait = due - System.nanoTime();
+        if (wait > 0)
+        {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
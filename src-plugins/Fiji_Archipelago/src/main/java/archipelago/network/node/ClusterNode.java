@@ -259,7 +259,17 @@ else if (message.equals("process"))
 
 //                FijiArchipelago.log("Got process results from " + getHost());
 
-                listener.processFinished(pm);
+                if (listener == null)
+                {
+                    // The job was cancelled here, for instance because a copy of it finished
+                    // first on another node.
+                    FijiArchipelago.debug("Discarding results for cancelled process "
+                            + pm.getID() + " on " + getHost());
+                }
+                else
+                {
+                    listener.processFinished(pm);
+                }
             }
             else if (message.equals("ping"))
             {
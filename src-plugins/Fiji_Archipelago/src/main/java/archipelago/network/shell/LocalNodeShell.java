@@ -0,0 +1,193 @@
+package archipelago.network.shell;
+
+import archipelago.Cluster;
+import archipelago.FijiArchipelago;
+import archipelago.listen.ShellExecListener;
+import archipelago.network.SimulatedLink;
+import archipelago.network.client.ArchipelagoClient;
+import archipelago.network.node.NodeManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.Socket;
+
+/**
+ * A NodeShell that starts cluster nodes on the local machine, instead of logging in to a
+ * remote host. Each node is an ArchipelagoClient that connects to the Cluster over a loopback
+ * socket, either in this JVM or in a JVM of its own, started with the same class path. The
+ * connection may be slowed down by a SimulatedLink, so that scheduling and transport can be
+ * tested on a single machine under realistic network conditions.
+ *
+ * The command that Cluster.startNode() passes to exec() is ignored, since it is meant for a
+ * remote Fiji installation. Host, user and exec root in the NodeParameters are ignored, too.
+ */
+public class LocalNodeShell implements NodeShell
+{
+
+    private class InProcessThread extends Thread
+    {
+        private final long id;
+        private final ShellExecListener listener;
+
+        public InProcessThread(long id, ShellExecListener listener)
+        {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        public void run()
+        {
+            try
+            {
+                Socket s = connect(Cluster.getCluster().getServerPort());
+                ArchipelagoClient client = new ArchipelagoClient(id, "localhost",
+                        link.wrap(s.getInputStream()), link.wrap(s.getOutputStream()));
+
+                while (client.isActive())
+                {
+                    Thread.sleep(1000);
+                }
+
+                s.close();
+                listener.execFinished(id, null);
+            }
+            catch (IOException ioe)
+            {
+                listener.execFinished(id, ioe);
+            }
+            catch (InterruptedException ie)
+            {
+                listener.execFinished(id, ie);
+            }
+        }
+    }
+
+    private class ProcessThread extends Thread
+    {
+        private final long id;
+        private final Process process;
+        private final ShellExecListener listener;
+
+        public ProcessThread(long id, Process p, ShellExecListener listener)
+        {
+            this.id = id;
+            this.listener = listener;
+            process = p;
+        }
+
+        public void run()
+        {
+            try
+            {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream()));
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    FijiArchipelago.debug("Node " + id + ": " + line);
+                }
+
+                int exit = process.waitFor();
+                listener.execFinished(id, exit == 0 ? null :
+                        new IOException("Node process exited with status " + exit));
+            }
+            catch (IOException ioe)
+            {
+                listener.execFinished(id, ioe);
+            }
+            catch (InterruptedException ie)
+            {
+                process.destroy();
+                listener.execFinished(id, ie);
+            }
+        }
+    }
+
+    private final boolean separateJVM;
+    private final long latency, bandwidth;
+    private final SimulatedLink link;
+
+    /**
+     * Creates a LocalNodeShell that runs its nodes in this JVM, over an unrestricted link.
+     */
+    public LocalNodeShell()
+    {
+        this(false, 0, 0);
+    }
+
+    /**
+     * Creates a LocalNodeShell.
+     * @param separateJVM true to start each node in a JVM of its own, false to run it in this
+     *                    JVM.
+     * @param latencyMillis the simulated one-way latency between the Cluster and each node.
+     * @param bytesPerSecond the simulated bandwidth between the Cluster and each node, in each
+     *                       direction, or 0 for no limit.
+     */
+    public LocalNodeShell(boolean separateJVM, long latencyMillis, long bytesPerSecond)
+    {
+        this.separateJVM = separateJVM;
+        latency = latencyMillis;
+        bandwidth = bytesPerSecond;
+        link = new SimulatedLink(latencyMillis, bytesPerSecond);
+    }
+
+    public boolean exec(final NodeManager.NodeParameters param, final String command,
+                        final ShellExecListener listener)
+    {
+        FijiArchipelago.debug("Starting local node " + param.getID()
+                + (separateJVM ? " in a new JVM" : " in process"));
+
+        if (separateJVM)
+        {
+            String java = System.getProperty("java.home") + File.separator + "bin"
+                    + File.separator + "java";
+            ProcessBuilder pb = new ProcessBuilder(java,
+                    "-cp", System.getProperty("java.class.path"),
+                    "archipelago.Fiji_Archipelago",
+                    "localhost", "" + Cluster.getCluster().getServerPort(), "" + param.getID(),
+                    "" + latency, "" + bandwidth);
+            pb.redirectErrorStream(true);
+
+            try
+            {
+                new ProcessThread(param.getID(), pb.start(), listener).start();
+                return true;
+            }
+            catch (IOException ioe)
+            {
+                FijiArchipelago.err("Could not start local node: " + ioe);
+                return false;
+            }
+        }
+        else
+        {
+            new InProcessThread(param.getID(), listener).start();
+            return true;
+        }
+    }
+
+    /**
+     * Connects to the Cluster server, allowing it some time to start listening.
+     */
+    private static Socket connect(int port) throws IOException, InterruptedException
+    {
+        for (int i = 0; ; ++i)
+        {
+            try
+            {
+                return new Socket("localhost", port);
+            }
+            catch (ConnectException ce)
+            {
+                if (i >= 50)
+                {
+                    throw ce;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -140,15 +140,18 @@ else if ( beadBrightness == 2 )
 		conf.paralellFusion = false;
 		conf.sequentialFusion = false;
 		conf.multipleImageFusion = false;
+		conf.blockwiseFusion = false;
 
 		if ( fusionMethod == 0 )
 			conf.paralellFusion = true;
 		else if ( fusionMethod == 1 )
 			conf.sequentialFusion = true;
-		else
+		else if ( fusionMethod == 2 )
 			conf.multipleImageFusion = true;
+		else
+			conf.blockwiseFusion = true;
 		
-		if ( conf.timeLapseRegistration || conf.multipleImageFusion || !displayFusedImageStatic )
+		if ( conf.timeLapseRegistration || conf.multipleImageFusion || conf.blockwiseFusion || !displayFusedImageStatic )
 			conf.showOutputImage = false;
 		else
 			conf.showOutputImage = true;
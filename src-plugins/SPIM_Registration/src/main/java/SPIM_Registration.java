@@ -14,7 +14,7 @@
 public class SPIM_Registration extends SPIMRegistrationAbstract
 {
 	public static String[] beadBrightnessList = { "Very weak", "Weak", "Comparable to Sample", "Strong" };	
-	public static String[] fusionMethodList = { "Fuse all images at once", "Fuse images sequentially", "Create independent registered images" };	
+	public static String[] fusionMethodList = { "Fuse all images at once", "Fuse images sequentially", "Create independent registered images", "Fuse blockwise and write to disk" };	
 	
 	public static String spimDataDirectoryStatic = "";
 	public static String timepointsStatic = "18";
@@ -199,15 +199,18 @@ else if ( beadBrightness == 2 )
 		conf.paralellFusion = false;
 		conf.sequentialFusion = false;
 		conf.multipleImageFusion = false;
+		conf.blockwiseFusion = false;
 
 		if ( fusionMethod == 0 )
 			conf.paralellFusion = true;
 		else if ( fusionMethod == 1 )
 			conf.sequentialFusion = true;
-		else
+		else if ( fusionMethod == 2 )
 			conf.multipleImageFusion = true;
+		else
+			conf.blockwiseFusion = true;
 		
-		if ( conf.timeLapseRegistration || conf.multipleImageFusion || !displayFusedImageStatic  )
+		if ( conf.timeLapseRegistration || conf.multipleImageFusion || conf.blockwiseFusion || !displayFusedImageStatic  )
 			conf.showOutputImage = false;
 		else
 			conf.showOutputImage = true;
@@ -0,0 +1,50 @@
+package mpicbg.pointdescriptor;
+
+import fiji.util.node.Leaf;
+
+/**
+ * A {@link Leaf} for the {@link fiji.util.KDTree} that stores an arbitrary vector and a link to the object it was computed from,
+ * e.g. the transformed location of a {@link mpicbg.models.Point} or an invariant of a point descriptor.
+ *
+ * @param <L> - the type of the linked object
+ */
+public class LinkedLeaf< L > implements Leaf< LinkedLeaf< L > >
+{
+	final float[] p;
+	final L link;
+
+	public LinkedLeaf( final float[] p, final L link )
+	{
+		this.p = p;
+		this.link = link;
+	}
+
+	public L getLink() { return link; }
+
+	@Override
+	public boolean isLeaf() { return true; }
+
+	@Override
+	public float get( final int k ) { return p[ k ]; }
+
+	@Override
+	public float distanceTo( final LinkedLeaf< L > other )
+	{
+		double distance = 0;
+
+		for ( int d = 0; d < p.length; ++d )
+		{
+			final double tmp = other.p[ d ] - p[ d ];
+			distance += tmp * tmp;
+		}
+
+		return (float)Math.sqrt( distance );
+	}
+
+	@Override
+	public int getNumDimensions() { return p.length; }
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public LinkedLeaf< L >[] createArray( final int n ) { return new LinkedLeaf[ n ]; }
+}
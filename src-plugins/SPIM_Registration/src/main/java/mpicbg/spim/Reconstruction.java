@@ -114,11 +114,29 @@ protected ArrayList<Bead> getAveragedBeadList( final ArrayList<ViewDataBeads> vi
 	}
 
 	protected void processTimeLapse( SPIMConfiguration conf )
+	{
+		// reads the next timepoint while the current one is processed, the images are only needed for the fusion
+		final TimePointPrefetcher prefetcher = new TimePointPrefetcher( conf );
+		
+		try
+		{
+			processTimeLapse( conf, prefetcher );
+		}
+		finally
+		{
+			prefetcher.close();
+		}
+	}
+	
+	protected void processTimeLapse( SPIMConfiguration conf, final TimePointPrefetcher prefetcher )
 	{
 		for (int timePointIndex = 0; timePointIndex < conf.file.length; timePointIndex++)
 		{
 			final ViewStructure reference = ViewStructure.initViewStructure( conf, conf.getTimePointIndex( conf.referenceTimePoint ), conf.getModel(), "Reference ViewStructure Timepoint " + conf.referenceTimePoint, conf.debugLevelInt );
-			currentViewStructure = ViewStructure.initViewStructure( conf, timePointIndex, conf.getModel(), "Template ViewStructure Timepoint " + conf.timepoints[timePointIndex], conf.debugLevelInt );
+			currentViewStructure = prefetcher.get( timePointIndex, "Template ViewStructure Timepoint " + conf.timepoints[timePointIndex] );
+			
+			if ( timePointIndex + 1 < conf.file.length )
+				prefetcher.prefetch( timePointIndex + 1, "Template ViewStructure Timepoint " + conf.timepoints[timePointIndex + 1], !conf.registerOnly );
 			
 			//
 			// get timepoint information
@@ -215,10 +233,29 @@ protected void processTimeLapse( SPIMConfiguration conf )
 	}  	
 	
 	protected void processIndividualViewStructure( SPIMConfiguration conf )
+	{
+		// reads the next timepoint while the current one is processed, the images are needed unless the segmentation 
+		// is loaded and nothing is fused
+		final TimePointPrefetcher prefetcher = new TimePointPrefetcher( conf );
+		
+		try
+		{
+			processIndividualViewStructure( conf, prefetcher );
+		}
+		finally
+		{
+			prefetcher.close();
+		}
+	}
+	
+	protected void processIndividualViewStructure( SPIMConfiguration conf, final TimePointPrefetcher prefetcher )
 	{
 		for ( int timePointIndex = 0; timePointIndex < conf.file.length; timePointIndex++ )
 		{
-			currentViewStructure = ViewStructure.initViewStructure( conf, timePointIndex, conf.getModel(), "ViewStructure Timepoint " + timePointIndex, conf.debugLevelInt );						
+			currentViewStructure = prefetcher.get( timePointIndex, "ViewStructure Timepoint " + timePointIndex );						
+			
+			if ( timePointIndex + 1 < conf.file.length )
+				prefetcher.prefetch( timePointIndex + 1, "ViewStructure Timepoint " + ( timePointIndex + 1 ), !conf.readSegmentation || !conf.registerOnly );
 			
 			// no file found
 			if ( currentViewStructure == null )
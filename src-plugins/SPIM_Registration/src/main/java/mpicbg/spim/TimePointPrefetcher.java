@@ -0,0 +1,141 @@
+package mpicbg.spim;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.io.MemoryBudget;
+import mpicbg.spim.io.SPIMConfiguration;
+import mpicbg.spim.registration.ViewDataBeads;
+import mpicbg.spim.registration.ViewStructure;
+
+/**
+ * Initializes the ViewStructure of the next timepoint and opens its views in the background while the current timepoint
+ * is segmented, registered and fused, so that reading and decoding the files overlaps with the computation.
+ *
+ * Views are only opened as long as the heap stays within the memory budget, the remaining ones are opened when they are needed.
+ */
+public class TimePointPrefetcher
+{
+	final SPIMConfiguration conf;
+	final long budget;
+	final AtomicBoolean stop = new AtomicBoolean( false );
+
+	Thread thread = null;
+	int timePointIndex = -1;
+	ViewStructure viewStructure = null;
+
+	public TimePointPrefetcher( final SPIMConfiguration conf )
+	{
+		this.conf = conf;
+		this.budget = MemoryBudget.getBudget( conf );
+	}
+
+	/**
+	 * Starts to prefetch a timepoint, discarding the timepoint that is currently prefetched
+	 *
+	 * @param timePointIndex - the index of the timepoint
+	 * @param id - the id of the ViewStructure
+	 * @param openImages - if the images of the views will be needed
+	 */
+	public void prefetch( final int timePointIndex, final String id, final boolean openImages )
+	{
+		close();
+
+		if ( !conf.prefetchTimepoints || timePointIndex < 0 || timePointIndex >= conf.file.length )
+			return;
+
+		this.timePointIndex = timePointIndex;
+		stop.set( false );
+
+		thread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final ViewStructure vs = ViewStructure.initViewStructure( conf, timePointIndex, conf.getModel(), id, conf.debugLevelInt );
+				viewStructure = vs;
+
+				if ( vs == null || !openImages )
+					return;
+
+				int numOpened = 0;
+
+				for ( final ViewDataBeads view : vs.getViews() )
+				{
+					if ( stop.get() )
+						return;
+
+					if ( MemoryBudget.getUsedMemory() + view.estimateImageBytes() > budget )
+						break;
+
+					if ( view.getImage() != null )
+						++numOpened;
+				}
+
+				if ( vs.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+					IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Prefetched " + numOpened + " of " + vs.getNumViews() + " views of timepoint " + conf.timepoints[ timePointIndex ] );
+			}
+		}, "Prefetch timepoint " + conf.timepoints[ timePointIndex ] );
+
+		thread.start();
+	}
+
+	/**
+	 * Returns the ViewStructure of a timepoint, waits for it if it is being prefetched or initializes it otherwise
+	 *
+	 * @param timePointIndex - the index of the timepoint
+	 * @param id - the id of the ViewStructure
+	 * @return the ViewStructure or null if it could not be initialized
+	 */
+	public ViewStructure get( final int timePointIndex, final String id )
+	{
+		if ( thread != null && this.timePointIndex == timePointIndex )
+		{
+			join();
+
+			final ViewStructure vs = viewStructure;
+
+			thread = null;
+			viewStructure = null;
+
+			return vs;
+		}
+
+		close();
+
+		return ViewStructure.initViewStructure( conf, timePointIndex, conf.getModel(), id, conf.debugLevelInt );
+	}
+
+	/**
+	 * Stops prefetching and closes the images that were opened already
+	 */
+	public void close()
+	{
+		if ( thread == null )
+			return;
+
+		stop.set( true );
+		join();
+
+		if ( viewStructure != null )
+			for ( final ViewDataBeads view : viewStructure.getViews() )
+				view.closeImage();
+
+		thread = null;
+		viewStructure = null;
+	}
+
+	protected void join()
+	{
+		try
+		{
+			thread.join();
+		}
+		catch ( InterruptedException e )
+		{
+			stop.set( true );
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -3,13 +3,17 @@
 import java.util.Date;
 
 import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.container.array.Array3D;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
 import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
 import mpicbg.imglib.type.numeric.real.FloatType;
 import mpicbg.spim.fusion.entropy.Entropy;
+import mpicbg.spim.fusion.entropy.EntropyFloatArray3D;
 import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.io.SPIMConfiguration;
 import mpicbg.spim.registration.ViewDataBeads;
 import mpicbg.spim.registration.ViewStructure;
 
@@ -22,7 +26,7 @@ public EntropyFast( ViewDataBeads view, ContainerFactory entropyContainerFactory
 		super( view );
 
 		// compute window size in z direction
-		final int windowSizeZ = Math.round( conf.windowSizeX/(float)view.getZStretching() );
+		final int windowSizeZ = getWindowSizeZ( view );
 		
 		// precompute the entropy for the whole image
 		if ( debugLevel <= ViewStructure.DEBUG_MAIN )
@@ -30,6 +34,47 @@ public EntropyFast( ViewDataBeads view, ContainerFactory entropyContainerFactory
 		
 		entropy = Entropy.computeEntropy( view.getImage(), entropyContainerFactory, conf.histogramBins, conf.windowSizeX, conf.windowSizeY, windowSizeZ );		
         
+		// compute entropy = 100^entropy
+		toWeights( entropy );
+	}
+
+	/**
+	 * Computes the entropy weights for a part of a view
+	 * 
+	 * @param view - the view
+	 * @param image - the part of the normalized input image of the view
+	 * @return the weights
+	 */
+	public static Image<FloatType> computeWeights( final ViewDataBeads view, final Image<FloatType> image )
+	{
+		final SPIMConfiguration conf = view.getViewStructure().getSPIMConfiguration();
+		final Image<FloatType> entropy;
+
+		// use the fast forward algorithm directly, Entropy.computeEntropy() would tell us about it for every part
+		if ( Array3D.class.isInstance( image.getContainer() ) )
+			entropy = EntropyFloatArray3D.computeEntropy( image, new ArrayContainerFactory(), conf.histogramBins, conf.windowSizeX, conf.windowSizeY, getWindowSizeZ( view ) );
+		else
+			entropy = Entropy.computeEntropy( image, new ArrayContainerFactory(), conf.histogramBins, conf.windowSizeX, conf.windowSizeY, getWindowSizeZ( view ) );
+
+		toWeights( entropy );
+
+		return entropy;
+	}
+
+	public static int[] getHalo( final ViewDataBeads view )
+	{
+		final SPIMConfiguration conf = view.getViewStructure().getSPIMConfiguration();
+
+		return new int[]{ conf.windowSizeX/2 + 1, conf.windowSizeY/2 + 1, getWindowSizeZ( view )/2 + 1 };
+	}
+
+	protected static int getWindowSizeZ( final ViewDataBeads view )
+	{
+		return Math.round( view.getViewStructure().getSPIMConfiguration().windowSizeX/(float)view.getZStretching() );
+	}
+
+	protected static void toWeights( final Image<FloatType> entropy )
+	{
 		// compute entropy = 100^entropy
 		final Cursor<FloatType> i = entropy.createCursor();
 		
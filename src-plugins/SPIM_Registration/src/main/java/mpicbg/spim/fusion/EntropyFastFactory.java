@@ -1,6 +1,8 @@
 package mpicbg.spim.fusion;
 
 import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
 import mpicbg.spim.registration.ViewDataBeads;
 
 public class EntropyFastFactory implements IsolatedPixelWeightenerFactory<EntropyFast>
@@ -15,6 +17,18 @@ public EntropyFast createInstance( ViewDataBeads view )
 		return new EntropyFast( view, entropyContainer ); 
 	}
 	
+	@Override
+	public int[] getHalo( final ViewDataBeads view ) { return EntropyFast.getHalo( view ); }
+
+	@Override
+	public Image<FloatType> computeWeights( final ViewDataBeads view, final Image<FloatType> image ) 
+	{ 
+		return EntropyFast.computeWeights( view, image ); 
+	}
+
+	@Override
+	public boolean normalizesWeights() { return false; }
+
 	public String getDescriptiveName() { return "Entropy"; }
 
 	public void printProperties()
@@ -46,6 +46,8 @@ public void fuse( final ViewStructure viewStructure, final ViewStructure referen
 		
 		if ( conf.isDeconvolution )
 			fusion = new PreDeconvolutionFusion( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
+		else if (conf.blockwiseFusion)
+			fusion = new MappingFusionBlockwise( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
 		else if (conf.multipleImageFusion)
 			fusion = new MappingFusionSequentialDifferentOutput( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
 		else if (conf.paralellFusion)
@@ -74,6 +76,10 @@ else if (conf.paralellFusion)
 			if ( conf.isDeconvolution )
 				return;
 			
+			// the blockwise fusion wrote the output image already while fusing
+			if ( conf.blockwiseFusion )
+				continue;
+			
 			if (conf.showOutputImage)
 			{
 				if ( !conf.multipleImageFusion )
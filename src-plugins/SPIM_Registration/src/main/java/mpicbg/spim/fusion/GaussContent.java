@@ -26,63 +26,7 @@ protected GaussContent( final ViewDataBeads view, final ContainerFactory entropy
 		{			
 			final int numThreads = Math.max( 1, Runtime.getRuntime().availableProcessors() / view.getNumViews() );
 			
-			final SPIMConfiguration conf = view.getViewStructure().getSPIMConfiguration();
-			
-			// get the kernels
-			
-			final double[] k1 = new double[ view.getNumDimensions() ];
-			final double[] k2 = new double[ view.getNumDimensions() ];
-			
-			for ( int d = 0; d < view.getNumDimensions() - 1; ++d )
-			{
-				k1[ d ] = conf.fusionSigma1;
-				k2[ d ] = conf.fusionSigma2;
-			}
-			
-			k1[ view.getNumDimensions() - 1 ] = conf.fusionSigma1 / view.getZStretching();
-			k2[ view.getNumDimensions() - 1 ] = conf.fusionSigma2 / view.getZStretching();		
-			
-			final Image<FloatType> kernel1 = FourierConvolution.createGaussianKernel( new ArrayContainerFactory(), k1 );
-			final Image<FloatType> kernel2 = FourierConvolution.createGaussianKernel( new ArrayContainerFactory(), k2 );
-	
-			// compute I*sigma1
-			FourierConvolution<FloatType, FloatType> fftConv1 = new FourierConvolution<FloatType, FloatType>( view.getImage(), kernel1 );
-			
-			fftConv1.setNumThreads( numThreads );
-			fftConv1.process();		
-			final Image<FloatType> conv1 = fftConv1.getResult();
-			
-			fftConv1.close();
-			fftConv1 = null;
-					
-			// compute ( I - I*sigma1 )^2
-			final Cursor<FloatType> cursorImg = view.getImage().createCursor();
-			final Cursor<FloatType> cursorConv = conv1.createCursor();
-			
-			while ( cursorImg.hasNext() )
-			{
-				cursorImg.fwd();
-				cursorConv.fwd();
-				
-				final float diff = cursorImg.getType().get() - cursorConv.getType().get();
-				
-				cursorConv.getType().set( diff*diff );
-			}
-	
-			// compute ( ( I - I*sigma1 )^2 ) * sigma2
-			FourierConvolution<FloatType, FloatType> fftConv2 = new FourierConvolution<FloatType, FloatType>( conv1, kernel2 );
-			fftConv2.setNumThreads( numThreads );
-			fftConv2.process();	
-			
-			gaussContent = fftConv2.getResult();
-
-			fftConv2.close();
-			fftConv2 = null;
-			
-			// close the unnecessary image
-			kernel1.close();
-			kernel2.close();
-			conv1.close();
+			gaussContent = computeGaussContent( view.getImage(), view.getViewStructure().getSPIMConfiguration(), view.getZStretching(), numThreads );
 			
 			ViewDataBeads.normalizeImage( gaussContent );
 		}
@@ -94,6 +38,109 @@ protected GaussContent( final ViewDataBeads view, final ContainerFactory entropy
 		}
 	}
 
+	/**
+	 * Computes ( ( I - I*sigma1 )^2 ) * sigma2, the weights are not normalized
+	 * 
+	 * @param image - the normalized input image or a part of it
+	 * @param conf - the configuration containing sigma1 and sigma2
+	 * @param zStretching - the z-stretching of the view
+	 * @param numThreads - the number of threads for the convolutions
+	 * @return the weights
+	 */
+	public static Image<FloatType> computeGaussContent( final Image<FloatType> image, final SPIMConfiguration conf, final double zStretching, final int numThreads )
+	{
+		final int numDimensions = image.getNumDimensions();
+		
+		// get the kernels
+		
+		final double[] k1 = new double[ numDimensions ];
+		final double[] k2 = new double[ numDimensions ];
+		
+		for ( int d = 0; d < numDimensions - 1; ++d )
+		{
+			k1[ d ] = conf.fusionSigma1;
+			k2[ d ] = conf.fusionSigma2;
+		}
+		
+		k1[ numDimensions - 1 ] = conf.fusionSigma1 / zStretching;
+		k2[ numDimensions - 1 ] = conf.fusionSigma2 / zStretching;		
+		
+		final Image<FloatType> kernel1 = FourierConvolution.createGaussianKernel( new ArrayContainerFactory(), k1 );
+		final Image<FloatType> kernel2 = FourierConvolution.createGaussianKernel( new ArrayContainerFactory(), k2 );
+
+		// compute I*sigma1
+		FourierConvolution<FloatType, FloatType> fftConv1 = new FourierConvolution<FloatType, FloatType>( image, kernel1 );
+		
+		fftConv1.setNumThreads( numThreads );
+		fftConv1.process();		
+		final Image<FloatType> conv1 = fftConv1.getResult();
+		
+		fftConv1.close();
+		fftConv1 = null;
+				
+		// compute ( I - I*sigma1 )^2
+		final Cursor<FloatType> cursorImg = image.createCursor();
+		final Cursor<FloatType> cursorConv = conv1.createCursor();
+		
+		while ( cursorImg.hasNext() )
+		{
+			cursorImg.fwd();
+			cursorConv.fwd();
+			
+			final float diff = cursorImg.getType().get() - cursorConv.getType().get();
+			
+			cursorConv.getType().set( diff*diff );
+		}
+		
+		cursorImg.close();
+		cursorConv.close();
+
+		// compute ( ( I - I*sigma1 )^2 ) * sigma2
+		FourierConvolution<FloatType, FloatType> fftConv2 = new FourierConvolution<FloatType, FloatType>( conv1, kernel2 );
+		fftConv2.setNumThreads( numThreads );
+		fftConv2.process();	
+		
+		final Image<FloatType> gaussContent = fftConv2.getResult();
+
+		fftConv2.close();
+		fftConv2 = null;
+		
+		// close the unnecessary image
+		kernel1.close();
+		kernel2.close();
+		conv1.close();
+		
+		return gaussContent;
+	}
+	
+	/**
+	 * Computes the unnormalized weights for a part of a view, the parts are processed in parallel so a single thread is used
+	 * 
+	 * @param view - the view
+	 * @param image - the part of the normalized input image of the view
+	 * @return the weights
+	 */
+	public static Image<FloatType> computeWeights( final ViewDataBeads view, final Image<FloatType> image )
+	{
+		return computeGaussContent( image, view.getViewStructure().getSPIMConfiguration(), view.getZStretching(), 1 );
+	}
+	
+	public static int[] getHalo( final ViewDataBeads view )
+	{
+		final SPIMConfiguration conf = view.getViewStructure().getSPIMConfiguration();
+		final int[] halo = new int[ view.getNumDimensions() ];
+		
+		// the kernels are cut off at 3 sigma, both convolutions add up
+		final double radius = 3 * ( conf.fusionSigma1 + conf.fusionSigma2 );
+		
+		for ( int d = 0; d < halo.length - 1; ++d )
+			halo[ d ] = (int)Math.ceil( radius ) + 1;
+		
+		halo[ halo.length - 1 ] = (int)Math.ceil( radius / view.getZStretching() ) + 1;
+		
+		return halo;
+	}
+
 	@Override
 	public LocalizableByDimCursor<FloatType> getResultIterator()
 	{
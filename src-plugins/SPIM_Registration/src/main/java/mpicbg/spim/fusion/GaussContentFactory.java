@@ -1,6 +1,8 @@
 package mpicbg.spim.fusion;
 
 import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
 import mpicbg.spim.registration.ViewDataBeads;
 
 public class GaussContentFactory implements IsolatedPixelWeightenerFactory<GaussContent>
@@ -15,6 +17,18 @@ public GaussContent createInstance( final ViewDataBeads view )
 		return new GaussContent( view, gaussContentContainer ); 
 	}
 	
+	@Override
+	public int[] getHalo( final ViewDataBeads view ) { return GaussContent.getHalo( view ); }
+
+	@Override
+	public Image<FloatType> computeWeights( final ViewDataBeads view, final Image<FloatType> image ) 
+	{ 
+		return GaussContent.computeWeights( view, image ); 
+	}
+
+	@Override
+	public boolean normalizesWeights() { return true; }
+
 	public String getDescriptiveName() { return "Gauss approximated Entropy"; }
 
 	public void printProperties()
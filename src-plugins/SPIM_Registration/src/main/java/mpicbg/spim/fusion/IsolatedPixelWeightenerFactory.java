@@ -1,10 +1,36 @@
 package mpicbg.spim.fusion;
 
 import mpicbg.imglib.Factory;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.type.numeric.real.FloatType;
 import mpicbg.spim.registration.ViewDataBeads;
 
 public interface IsolatedPixelWeightenerFactory<I extends IsolatedPixelWeightener<I>> extends Factory
 {
 	public abstract String getDescriptiveName();
 	public I createInstance( ViewDataBeads view );
+
+	/**
+	 * The number of pixels, in each dimension of the view, by which the weight of a pixel depends on its neighbors.
+	 * A part of the view that is extended by this halo yields correct weights in its interior.
+	 *
+	 * @param view - the view
+	 * @return the halo size per dimension
+	 */
+	public int[] getHalo( ViewDataBeads view );
+
+	/**
+	 * Computes the weights for a part of a view only, so that they never have to be held in memory for the whole view.
+	 *
+	 * @param view - the view the part was taken from
+	 * @param image - a part of the view's input image, normalized to [0...1], including the halo
+	 * @return the weights for every pixel of the part, or null if they cannot be computed
+	 */
+	public Image<FloatType> computeWeights( ViewDataBeads view, Image<FloatType> image );
+
+	/**
+	 * @return true if the weights of createInstance() are normalized to [0...1] over the whole view, in which case
+	 * the weights of computeWeights() still need to be normalized by the caller
+	 */
+	public boolean normalizesWeights();
 }
@@ -0,0 +1,576 @@
+package mpicbg.spim.fusion;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Point3f;
+
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.interpolation.Interpolator;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.imglib.util.Util;
+import mpicbg.models.AbstractAffineModel3D;
+import mpicbg.models.NoninvertibleModelException;
+import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.registration.ViewDataBeads;
+import mpicbg.spim.registration.ViewStructure;
+
+/**
+ * Fuses the views block by block and writes the fused image slab by slab as tiff slices into the output directory,
+ * so that neither the fused image nor the isolated weights of the views have to fit into memory as a whole.
+ *
+ * For every block only the views that overlap it are used, their isolated weights (entropy, gauss content) are computed
+ * on the part of the view that the block maps to, extended by the halo of the weightener.
+ */
+public class MappingFusionBlockwise extends SPIMImageFusion
+{
+	final int blockSize;
+	final String outputDirectory;
+
+	public MappingFusionBlockwise( final ViewStructure viewStructure, final ViewStructure referenceViewStructure,
+								   final ArrayList<IsolatedPixelWeightenerFactory<?>> isolatedWeightenerFactories,
+								   final ArrayList<CombinedPixelWeightenerFactory<?>> combinedWeightenerFactories )
+	{
+		super( viewStructure, referenceViewStructure, isolatedWeightenerFactories, combinedWeightenerFactories );
+
+		this.blockSize = Math.max( 16, conf.fusionBlockSize );
+
+		String dir = conf.outputdirectory;
+
+		if ( dir == null )
+			dir = "";
+
+		dir = dir.replace( '\\', '/' ).trim();
+
+		if ( dir.length() > 0 && !dir.endsWith( "/" ) )
+			dir = dir + "/";
+
+		this.outputDirectory = dir;
+	}
+
+	@Override
+	public void fuseSPIMImages( final int channelIndex )
+	{
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("Loading source images (Channel " + channelIndex +  ").");
+
+		//
+		// update views so that only the current channel is being fused
+		//
+		final ArrayList<ViewDataBeads> views = new ArrayList<ViewDataBeads>();
+
+		for ( final ViewDataBeads view : viewStructure.getViews() )
+			if ( view.getChannelIndex() == channelIndex )
+				views.add( view );
+
+		final int numViews = views.size();
+		final int numThreads = conf.numberOfThreads > 0 ? conf.numberOfThreads : Runtime.getRuntime().availableProcessors();
+
+		// load images unnormalized, the parts used for the isolated weights are normalized on the fly
+		for ( final ViewDataBeads view : views )
+			view.getImage( false );
+
+		// cache the views, imageSizes, models and intensity ranges that we use
+		final boolean useView[] = new boolean[ numViews ];
+		final AbstractAffineModel3D<?> models[] = new AbstractAffineModel3D[ numViews ];
+		final int[][] imageSizes = new int[ numViews ][];
+		final float[] minValues = new float[ numViews ];
+		final float[] maxValues = new float[ numViews ];
+
+		for ( int i = 0; i < numViews; ++i )
+		{
+			useView[ i ] = Math.max( views.get( i ).getViewErrorStatistics().getNumConnectedViews(), views.get( i ).getTile().getConnectedTiles().size() ) > 0 || views.get( i ).getViewStructure().getNumViews() == 1;
+
+			// if a corresponding view that was used for registration is valid, this one is too
+			if ( views.get( i ).getUseForRegistration() == false )
+			{
+				final int angle = views.get( i ).getAcqusitionAngle();
+				final int timepoint = views.get( i ).getViewStructure().getTimePoint();
+
+				for ( final ViewDataBeads view2 : viewStructure.getViews() )
+					if ( view2.getAcqusitionAngle() == angle && timepoint == view2.getViewStructure().getTimePoint() && view2.getUseForRegistration() == true )
+						useView[ i ] = true;
+			}
+
+			models[ i ] = (AbstractAffineModel3D<?>)views.get( i ).getTile().getModel();
+			imageSizes[ i ] = views.get( i ).getImageSize();
+			minValues[ i ] = views.get( i ).getMinValueUnnormed();
+			maxValues[ i ] = views.get( i ).getMaxValueUnnormed();
+		}
+
+		// the halo each isolated weightener needs around a part of a view
+		final int numIso = isolatedWeightenerFactories.size();
+		final int[][][] halos = new int[ numIso ][ numViews ][];
+
+		for ( int f = 0; f < numIso; ++f )
+			for ( int i = 0; i < numViews; ++i )
+				halos[ f ][ i ] = isolatedWeightenerFactories.get( f ).getHalo( views.get( i ) );
+
+		// weighteners that are normalized over the whole view need their range first
+		final float[][] weightMin = new float[ numIso ][ numViews ];
+		final float[][] weightMax = new float[ numIso ][ numViews ];
+
+		for ( int f = 0; f < numIso; ++f )
+			if ( isolatedWeightenerFactories.get( f ).normalizesWeights() )
+				for ( int i = 0; i < numViews; ++i )
+					if ( useView[ i ] )
+					{
+						if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+							IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Computing range of " + isolatedWeightenerFactories.get( f ).getDescriptiveName() + " for " + views.get( i ) );
+
+						final float[] range = computeWeightRange( isolatedWeightenerFactories.get( f ), views.get( i ), halos[ f ][ i ], minValues[ i ], maxValues[ i ], numThreads );
+						weightMin[ f ][ i ] = range[ 0 ];
+						weightMax[ f ][ i ] = range[ 1 ];
+					}
+
+		// how many slices we can keep in memory at once
+		final long planeSize = (long)imgW * (long)imgH;
+		final long maxSlices = Runtime.getRuntime().maxMemory() / ( 4 * 4 * planeSize );
+		final int slabDepth = (int)Math.max( 1, Math.min( Math.min( blockSize, imgD ), maxSlices ) );
+
+		final int numBlocksX = ( imgW + blockSize - 1 ) / blockSize;
+		final int numBlocksY = ( imgH + blockSize - 1 ) / blockSize;
+		final int numBlocks = numBlocksX * numBlocksY;
+
+		final String name = "img_tl" + viewStructure.getTimePoint() + "_ch" + viewStructure.getChannelNum( channelIndex );
+		final int digits = ( "" + ( imgD - 1 ) ).length();
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Computing output image (Channel " + channelIndex +  ") in blocks of " +
+					blockSize + "x" + blockSize + "x" + slabDepth + ", writing to " + outputDirectory + name + "_z*.tif" );
+
+		final AtomicBoolean failed = new AtomicBoolean( false );
+		boolean everythingOK = true;
+
+		for ( int z0 = 0; z0 < imgD && !failed.get(); z0 += slabDepth )
+		{
+			final int slabStart = z0;
+			final int depth = Math.min( slabDepth, imgD - z0 );
+			final float[][] slab = new float[ depth ][ (int)planeSize ];
+
+			final AtomicInteger ai = new AtomicInteger( 0 );
+			final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							// init combined pixel weighteners
+							final CombinedPixelWeightener<?>[] combW = new CombinedPixelWeightener<?>[ combinedWeightenerFactories.size() ];
+							for ( int i = 0; i < combW.length; i++ )
+								combW[ i ] = combinedWeightenerFactories.get( i ).createInstance( views );
+
+							// create Interpolated Iterators for the input images (every thread need own ones!)
+							final Interpolator<FloatType>[] interpolators = new Interpolator[ numViews ];
+							for ( int view = 0; view < numViews; view++ )
+								interpolators[ view ] = views.get( view ).getImage( false ).createInterpolator( conf.interpolatorFactorOutput );
+
+							for ( int b = ai.getAndIncrement(); b < numBlocks; b = ai.getAndIncrement() )
+							{
+								final int x0 = ( b % numBlocksX ) * blockSize;
+								final int y0 = ( b / numBlocksX ) * blockSize;
+
+								fuseBlock( x0, y0, slabStart, Math.min( blockSize, imgW - x0 ), Math.min( blockSize, imgH - y0 ), slab, views, useView, models, imageSizes,
+										minValues, maxValues, halos, weightMin, weightMax, interpolators, combW );
+							}
+
+							for ( int view = 0; view < numViews; view++ )
+								interpolators[ view ].close();
+
+							// close combined pixel weighteners
+							for ( int i = 0; i < combW.length; i++ )
+								combW[ i ].close();
+						}
+						catch ( final NoninvertibleModelException e )
+						{
+							failed.set( true );
+
+							if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+								IOFunctions.println( "MappingFusionBlockwise(): Model not invertible for " + viewStructure );
+						}
+					}
+				});
+
+			SimpleMultiThreading.startAndJoin( threads );
+
+			// write the slices of this slab
+			for ( int z = 0; z < depth; ++z )
+			{
+				String descDim = "" + ( slabStart + z );
+				while ( descDim.length() < digits )
+					descDim = "0" + descDim;
+
+				final ImagePlus slice = new ImagePlus( name + "_z" + descDim + ".tif", new FloatProcessor( imgW, imgH, slab[ z ], null ) );
+				final FileSaver fs = new FileSaver( slice );
+				everythingOK = everythingOK && fs.saveAsTiff( outputDirectory + slice.getTitle() );
+
+				slice.close();
+				slab[ z ] = null;
+			}
+
+			if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ALL )
+				IOFunctions.println( "(" + new Date(System.currentTimeMillis()) + "): Wrote slices " + slabStart + " to " + ( slabStart + depth - 1 ) + " of " + imgD );
+		}
+
+		if ( !everythingOK && viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+			IOFunctions.println( "MappingFusionBlockwise(): Could not write all slices to " + outputDirectory );
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Closing all input images (Channel " + channelIndex +  ").");
+
+		// unload images
+		for ( final ViewDataBeads view : views )
+			view.closeImage();
+
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Done computing output image (Channel " + channelIndex +  ").");
+	}
+
+	/**
+	 * Fuses one block of the output image into the slab of slices
+	 */
+	protected void fuseBlock( final int x0, final int y0, final int z0, final int w, final int h, final float[][] slab,
+							  final ArrayList<ViewDataBeads> views, final boolean[] useView, final AbstractAffineModel3D<?>[] models,
+							  final int[][] imageSizes, final float[] minValues, final float[] maxValues, final int[][][] halos,
+							  final float[][] weightMin, final float[][] weightMax, final Interpolator<FloatType>[] interpolators,
+							  final CombinedPixelWeightener<?>[] combW ) throws NoninvertibleModelException
+	{
+		final int numViews = views.size();
+		final int numIso = isolatedWeightenerFactories.size();
+		final int d = slab.length;
+
+		// temporary float array
+		final float[] tmp = new float[ 3 ];
+		final Point3f p = new Point3f();
+
+		// find the views that overlap with this block and the part of them it maps to
+		final boolean[] overlaps = new boolean[ numViews ];
+		final int[][] partMin = new int[ numViews ][ 3 ];
+		final int[][] partMax = new int[ numViews ][ 3 ];
+
+		for ( int i = 0; i < numViews; ++i )
+		{
+			if ( !useView[ i ] )
+				continue;
+
+			final float[] bbMin = new float[]{ Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+			final float[] bbMax = new float[]{ -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+
+			for ( int c = 0; c < 8; ++c )
+			{
+				p.x = ( x0 + ( ( c & 1 ) == 0 ? 0 : w - 1 ) + cropOffsetX ) * scale + min.x;
+				p.y = ( y0 + ( ( c & 2 ) == 0 ? 0 : h - 1 ) + cropOffsetY ) * scale + min.y;
+				p.z = ( z0 + ( ( c & 4 ) == 0 ? 0 : d - 1 ) + cropOffsetZ ) * scale + min.z;
+
+				mpicbg.spim.mpicbg.Java3d.applyInverseInPlace( models[ i ], p, tmp );
+
+				bbMin[ 0 ] = Math.min( bbMin[ 0 ], p.x ); bbMax[ 0 ] = Math.max( bbMax[ 0 ], p.x );
+				bbMin[ 1 ] = Math.min( bbMin[ 1 ], p.y ); bbMax[ 1 ] = Math.max( bbMax[ 1 ], p.y );
+				bbMin[ 2 ] = Math.min( bbMin[ 2 ], p.z ); bbMax[ 2 ] = Math.max( bbMax[ 2 ], p.z );
+			}
+
+			overlaps[ i ] = true;
+
+			for ( int e = 0; e < 3; ++e )
+			{
+				// one more pixel for the interpolation
+				partMin[ i ][ e ] = Math.max( 0, (int)Math.floor( bbMin[ e ] ) - 1 );
+				partMax[ i ][ e ] = Math.min( imageSizes[ i ][ e ] - 1, (int)Math.ceil( bbMax[ e ] ) + 1 );
+
+				if ( partMin[ i ][ e ] > partMax[ i ][ e ] )
+					overlaps[ i ] = false;
+			}
+		}
+
+		// compute the isolated weights for the overlapping parts of the views
+		final LocalizableByDimCursor<FloatType>[][] isoIterators = new LocalizableByDimCursor[ numIso ][ numViews ];
+		final int[][][] isoOffsets = new int[ numIso ][ numViews ][];
+		final int[][][] isoSizes = new int[ numIso ][ numViews ][];
+
+		for ( int f = 0; f < numIso; ++f )
+			for ( int i = 0; i < numViews; ++i )
+				if ( overlaps[ i ] )
+				{
+					final int[] offset = new int[ 3 ];
+					final int[] size = new int[ 3 ];
+
+					for ( int e = 0; e < 3; ++e )
+					{
+						offset[ e ] = Math.max( 0, partMin[ i ][ e ] - halos[ f ][ i ][ e ] );
+						size[ e ] = Math.min( imageSizes[ i ][ e ] - 1, partMax[ i ][ e ] + halos[ f ][ i ][ e ] ) - offset[ e ] + 1;
+					}
+
+					final Image<FloatType> part = extractNormalizedPart( views.get( i ).getImage( false ), offset, size, minValues[ i ], maxValues[ i ] );
+					final Image<FloatType> weights = isolatedWeightenerFactories.get( f ).computeWeights( views.get( i ), part );
+					part.close();
+
+					if ( weights == null )
+					{
+						overlaps[ i ] = false;
+						continue;
+					}
+
+					if ( isolatedWeightenerFactories.get( f ).normalizesWeights() )
+					{
+						final float diff = weightMax[ f ][ i ] - weightMin[ f ][ i ];
+
+						if ( diff > 0 )
+							for ( final FloatType t : weights )
+								t.set( ( t.get() - weightMin[ f ][ i ] ) / diff );
+					}
+
+					isoIterators[ f ][ i ] = weights.createLocalizableByDimCursor();
+					isoOffsets[ f ][ i ] = offset;
+					isoSizes[ f ][ i ] = size;
+				}
+
+		final int[][] loc = new int[ numViews ][ 3 ];
+		final float[][] locf = new float[ numViews ][ 3 ];
+		final int[] pos = new int[ 3 ];
+		final boolean[] use = new boolean[ numViews ];
+
+		for ( int z = 0; z < d; ++z )
+			for ( int y = y0; y < y0 + h; ++y )
+				for ( int x = x0; x < x0 + w; ++x )
+				{
+					int num = 0;
+					for ( int i = 0; i < numViews; ++i )
+					{
+						use[ i ] = false;
+
+						if ( overlaps[ i ] )
+						{
+							p.x = ( x + cropOffsetX ) * scale + min.x;
+							p.y = ( y + cropOffsetY ) * scale + min.y;
+							p.z = ( z + z0 + cropOffsetZ ) * scale + min.z;
+
+							mpicbg.spim.mpicbg.Java3d.applyInverseInPlace( models[ i ], p, tmp );
+
+							loc[ i ][ 0 ] = Util.round( p.x );
+							loc[ i ][ 1 ] = Util.round( p.y );
+							loc[ i ][ 2 ] = Util.round( p.z );
+
+							locf[ i ][ 0 ] = p.x;
+							locf[ i ][ 1 ] = p.y;
+							locf[ i ][ 2 ] = p.z;
+
+							// do we hit the source image?
+							if ( loc[ i ][ 0 ] >= 0 && loc[ i ][ 1 ] >= 0 && loc[ i ][ 2 ] >= 0 &&
+								 loc[ i ][ 0 ] < imageSizes[ i ][ 0 ] &&
+								 loc[ i ][ 1 ] < imageSizes[ i ][ 1 ] &&
+								 loc[ i ][ 2 ] < imageSizes[ i ][ 2 ] )
+							{
+								use[ i ] = true;
+								++num;
+							}
+						}
+					}
+
+					if ( num > 0 )
+					{
+						// update combined weighteners
+						if ( combW.length > 0 )
+							for ( final CombinedPixelWeightener<?> cw : combW )
+								cw.updateWeights( locf, use );
+
+						float sumWeights = 0;
+						float value = 0;
+
+						for ( int view = 0; view < numViews; ++view )
+							if ( use[ view ] )
+							{
+								float weight = 1;
+
+								// multiplicate combined weights
+								if ( combW.length > 0 )
+									for ( final CombinedPixelWeightener<?> cw : combW )
+										weight *= cw.getWeight( view );
+
+								// multiplicate isolated weights, they are relative to the part of the view
+								for ( int f = 0; f < numIso; f++ )
+								{
+									for ( int e = 0; e < 3; ++e )
+										pos[ e ] = Math.min( isoSizes[ f ][ view ][ e ] - 1, Math.max( 0, loc[ view ][ e ] - isoOffsets[ f ][ view ][ e ] ) );
+
+									isoIterators[ f ][ view ].setPosition( pos );
+									weight *= isoIterators[ f ][ view ].getType().get();
+								}
+
+								interpolators[ view ].setPosition( locf[ view ] );
+
+								value += weight * interpolators[ view ].getType().get();
+								sumWeights += weight;
+							}
+
+						if ( sumWeights > 0 )
+							slab[ z ][ y * imgW + x ] = value/sumWeights;
+					}
+				}
+
+		// close the isolated weights of this block
+		for ( int f = 0; f < numIso; ++f )
+			for ( int i = 0; i < numViews; ++i )
+				if ( isoIterators[ f ][ i ] != null )
+				{
+					final Image<FloatType> weights = isoIterators[ f ][ i ].getImage();
+					isoIterators[ f ][ i ].close();
+					weights.close();
+				}
+	}
+
+	/**
+	 * Computes the range of the weights of an isolated weightener over the whole view, part by part
+	 *
+	 * @return - float[]{ min, max }
+	 */
+	protected float[] computeWeightRange( final IsolatedPixelWeightenerFactory<?> factory, final ViewDataBeads view, final int[] halo,
+										  final float minValue, final float maxValue, final int numThreads )
+	{
+		final Image<FloatType> image = view.getImage( false );
+		final int[] imageSize = view.getImageSize();
+		final int[] numParts = new int[ 3 ];
+
+		for ( int e = 0; e < 3; ++e )
+			numParts[ e ] = ( imageSize[ e ] + blockSize - 1 ) / blockSize;
+
+		final int numPartsTotal = numParts[ 0 ] * numParts[ 1 ] * numParts[ 2 ];
+		final float[] range = new float[]{ Float.MAX_VALUE, -Float.MAX_VALUE };
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					float myMin = Float.MAX_VALUE;
+					float myMax = -Float.MAX_VALUE;
+
+					final int[] partPos = new int[ 3 ];
+					final int[] offset = new int[ 3 ];
+					final int[] size = new int[ 3 ];
+					final int[] innerMin = new int[ 3 ];
+					final int[] innerMax = new int[ 3 ];
+					final int[] pos = new int[ 3 ];
+
+					for ( int n = ai.getAndIncrement(); n < numPartsTotal; n = ai.getAndIncrement() )
+					{
+						partPos[ 0 ] = n % numParts[ 0 ];
+						partPos[ 1 ] = ( n / numParts[ 0 ] ) % numParts[ 1 ];
+						partPos[ 2 ] = n / ( numParts[ 0 ] * numParts[ 1 ] );
+
+						for ( int e = 0; e < 3; ++e )
+						{
+							final int start = partPos[ e ] * blockSize;
+							final int end = Math.min( imageSize[ e ], start + blockSize ) - 1;
+
+							offset[ e ] = Math.max( 0, start - halo[ e ] );
+							size[ e ] = Math.min( imageSize[ e ] - 1, end + halo[ e ] ) - offset[ e ] + 1;
+							innerMin[ e ] = start - offset[ e ];
+							innerMax[ e ] = end - offset[ e ];
+						}
+
+						final Image<FloatType> part = extractNormalizedPart( image, offset, size, minValue, maxValue );
+						final Image<FloatType> weights = factory.computeWeights( view, part );
+						part.close();
+
+						if ( weights == null )
+							continue;
+
+						// only the inner part is correct
+						final LocalizableCursor<FloatType> cursor = weights.createLocalizableCursor();
+
+						while ( cursor.hasNext() )
+						{
+							cursor.fwd();
+							cursor.getPosition( pos );
+
+							if ( pos[ 0 ] >= innerMin[ 0 ] && pos[ 1 ] >= innerMin[ 1 ] && pos[ 2 ] >= innerMin[ 2 ] &&
+								 pos[ 0 ] <= innerMax[ 0 ] && pos[ 1 ] <= innerMax[ 1 ] && pos[ 2 ] <= innerMax[ 2 ] )
+							{
+								final float v = cursor.getType().get();
+
+								if ( v < myMin ) myMin = v;
+								if ( v > myMax ) myMax = v;
+							}
+						}
+
+						cursor.close();
+						weights.close();
+					}
+
+					synchronized ( range )
+					{
+						range[ 0 ] = Math.min( range[ 0 ], myMin );
+						range[ 1 ] = Math.max( range[ 1 ], myMax );
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		return range;
+	}
+
+	/**
+	 * Copies a part of the unnormalized input image into a new image, normalized to [0...1] by the range of the whole view
+	 */
+	protected static Image<FloatType> extractNormalizedPart( final Image<FloatType> image, final int[] offset, final int[] size, final float minValue, final float maxValue )
+	{
+		final ImageFactory<FloatType> factory = new ImageFactory<FloatType>( new FloatType(), new ArrayContainerFactory() );
+		final Image<FloatType> part = factory.createImage( size.clone() );
+
+		final float diff = maxValue - minValue;
+		final LocalizableCursor<FloatType> cursor = part.createLocalizableCursor();
+		final LocalizableByDimCursor<FloatType> source = image.createLocalizableByDimCursor();
+		final int[] pos = new int[ offset.length ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( pos );
+
+			for ( int e = 0; e < pos.length; ++e )
+				pos[ e ] += offset[ e ];
+
+			source.setPosition( pos );
+
+			if ( diff > 0 )
+				cursor.getType().set( ( source.getType().get() - minValue ) / diff );
+		}
+
+		cursor.close();
+		source.close();
+
+		return part;
+	}
+
+	/**
+	 * The fused image is written while fusing and never held in memory
+	 */
+	@Override
+	public Image<FloatType> getFusedImage() { return null; }
+
+	@Override
+	public boolean saveAsTiffs( final String dir, final String name, final int channelIndex ) { return true; }
+
+	@Override
+	public void closeImages() {}
+}
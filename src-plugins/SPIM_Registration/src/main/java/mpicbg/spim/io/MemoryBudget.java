@@ -0,0 +1,70 @@
+package mpicbg.spim.io;
+
+/**
+ * Keeps track of the memory reserved by tasks that run concurrently, so that they only run at the same time while
+ * the sum of their estimated requirements fits into the budget. A task that exceeds the budget on its own still runs, but alone.
+ */
+public class MemoryBudget
+{
+	final long budget;
+	long reserved = 0;
+
+	public MemoryBudget( final long budget )
+	{
+		this.budget = budget;
+	}
+
+	public MemoryBudget( final SPIMConfiguration conf )
+	{
+		this( getBudget( conf ) );
+	}
+
+	/**
+	 * @param conf - the configuration
+	 * @return the memory budget in bytes, half of the maximal heap size if it is not set
+	 */
+	public static long getBudget( final SPIMConfiguration conf )
+	{
+		if ( conf.memoryBudget > 0 )
+			return conf.memoryBudget;
+		else
+			return Runtime.getRuntime().maxMemory() / 2;
+	}
+
+	/**
+	 * @return the number of bytes currently used on the heap
+	 */
+	public static long getUsedMemory()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Waits until the bytes fit into the budget and reserves them
+	 *
+	 * @param bytes - the estimated memory requirement of the task
+	 */
+	public synchronized void acquire( final long bytes ) throws InterruptedException
+	{
+		while ( reserved > 0 && reserved + bytes > budget )
+			wait();
+
+		reserved += bytes;
+	}
+
+	/**
+	 * Gives back bytes reserved by acquire()
+	 *
+	 * @param bytes - the estimated memory requirement of the task
+	 */
+	public synchronized void release( final long bytes )
+	{
+		reserved -= bytes;
+		notifyAll();
+	}
+
+	public long getBudget() { return budget; }
+	public synchronized long getReserved() { return reserved; }
+}
@@ -50,6 +50,8 @@
 	public int debugLevelInt = ViewStructure.DEBUG_MAIN;
 	public boolean showImageJWindow = false;
 	public boolean multiThreadedOpening = false;
+	public boolean prefetchTimepoints = false;
+	public long memoryBudget = 0;
 	public boolean collectRegistrationStatistics = false;
 	public String transformationModel = "Affine";
 	// time lapse
@@ -90,6 +92,8 @@
     public boolean sequentialFusion = false;
     public int numParalellViews = 1;
     public boolean multipleImageFusion = false;
+    public boolean blockwiseFusion = false;
+    public int fusionBlockSize = 256;
     public boolean isDeconvolution = false;
     public Multi_View_Deconvolution instance = null;
 
@@ -126,6 +130,7 @@
 	public int steps = 3;
 	public boolean detectSmallestStructures = false;
 	public int scaleSpaceNumberOfThreads = 0;
+	public int segmentationTileSize = 256;
 
 	// PointDescriptor properties
 	public double differenceThreshold = 50;
@@ -751,6 +756,9 @@ public void printProperties()
     	IOFunctions.println("registrationFiledirectory: " + registrationFiledirectory);
     	IOFunctions.println("debugLevel: " + debugLevel);
     	IOFunctions.println("showImageJWindow: " + showImageJWindow);
+    	IOFunctions.println("multiThreadedOpening: " + multiThreadedOpening);
+    	IOFunctions.println("prefetchTimepoints: " + prefetchTimepoints);
+    	IOFunctions.println("memoryBudget: " + memoryBudget);
 
     	IOFunctions.println("timeLapseRegistration: " + timeLapseRegistration);
     	IOFunctions.println("referenceTimePoint: " + referenceTimePoint);
@@ -783,6 +791,8 @@ public void printProperties()
     	IOFunctions.println("paralellFusion: " + paralellFusion);
     	IOFunctions.println("sequentialFusion: " + sequentialFusion);
     	IOFunctions.println("multipleImageFusion: " + multipleImageFusion);
+    	IOFunctions.println("blockwiseFusion: " + blockwiseFusion);
+    	IOFunctions.println("fusionBlockSize: " + fusionBlockSize);
 
     	IOFunctions.println("registerOnly: " + registerOnly);
     	IOFunctions.println("readSegmentation: " + readSegmentation);
@@ -811,6 +821,7 @@ public void printProperties()
     	IOFunctions.println("initialSigma: " + initialSigma);
     	IOFunctions.println("stepsPerOctave: " + stepsPerOctave);
     	IOFunctions.println("steps: " + steps);
+    	IOFunctions.println("segmentationTileSize: " + segmentationTileSize);
 
     	// PointDescriptor properties
     	IOFunctions.println("differenceThreshold: " + differenceThreshold);
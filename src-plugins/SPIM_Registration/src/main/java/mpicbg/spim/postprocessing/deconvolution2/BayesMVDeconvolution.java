@@ -8,7 +8,6 @@
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.cursor.Cursor;
 import mpicbg.imglib.image.Image;
@@ -40,6 +39,10 @@ public class BayesMVDeconvolution implements Deconvolver
 	// the multi-view deconvolved image
 	Image<FloatType> psi;
 	
+	// temporary images that are reused by all views and iterations, null if no view is convolved in blocks
+	final Image<FloatType> psiBlurredBuffer, integralBuffer;
+	Image<FloatType> lastIterationBuffer = null;
+	
 	// the input data
 	final LRInput views;
 	ArrayList<LRFFT> data;
@@ -56,6 +59,23 @@ public BayesMVDeconvolution( final LRInput views, final PSFTYPE iterationType, f
 		
 		this.psi = data.get( 0 ).getImage().createNewImage( "psi (deconvolved image)" );
 		
+		// only the convolutions in blocks write into the buffers, the convolution 
+		// of the entire image at once returns the result of the FFT instead
+		boolean useBlocks = false;
+		for ( final LRFFT view : data )
+			useBlocks |= view.useBlocks;
+		
+		if ( useBlocks )
+		{
+			this.psiBlurredBuffer = psi.createNewImage( "psi blurred" );
+			this.integralBuffer = psi.createNewImage( "integral" );
+		}
+		else
+		{
+			this.psiBlurredBuffer = null;
+			this.integralBuffer = null;
+		}
+		
 		this.avg = (float)AdjustInput.normAllImages( data, speedUp );
 		
 		IJ.log( "Average intensity in overlapping area: " + avg );        
@@ -137,24 +157,36 @@ else if ( stack.getSize() == this.psi.getDimension( 2 ) )
 	
 	public void runIteration() 
 	{
-		runIteration( psi, data, lambda, minValue, collectStatistics, i++ );
+		if ( collectStatistics && lastIterationBuffer == null )
+			lastIterationBuffer = psi.createNewImage( "last iteration" );
+		
+		runIteration( psi, data, lambda, minValue, collectStatistics, i++, psiBlurredBuffer, integralBuffer, lastIterationBuffer );
 	}
 
 	final private static void runIteration( final Image< FloatType> psi, final ArrayList< LRFFT > data, 
-			final double lambda, final float minValue, final boolean collectStatistic, final int iteration )
+			final double lambda, final float minValue, final boolean collectStatistic, final int iteration,
+			final Image< FloatType > psiBlurredBuffer, final Image< FloatType > integralBuffer, final Image< FloatType > lastIteration )
 	{
 		IJ.log( "iteration: " + iteration + " (" + new Date(System.currentTimeMillis()) + ")" );
 		
 		final int numViews = data.size();
-		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( psi.getNumPixels(), Runtime.getRuntime().availableProcessors() );
+		final WorkerPool pool = WorkerPool.getSharedInstance();
+		final Vector< Chunk > threadChunks = SimpleMultiThreading.divideIntoChunks( psi.getNumPixels(), pool.getNumThreads() );
 		final int numThreads = threadChunks.size();
 		
-		final Image< FloatType > lastIteration;
-		
 		if ( collectStatistic )
-			lastIteration = psi.clone();
-		else
-			lastIteration = null;
+		{
+			pool.run( numThreads, new WorkerPool.Task()
+			{
+				public void run( final int myNumber )
+				{
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( myNumber );
+
+                	copy( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, lastIteration );
+				}
+			});
+		}
 
 		//int view = iteration % numViews;
 		for ( int view = 0; view < numViews; ++view )
@@ -164,7 +196,7 @@ final private static void runIteration( final Image< FloatType> psi, final Array
 			long time = System.currentTimeMillis();
 			
 			// convolve psi (current guess of the image) with the PSF of the current view
-			final Image<FloatType> psiBlurred = processingData.convolve1( psi );
+			final Image<FloatType> psiBlurred = processingData.convolve1( psi, psiBlurredBuffer );
 			
 			//System.out.println( view + " 1: " + fftConvolution.getProcessingTime() + " ms." );
 			System.out.println( view + " a: " + (time - System.currentTimeMillis()) + " ms." );
@@ -172,52 +204,37 @@ final private static void runIteration( final Image< FloatType> psi, final Array
 			// size = 666, 363, 537
 			
 			// compute quotient img/psiBlurred
-			final AtomicInteger ai = new AtomicInteger(0);					
-	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-	        for ( int ithread = 0; ithread < threads.length; ++ithread )
-	            threads[ithread] = new Thread(new Runnable()
-	            {
-	                public void run()
-	                {
-	                	// Thread ID
-	                	final int myNumber = ai.getAndIncrement();
-	        
-	                	// get chunk of pixels to process
-	                	final Chunk myChunk = threadChunks.get( myNumber );
-	                	
-	            		computeQuotient( myChunk.getStartPosition(), myChunk.getLoopSize(), psiBlurred, processingData );                		
-	                }
-	            });
-	        
-	        SimpleMultiThreading.startAndJoin( threads );
+			pool.run( numThreads, new WorkerPool.Task()
+			{
+				public void run( final int myNumber )
+				{
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( myNumber );
+                	
+            		computeQuotient( myChunk.getStartPosition(), myChunk.getLoopSize(), psiBlurred, processingData );                		
+				}
+			});
 
 			//System.out.println( view + " b: " + (time - System.currentTimeMillis()) + " ms." );
 
 	        time = System.currentTimeMillis();
 	        
 			// blur the residuals image with the kernel
-	        final Image< FloatType > integral = processingData.convolve2( psiBlurred );
+	        final Image< FloatType > integral = processingData.convolve2( psiBlurred, integralBuffer );
 
 			//System.out.println( view + " 2: " + invFFConvolution.getProcessingTime() + " ms." );
 			System.out.println( view + " b: " + (time - System.currentTimeMillis()) + " ms." );
 
-			ai.set( 0 );
-	        for ( int ithread = 0; ithread < threads.length; ++ithread )
-	            threads[ithread] = new Thread(new Runnable()
-	            {
-	                public void run()
-	                {
-	                	// Thread ID
-	                	final int myNumber = ai.getAndIncrement();
-	        
-	                	// get chunk of pixels to process
-	                	final Chunk myChunk = threadChunks.get( myNumber );
-	                	
-	            		computeFinalValues( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, integral, processingData.getWeight(), lambda );                		
-	                }
-	            });
-	        
-	        SimpleMultiThreading.startAndJoin( threads );
+			pool.run( numThreads, new WorkerPool.Task()
+			{
+				public void run( final int myNumber )
+				{
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( myNumber );
+                	
+            		computeFinalValues( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, integral, processingData.getWeight(), lambda );                		
+				}
+			});
 
 			// the result from the previous iteration
 			//System.out.println( view + " d: " + (time - System.currentTimeMillis()) + " ms." );
@@ -225,27 +242,18 @@ public void run()
 		
 		if ( collectStatistic )
 		{
-			final AtomicInteger ai = new AtomicInteger(0);					
-	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-	        
 	        final double[][] sumMax = new double[ numThreads ][ 2 ];
 	        
-	        for ( int ithread = 0; ithread < threads.length; ++ithread )
-	            threads[ithread] = new Thread(new Runnable()
-	            {
-	                public void run()
-	                {
-	                	// Thread ID
-	                	final int myNumber = ai.getAndIncrement();
-	        
-	                	// get chunk of pixels to process
-	                	final Chunk myChunk = threadChunks.get( myNumber );
-	                	
-	                	collectStatistics( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, lastIteration, sumMax[ myNumber ] );
-	                }
-	            });
-	        
-	        SimpleMultiThreading.startAndJoin( threads );
+			pool.run( numThreads, new WorkerPool.Task()
+			{
+				public void run( final int myNumber )
+				{
+                	// get chunk of pixels to process
+                	final Chunk myChunk = threadChunks.get( myNumber );
+                	
+                	collectStatistics( myChunk.getStartPosition(), myChunk.getLoopSize(), psi, lastIteration, sumMax[ myNumber ] );
+				}
+			});
 			
 	        // accumulate the results from the individual threads
 			double sumChange = 0;
@@ -263,6 +271,21 @@ public void run()
 		//System.out.println( "final: " + (time - System.currentTimeMillis()) + " ms." );
 	}
 	
+	private static final void copy( final long start, final long loopSize, final Image< FloatType > source, final Image< FloatType > target )
+	{
+		final Cursor< FloatType > cursorSource = source.createCursor();
+		final Cursor< FloatType > cursorTarget = target.createCursor();
+		
+		cursorSource.fwd( start );
+		cursorTarget.fwd( start );
+		
+		for ( long l = 0; l < loopSize; ++l )
+			cursorTarget.next().set( cursorSource.next() );
+		
+		cursorSource.close();
+		cursorTarget.close();
+	}
+	
 	private static final void collectStatistics( final long start, final long loopSize, final Image< FloatType > psi, final Image< FloatType > lastIteration, final double[] sumMax )
 	{
 		double sumChange = 0;
@@ -4,7 +4,6 @@
 
 import java.util.ArrayList;
 import java.util.Vector;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.algorithm.fft.FourierConvolution;
 import mpicbg.imglib.container.array.Array;
@@ -65,7 +64,7 @@ public class Block
 	 */
 	final boolean inside;
 	
-	final Vector< Chunk > threadChunks;
+	final Vector< Chunk > threadChunks, pasteChunks;
 	final int numThreads;
 	final static OutOfBoundsStrategyFactory< FloatType > factory = new OutOfBoundsStrategyMirrorFactory< FloatType >();
 	
@@ -78,38 +77,24 @@ public Block( final int[] blockSize, final int[] offset, final int[] effectiveSi
 		this.effectiveOffset = effectiveOffset.clone();
 		this.effectiveLocalOffset = effectiveLocalOffset.clone();
 		this.inside = inside;
-		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.numThreads = WorkerPool.getSharedInstance().getNumThreads();
 		
-		long n = blockSize[ 0 ];
-		for ( int d = 1; d < numDimensions; ++d )
-			n *= blockSize[ d ];
-		
-		this.threadChunks = SimpleMultiThreading.divideIntoChunks( n, numThreads );
+		this.threadChunks = SimpleMultiThreading.divideIntoChunks( numPixels( blockSize ), numThreads );
+		this.pasteChunks = SimpleMultiThreading.divideIntoChunks( numPixels( effectiveSize ), numThreads );
 	}
 		
 	public void copyBlock( final Image< FloatType > source, final Image< FloatType > block )
 	{	
-		final AtomicInteger ai = new AtomicInteger(0);					
-        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-        for ( int ithread = 0; ithread < threads.length; ++ithread )
-            threads[ithread] = new Thread(new Runnable()
-            {
-                public void run()
-                {
-                	final int threadIdx = ai.getAndIncrement();
-                	
-                	// get chunk of pixels to process
-                	final Chunk myChunk = threadChunks.get( threadIdx );
-                	
-                	if ( source.getNumDimensions() == 3 && Array.class.isInstance( block.getContainer() ) )
-                		copy3d( threadIdx, numThreads, source, block, offset, inside, factory );
-                	else
-                		copy( myChunk.getStartPosition(), myChunk.getLoopSize(), source, block, offset, inside, factory );
-                }
-            });
-        
-        SimpleMultiThreading.startAndJoin( threads );
-
+		WorkerPool.getSharedInstance().run( numThreads, new WorkerPool.Task()
+		{
+			public void run( final int threadIdx )
+			{
+            	if ( source.getNumDimensions() == 3 && Array.class.isInstance( block.getContainer() ) )
+            		copy3d( threadIdx, numThreads, source, block, offset, inside, factory );
+            	else if ( threadIdx < threadChunks.size() )
+            		copy( threadChunks.get( threadIdx ).getStartPosition(), threadChunks.get( threadIdx ).getLoopSize(), source, block, offset, inside, factory );
+			}
+		});
 	}
 
 	private static final void copy( final long start, final long loopSize, final Image< FloatType > source, final Image< FloatType > block, final int[] offset, final boolean inside, final OutOfBoundsStrategyFactory< FloatType > strategyFactory )
@@ -183,27 +168,25 @@ private static final void copy3d( final int threadIdx, final int numThreads, fin
 
 	public void pasteBlock( final Image< FloatType > target, final Image< FloatType > block )
 	{	
-		final AtomicInteger ai = new AtomicInteger(0);					
-        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-        for ( int ithread = 0; ithread < threads.length; ++ithread )
-            threads[ithread] = new Thread(new Runnable()
-            {
-                public void run()
-                {
-                	final int threadIdx = ai.getAndIncrement();
-                	
-                	// get chunk of pixels to process
-                	final Chunk myChunk = threadChunks.get( threadIdx );
-                	
-                	if ( target.getNumDimensions() == 3 && Array.class.isInstance( target.getContainer() ) )
-                		paste3d( threadIdx, numThreads, target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
-                	else
-                		paste( myChunk.getStartPosition(), myChunk.getLoopSize(), target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
-                }
-            });
-        
-        SimpleMultiThreading.startAndJoin( threads );
+		WorkerPool.getSharedInstance().run( numThreads, new WorkerPool.Task()
+		{
+			public void run( final int threadIdx )
+			{
+            	if ( target.getNumDimensions() == 3 && Array.class.isInstance( target.getContainer() ) )
+            		paste3d( threadIdx, numThreads, target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
+            	else if ( threadIdx < pasteChunks.size() )
+            		paste( pasteChunks.get( threadIdx ).getStartPosition(), pasteChunks.get( threadIdx ).getLoopSize(), target, block, effectiveOffset, effectiveSize, effectiveLocalOffset );
+			}
+		});
+	}
+
+	private static final long numPixels( final int[] size )
+	{
+		long n = size[ 0 ];
+		for ( int d = 1; d < size.length; ++d )
+			n *= size[ d ];
 
+		return n;
 	}
 
 	private static final void paste( final long start, final long loopSize, final Image< FloatType > target, final Image< FloatType > block, 
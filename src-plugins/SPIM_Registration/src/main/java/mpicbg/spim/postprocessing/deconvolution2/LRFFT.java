@@ -3,6 +3,7 @@
 import ij.IJ;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.algorithm.fft.FourierConvolution;
@@ -39,6 +40,12 @@ public static enum PSFTYPE { EXPONENT, CONDITIONAL, INDEPENDENT };
 	final int device0, numDevices;
 	final Block[] blocks;
 	final ImageFactory< FloatType > factory;
+	
+	/**
+	 * One block image per device that is reused for all blocks, views and iterations
+	 */
+	Image< FloatType >[] blockBuffers;
+	
 	/**
 	 * Used to determine if the Convolutions already have been computed for the current iteration
 	 */
@@ -105,7 +112,9 @@ else if ( this.useCUDA ) // and no blocks, i.e. one big block
 			this.blockSize = null;
 			this.factory = null;
 			this.useBlocks = false;
-		}		
+		}
+		
+		this.blockBuffers = new Image[ numDevices ];
 	}
 
 	public LRFFT( final Image<FloatType> image, final Image<FloatType> kernel, final int[] deviceList, final boolean useBlocks, final int[] blockSize )
@@ -129,6 +138,12 @@ protected void init( final PSFTYPE iterationType, final ArrayList< LRFFT > views
 		this.iterationType = iterationType;
 		this.views = views;
 
+		// the views are convolved one after the other, so they can share the block images
+		final LRFFT first = views.get( 0 );
+		
+		if ( first != this && useBlocks && first.useBlocks && first.numDevices == numDevices && Arrays.equals( first.blockSize, blockSize ) )
+			this.blockBuffers = first.blockBuffers;
+
 		if ( numViews == 0 )
 		{
 			System.out.println( "Warning, numViews was not set." );
@@ -202,7 +217,7 @@ else if ( iterationType == PSFTYPE.CONDITIONAL )
 		{
 			if ( useBlocks )
 			{
-				final Image< FloatType > block = factory.createImage( blockSize );
+				final Image< FloatType > block = getBlockBuffer( 0 );
 				
 				this.fftConvolution1 = new FourierConvolution<FloatType, FloatType>( block, this.kernel1 );				
 				this.fftConvolution1.setNumThreads();
@@ -213,6 +228,9 @@ else if ( iterationType == PSFTYPE.CONDITIONAL )
 				this.fftConvolution2.setNumThreads();
 				//this.fftConvolution2.setExtendImageByKernelSize( false );
 				this.fftConvolution2.setKeepImgFFT( false );
+				
+				// all blocks have the same size, so the FFTs of the kernels are computed by the 
+				// first convolution and kept for all blocks and iterations (replaceImage() keeps them)
 			}
 			else
 			{
@@ -232,6 +250,18 @@ else if ( iterationType == PSFTYPE.CONDITIONAL )
 		}
 	}
 	
+	/**
+	 * @param deviceIndex - the index in the device list
+	 * @return the block image used by this device, it is created once and reused afterwards
+	 */
+	protected synchronized Image< FloatType > getBlockBuffer( final int deviceIndex )
+	{
+		if ( blockBuffers[ deviceIndex ] == null )
+			blockBuffers[ deviceIndex ] = factory.createImage( blockSize );
+		
+		return blockBuffers[ deviceIndex ];
+	}
+	
 	public static Image<FloatType> computeExponentialKernel( final Image<FloatType> kernel, final int numViews )
 	{
 		final Image<FloatType> exponentialKernel = kernel.clone();
@@ -295,6 +325,18 @@ public void setKernel( final Image<FloatType> kernel )
 	 * @return
 	 */
 	public Image< FloatType > convolve1( final Image< FloatType > image )
+	{
+		return convolve1( image, null );
+	}
+
+	/**
+	 * convolves the image with kernel1
+	 * 
+	 * @param image - the image to convolve with
+	 * @param resultBuffer - the image to store the result in if blocks are used, a new one is created if it is null
+	 * @return the result
+	 */
+	public Image< FloatType > convolve1( final Image< FloatType > image, final Image< FloatType > resultBuffer )
 	{
 		if ( useCPU && !useCUDA )
 		{
@@ -302,8 +344,8 @@ public Image< FloatType > convolve1( final Image< FloatType > image )
 			{
 				IJ.log( "Using CPU only on blocks ... " );
 				
-				final Image< FloatType > result = image.createNewImage();
-				final Image< FloatType > block = factory.createImage( blockSize );
+				final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
+				final Image< FloatType > block = getBlockBuffer( 0 );
 				
 				for ( int i = 0; i < blocks.length; ++i )
 				{
@@ -324,8 +366,6 @@ public Image< FloatType > convolve1( final Image< FloatType > image )
 					LRFFTThreads.convolve1BlockCPU( blocks[ i ], i, image, result, block, fftConvolution1 );
 				}
 				
-				block.close();
-				
 				return result;
 			}
 			else
@@ -348,8 +388,8 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 			//else
 			//	IJ.log( "Using CUDA only to compute as one block ... " );
 			
-			final Image< FloatType > result = image.createNewImage();
-			final Image< FloatType > block = factory.createImage( blockSize );
+			final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
+			final Image< FloatType > block = getBlockBuffer( 0 );
 			
 			for ( int i = 0; i < blocks.length; ++i )
 			{
@@ -371,8 +411,6 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 				LRFFTThreads.convolve1BlockCUDA( blocks[ i ], i, device0, image, result, block, kernel1, blockSize );
 			}
 			
-			block.close();
-			
 			return result;
 		}
 		else
@@ -380,7 +418,7 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 			// this implies useBlocks, otherwise we cannot combine several devices
 			//IJ.log( "Using CUDA & CPU on blocks ... " );
 			
-			final Image< FloatType > result = image.createNewImage();
+			final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
 			
 			final AtomicInteger ai = new AtomicInteger();
 			final Thread[] threads = SimpleMultiThreading.newThreads( deviceList.length );
@@ -388,9 +426,9 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 			for ( int i = 0; i < deviceList.length; ++i )
 			{
 				if ( deviceList[ i ] == -1 )
-					threads[ i ] = LRFFTThreads.getCPUThread1( ai, blocks, blockSize, factory, image, result, fftConvolution1 );
+					threads[ i ] = LRFFTThreads.getCPUThread1( ai, blocks, blockSize, getBlockBuffer( i ), image, result, fftConvolution1 );
 				else
-					threads[ i ] = LRFFTThreads.getCUDAThread1( ai, blocks, blockSize, factory, image, result, deviceList[ i ], kernel1 );
+					threads[ i ] = LRFFTThreads.getCUDAThread1( ai, blocks, blockSize, getBlockBuffer( i ), image, result, deviceList[ i ], kernel1 );
 			}
 			
 			SimpleMultiThreading.startAndJoin( threads );
@@ -422,13 +460,25 @@ final public static Image<FloatType> createImageFromArray( final float[] data, f
 	 * @return
 	 */
 	public Image< FloatType > convolve2( final Image< FloatType > image )
+	{
+		return convolve2( image, null );
+	}
+
+	/**
+	 * convolves the image with kernel2 (inverted kernel1)
+	 * 
+	 * @param image - the image to convolve with
+	 * @param resultBuffer - the image to store the result in if blocks are used, a new one is created if it is null
+	 * @return the result
+	 */
+	public Image< FloatType > convolve2( final Image< FloatType > image, final Image< FloatType > resultBuffer )
 	{
 		if ( useCPU && !useCUDA )
 		{
 			if ( useBlocks )
 			{
-				final Image< FloatType > result = image.createNewImage();
-				final Image< FloatType > block = factory.createImage( blockSize );
+				final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
+				final Image< FloatType > block = getBlockBuffer( 0 );
 				
 				for ( int i = 0; i < blocks.length; ++i )
 				{
@@ -443,8 +493,6 @@ public Image< FloatType > convolve2( final Image< FloatType > image )
 					LRFFTThreads.convolve2BlockCPU( blocks[ i ], image, result, block, fftConvolution2 );
 				}
 				
-				block.close();
-				
 				return result;
 			}
 			else
@@ -457,8 +505,8 @@ public Image< FloatType > convolve2( final Image< FloatType > image )
 		}
 		else if ( useCUDA && !useCPU && numDevices == 1 )
 		{
-			final Image< FloatType > result = image.createNewImage();
-			final Image< FloatType > block = factory.createImage( blockSize );
+			final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
+			final Image< FloatType > block = getBlockBuffer( 0 );
 			
 			for ( int i = 0; i < blocks.length; ++i )
 			{
@@ -471,16 +519,14 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 
 				blocks[ i ].pasteBlock( result, block );
 				*/
-				LRFFTThreads.convolve2BlockCUDA( blocks[ i ], device0, image, result, block, block, blockSize );
+				LRFFTThreads.convolve2BlockCUDA( blocks[ i ], device0, image, result, block, kernel2, blockSize );
 			}
 			
-			block.close();
-			
 			return result;
 		}
 		else
 		{
-			final Image< FloatType > result = image.createNewImage();
+			final Image< FloatType > result = resultBuffer != null ? resultBuffer : image.createNewImage();
 			
 			final AtomicInteger ai = new AtomicInteger();
 			final Thread[] threads = SimpleMultiThreading.newThreads( deviceList.length );
@@ -488,9 +534,9 @@ else if ( useCUDA && !useCPU && numDevices == 1 )
 			for ( int i = 0; i < deviceList.length; ++i )
 			{
 				if ( deviceList[ i ] == -1 )
-					threads[ i ] = LRFFTThreads.getCPUThread2( ai, blocks, blockSize, factory, image, result, fftConvolution2 );
+					threads[ i ] = LRFFTThreads.getCPUThread2( ai, blocks, blockSize, getBlockBuffer( i ), image, result, fftConvolution2 );
 				else
-					threads[ i ] = LRFFTThreads.getCUDAThread2( ai, blocks, blockSize, factory, image, result, deviceList[ i ], kernel2 );
+					threads[ i ] = LRFFTThreads.getCUDAThread2( ai, blocks, blockSize, getBlockBuffer( i ), image, result, deviceList[ i ], kernel2 );
 			}
 			
 			SimpleMultiThreading.startAndJoin( threads );
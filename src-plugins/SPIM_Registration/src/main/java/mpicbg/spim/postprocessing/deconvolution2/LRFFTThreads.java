@@ -6,7 +6,6 @@
 import mpicbg.imglib.container.array.Array;
 import mpicbg.imglib.container.basictypecontainer.array.FloatArray;
 import mpicbg.imglib.image.Image;
-import mpicbg.imglib.image.ImageFactory;
 import mpicbg.imglib.type.numeric.real.FloatType;
 
 public class LRFFTThreads 
@@ -67,92 +66,76 @@ final protected static void convolve2BlockCUDA( final Block blockStruct, final i
 		blockStruct.pasteBlock( result, block );		
 	}
 	
-	final protected static Thread getCPUThread1( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory,
+	final protected static Thread getCPUThread1( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final Image< FloatType > block,
 			final Image<FloatType> image, final Image<FloatType> result, final FourierConvolution<FloatType, FloatType> fftConvolution1 )
 	{
 		final Thread cpuThread1 = new Thread(new Runnable()
 		{
 			public void run()
 			{
-				final Image< FloatType > block = factory.createImage( blockSize );
-
 				int i;
 
 				while ( ( i = ai.getAndIncrement() ) < blocks.length )
 				{
 					convolve1BlockCPU( blocks[ i ], i, image, result, block, fftConvolution1 );					
 				}
-				
-				block.close();
 			}
 		});
 		
 		return cpuThread1;
 	}
 
-	final protected static Thread getCPUThread2( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory,
+	final protected static Thread getCPUThread2( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final Image< FloatType > block,
 			final Image<FloatType> image, final Image<FloatType> result, final FourierConvolution<FloatType, FloatType> fftConvolution2 )
 	{
 		final Thread cpuThread2 = new Thread(new Runnable()
 		{
 			public void run()
 			{
-				final Image< FloatType > block = factory.createImage( blockSize );
-
 				int i;
 
 				while ( ( i = ai.getAndIncrement() ) < blocks.length )
 				{
 					convolve2BlockCPU( blocks[ i ], image, result, block, fftConvolution2 );					
 				}
-				
-				block.close();
 			}
 		});
 		
 		return cpuThread2;
 	}
 
-	final protected static Thread getCUDAThread1( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory,
+	final protected static Thread getCUDAThread1( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final Image< FloatType > block,
 			final Image<FloatType> image, final Image<FloatType> result, final int deviceId, final Image<FloatType> kernel1 )
 	{
 		final Thread cudaThread1 = new Thread(new Runnable()
 		{
 			public void run()
 			{
-				final Image< FloatType > block = factory.createImage( blockSize );
-
 				int i;
 
 				while ( ( i = ai.getAndIncrement() ) < blocks.length )
 				{
 					convolve1BlockCUDA( blocks[ i ], i, deviceId, image, result, block, kernel1, blockSize );					
 				}
-				
-				block.close();
 			}
 		});
 		
 		return cudaThread1;
 	}
 
-	final protected static Thread getCUDAThread2( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final ImageFactory< FloatType > factory,
+	final protected static Thread getCUDAThread2( final AtomicInteger ai, final Block[] blocks, final int[] blockSize, final Image< FloatType > block,
 			final Image<FloatType> image, final Image<FloatType> result, final int deviceId, final Image<FloatType> kernel2 )
 	{
 		final Thread cudaThread2 = new Thread(new Runnable()
 		{
 			public void run()
 			{
-				final Image< FloatType > block = factory.createImage( blockSize );
-
 				int i;
 
 				while ( ( i = ai.getAndIncrement() ) < blocks.length )
 				{
 					convolve2BlockCUDA( blocks[ i ], deviceId, image, result, block, kernel2, blockSize );					
 				}
-				
-				block.close();
 			}
 		});
 		
@@ -0,0 +1,130 @@
+package mpicbg.spim.postprocessing.deconvolution2;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent pool of threads for the deconvolution, so that copying blocks and the per-pixel steps of every
+ * iteration do not create new threads each time.
+ */
+public class WorkerPool
+{
+	public interface Task
+	{
+		/**
+		 * @param taskIndex - the index of the task, from 0 to numTasks - 1
+		 */
+		public void run( int taskIndex );
+	}
+
+	private static WorkerPool sharedInstance = null;
+
+	final ExecutorService executor;
+	final int numThreads;
+
+	// marks the threads of this pool, tasks that submit tasks themselves run them directly to avoid deadlocks
+	final ThreadLocal< Boolean > isWorker = new ThreadLocal< Boolean >();
+
+	public WorkerPool( final int numThreads )
+	{
+		this.numThreads = numThreads;
+
+		final AtomicInteger threadCount = new AtomicInteger( 0 );
+
+		this.executor = Executors.newFixedThreadPool( numThreads, new ThreadFactory()
+		{
+			public Thread newThread( final Runnable r )
+			{
+				final Thread thread = new Thread( new Runnable()
+				{
+					public void run()
+					{
+						isWorker.set( true );
+						r.run();
+					}
+				}, "Deconvolution worker " + threadCount.getAndIncrement() );
+
+				thread.setDaemon( true );
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return - a pool with one thread per processor that lives as long as the JVM
+	 */
+	public static synchronized WorkerPool getSharedInstance()
+	{
+		if ( sharedInstance == null )
+			sharedInstance = new WorkerPool( Runtime.getRuntime().availableProcessors() );
+
+		return sharedInstance;
+	}
+
+	public int getNumThreads() { return numThreads; }
+
+	/**
+	 * Runs the tasks in the pool and waits until all of them are done
+	 *
+	 * @param numTasks - the number of tasks
+	 * @param task - the task, called with every index from 0 to numTasks - 1
+	 */
+	public void run( final int numTasks, final Task task )
+	{
+		if ( isWorker.get() != null || numTasks == 1 )
+		{
+			for ( int t = 0; t < numTasks; ++t )
+				task.run( t );
+
+			return;
+		}
+
+		final ArrayList< Future< ? > > futures = new ArrayList< Future< ? > >( numTasks );
+
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int taskIndex = t;
+
+			futures.add( executor.submit( new Runnable()
+			{
+				public void run()
+				{
+					task.run( taskIndex );
+				}
+			}));
+		}
+
+		for ( final Future< ? > future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				if ( e.getCause() instanceof RuntimeException )
+					throw (RuntimeException)e.getCause();
+				else if ( e.getCause() instanceof Error )
+					throw (Error)e.getCause();
+				else
+					throw new RuntimeException( e.getCause() );
+			}
+		}
+	}
+
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
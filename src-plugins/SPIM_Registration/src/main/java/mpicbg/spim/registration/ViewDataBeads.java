@@ -258,6 +258,7 @@ public int[] getImageSizeOffset()
 	 * @return - the number of dimensions
 	 */
 	public int getNumDimensions() { return getImageSize().length; }
+	public float getMinValueUnnormed() { return minValue; }
 	public float getMaxValueUnnormed() { return maxValue; }
 
 	/**
@@ -542,6 +543,32 @@ public static float[] normalizeImage( final Image<FloatType> image )
 		return new float[]{ min, max };
 	}
 
+	/**
+	 * Estimates the memory the input image needs once it is opened as float image, from its dimensions if they are known
+	 * and otherwise from the size of the file assuming 8 bit
+	 *
+	 * @return the estimated number of bytes, 0 if unknown
+	 */
+	public long estimateImageBytes()
+	{
+		if ( imageSize != null )
+		{
+			long bytes = 4;
+
+			for ( final int d : imageSize )
+				bytes *= d;
+
+			return bytes;
+		}
+
+		final File f = new File( getFileName() );
+
+		if ( f.isFile() )
+			return 4 * f.length();
+		else
+			return 0;
+	}
+
 	/**
 	 * Closes the input image stack of this view
 	 */
@@ -5,6 +5,11 @@
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Point3d;
@@ -14,7 +19,9 @@
 import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussianPeak;
 import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussianReal1;
 import mpicbg.imglib.algorithm.scalespace.SubpixelLocalization;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
 import mpicbg.imglib.cursor.LocalizableByDimCursor3D;
+import mpicbg.imglib.cursor.LocalizableCursor;
 import mpicbg.imglib.cursor.special.HyperSphereIterator;
 import mpicbg.imglib.image.Image;
 import mpicbg.imglib.image.ImageFactory;
@@ -27,6 +34,7 @@
 import mpicbg.models.IllDefinedDataPointsException;
 import mpicbg.models.NotEnoughDataPointsException;
 import mpicbg.spim.io.IOFunctions;
+import mpicbg.spim.io.MemoryBudget;
 import mpicbg.spim.io.SPIMConfiguration;
 import mpicbg.spim.registration.ViewDataBeads;
 import mpicbg.spim.registration.ViewStructure;
@@ -37,6 +45,9 @@
 public class BeadSegmentation
 {	
 	public static final boolean debugBeads = false;
+	
+	// the number of pixels the subpixel localization may move a peak
+	protected static final int subpixelMaxNumMoves = 10;
 	public ViewStructure viewStructure;
 	
 	public BeadSegmentation( final ViewStructure viewStructure ) 
@@ -51,61 +62,68 @@ public void segment( )
 	
 	public void segment( final SPIMConfiguration conf, final ArrayList<ViewDataBeads> views )
 	{
-		final float threshold = conf.threshold;
-				
+		final int numThreads = conf.numberOfThreads > 0 ? conf.numberOfThreads : Runtime.getRuntime().availableProcessors();
+		
+		// all tiles of all views are segmented by this fixed set of threads
+		final ExecutorService tilePool = Executors.newFixedThreadPool( numThreads );
+		
+		try
+		{
+			segment( conf, views, numThreads, tilePool );
+		}
+		finally
+		{
+			tilePool.shutdown();
+		}
+	}
+	
+	protected void segment( final SPIMConfiguration conf, final ArrayList<ViewDataBeads> views, final int maxThreads, final ExecutorService tilePool )
+	{
 		//
 		// Extract the beads
 		// 		
-		if ( conf.multiThreadedOpening )
+		if ( conf.multiThreadedOpening && views.size() > 1 )
 		{
-			final int numThreads = views.size();
-			
-			for ( final ViewDataBeads view : views )
-				if ( view.getUseForRegistration() )
-					view.getImage();
+			// segment several views at once, but only as many as fit into the memory budget
+			final MemoryBudget budget = new MemoryBudget( conf );
+			final int numThreads = Math.min( views.size(), maxThreads );
+
+			if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+				IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Segmenting up to " + numThreads + " views at once within " + budget.getBudget()/(1024*1024) + " MB" );
 
 			final AtomicInteger ai = new AtomicInteger(0);					
-	        Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+	        final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
 
 			for (int ithread = 0; ithread < threads.length; ++ithread)
 	            threads[ithread] = new Thread(new Runnable()
 	            {
 	                public void run()
 	                {
-	                    final int myNumber = ai.getAndIncrement();
-
-	                    final ViewDataBeads view = views.get( myNumber );
-	                    
-	                    if ( view.getUseForRegistration() )
-	                    {	                    
-		        			if (conf.useScaleSpace)					
-		        			{
-		        	    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-		        	    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Scale Space Bead Extraction for " + view.getName() );
-		        				
-		        	    		view.setBeadStructure( extractBeadsLaPlaceImgLib( view, conf ) );
-
-		        				view.closeImage();
-		        			}
-		        			else
-		        			{
-		        	    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-		        	    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Threshold Bead Extraction");					
-		        				
-		        				view.setBeadStructure( extractBeadsThresholdSegmentation( view, threshold, conf.minSize, conf.maxSize, conf.minBlackBorder) );
-		        				
-		        				view.closeImage();				
-		        			}
-		        				
-		        			if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-		        				IOFunctions.println( "Found peaks (possible beads): " + view.getBeadStructure().getBeadList().size() );
-		        			
-		        			//
-		        			// Store segmentation in a file
-		        			//
-		        			if ( conf.writeSegmentation )
-		        				IOFunctions.writeSegmentation( view, conf.registrationFiledirectory );
-	                    }
+	                	for ( int i = ai.getAndIncrement(); i < views.size(); i = ai.getAndIncrement() )
+	                	{
+		                    final ViewDataBeads view = views.get( i );
+		                    
+		                    // the input image plus the temporary images of the segmentation
+		                    final long bytes = view.estimateImageBytes() * ( conf.useScaleSpace ? 4 : 2 );
+		                    
+		                    try
+		                    {
+		                    	budget.acquire( bytes );
+		                    }
+		                    catch ( InterruptedException e )
+		                    {
+		                    	return;
+		                    }
+		                    
+		                    try
+		                    {
+		                    	segment( conf, view, tilePool );
+		                    }
+		                    finally
+		                    {
+		                    	budget.release( bytes );
+		                    }
+	                	}
 	                }
 	            });
 			
@@ -114,47 +132,57 @@ public void run()
 		else
 		{		
 			for ( final ViewDataBeads view : views )
-			{
-				if (conf.useScaleSpace)					
-				{
-		    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-		    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Scale Space Bead Extraction for " + view.getName() );
-					
-		    		view.setBeadStructure( extractBeadsLaPlaceImgLib( view, conf ) );
-		    		
-		    		if ( debugBeads )
-		    		{
-						Image<FloatType> img = getFoundBeads( view );				
-						img.setName( "imglib" );
-						img.getDisplay().setMinMax();
-						ImageJFunctions.copyToImagePlus( img ).show();				
-						SimpleMultiThreading.threadHaltUnClean();		    			
-		    		}
-		    		
-					view.closeImage();
-				}
-				else
-				{
-		    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-		    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Threshold Bead Extraction");					
-					
-					view.setBeadStructure( extractBeadsThresholdSegmentation( view, threshold, conf.minSize, conf.maxSize, conf.minBlackBorder) );
-					
-					view.closeImage();				
-				}
-					
-				if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
-					IOFunctions.println( "Found peaks (possible beads): " + view.getBeadStructure().getBeadList().size() );
-				
-				//
-				// Store segmentation in a file
-				//
-				if ( conf.writeSegmentation )
-					IOFunctions.writeSegmentation( view, conf.registrationFiledirectory );										
-			}
+				segment( conf, view, tilePool );
 		}
 	}
+	
+	/**
+	 * Extracts the beads of one view, closes its image and writes the segmentation if wanted
+	 * 
+	 * @param conf - the configuration
+	 * @param view - the view
+	 * @param tilePool - the threads that segment the tiles of the view, or null to segment the view as a whole
+	 */
+	protected void segment( final SPIMConfiguration conf, final ViewDataBeads view, final ExecutorService tilePool )
+	{
+		if (conf.useScaleSpace)					
+		{
+    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Scale Space Bead Extraction for " + view.getName() );
+			
+    		view.setBeadStructure( extractBeadsLaPlaceImgLib( view, conf, tilePool ) );
+    		
+    		if ( debugBeads )
+    		{
+				Image<FloatType> img = getFoundBeads( view );				
+				img.setName( "imglib" );
+				img.getDisplay().setMinMax();
+				ImageJFunctions.copyToImagePlus( img ).show();				
+				SimpleMultiThreading.threadHaltUnClean();		    			
+    		}
+    		
+			view.closeImage();
+		}
+		else
+		{
+    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+    			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Starting Threshold Bead Extraction");					
+			
+			view.setBeadStructure( extractBeadsThresholdSegmentation( view, conf.threshold, conf.minSize, conf.maxSize, conf.minBlackBorder) );
+			
+			view.closeImage();				
+		}
+			
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_MAIN )
+			IOFunctions.println( "Found peaks (possible beads): " + view.getBeadStructure().getBeadList().size() );
 		
+		//
+		// Store segmentation in a file
+		//
+		if ( conf.writeSegmentation )
+			IOFunctions.writeSegmentation( view, conf.registrationFiledirectory );										
+	}
+
 	public Image<FloatType> getFoundBeads( final ViewDataBeads view )
 	{
 		// display found beads
@@ -181,6 +209,22 @@ public Image<FloatType> getFoundBeads( final ViewDataBeads view )
 	}
 			
 	protected BeadStructure extractBeadsLaPlaceImgLib( final ViewDataBeads view, final SPIMConfiguration conf )
+	{
+		return extractBeadsLaPlaceImgLib( view, conf, null );
+	}
+	
+	/**
+	 * Extracts the beads using a difference of gaussian. If a pool of threads is given and the image is larger than
+	 * {@link SPIMConfiguration#segmentationTileSize}, the image is cut into tiles which are segmented independently.
+	 * Each tile is extended by the support of the gaussian and by the distance the subpixel localization may move a peak,
+	 * so that the difference of gaussian is exact wherever a maximum of the core of the tile is tested or localized.
+	 * 
+	 * @param view - the view
+	 * @param conf - the configuration
+	 * @param tilePool - the threads that segment the tiles, or null to segment the image as a whole
+	 * @return the beads
+	 */
+	protected BeadStructure extractBeadsLaPlaceImgLib( final ViewDataBeads view, final SPIMConfiguration conf, final ExecutorService tilePool )
 	{
 		// load the image
 		final Image<FloatType> img = view.getImage();
@@ -215,28 +259,230 @@ protected BeadStructure extractBeadsLaPlaceImgLib( final ViewDataBeads view, fin
         //
         final float[] sigma = LaPlaceFunctions.computeSigma(steps, k, initialSigma);
         final float[] sigmaDiff = LaPlaceFunctions.computeSigmaDiff(sigma, imageSigma);
-         
+        
+        final int numDimensions = img.getNumDimensions();
+        final int[] dim = img.getDimensions();
+        final int tileSize = conf.segmentationTileSize;
+        
+        boolean useTiles = tilePool != null && tileSize > 0;
+        
+        if ( useTiles )
+        {
+        	useTiles = false;
+        	
+        	for ( int d = 0; d < numDimensions; ++d )
+        		if ( dim[ d ] > tileSize )
+        			useTiles = true;
+        }
+        
+        // the subpixel locations of all maxima that are bright enough, and the number of peaks, invalid peaks, maxima and too low maxima
+        final ArrayList< float[] > locations = new ArrayList< float[] >();
+        final int[] statistics = new int[ 4 ];
+        
+        if ( !useTiles )
+        {
+        	if ( !findMaxima( img, null, null, conf, sigmaDiff, minPeakValue, minInitialPeakValue, K_MIN1_INV, 0, locations, statistics ) )
+        		return new BeadStructure();
+        }
+        else
+        {
+        	// the gaussian kernel with the larger sigma reaches Util.round( 3 * sigma ) pixels, add one for the test 
+        	// of the 3x3x3 neighborhood, the maximal number of moves of the subpixel localization and one more for
+        	// the 3x3x3 neighborhood it fits the quadratic function to after the last move
+        	final int halo = (int)Math.ceil( 3 * sigmaDiff[ 1 ] ) + 1 + subpixelMaxNumMoves + 1;
+        	
+        	final int[] numTiles = new int[ numDimensions ];
+        	int numTilesTotal = 1;
+        	
+        	for ( int d = 0; d < numDimensions; ++d )
+        	{
+        		numTiles[ d ] = ( dim[ d ] + tileSize - 1 ) / tileSize;
+        		numTilesTotal *= numTiles[ d ];
+        	}
+        	
+    		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ALL )
+    			IOFunctions.println( view.getName() + ": segmenting " + numTilesTotal + " tiles of " + tileSize + " px with a halo of " + halo + " px" );
+    		
+        	final ArrayList< Future< Boolean > > futures = new ArrayList< Future< Boolean > >();
+        	final ArrayList< ArrayList< float[] > > tileLocations = new ArrayList< ArrayList< float[] > >();
+        	final ArrayList< int[] > tileStatistics = new ArrayList< int[] >();
+        	
+        	for ( int t = 0; t < numTilesTotal; ++t )
+        	{
+        		// the part of the image that is owned by this tile, and the part that is segmented
+        		final int[] coreMin = new int[ numDimensions ];
+        		final int[] coreMax = new int[ numDimensions ];
+        		final int[] offset = new int[ numDimensions ];
+        		final int[] size = new int[ numDimensions ];
+        		
+        		int tmp = t;
+        		
+        		for ( int d = 0; d < numDimensions; ++d )
+        		{
+        			final int tileIndex = tmp % numTiles[ d ];
+        			tmp /= numTiles[ d ];
+        			
+        			coreMin[ d ] = tileIndex * tileSize;
+        			coreMax[ d ] = Math.min( dim[ d ], coreMin[ d ] + tileSize ) - 1;
+        			offset[ d ] = Math.max( 0, coreMin[ d ] - halo );
+        			size[ d ] = Math.min( dim[ d ] - 1, coreMax[ d ] + halo ) - offset[ d ] + 1;
+        		}
+        		
+        		final ArrayList< float[] > myLocations = new ArrayList< float[] >();
+        		final int[] myStatistics = new int[ 4 ];
+        		
+        		tileLocations.add( myLocations );
+        		tileStatistics.add( myStatistics );
+        		
+        		futures.add( tilePool.submit( new Callable< Boolean >()
+				{
+					@Override
+					public Boolean call()
+					{
+						final Image< FloatType > tile = copyTile( img, offset, size );
+						
+						// only keep the maxima in the core of the tile, in image coordinates
+						final int[] min = new int[ numDimensions ];
+						final int[] max = new int[ numDimensions ];
+						
+						for ( int d = 0; d < numDimensions; ++d )
+						{
+							min[ d ] = coreMin[ d ] - offset[ d ];
+							max[ d ] = coreMax[ d ] - offset[ d ];
+						}
+						
+						final boolean success = findMaxima( tile, min, max, conf, sigmaDiff, minPeakValue, minInitialPeakValue, K_MIN1_INV, 1, myLocations, myStatistics );
+						
+						tile.close();
+						
+						for ( final float[] location : myLocations )
+							for ( int d = 0; d < numDimensions; ++d )
+								location[ d ] += offset[ d ];
+						
+						return success;
+					}
+				}));
+        	}
+        	
+        	// wait for all tiles and collect the maxima in the order of the tiles
+        	for ( int t = 0; t < numTilesTotal; ++t )
+        	{
+        		try
+        		{
+        			if ( !futures.get( t ).get() )
+        			{
+        				for ( final Future< Boolean > future : futures )
+        					future.cancel( false );
+        				
+        				return new BeadStructure();
+        			}
+        		}
+        		catch ( InterruptedException e )
+        		{
+    				for ( final Future< Boolean > future : futures )
+    					future.cancel( true );
+
+        			Thread.currentThread().interrupt();
+        			return new BeadStructure();
+        		}
+        		catch ( ExecutionException e )
+        		{
+            		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
+            			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Cannot segment tile " + t + " of " + view.getName() + ": " + e.getCause() );
+            		
+    				for ( final Future< Boolean > future : futures )
+    					future.cancel( false );
+
+            		return new BeadStructure();
+        		}
+        		
+        		locations.addAll( tileLocations.get( t ) );
+        		
+        		for ( int i = 0; i < statistics.length; ++i )
+        			statistics[ i ] += tileStatistics.get( t )[ i ];
+        	}
+        }
+        
+        final BeadStructure beads = new BeadStructure();
+        int id = 0;
+        
+        for ( final float[] pos : locations )
+        {
+        	final Bead bead = new Bead( id, new Point3d( pos[ 0 ], pos[ 1 ], pos[ 2 ] ), view );
+        	beads.addDetection( bead );
+        	id++;
+        }
+        
+		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ALL )
+		{
+	        IOFunctions.println( "number of peaks: " + statistics[ 0 ] );        
+	        IOFunctions.println( "invalid: " + statistics[ 1 ] );
+	        IOFunctions.println( "max: " + statistics[ 2 ] );
+	        IOFunctions.println( "peak to low: " + statistics[ 3 ] );
+		}
+		
+		return beads;
+		
+	}
+	
+	/**
+	 * Computes the difference of gaussian of an image and the subpixel locations of its maxima
+	 * 
+	 * @param img - the image
+	 * @param min - the first pixel of the area in which maxima are kept, or null for the whole image
+	 * @param max - the last pixel of the area in which maxima are kept, or null for the whole image
+	 * @param conf - the configuration
+	 * @param sigmaDiff - the two sigmas of the difference of gaussian
+	 * @param minPeakValue - the minimal value of a maximum in the difference of gaussian
+	 * @param minInitialPeakValue - the minimal value of a peak before the subpixel localization
+	 * @param K_MIN1_INV - the normalization of the difference of gaussian
+	 * @param numThreads - the number of threads, 0 means all available processors
+	 * @param locations - the subpixel locations of the maxima are added here
+	 * @param statistics - the number of peaks, invalid peaks, maxima and maxima that are too low are added here
+	 * @return false if the difference of gaussian could not be computed
+	 */
+	protected boolean findMaxima( final Image<FloatType> img, final int[] min, final int[] max, final SPIMConfiguration conf, 
+			final float[] sigmaDiff, final float minPeakValue, final float minInitialPeakValue, final float K_MIN1_INV, final int numThreads,
+			final ArrayList< float[] > locations, final int[] statistics )
+	{
 		// compute difference of gaussian
 		final DifferenceOfGaussianReal1<FloatType> dog = new DifferenceOfGaussianReal1<FloatType>( img, conf.strategyFactoryGauss, sigmaDiff[0], sigmaDiff[1], minInitialPeakValue, K_MIN1_INV );
 		dog.setKeepDoGImage( true );
 		
+		if ( numThreads > 0 )
+			dog.setNumThreads( numThreads );
+		
 		if ( !dog.checkInput() || !dog.process() )
 		{
     		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ERRORONLY )
     			IOFunctions.println("(" + new Date(System.currentTimeMillis()) + "): Cannot compute difference of gaussian for " + dog.getErrorMessage() );
 			
-			return new BeadStructure();
+			return false;
 		}
 
-		// remove all minima
+		// remove all minima, and the maxima that belong to a different tile
         final ArrayList< DifferenceOfGaussianPeak<FloatType> > peakList = dog.getPeaks();
         for ( int i = peakList.size() - 1; i >= 0; --i )
-        	if ( peakList.get( i ).isMin() )
+        {
+        	final DifferenceOfGaussianPeak<FloatType> peak = peakList.get( i );
+        	
+        	boolean remove = peak.isMin();
+        	
+        	if ( min != null )
+        		for ( int d = 0; d < min.length && !remove; ++d )
+        			if ( peak.getPosition( d ) < min[ d ] || peak.getPosition( d ) > max[ d ] )
+        				remove = true;
+        	
+        	if ( remove )
         		peakList.remove( i );
+        }
 		
         final SubpixelLocalization<FloatType> spl = new SubpixelLocalization<FloatType>( dog.getDoGImage(), dog.getPeaks() );
 		spl.setAllowMaximaTolerance( true );
-		spl.setMaxNumMoves( 10 );
+		spl.setMaxNumMoves( subpixelMaxNumMoves );
+		
+		if ( numThreads > 0 )
+			spl.setNumThreads( numThreads );
 		
 		if ( !spl.checkInput() || !spl.process() )
 		{
@@ -246,47 +492,65 @@ protected BeadStructure extractBeadsLaPlaceImgLib( final ViewDataBeads view, fin
 
 		dog.getDoGImage().close();
     	
-        final BeadStructure beads = new BeadStructure();
-        int id = 0;
-        final float[] pos = new float[ img.getNumDimensions() ];
-        
-        int peakTooLow = 0;
-        int invalid = 0;
-        int max = 0;
-                
+		statistics[ 0 ] += dog.getPeaks().size();
+		
         for ( DifferenceOfGaussianPeak<FloatType> maximum : dog.getPeaks() )
         {
         	if ( !maximum.isValid() )
-        		invalid++;
+        		statistics[ 1 ]++;
         	if ( maximum.isMax() )
-        		max++;
+        		statistics[ 2 ]++;
         	
         	if ( maximum.isMax() ) 
         	{
         		if ( Math.abs( maximum.getValue().get() ) >= minPeakValue )
         		{
+        			final float[] pos = new float[ img.getNumDimensions() ];
 	        		maximum.getSubPixelPosition( pos );
-		        	final Bead bead = new Bead( id, new Point3d( pos[ 0 ], pos[ 1 ], pos[ 2 ] ), view );
-		        	beads.addDetection( bead );
-		        	id++;
+	        		locations.add( pos );
         		}
         		else
         		{
-        			peakTooLow++;
+        			statistics[ 3 ]++;
         		}
         	}
         }
         
-		if ( viewStructure.getDebugLevel() <= ViewStructure.DEBUG_ALL )
+        return true;
+	}
+	
+	/**
+	 * Copies a part of an image into a new image
+	 * 
+	 * @param img - the image
+	 * @param offset - the first pixel of the part
+	 * @param size - the size of the part
+	 * @return the new image
+	 */
+	protected static Image<FloatType> copyTile( final Image<FloatType> img, final int[] offset, final int[] size )
+	{
+		final Image<FloatType> tile = img.createNewImage( size );
+		
+		final LocalizableCursor<FloatType> cursor = tile.createLocalizableCursor();
+		final LocalizableByDimCursor<FloatType> randomAccess = img.createLocalizableByDimCursor();
+		final int[] position = new int[ img.getNumDimensions() ];
+		
+		while ( cursor.hasNext() )
 		{
-	        IOFunctions.println( "number of peaks: " + dog.getPeaks().size() );        
-	        IOFunctions.println( "invalid: " + invalid );
-	        IOFunctions.println( "max: " + max );
-	        IOFunctions.println( "peak to low: " + peakTooLow );
+			cursor.fwd();
+			cursor.getPosition( position );
+			
+			for ( int d = 0; d < position.length; ++d )
+				position[ d ] += offset[ d ];
+			
+			randomAccess.setPosition( position );
+			cursor.getType().set( randomAccess.getType() );
 		}
 		
-		return beads;
+		cursor.close();
+		randomAccess.close();
 		
+		return tile;
 	}
 	
 	protected BeadStructure extractBeadsThresholdSegmentation( final ViewDataBeads view, final float thresholdI, final int minSize, final int maxSize, final int minBlackBorder)
@@ -3,11 +3,13 @@
 import java.util.ArrayList;
 
 import mpicbg.models.Point;
+import mpicbg.pointdescriptor.LinkedLeaf;
 import mpicbg.pointdescriptor.ModelPointDescriptor;
 import mpicbg.pointdescriptor.exception.NoSuitablePointsException;
 import mpicbg.pointdescriptor.matcher.Matcher;
 import mpicbg.pointdescriptor.matcher.SimpleMatcher;
 import mpicbg.pointdescriptor.model.TranslationInvariantModel;
+import mpicbg.pointdescriptor.model.TranslationInvariantRigidModel2D;
 import mpicbg.pointdescriptor.model.TranslationInvariantRigidModel3D;
 import mpicbg.pointdescriptor.similarity.SimilarityMeasure;
 import mpicbg.pointdescriptor.similarity.SquareDistance;
@@ -22,6 +24,9 @@
 	final Matcher matcher;
 	final TranslationInvariantModel<?> model;
 	
+	// the number of candidates that are looked up for each descriptor
+	int numCandidates = 10;
+	
 	public ModelBased3d( final TranslationInvariantModel<?> model, final Matcher matcher )
 	{
 		this.matcher = matcher;
@@ -69,6 +74,23 @@ public ArrayList<PointMatchGeneric<T>> extractCorrespondenceCandidates(
 		
 		// store the candidates for corresponding beads
 		final ArrayList<PointMatchGeneric<T>> correspondences = new ArrayList<PointMatchGeneric<T>>();
+		
+		/* look up the candidates for each descriptor in a KDTree if possible */
+		final NNearestNeighborSearch< LinkedLeaf< ModelPointDescriptor< T > > > nnsearch;
+		
+		if ( useLookUpTree() && descriptors2.size() > 0 )
+		{
+			final ArrayList< LinkedLeaf< ModelPointDescriptor< T > > > leaves2 = new ArrayList< LinkedLeaf< ModelPointDescriptor< T > > >( descriptors2.size() );
+			
+			for ( final ModelPointDescriptor< T > descriptorB : descriptors2 )
+				leaves2.add( new LinkedLeaf< ModelPointDescriptor< T > >( computeRigidInvariant( descriptorB ), descriptorB ) );
+			
+			nnsearch = new NNearestNeighborSearch< LinkedLeaf< ModelPointDescriptor< T > > >( new KDTree< LinkedLeaf< ModelPointDescriptor< T > > >( leaves2 ) );
+		}
+		else
+		{
+			nnsearch = null;
+		}
 
 		/* compute matching */
 		for ( final ModelPointDescriptor< T > descriptorA : descriptors1 )
@@ -79,7 +101,26 @@ public ArrayList<PointMatchGeneric<T>> extractCorrespondenceCandidates(
 			ModelPointDescriptor< T > bestMatch = null;
 			ModelPointDescriptor< T > secondBestMatch = null;
 			
-			for ( final ModelPointDescriptor< T > descriptorB : descriptors2 )
+			final Iterable< ModelPointDescriptor< T > > candidates;
+			
+			if ( nnsearch != null )
+			{
+				final LinkedLeaf< ModelPointDescriptor< T > >[] nearest = 
+					nnsearch.findNNearestNeighbors( new LinkedLeaf< ModelPointDescriptor< T > >( computeRigidInvariant( descriptorA ), descriptorA ), numCandidates );
+				
+				final ArrayList< ModelPointDescriptor< T > > list = new ArrayList< ModelPointDescriptor< T > >( nearest.length );
+				
+				for ( final LinkedLeaf< ModelPointDescriptor< T > > leaf : nearest )
+					list.add( leaf.getLink() );
+				
+				candidates = list;
+			}
+			else
+			{
+				candidates = descriptors2;
+			}
+			
+			for ( final ModelPointDescriptor< T > descriptorB : candidates )
 			{
 				final double difference = descriptorA.descriptorDistance( descriptorB );
 				
@@ -116,6 +157,67 @@ public ArrayList<PointMatchGeneric<T>> extractCorrespondenceCandidates(
 		
 		return correspondences;
 	}
+	
+	/**
+	 * The candidates can be looked up by the distances within the descriptors if they are preserved by the model,
+	 * and if the matcher compares the neighbors in the order of their distance to the basis point
+	 * 
+	 * @return - if a {@link KDTree} is used to find the candidates for matching
+	 */
+	protected boolean useLookUpTree()
+	{
+		return numCandidates > 0 && matcher instanceof SimpleMatcher && 
+			( model instanceof TranslationInvariantRigidModel3D || model instanceof TranslationInvariantRigidModel2D );
+	}
+	
+	/**
+	 * The number of most similar descriptors (by distances within the descriptor) that are compared using the model,
+	 * 0 means that all descriptors are compared
+	 * 
+	 * @param numCandidates - the number of candidates
+	 */
+	public void setNumCandidates( final int numCandidates ) { this.numCandidates = numCandidates; }
+	public int getNumCandidates() { return numCandidates; }
+	
+	/**
+	 * Computes the distances of the neighbors to the basis point and to each other, in the order of the neighbors,
+	 * which do not change under a rigid transformation
+	 * 
+	 * @param descriptor - the {@link ModelPointDescriptor}
+	 * @return - the distances
+	 */
+	public static float[] computeRigidInvariant( final ModelPointDescriptor< ? > descriptor )
+	{
+		final int numNeighbors = descriptor.numNeighbors();
+		final float[] invariant = new float[ numNeighbors + ( numNeighbors * ( numNeighbors - 1 ) ) / 2 ];
+		
+		int i = 0;
+		
+		for ( int a = 0; a < numNeighbors; ++a )
+		{
+			final float[] la = descriptor.getDescriptorPoint( a ).getL();
+			
+			invariant[ i++ ] = length( la, null );
+			
+			for ( int b = a + 1; b < numNeighbors; ++b )
+				invariant[ i++ ] = length( la, descriptor.getDescriptorPoint( b ).getL() );
+		}
+		
+		return invariant;
+	}
+	
+	final private static float length( final float[] a, final float[] b )
+	{
+		double length = 0;
+		
+		for ( int d = 0; d < a.length; ++d )
+		{
+			final double tmp = b == null ? a[ d ] : a[ d ] - b[ d ];
+			length += tmp * tmp;
+		}
+		
+		return (float)Math.sqrt( length );
+	}
 
 	public static <P extends Point & Leaf<P>> ArrayList< ModelPointDescriptor< P > > createModelPointDescriptors( final KDTree< P > tree, 
                final ArrayList< P > basisPoints, 
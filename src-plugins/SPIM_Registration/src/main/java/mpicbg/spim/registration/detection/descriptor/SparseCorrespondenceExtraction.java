@@ -3,12 +3,15 @@
 import java.util.ArrayList;
 
 import mpicbg.models.Model;
+import mpicbg.pointdescriptor.LinkedLeaf;
 import mpicbg.pointdescriptor.LinkedPoint;
 import mpicbg.spim.io.IOFunctions;
 import mpicbg.spim.mpicbg.PointMatchGeneric;
 import mpicbg.spim.registration.ViewDataBeads;
 import mpicbg.spim.registration.ViewStructure;
 import mpicbg.spim.registration.detection.DetectionView;
+import fiji.util.KDTree;
+import fiji.util.NNearestNeighborSearch;
 
 public class SparseCorrespondenceExtraction<M extends Model<M>, T extends DetectionView<?,T>> implements CorrespondenceExtraction<T>
 {
@@ -47,42 +50,35 @@ public ArrayList<PointMatchGeneric<T>> extractCorrespondenceCandidates(
 			return new ArrayList<PointMatchGeneric<T>>();
 		}
 		
-		/*
 		//
-		// Create the weka datastructure for 3D Points
+		// Set up the KDTree of the non-sparse beads
 		//
-		Instances wekaPointsNonSparse = WekaFunctions.insertIntoWekaFloat( viewB.beads.getBeadList(), viewB.shortName );
+		final ArrayList< LinkedLeaf< T > > leavesB = new ArrayList< LinkedLeaf< T > >( nodeListB.size() );
 		
-		// 
-		// Set up the KDTree
-		//
-		KDTree kdTreeNonSparse = WekaFunctions.setupKDTree( wekaPointsNonSparse, false );
-		*/
+		for ( final T nonSparseBead : nodeListB )
+			leavesB.add( new LinkedLeaf< T >( nonSparseBead.getL(), nonSparseBead ) );
+		
+		final KDTree< LinkedLeaf< T > > kdTreeNonSparse = new KDTree< LinkedLeaf< T > >( leavesB );
+		final NNearestNeighborSearch< LinkedLeaf< T > > nnsearch = new NNearestNeighborSearch< LinkedLeaf< T > >( kdTreeNonSparse );
 		
 		// store the candidates for corresponding beads
 		final ArrayList<PointMatchGeneric<T>> correspondences = new ArrayList<PointMatchGeneric<T>>();
 		
 		for ( T sparseBead : nodeListA )
 		{
-			double minDistance = Double.MAX_VALUE;
-			T nearestBead = null;
-			
 			// update sparse bead with approximate transformation
 			//final Bead transformedBead = sparseBead.clone();	
 			final LinkedPoint<T> transformedBead = new LinkedPoint<T>( sparseBead.getL(), sparseBead.getW(), sparseBead ); 
 			
 			transformedBead.apply( viewA.getTile().getModel() );
 			
-			for ( T nonSparseBead : nodeListB )
-			{
-				double distance = nonSparseBead.getDistance( transformedBead );
-				
-				if ( distance < minDistance )
-				{
-					minDistance = distance;
-					nearestBead = nonSparseBead;
-				}
-			}
+			final LinkedLeaf< T >[] nearest = nnsearch.findNNearestNeighbors( new LinkedLeaf< T >( transformedBead.getW(), sparseBead ), 1 );
+			
+			if ( nearest.length == 0 )
+				continue;
+			
+			final T nearestBead = nearest[ 0 ].getLink();
+			final double minDistance = nearestBead.getDistance( transformedBead );
 
 			if ( minDistance < 30 )		
 			{
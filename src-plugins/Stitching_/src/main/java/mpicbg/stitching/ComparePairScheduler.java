@@ -0,0 +1,448 @@
+package mpicbg.stitching;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.Roi;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import mpicbg.imglib.util.Util;
+
+/**
+ * Computes the phase correlations of all {@link ComparePair}s of a collection in parallel.
+ *
+ * Every tile is converted only once into an {@link Image} that is kept in a shared cache of bounded
+ * size in bytes, and every thread reuses its own buffers for the overlapping areas it correlates. The pairs are
+ * processed in the order of an approximate sweep over the tile layout, so that a tile is removed from
+ * the cache as soon as all the pairs it belongs to are done. Tiles that are evicted earlier because the
+ * cache is full are simply loaded again when needed.
+ */
+public class ComparePairScheduler
+{
+	final List< ComparePair > pairs;
+	final StitchingParameters params;
+	final int numThreads;
+	final long maxCachedBytes;
+
+	// the loaded tiles in the order of their last use
+	final LinkedHashMap< TileKey, CachedTile > cache = new LinkedHashMap< TileKey, CachedTile >( 16, 0.75f, true );
+
+	// the size of all tiles in the cache as FloatType images (guarded by the cache)
+	long cachedBytes = 0;
+
+	// how many pairs are left for each tile
+	final HashMap< TileKey, Integer > remainingPairs = new HashMap< TileKey, Integer >();
+
+	// how many times a tile was loaded
+	final AtomicInteger numLoads = new AtomicInteger( 0 );
+
+	/**
+	 * @param pairs - all pairs to compute, their relative shift and cross correlation will be set
+	 * @param params - the stitching parameters
+	 * @param numThreads - how many pairs are computed at the same time
+	 * @param maxCachedBytes - how many bytes of converted tiles are kept in memory at most (it can be exceeded by the tiles being used by the threads)
+	 */
+	public ComparePairScheduler( final List< ComparePair > pairs, final StitchingParameters params, final int numThreads, final long maxCachedBytes )
+	{
+		this.params = params;
+		this.numThreads = Math.max( 1, numThreads );
+		this.maxCachedBytes = Math.max( 0, maxCachedBytes );
+		this.pairs = sortPairs( pairs );
+
+		for ( final ComparePair pair : this.pairs )
+		{
+			for ( final TileKey key : new TileKey[]{ new TileKey( pair.getTile1(), params.channel1 ), new TileKey( pair.getTile2(), params.channel2 ) } )
+			{
+				final Integer count = remainingPairs.get( key );
+				remainingPairs.put( key, count == null ? 1 : count + 1 );
+			}
+		}
+	}
+
+	/**
+	 * Uses a cache that holds at most half of the maximal memory
+	 *
+	 * @param pairs - all pairs to compute, their relative shift and cross correlation will be set
+	 * @param params - the stitching parameters
+	 * @param numThreads - how many pairs are computed at the same time
+	 */
+	public ComparePairScheduler( final List< ComparePair > pairs, final StitchingParameters params, final int numThreads )
+	{
+		this( pairs, params, numThreads, Runtime.getRuntime().maxMemory() / 2 );
+	}
+
+	/**
+	 * Computes all pairs
+	 *
+	 * @return true if all pairs could be computed, otherwise false
+	 */
+	public boolean process()
+	{
+		final AtomicInteger nextPair = new AtomicInteger( 0 );
+		final AtomicBoolean failed = new AtomicBoolean( false );
+
+		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					// the buffers for the overlapping areas of this thread
+					final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), StitchingParameters.phaseCorrelationFactory );
+					final ArrayList< Image< FloatType > > buffers = new ArrayList< Image< FloatType > >();
+					buffers.add( null );
+					buffers.add( null );
+
+					for ( int i = nextPair.getAndIncrement(); i < pairs.size() && !failed.get(); i = nextPair.getAndIncrement() )
+					{
+						final ComparePair pair = pairs.get( i );
+
+						final long start = System.currentTimeMillis();
+
+						if ( !computePair( pair, factory, buffers ) )
+						{
+							IJ.log( "Collection stitching failed" );
+							failed.set( true );
+							break;
+						}
+
+						IJ.log( pair.getImagePlus1().getTitle() + "[" + pair.getTimePoint1() + "]" + " <- " + pair.getImagePlus2().getTitle() + "[" + pair.getTimePoint2() + "]" + ": " +
+								Util.printCoordinates( pair.getRelativeShift() ) + " correlation (R)=" + pair.getCrossCorrelation() + " (" + (System.currentTimeMillis() - start) + " ms)");
+					}
+
+					for ( final Image< FloatType > buffer : buffers )
+						if ( buffer != null )
+							buffer.close();
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		// free whatever is left
+		synchronized ( cache )
+		{
+			for ( final CachedTile tile : cache.values() )
+				tile.close();
+			cache.clear();
+			cachedBytes = 0;
+		}
+
+		return !failed.get();
+	}
+
+	/**
+	 * @return how many times tiles were loaded (equal to the number of tiles if no tile was evicted too early)
+	 */
+	public int getNumLoads() { return numLoads.get(); }
+
+	protected boolean computePair( final ComparePair pair, final ImageFactory< FloatType > factory, final ArrayList< Image< FloatType > > buffers )
+	{
+		final TileKey key1 = new TileKey( pair.getTile1(), params.channel1 );
+		final TileKey key2 = new TileKey( pair.getTile2(), params.channel2 );
+
+		final CachedTile tile1 = acquire( key1 );
+		final CachedTile tile2 = acquire( key2 );
+
+		try
+		{
+			final Image< FloatType > image1 = tile1.get();
+			final Image< FloatType > image2 = tile2.get();
+
+			if ( image1 == null || image2 == null )
+				return false;
+
+			// where do we approximately overlap?
+			final Roi roi1 = PairWiseStitchingImgLib.getOnlyRectangularRoi( CollectionStitchingImgLib.getROI( pair.getTile1().getElement(), pair.getTile2().getElement() ) );
+			final Roi roi2 = PairWiseStitchingImgLib.getOnlyRectangularRoi( CollectionStitchingImgLib.getROI( pair.getTile2().getElement(), pair.getTile1().getElement() ) );
+
+			final PairWiseStitchingResult result = PairWiseStitchingImgLib.performStitching(
+					crop( image1, roi1, factory, buffers, 0 ), crop( image2, roi2, factory, buffers, 1 ), params );
+
+			if ( result == null )
+				return false;
+
+			// add the offset to the shift
+			if ( roi2 != null )
+			{
+				result.offset[ 0 ] -= roi2.getBounds().x;
+				result.offset[ 1 ] -= roi2.getBounds().y;
+			}
+
+			if ( roi1 != null )
+			{
+				result.offset[ 0 ] += roi1.getBounds().x;
+				result.offset[ 1 ] += roi1.getBounds().y;
+			}
+
+			if ( params.dimensionality == 2 )
+				pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ) } );
+			else
+				pair.setRelativeShift( new float[]{ result.getOffset( 0 ), result.getOffset( 1 ), result.getOffset( 2 ) } );
+
+			pair.setCrossCorrelation( result.getCrossCorrelation() );
+
+			return true;
+		}
+		finally
+		{
+			release( key1, tile1 );
+			release( key2, tile2 );
+		}
+	}
+
+	/**
+	 * Copies the area of the roi into the buffer of this thread, the buffer is only re-allocated if the size changes
+	 */
+	protected static Image< FloatType > crop( final Image< FloatType > image, final Roi roi, final ImageFactory< FloatType > factory, final ArrayList< Image< FloatType > > buffers, final int index )
+	{
+		if ( roi == null )
+			return image;
+
+		final Rectangle bounds = roi.getBounds();
+		final int[] size = image.getDimensions();
+		size[ 0 ] = bounds.width;
+		size[ 1 ] = bounds.height;
+
+		Image< FloatType > buffer = buffers.get( index );
+
+		if ( buffer == null || !Arrays.equals( buffer.getDimensions(), size ) )
+		{
+			if ( buffer != null )
+				buffer.close();
+
+			buffer = factory.createImage( size );
+			buffers.set( index, buffer );
+		}
+
+		final LocalizableCursor< FloatType > target = buffer.createLocalizableCursor();
+		final LocalizableByDimCursor< FloatType > source = image.createLocalizableByDimCursor();
+		final int[] location = new int[ image.getNumDimensions() ];
+
+		while ( target.hasNext() )
+		{
+			target.fwd();
+			target.getPosition( location );
+
+			location[ 0 ] += bounds.x;
+			location[ 1 ] += bounds.y;
+
+			source.setPosition( location );
+			target.getType().set( source.getType().get() );
+		}
+
+		target.close();
+		source.close();
+
+		return buffer;
+	}
+
+	/**
+	 * Gets the tile from the cache, it is only loaded by the first thread that calls {@link CachedTile#get()}
+	 */
+	protected CachedTile acquire( final TileKey key )
+	{
+		synchronized ( cache )
+		{
+			CachedTile tile = cache.get( key );
+
+			if ( tile == null )
+			{
+				tile = new CachedTile( key );
+				cache.put( key, tile );
+				cachedBytes += tile.bytes;
+
+				// evict the least recently used tiles that nobody is using
+				final Iterator< Map.Entry< TileKey, CachedTile > > it = cache.entrySet().iterator();
+				while ( cachedBytes > maxCachedBytes && it.hasNext() )
+				{
+					final CachedTile eldest = it.next().getValue();
+
+					if ( eldest != tile && eldest.users == 0 )
+					{
+						it.remove();
+						cachedBytes -= eldest.bytes;
+						eldest.close();
+					}
+				}
+			}
+
+			++tile.users;
+			return tile;
+		}
+	}
+
+	/**
+	 * Returns the tile to the cache, it is closed once all its pairs are done
+	 */
+	protected void release( final TileKey key, final CachedTile tile )
+	{
+		synchronized ( cache )
+		{
+			--tile.users;
+
+			final int remaining = remainingPairs.get( key ) - 1;
+			remainingPairs.put( key, remaining );
+
+			if ( remaining == 0 && tile.users == 0 )
+			{
+				if ( cache.get( key ) == tile )
+				{
+					cache.remove( key );
+					cachedBytes -= tile.bytes;
+				}
+
+				tile.close();
+			}
+		}
+	}
+
+	/**
+	 * Sorts the pairs by their last tile in a sweep over the approximate layout (z, y, x),
+	 * so that the tiles behind the sweep are not needed anymore
+	 */
+	protected static List< ComparePair > sortPairs( final List< ComparePair > pairs )
+	{
+		final ArrayList< ImagePlusTimePoint > tiles = new ArrayList< ImagePlusTimePoint >();
+		for ( final ComparePair pair : pairs )
+		{
+			if ( !tiles.contains( pair.getTile1() ) )
+				tiles.add( pair.getTile1() );
+			if ( !tiles.contains( pair.getTile2() ) )
+				tiles.add( pair.getTile2() );
+		}
+
+		Collections.sort( tiles, new Comparator< ImagePlusTimePoint >()
+		{
+			@Override
+			public int compare( final ImagePlusTimePoint o1, final ImagePlusTimePoint o2 )
+			{
+				if ( o1.getElement() != null && o2.getElement() != null && o1.getElement().getOffset() != null && o2.getElement().getOffset() != null )
+				{
+					final float[] offset1 = o1.getElement().getOffset();
+					final float[] offset2 = o2.getElement().getOffset();
+
+					for ( int d = Math.min( offset1.length, offset2.length ) - 1; d >= 0; --d )
+						if ( offset1[ d ] != offset2[ d ] )
+							return offset1[ d ] < offset2[ d ] ? -1 : 1;
+				}
+
+				return o1.compareTo( o2 );
+			}
+		});
+
+		final HashMap< ImagePlusTimePoint, Integer > rank = new HashMap< ImagePlusTimePoint, Integer >();
+		for ( int i = 0; i < tiles.size(); ++i )
+			rank.put( tiles.get( i ), i );
+
+		final ArrayList< ComparePair > sorted = new ArrayList< ComparePair >( pairs );
+		Collections.sort( sorted, new Comparator< ComparePair >()
+		{
+			@Override
+			public int compare( final ComparePair o1, final ComparePair o2 )
+			{
+				final int a1 = rank.get( o1.getTile1() ), b1 = rank.get( o1.getTile2() );
+				final int a2 = rank.get( o2.getTile1() ), b2 = rank.get( o2.getTile2() );
+
+				if ( Math.max( a1, b1 ) != Math.max( a2, b2 ) )
+					return Math.max( a1, b1 ) < Math.max( a2, b2 ) ? -1 : 1;
+				else if ( Math.min( a1, b1 ) != Math.min( a2, b2 ) )
+					return Math.min( a1, b1 ) < Math.min( a2, b2 ) ? -1 : 1;
+				else
+					return 0;
+			}
+		});
+
+		return sorted;
+	}
+
+	/**
+	 * Identifies a tile and the channel that is used for the phase correlation
+	 */
+	protected static class TileKey
+	{
+		final ImagePlusTimePoint tile;
+		final int channel;
+
+		public TileKey( final ImagePlusTimePoint tile, final int channel )
+		{
+			this.tile = tile;
+			this.channel = channel;
+		}
+
+		@Override
+		public int hashCode() { return 31 * tile.hashCode() + channel; }
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof TileKey ) )
+				return false;
+
+			final TileKey key = (TileKey)o;
+			return key.tile == tile && key.channel == channel;
+		}
+	}
+
+	/**
+	 * A tile of the cache, converted to {@link FloatType} when it is first needed
+	 */
+	protected class CachedTile
+	{
+		final TileKey key;
+		Image< FloatType > image = null;
+		boolean closed = false;
+
+		// the size of one channel and timepoint of the tile as FloatType image, known before it is loaded
+		final long bytes;
+
+		// how many threads are using it (guarded by the cache)
+		int users = 0;
+
+		public CachedTile( final TileKey key )
+		{
+			this.key = key;
+
+			final ImagePlus imp = key.tile.getImagePlus();
+			this.bytes = 4l * imp.getWidth() * imp.getHeight() * imp.getNSlices();
+		}
+
+		public synchronized Image< FloatType > get()
+		{
+			if ( image == null && !closed )
+			{
+				final ImageFactory< FloatType > factory = new ImageFactory< FloatType >( new FloatType(), StitchingParameters.phaseCorrelationFactory );
+				image = PairWiseStitchingImgLib.getImage( key.tile.getImagePlus(), null, factory, key.channel, key.tile.getTimePoint() );
+				numLoads.incrementAndGet();
+			}
+
+			return image;
+		}
+
+		public synchronized void close()
+		{
+			if ( image != null )
+				image.close();
+
+			image = null;
+			closed = true;
+		}
+	}
+}
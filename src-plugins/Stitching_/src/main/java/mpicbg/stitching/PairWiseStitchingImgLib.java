@@ -6,6 +6,9 @@
 import ij.gui.Roi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -192,7 +195,12 @@ else if ( params == null )
 			return null;
 		}
 		
-		final PairWiseStitchingResult result = computePhaseCorrelation( img1, img2, params.checkPeaks, params.subpixelAccuracy );
+		final PairWiseStitchingResult result;
+		
+		if ( params.downSampling > 1 )
+			result = computePhaseCorrelationCoarseToFine( img1, img2, params.checkPeaks, params.subpixelAccuracy, params.downSampling, params.refinementWindowSize );
+		else
+			result = computePhaseCorrelation( img1, img2, params.checkPeaks, params.subpixelAccuracy );
 		
 		return result;
 	}
@@ -255,6 +263,285 @@ public static < T extends RealType<T>, S extends RealType<S> > PairWiseStitching
 		return result;
 	}
 
+	/**
+	 * Coarse-to-fine version of {@link #computePhaseCorrelation(Image, Image, int, boolean)}. The candidate shifts are found by
+	 * the phase correlation of both images downsampled by the given factor, then every candidate is refined with a phase correlation 
+	 * at full resolution in a window of at most refinementWindowSize pixels (in each dimension) of the overlap predicted by the candidate.
+	 * The candidate with the best cross correlation over the complete overlap is returned.
+	 * 
+	 * @param img1 - the first image
+	 * @param img2 - the second image
+	 * @param numPeaks - how many peaks of the phase correlation matrix are investigated at each resolution
+	 * @param subpixelAccuracy - if the refined shift should be localized with subpixel accuracy
+	 * @param downSampling - the downsampling factor of the coarse level (e.g. 4 or 8)
+	 * @param refinementWindowSize - the maximal size of the full resolution window
+	 * 
+	 * @return the shift of img2 relative to img1, or null if no candidate could be refined
+	 */
+	public static < T extends RealType<T>, S extends RealType<S> > PairWiseStitchingResult computePhaseCorrelationCoarseToFine( final Image<T> img1, final Image<S> img2, 
+			final int numPeaks, final boolean subpixelAccuracy, final int downSampling, final int refinementWindowSize )
+	{
+		final int numDimensions = img1.getNumDimensions();
+		final ImageFactory<FloatType> factory = new ImageFactory<FloatType>( new FloatType(), StitchingParameters.phaseCorrelationFactory );
+		
+		// we do not downsample dimensions that would become too small (e.g. z of thin stacks)
+		final int[] factors = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			factors[ d ] = ( Math.min( img1.getDimension( d ), img2.getDimension( d ) ) / downSampling >= 8 ) ? downSampling : 1;
+		
+		// find the candidate shifts at the coarse level
+		final Image<FloatType> coarse1 = downSample( img1, factors, factory );
+		final Image<FloatType> coarse2 = downSample( img2, factors, factory );
+		
+		final PhaseCorrelation< FloatType, FloatType > phaseCorr = new PhaseCorrelation<FloatType, FloatType>( coarse1, coarse2 );
+		phaseCorr.setInvestigateNumPeaks( numPeaks );
+		phaseCorr.setComputeFFTinParalell( true );
+		
+		if ( !phaseCorr.process() )
+		{
+			IJ.log( "Could not compute coarse phase correlation: " + phaseCorr.getErrorMessage() );
+			coarse1.close();
+			coarse2.close();
+			return null;
+		}
+		
+		final ArrayList<PhaseCorrelationPeak> candidates = new ArrayList<PhaseCorrelationPeak>( phaseCorr.getAllShifts() );
+		coarse1.close();
+		coarse2.close();
+		
+		// best candidates first
+		Collections.sort( candidates, new Comparator<PhaseCorrelationPeak>()
+		{
+			@Override
+			public int compare( final PhaseCorrelationPeak o1, final PhaseCorrelationPeak o2 ) 
+			{
+				return Float.compare( o2.getCrossCorrelationPeak(), o1.getCrossCorrelationPeak() );
+			}
+		});
+		
+		PairWiseStitchingResult best = null;
+		final ArrayList< int[] > tested = new ArrayList< int[] >();
+		
+		for ( final PhaseCorrelationPeak candidate : candidates )
+		{
+			if ( tested.size() >= numPeaks )
+				break;
+			
+			// the predicted shift at full resolution
+			final int[] predicted = new int[ numDimensions ];
+			for ( int d = 0; d < numDimensions; ++d )
+				predicted[ d ] = candidate.getPosition()[ d ] * factors[ d ];
+			
+			boolean duplicate = false;
+			for ( final int[] shift : tested )
+				duplicate |= Arrays.equals( shift, predicted );
+			
+			if ( duplicate )
+				continue;
+			
+			tested.add( predicted );
+			
+			final PairWiseStitchingResult refined = refineShift( img1, img2, predicted, factors, refinementWindowSize, numPeaks, subpixelAccuracy, factory );
+			
+			if ( refined != null && ( best == null || refined.getCrossCorrelation() > best.getCrossCorrelation() ) )
+				best = refined;
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Refines a predicted shift with a full resolution phase correlation of a window of the predicted overlap. The window of img2 is
+	 * larger by the downsampling factor on each side, so that the true shift lies inside of it.
+	 * 
+	 * @return the refined shift of img2 relative to img1 with the cross correlation over the complete overlap, or null if they do not overlap
+	 */
+	protected static < T extends RealType<T>, S extends RealType<S> > PairWiseStitchingResult refineShift( final Image<T> img1, final Image<S> img2, final int[] predicted, 
+			final int[] margin, final int refinementWindowSize, final int numPeaks, final boolean subpixelAccuracy, final ImageFactory<FloatType> factory )
+	{
+		final int numDimensions = img1.getNumDimensions();
+		
+		final int[] offset1 = new int[ numDimensions ];
+		final int[] size1 = new int[ numDimensions ];
+		final int[] offset2 = new int[ numDimensions ];
+		final int[] size2 = new int[ numDimensions ];
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			// the overlap in coordinates of img1
+			final int min = Math.max( 0, predicted[ d ] );
+			final int max = Math.min( img1.getDimension( d ), predicted[ d ] + img2.getDimension( d ) );
+			
+			if ( max - min < 2 )
+				return null;
+			
+			// a window in its center
+			size1[ d ] = Math.min( max - min, refinementWindowSize );
+			offset1[ d ] = min + ( max - min - size1[ d ] ) / 2;
+			
+			// the same window in img2, with a margin
+			offset2[ d ] = Math.max( 0, offset1[ d ] - predicted[ d ] - margin[ d ] );
+			size2[ d ] = Math.min( img2.getDimension( d ), offset1[ d ] - predicted[ d ] + size1[ d ] + margin[ d ] ) - offset2[ d ];
+		}
+		
+		final Image<FloatType> window1 = factory.createImage( size1 );
+		final Image<FloatType> window2 = factory.createImage( size2 );
+		
+		final ArrayList< Image< T > > source1 = new ArrayList< Image< T > >();
+		source1.add( img1 );
+		final ArrayList< Image< S > > source2 = new ArrayList< Image< S > >();
+		source2.add( img2 );
+		
+		averageAllChannels( window1, source1, offset1 );
+		averageAllChannels( window2, source2, offset2 );
+		
+		final PairWiseStitchingResult windowResult = computePhaseCorrelation( window1, window2, numPeaks, subpixelAccuracy );
+		
+		window1.close();
+		window2.close();
+		
+		if ( windowResult == null )
+			return null;
+		
+		// back to the coordinates of the complete images
+		final float[] shift = new float[ numDimensions ];
+		final int[] roundedShift = new int[ numDimensions ];
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			shift[ d ] = windowResult.getOffset( d ) + offset1[ d ] - offset2[ d ];
+			roundedShift[ d ] = Math.round( shift[ d ] );
+		}
+		
+		return new PairWiseStitchingResult( shift, crossCorrelation( img1, img2, roundedShift ), windowResult.getPhaseCorrelation() );
+	}
+	
+	/**
+	 * Downsamples an image by averaging blocks of pixels, the remaining pixels at the end of each dimension are ignored
+	 * 
+	 * @param img - the input image
+	 * @param factors - the downsampling factor of each dimension
+	 * @param factory - creates the output image
+	 * 
+	 * @return the downsampled image
+	 */
+	public static < T extends RealType<T> > Image<FloatType> downSample( final Image<T> img, final int[] factors, final ImageFactory<FloatType> factory )
+	{
+		final int numDimensions = img.getNumDimensions();
+		final int[] size = new int[ numDimensions ];
+		float numPixels = 1;
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			size[ d ] = Math.max( 1, img.getDimension( d ) / factors[ d ] );
+			numPixels *= factors[ d ];
+		}
+		
+		final Image<FloatType> downSampled = factory.createImage( size );
+		
+		final LocalizableCursor<T> cursor = img.createLocalizableCursor();
+		final LocalizableByDimCursor<FloatType> target = downSampled.createLocalizableByDimCursor();
+		final int[] position = new int[ numDimensions ];
+		
+A:		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+			
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				position[ d ] /= factors[ d ];
+				
+				if ( position[ d ] >= size[ d ] )
+					continue A;
+			}
+			
+			target.setPosition( position );
+			target.getType().set( target.getType().get() + cursor.getType().getRealFloat() / numPixels );
+		}
+		
+		cursor.close();
+		target.close();
+		
+		return downSampled;
+	}
+	
+	/**
+	 * Computes the cross correlation (Pearson's R) of two images over their overlap for a given integer shift
+	 * 
+	 * @param img1 - the first image
+	 * @param img2 - the second image
+	 * @param shift - the shift of img2 relative to img1
+	 * 
+	 * @return the cross correlation or 0 if the images do not overlap
+	 */
+	public static < T extends RealType<T>, S extends RealType<S> > float crossCorrelation( final Image<T> img1, final Image<S> img2, final int[] shift )
+	{
+		final int numDimensions = img1.getNumDimensions();
+		final int[] min = new int[ numDimensions ];
+		final int[] max = new int[ numDimensions ];
+		
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			min[ d ] = Math.max( 0, shift[ d ] );
+			max[ d ] = Math.min( img1.getDimension( d ), shift[ d ] + img2.getDimension( d ) ) - 1;
+			
+			if ( max[ d ] < min[ d ] )
+				return 0;
+		}
+		
+		final LocalizableByDimCursor<T> cursor1 = img1.createLocalizableByDimCursor();
+		final LocalizableByDimCursor<S> cursor2 = img2.createLocalizableByDimCursor();
+		final int[] position1 = min.clone();
+		final int[] position2 = new int[ numDimensions ];
+		
+		double sum1 = 0, sum2 = 0, sum11 = 0, sum22 = 0, sum12 = 0;
+		long n = 0;
+		
+		while ( true )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				position2[ d ] = position1[ d ] - shift[ d ];
+			
+			cursor1.setPosition( position1 );
+			cursor2.setPosition( position2 );
+			
+			final double v1 = cursor1.getType().getRealDouble();
+			final double v2 = cursor2.getType().getRealDouble();
+			
+			sum1 += v1;
+			sum2 += v2;
+			sum11 += v1 * v1;
+			sum22 += v2 * v2;
+			sum12 += v1 * v2;
+			++n;
+			
+			// next position in the overlap
+			int d = 0;
+			while ( d < numDimensions && position1[ d ] == max[ d ] )
+			{
+				position1[ d ] = min[ d ];
+				++d;
+			}
+			
+			if ( d == numDimensions )
+				break;
+			
+			++position1[ d ];
+		}
+		
+		cursor1.close();
+		cursor2.close();
+		
+		final double var1 = sum11 - sum1 * sum1 / n;
+		final double var2 = sum22 - sum2 * sum2 / n;
+		
+		if ( var1 <= 0 || var2 <= 0 )
+			return 0;
+		
+		return (float)( ( sum12 - sum1 * sum2 / n ) / Math.sqrt( var1 * var2 ) );
+	}
+
 	/**
 	 * return an {@link Image}<T> as input for the PhaseCorrelation.
 	 * 
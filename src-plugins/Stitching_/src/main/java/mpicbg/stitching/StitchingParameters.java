@@ -36,6 +36,18 @@ public class StitchingParameters
 	public int outputVariant = 0;
 	public String outputDirectory = null;
 	
+	/**
+	 * If larger than 1, the phase correlation first looks for candidate shifts on images downsampled
+	 * by this factor (e.g. 4 or 8) and only refines them at full resolution
+	 */
+	public int downSampling = 1;
+	
+	/**
+	 * The maximal size (in pixels, in each dimension) of the full resolution window used to refine the 
+	 * candidate shifts when downSampling is larger than 1
+	 */
+	public int refinementWindowSize = 128;
+	
 	public double regThreshold = -2;
 	public double relativeThreshold = 2.5;
 	public double absoluteThreshold = 3.5;
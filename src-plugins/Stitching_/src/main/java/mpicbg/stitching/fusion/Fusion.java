@@ -12,6 +12,7 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.imglib.container.array.ArrayContainerFactory;
@@ -46,6 +47,11 @@
  */
 public class Fusion 
 {
+	/**
+	 * Default side (in pixels) of the xy-blocks that are fused independently when writing to disk
+	 */
+	public static final int defaultBlockSize = 256;
+	
 	/**
 	 * 
 	 * @param targetType
@@ -56,6 +62,24 @@ public class Fusion
 	 */
 	public static < T extends RealType< T > > ImagePlus fuse( final T targetType, final ArrayList< ImagePlus > images, final ArrayList< InvertibleBoundable > models, 
 			final int dimensionality, final boolean subpixelResolution, final int fusionType, final String outputDirectory, final boolean noOverlap )
+	{
+		return fuse( targetType, images, models, dimensionality, subpixelResolution, fusionType, outputDirectory, noOverlap, defaultBlockSize );
+	}
+	
+	/**
+	 * 
+	 * @param targetType
+	 * @param images
+	 * @param models
+	 * @param dimensionality
+	 * @param subpixelResolution - if there is no subpixel resolution, we do not need to convert to float as no interpolation is necessary, we can compute everything with RealType
+	 * @param outputDirectory - if not null, the output is fused block by block and written to this directory. Only the output is 
+	 * blocked, every input image (one channel and timepoint) is still loaded completely
+	 * @param blockSize - side (in pixels) of the xy-blocks that are fused independently when writing to disk
+	 */
+	public static < T extends RealType< T > > ImagePlus fuse( final T targetType, final ArrayList< ImagePlus > images, final ArrayList< InvertibleBoundable > models, 
+			final int dimensionality, final boolean subpixelResolution, final int fusionType, final String outputDirectory, final boolean noOverlap,
+			final int blockSize )
 	{
 		// first we need to estimate the boundaries of the new image
 		final float[] offset = new float[ dimensionality ];
@@ -86,14 +110,14 @@ public static < T extends RealType< T > > ImagePlus fuse( final T targetType, fi
 		{
 			for ( int c = 1; c <= numChannels; ++c )
 			{
-				// create the 2d/3d target image for the current channel and timepoint 
+				// create the 2d/3d target image for the current channel and timepoint,
+				// if we write to disk the output is created and written block by block
 				final Image< T > out;
 				
-				// we just create one slice if we write to disk
 				if ( outputDirectory == null )
 					out = f.createImage( size );
 				else
-					out = f.createImage( new int[] { size[ 0 ], size[ 1 ] } ); // just create a slice
+					out = null;
 
 				// init the fusion
 				PixelFusion fusion = null;
@@ -128,15 +152,7 @@ else if ( fusionType == 4)
 					}
 					else
 					{
-						final int numSlices;
-						
-						if ( dimensionality == 2 )
-							numSlices = 1;
-						else
-							numSlices = size[ 2 ];
-						
-						writeBlock( out, numSlices, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory );
-						out.close();
+						writeBlocks( f, size, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory, blockSize );
 					}
 				}
 				else
@@ -171,15 +187,7 @@ else if ( imp.getType() == ImagePlus.GRAY16 )
 					}
 					else
 					{
-						final int numSlices;
-						
-						if ( dimensionality == 2 )
-							numSlices = 1;
-						else
-							numSlices = size[ 2 ];
-						
-						writeBlock( out, numSlices, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory );
-						out.close();
+						writeBlocks( f, size, t, numTimePoints, c, numChannels, blockData, offset, models, fusion, outputDirectory, blockSize );
 					}
 				}
 				
@@ -390,99 +398,194 @@ public void run()
 	}
 
 	/**
-	 * Fuse one slice/volume (one channel)
+	 * Fuse one slice/volume (one channel) and write it to disk without ever holding the complete output in memory.
+	 * The output is computed in z-slabs (as many slices as fit into half of the free memory), each slab is divided 
+	 * into blocks of blockSize x blockSize pixels that are fused multithreaded, and for each block 
+	 * only the input images whose bounding box (from the models) overlaps the block are tested. Every finished slab
+	 * is written slice by slice into the output directory before the next one is computed.
+	 * Note that only the output is blocked, the input images are still held in memory completely.
 	 * 
-	 * @param outputSlice - same the type of the ImagePlus input, just one slice which will be written to the output directory
+	 * @param factory - creates the output blocks, same type as the ImagePlus input
+	 * @param size - the size of the complete output image
 	 * @param input - FloatType, because of Interpolation that needs to be done
 	 * @param transform - the transformation
+	 * @param blockSize - side (in pixels) of the xy-blocks
 	 */
-	protected static <T extends RealType<T>> void writeBlock( final Image<T> outputSlice, final int numSlices, final int t, final int numTimePoints, final int c, final int numChannels, 
+	protected static <T extends RealType<T>> void writeBlocks( final ImageFactory<T> factory, final int[] size, final int t, final int numTimePoints, final int c, final int numChannels, 
 			final ArrayList< ? extends ImageInterpolation< ? extends RealType< ? > > > input, final float[] offset, 
-			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final String outputDirectory )
+			final ArrayList< InvertibleBoundable > transform, final PixelFusion fusion, final String outputDirectory, final int blockSize )
 	{
 		final int numImages = input.size();
 		final int numDimensions = offset.length;
+		final int numSlices = numDimensions == 3 ? size[ 2 ] : 1;
 
 		// the maximal dimensions of each image
 		final int[][] max = new int[ numImages ][ numDimensions ];
 		for ( int i = 0; i < numImages; ++i )
 			for ( int d = 0; d < numDimensions; ++d )
 				max[ i ][ d ] = input.get( i ).getImage().getDimension( d ) - 1; 
-		
-		final LocalizableCursor<T> out = outputSlice.createLocalizableCursor();
-		final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
-		
+
+		// the bounding box of each image in output coordinates (one pixel larger for interpolation)
+		final int[][] boundsMin = new int[ numImages ][ 3 ];
+		final int[][] boundsMax = new int[ numImages ][ 3 ];
 		for ( int i = 0; i < numImages; ++i )
-			in.add( input.get( i ).createInterpolator() );
+		{
+			final float[] min = new float[ numDimensions ];
+			final float[] maxBound = new float[ numDimensions ];
+			for ( int d = 0; d < numDimensions; ++d )
+				maxBound[ d ] = max[ i ][ d ];
+			
+			transform.get( i ).estimateBounds( min, maxBound );
+			
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				boundsMin[ i ][ d ] = (int)Math.floor( Math.min( min[ d ], maxBound[ d ] ) - offset[ d ] ) - 1;
+				boundsMax[ i ][ d ] = (int)Math.ceil( Math.max( min[ d ], maxBound[ d ] ) - offset[ d ] ) + 1;
+			}
+			
+			if ( numDimensions == 2 )
+			{
+				boundsMin[ i ][ 2 ] = 0;
+				boundsMax[ i ][ 2 ] = 0;
+			}
+		}
 		
-		final float[][] tmp = new float[ numImages ][ numDimensions ];
-		final PixelFusion myFusion = fusion.copy();
+		// how many slices we can keep in memory at once (4 bytes per pixel at most)
+		final Runtime runtime = Runtime.getRuntime();
+		final long freeMemory = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+		final long sliceBytes = 4l * size[ 0 ] * size[ 1 ];
+		final int slabDepth = (int)Math.max( 1, Math.min( numSlices, freeMemory / 2 / sliceBytes ) );
+
+		final int numBlocksX = ( size[ 0 ] + blockSize - 1 ) / blockSize;
+		final int numBlocksY = ( size[ 1 ] + blockSize - 1 ) / blockSize;
 		
-		try 
+		for ( int z0 = 0; z0 < numSlices; z0 += slabDepth )
 		{
-			for ( int slice = 0; slice < numSlices; ++slice )
-			{
-				out.reset();
-				
-				// fill all pixels of the current slice
-				while ( out.hasNext() )
+			final int slabStart = z0;
+			final int depth = Math.min( slabDepth, numSlices - z0 );
+			
+			final Image<T> slab;
+			if ( numDimensions == 3 )
+				slab = factory.createImage( new int[] { size[ 0 ], size[ 1 ], depth } );
+			else
+				slab = factory.createImage( new int[] { size[ 0 ], size[ 1 ] } );
+			
+			// run multithreaded, every thread takes the next block
+			final AtomicInteger nextBlock = new AtomicInteger( 0 );
+			final AtomicBoolean failed = new AtomicBoolean( false );
+			final Thread[] threads = SimpleMultiThreading.newThreads();
+			
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
 				{
-					out.fwd();
-					
-					// get the current position in the output image
-					for ( int d = 0; d < 2; ++d )
+					public void run()
 					{
-						final float value = out.getPosition( d ) + offset[ d ];
+						final LocalizableByDimCursor<T> out = slab.createLocalizableByDimCursor();
+						final ArrayList<Interpolator<? extends RealType<?>>> in = new ArrayList<Interpolator<? extends RealType<?>>>();
 						
 						for ( int i = 0; i < numImages; ++i )
-							tmp[ i ][ d ] = value;
-					}
-					
-					// if there is a third dimension, use the slice index
-					if ( numDimensions == 3 )
-					{
-						final float value = slice + offset[ 2 ];
+							in.add( input.get( i ).createInterpolator() );
 						
-						for ( int i = 0; i < numImages; ++i )
-							tmp[ i ][ 2 ] = value;						
-					}
-					
-					// transform and compute output value
-					myFusion.clear();
-					
-					// loop over all images for this output location
-A:		        	for ( int i = 0; i < numImages; ++i )
-		        	{
-		        		transform.get( i ).applyInverseInPlace( tmp[ i ] );
-		            	
-		        		// test if inside
-						for ( int d = 0; d < numDimensions; ++d )
-							if ( tmp[ i ][ d ] < 0 || tmp[ i ][ d ] > max[ i ][ d ] )
-								continue A;
+						final float[] tmp = new float[ numDimensions ];
+						final int[] pos = new int[ numDimensions ];
+						final int[] candidates = new int[ numImages ];
+						final PixelFusion myFusion = fusion.copy();
 						
-						in.get( i ).setPosition( tmp[ i ] );			
-						myFusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp[ i ] );
+						try
+						{
+							for ( int b = nextBlock.getAndIncrement(); b < numBlocksX * numBlocksY && !failed.get(); b = nextBlock.getAndIncrement() )
+							{
+								final int x0 = ( b % numBlocksX ) * blockSize;
+								final int y0 = ( b / numBlocksX ) * blockSize;
+								final int x1 = Math.min( size[ 0 ], x0 + blockSize ) - 1;
+								final int y1 = Math.min( size[ 1 ], y0 + blockSize ) - 1;
+								final int zEnd = slabStart + depth - 1;
+								
+								// the images that overlap this block
+								int numCandidates = 0;
+								for ( int i = 0; i < numImages; ++i )
+									if ( boundsMin[ i ][ 0 ] <= x1 && boundsMax[ i ][ 0 ] >= x0 &&
+										 boundsMin[ i ][ 1 ] <= y1 && boundsMax[ i ][ 1 ] >= y0 &&
+										 ( numDimensions == 2 || ( boundsMin[ i ][ 2 ] <= zEnd && boundsMax[ i ][ 2 ] >= slabStart ) ) )
+										candidates[ numCandidates++ ] = i;
+								
+								for ( int z = 0; z < depth; ++z )
+									for ( int y = y0; y <= y1; ++y )
+										for ( int x = x0; x <= x1; ++x )
+										{
+											pos[ 0 ] = x;
+											pos[ 1 ] = y;
+											if ( numDimensions == 3 )
+												pos[ 2 ] = z;
+											
+											// transform and compute output value
+											myFusion.clear();
+											
+											// loop over all overlapping images for this output location
+A:											for ( int k = 0; k < numCandidates; ++k )
+											{
+												final int i = candidates[ k ];
+												
+												tmp[ 0 ] = x + offset[ 0 ];
+												tmp[ 1 ] = y + offset[ 1 ];
+												if ( numDimensions == 3 )
+													tmp[ 2 ] = slabStart + z + offset[ 2 ];
+												
+												transform.get( i ).applyInverseInPlace( tmp );
+												
+												// test if inside
+												for ( int d = 0; d < numDimensions; ++d )
+													if ( tmp[ d ] < 0 || tmp[ d ] > max[ i ][ d ] )
+														continue A;
+												
+												in.get( i ).setPosition( tmp );
+												myFusion.addValue( in.get( i ).getType().getRealFloat(), i, tmp );
+											}
+											
+											// set value
+											out.setPosition( pos );
+											out.getType().setReal( myFusion.getValue() );
+										}
+							}
+						}
+						catch ( NoninvertibleModelException e )
+						{
+							IJ.log( "Cannot invert model, qutting." );
+							failed.set( true );
+						}
+						
+						out.close();
 					}
-					
-					// set value
-					out.getType().setReal( myFusion.getValue() );
-				}
+				});
+			
+			SimpleMultiThreading.startAndJoin( threads );
+			
+			if ( failed.get() )
+			{
+				slab.close();
+				return;
+			}
+			
+			// write the slices of the slab
+			try 
+			{
+				final ImagePlus slabImp = ((ImagePlusContainer<?,?>)slab.getContainer()).getImagePlus();
 				
-				// write the slice
-				final ImagePlus outImp = ((ImagePlusContainer<?,?>)outputSlice.getContainer()).getImagePlus();
-				final FileSaver fs = new FileSaver( outImp );
-				fs.saveAsTiff( new File( outputDirectory, "img_t" + lz( t, numTimePoints ) + "_z" + lz( slice+1, numSlices ) + "_c" + lz( c, numChannels ) ).getAbsolutePath() );
+				for ( int z = 0; z < depth; ++z )
+				{
+					final FileSaver fs = new FileSaver( new ImagePlus( "", slabImp.getStack().getProcessor( z + 1 ) ) );
+					fs.saveAsTiff( new File( outputDirectory, "img_t" + lz( t, numTimePoints ) + "_z" + lz( slabStart + z + 1, numSlices ) + "_c" + lz( c, numChannels ) ).getAbsolutePath() );
+				}
+			} 
+			catch ( ImgLibException e ) 
+			{
+				IJ.log( "Output image has no ImageJ type: " + e );
+				return;
+			}
+			finally
+			{
+				slab.close();
 			}
-		} 
-		catch ( NoninvertibleModelException e ) 
-		{
-			IJ.log( "Cannot invert model, qutting." );
-			return;
-		} 
-		catch ( ImgLibException e ) 
-		{
-			IJ.log( "Output image has no ImageJ type: " + e );
-			return;
 		}
 	}
 
@@ -12,6 +12,7 @@
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_THRESHOLD;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TILE_SIZE;
 import static fiji.plugin.trackmate.detection.DetectorKeys.XML_ATTRIBUTE_DETECTOR_NAME;
 import ij.ImagePlus;
 
@@ -109,7 +110,8 @@ public boolean marshall(final Map<String, Object> settings, Element element) {
 					&& writeRadius(settings, element) 
 					&& writeThreshold(settings, element)
 					&& writeDoMedian(settings, element)
-					&& writeDoSubPixel(settings, element);
+					&& writeDoSubPixel(settings, element)
+					&& writeTileSize(settings, element);
 
 		} else if (currentKey.equals(DownsampleLogDetectorFactory.DETECTOR_KEY)) {
 
@@ -166,6 +168,10 @@ public boolean unmarshall(final Element element, Map<String, Object> settings) {
 			ok = ok & readBooleanAttribute(element, settings, KEY_DO_SUBPIXEL_LOCALIZATION, errorHolder);
 			ok = ok & readBooleanAttribute(element, settings, KEY_DO_MEDIAN_FILTERING, errorHolder);
 			ok = ok & readIntegerAttribute(element, settings, KEY_TARGET_CHANNEL, errorHolder);
+			if (null != element.getAttributeValue(KEY_TILE_SIZE)) {
+				// Optional
+				ok = ok & readIntegerAttribute(element, settings, KEY_TILE_SIZE, errorHolder);
+			}
 
 		} else if (currentKey.equals(DownsampleLogDetectorFactory.DETECTOR_KEY)) {
 
@@ -374,6 +380,17 @@ protected boolean writeDoSubPixel(final Map<String, Object> settings, Element el
 		return writeAttribute(settings, element, KEY_DO_SUBPIXEL_LOCALIZATION, Boolean.class);
 	}
 
+	/**
+	 * Writes the tile size, if it is present in the settings map. This parameter
+	 * is optional.
+	 */
+	protected boolean writeTileSize(final Map<String, Object> settings, Element element) {
+		if (!settings.containsKey(KEY_TILE_SIZE)) {
+			return true;
+		}
+		return writeAttribute(settings, element, KEY_TILE_SIZE, Integer.class);
+	}
+
 	protected boolean writeDownsamplingFactor(final Map<String, Object> settings, Element element) {
 		return writeAttribute(settings, element, KEY_DOWNSAMPLE_FACTOR, Integer.class);
 	}
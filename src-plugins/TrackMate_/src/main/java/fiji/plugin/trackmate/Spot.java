@@ -1,11 +1,12 @@
 package fiji.plugin.trackmate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.util.Util;
@@ -13,6 +14,11 @@
 
 /**
  * Plain implementation of the {@link Spot} interface.
+ * <p>
+ * Once a spot is added to a {@link SpotCollection}, its feature values are not
+ * stored in the spot itself, but in the columns of the {@link SpotFeatureStore}
+ * of this collection, and the spot only keeps its row in this store. Before
+ * that, and after it is removed, the spot keeps its few features itself.
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> Sep 16, 2010, 2012
  *
  */
@@ -24,8 +30,16 @@ public class Spot {
 
 	public static AtomicInteger IDcounter = new AtomicInteger(0); 
 
-	/** Store the individual features, and their values. */
-	private final ConcurrentHashMap<String, Double> features = new ConcurrentHashMap<String, Double>();
+	/** The store holding the features of this spot, or <code>null</code> if it is not attached to one. */
+	volatile SpotFeatureStore store = null;
+	/** The row of this spot in its {@link #store}. Written before the store, and read after it. */
+	int row = -1;
+	/** The keys of the features of this spot while it is not attached to a store. Guarded by this spot. */
+	String[] keys = null;
+	/** The values of the features of this spot while it is not attached to a store. Guarded by this spot. */
+	double[] values = null;
+	/** The number of features of this spot while it is not attached to a store. Guarded by this spot. */
+	int nFeatures = 0;
 	/** A user-supplied name for this spot. */
 	private String name;
 	/** This spot ID */
@@ -122,7 +136,8 @@ public String echo() {
 		s.append("Position: "+Util.printCoordinates(coordinates)+"\n");
 
 		// Feature list
-		if (null == features || features.size() < 1) 
+		Map<String, Double> features = getFeatures();
+		if (features.size() < 1) 
 			s.append("No features calculated\n");
 		else {
 			s.append("Feature list:\n");
@@ -145,10 +160,27 @@ public String echo() {
 	 */
 
 	/**
-     * @return and exposes the storage Map of features for this spot. 
-     */
+	 * @return a new, unmodifiable map containing the features set for this spot, 
+	 * and their values. Changes made to this spot afterwards are not reflected 
+	 * in the map.
+	 */
 	public Map<String,Double> getFeatures() {
-		return features;
+		final Map<String, Double> features = new HashMap<String, Double>();
+		synchronized (this) {
+			if (null == store) {
+				for (int i = 0; i < nFeatures; i++) {
+					features.put(keys[i], values[i]);
+				}
+			} else {
+				for (SpotFeatureStore.Column column : store.getColumns()) {
+					final double val = column.get(row);
+					if (!SpotFeatureStore.isMissing(val)) {
+						features.put(column.getFeature(), val);
+					}
+				}
+			}
+		}
+		return Collections.unmodifiableMap(features);
 	}
 
 	/**
@@ -157,14 +189,107 @@ public Map<String,Double> getFeatures() {
      * <code>null</code> if it has not been set.
      */
 	public final Double getFeature(final String feature) {
-		return features.get(feature);
+		final double val = getFeatureValue(feature);
+		if (SpotFeatureStore.isMissing(val)) {
+			return null;
+		}
+		return val;
 	}
 
 	/**
      * Store the specified feature value for this spot.
      */
-	public final void putFeature(final String feature, final double value) {
-		features.put(feature, value);
+	public final synchronized void putFeature(final String feature, final double value) {
+		if (null == store) {
+			putLocalFeature(feature, value);
+		} else {
+			store.getColumn(feature).set(row, value);
+		}
+	}
+
+	/**
+	 * @return the value of the specified feature, or {@link Double#NaN} if it 
+	 * has not been set. Unlike {@link #getFeature(String)}, this does not box 
+	 * the value.
+	 */
+	public final double getFeatureAsDouble(final String feature) {
+		final double val = getFeatureValue(feature);
+		return SpotFeatureStore.isMissing(val) ? Double.NaN : val;
+	}
+
+	/**
+	 * @return the store that holds the features of this spot, or <code>null</code>
+	 * if this spot is not attached to a store.
+	 */
+	public SpotFeatureStore getFeatureStore() {
+		return store;
+	}
+
+	/**
+	 * @return the value of the specified feature, or the missing marker of the
+	 * {@link SpotFeatureStore} if it is not set. Does not box the value.
+	 */
+	final double getFeatureValue(final String feature) {
+		final SpotFeatureStore s = store;
+		if (null != s) {
+			final SpotFeatureStore.Column column = s.findColumn(feature);
+			// If this spot was released meanwhile, row is -1, which no column holds
+			return null == column ? SpotFeatureStore.MISSING : column.get(row);
+		}
+		synchronized (this) {
+			if (null != store) {
+				return getFeatureValue(feature);
+			}
+			for (int i = 0; i < nFeatures; i++) {
+				if (keys[i].equals(feature)) {
+					return values[i];
+				}
+			}
+			return SpotFeatureStore.MISSING;
+		}
+	}
+
+	/**
+	 * @return the value of the specified position feature, or {@link Double#NaN}
+	 * if it is not set.
+	 */
+	private final double getCoordinate(final int d) {
+		final SpotFeatureStore s = store;
+		final double val = null == s ? getFeatureValue(POSITION_FEATURES[d]) : s.positionColumns[d].get(row);
+		return SpotFeatureStore.isMissing(val) ? Double.NaN : val;
+	}
+
+	/**
+	 * Stores a feature in this spot itself. Must be called while holding the
+	 * lock on this spot, which must not be attached to a store.
+	 */
+	final void putLocalFeature(final String feature, final double value) {
+		for (int i = 0; i < nFeatures; i++) {
+			if (keys[i].equals(feature)) {
+				values[i] = value;
+				return;
+			}
+		}
+		if (null == keys) {
+			keys = new String[8];
+			values = new double[8];
+		} else if (nFeatures == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * nFeatures);
+			values = Arrays.copyOf(values, 2 * nFeatures);
+		}
+		keys[nFeatures] = feature;
+		values[nFeatures] = value;
+		nFeatures++;
+	}
+
+	/**
+	 * Forgets the features stored in this spot itself, once they have been
+	 * moved to a store. Must be called while holding the lock on this spot.
+	 */
+	final void clearLocalFeatures() {
+		keys = null;
+		values = null;
+		nFeatures = 0;
 	}
 
 	 /**
@@ -172,9 +297,12 @@ public final void putFeature(final String feature, final double value) {
      * By construction, this operation is anti-symmetric (A.diffTo(B) = - B.diffTo(A)).
      */
 	public double diffTo(Spot s, String feature) {
-		double f1 = features.get(feature).doubleValue();
-		double f2 = s.getFeature(feature).doubleValue();
-		return f1 - f2;
+		final double a = getFeatureValue(feature);
+		final double b = s.getFeatureValue(feature);
+		if (SpotFeatureStore.isMissing(a) || SpotFeatureStore.isMissing(b)) {
+			return Double.NaN;
+		}
+		return a - b;
 	}
 
 	/**
@@ -187,8 +315,11 @@ public double diffTo(Spot s, String feature) {
      * By construction, this operation is symmetric (A.normalizeDiffTo(B) = B.normalizeDiffTo(A)).
      */
 	public double normalizeDiffTo(Spot s, String feature) {
-		final double a = features.get(feature).doubleValue();
-		final double b = s.getFeature(feature).doubleValue();
+		final double a = getFeatureValue(feature);
+		final double b = s.getFeatureValue(feature);
+		if (SpotFeatureStore.isMissing(a) || SpotFeatureStore.isMissing(b)) {
+			return Double.NaN;
+		}
 		if (a == -b)
 			return 0d;
 		else
@@ -202,9 +333,9 @@ public double squareDistanceTo(Spot s) {
 		double sumSquared = 0d;
 		double thisVal, otherVal;
 
-		for (String f : POSITION_FEATURES) {
-			thisVal = features.get(f).doubleValue();
-			otherVal = s.getFeature(f).doubleValue();
+		for (int d = 0; d < POSITION_FEATURES.length; d++) {
+			thisVal = getCoordinate(d);
+			otherVal = s.getCoordinate(d);
 			sumSquared += ( otherVal - thisVal ) * ( otherVal - thisVal ); 
 		}
 		return sumSquared;
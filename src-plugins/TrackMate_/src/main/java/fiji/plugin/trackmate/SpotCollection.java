@@ -4,12 +4,14 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -25,6 +27,23 @@
  * <p>
  * This class is {@link MultiThreaded}. There are a few processes that can benefit from multithreaded
  * computation ({@link #filter(Collection)}, {@link #filter(FeatureFilter)}
+ * <p>
+ * Spatial queries on a frame rely on a {@link SpotSpatialIndex}, built the first time
+ * it is needed and then kept up to date when spots are added or removed through
+ * {@link #add(Spot, Integer)} and {@link #remove(Spot, Integer)}. Modifying the 
+ * frame lists directly invalidates nothing: callers that do so must call 
+ * {@link #invalidateSpatialIndex(int)}. Spots whose position changed must be
+ * signaled with {@link #updateSpatialIndex(Spot)}.
+ * <p>
+ * The features of the spots are stored in the {@link SpotFeatureStore} of the
+ * collection that owns them. A collection created with a public constructor 
+ * owns its spots: it attaches them to its store when they are added with 
+ * {@link #add(Spot, Integer)} or {@link #put(Integer, List)}, and releases
+ * them when they are removed with {@link #remove(Spot, Integer)}, 
+ * {@link #remove(Object)} or {@link #clear()}. Spots that are already attached
+ * to another store are left there. The collections returned by the filter and
+ * subset methods are views that share the store of this collection, and never
+ * attach nor release spots.
  * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> - Feb 2011 - 2013
  *
  */
@@ -32,6 +51,12 @@ public class SpotCollection implements Iterable<Spot>, SortedMap<Integer, List<S
 
 	/** The frame by frame list of spot this object wrap. */
 	private ConcurrentSkipListMap<Integer, List<Spot>> content;
+	/** The spatial index of each frame, built when first required. */
+	private final ConcurrentHashMap<Integer, SpotSpatialIndex> spatialIndices = new ConcurrentHashMap<Integer, SpotSpatialIndex>();
+	/** The store holding the features of the spots of this collection. */
+	private final SpotFeatureStore store;
+	/** If <code>true</code>, this collection attaches and releases its spots. */
+	private final boolean ownsSpots;
 	private int numThreads;
 
 	/*
@@ -44,6 +69,11 @@ public class SpotCollection implements Iterable<Spot>, SortedMap<Integer, List<S
 	 */
 	public SpotCollection(ConcurrentSkipListMap<Integer, List<Spot>> content) {
 		this.content = content;
+		this.store = new SpotFeatureStore();
+		this.ownsSpots = true;
+		for (List<Spot> spots : content.values()) {
+			store.attachAll(spots);
+		}
 		setNumThreads();
 	}
 
@@ -54,6 +84,17 @@ public SpotCollection() {
 		this(new ConcurrentSkipListMap<Integer, List<Spot>>());
 	}
 
+	/**
+	 * Construct a new empty view on the spots of another collection, sharing
+	 * its feature store.
+	 */
+	private SpotCollection(final SpotFeatureStore store) {
+		this.content = new ConcurrentSkipListMap<Integer, List<Spot>>();
+		this.store = store;
+		this.ownsSpots = false;
+		setNumThreads();
+	}
+
 	/*
 	 * METHODS
 	 */
@@ -74,7 +115,7 @@ public String toString() {
 	 * new collection.
 	 */
 	public SpotCollection subset(Collection<Spot> spots) {
-		SpotCollection newCollection = new SpotCollection();
+		SpotCollection newCollection = new SpotCollection(store);
 		Integer frame;
 		for(Spot spot : spots) {
 			frame = getFrame(spot);
@@ -98,7 +139,16 @@ public boolean remove(Spot spot, Integer frame) {
 		List<Spot> spots = content.get(frame);
 		if (null == spots)
 			return false;
-		return spots.remove(spot);		
+		final boolean removed = spots.remove(spot);
+		final SpotSpatialIndex index = spatialIndices.get(frame);
+		if (removed && null != index) {
+			index.remove(spot);
+		}
+		// A spot moved to another frame was added there first, and updated its frame
+		if (removed && ownsSpots && frame.equals(frameOf(spot))) {
+			store.release(spot);
+		}
+		return removed;
 	}
 
 	/**
@@ -116,8 +166,97 @@ public boolean add(Spot spot, Integer frame) {
 			spots = new ArrayList<Spot>(1);
 			content.put(frame, spots);
 		}
+		if (ownsSpots) {
+			store.attach(spot);
+		}
 		spot.putFeature(Spot.FRAME, frame);
-		return spots.add(spot);
+		final boolean added = spots.add(spot);
+		final SpotSpatialIndex index = spatialIndices.get(frame);
+		if (added && null != index) {
+			index.add(spot);
+		}
+		return added;
+	}
+
+	/**
+	 * @return the store that holds the features of the spots owned by this 
+	 * collection, or by the collection this one is a view of. Code that reads 
+	 * one feature over many spots should fetch its column once from this store.
+	 */
+	public SpotFeatureStore getFeatureStore() {
+		return store;
+	}
+
+	/**
+	 * @return the columns of the store of this collection. Columns are 
+	 * created in this store for the features of the spots of this collection
+	 * that are attached to another store, so that all their features are 
+	 * listed.
+	 */
+	public Collection<SpotFeatureStore.Column> getFeatureColumns() {
+		for (List<Spot> spots : content.values()) {
+			for (Spot spot : spots) {
+				if (!store.isAttached(spot)) {
+					for (String feature : spot.getFeatures().keySet()) {
+						store.getColumn(feature);
+					}
+				}
+			}
+		}
+		return store.getColumns();
+	}
+
+	/**
+	 * Returns the spatial index of the specified frame, building it if it does 
+	 * not exist yet. Trackers, views and actions should use it for their spatial
+	 * queries rather than scanning the frame list.
+	 * @return the spatial index, or <code>null</code> if this collection has no
+	 * spot list for the specified frame.
+	 */
+	public SpotSpatialIndex getSpatialIndex(final int frame) {
+		SpotSpatialIndex index = spatialIndices.get(frame);
+		if (null == index) {
+			final List<Spot> spots = content.get(frame);
+			if (null == spots) {
+				return null;
+			}
+			final SpotSpatialIndex newIndex = new SpotSpatialIndex(spots);
+			index = spatialIndices.putIfAbsent(frame, newIndex);
+			if (null == index) {
+				index = newIndex;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Moves the given spot to the right place in the spatial index of its frame.
+	 * Must be called after changing the position of a spot of this collection.
+	 */
+	public void updateSpatialIndex(final Spot spot) {
+		// Trust the Spot.FRAME feature first; the indices know their spots, so
+		// there is no need to search the frame lists
+		final Double frame = spot.getFeature(Spot.FRAME);
+		if (null != frame) {
+			final SpotSpatialIndex index = spatialIndices.get(frame.intValue());
+			if (null != index && index.update(spot)) {
+				return;
+			}
+		}
+		for (final SpotSpatialIndex index : spatialIndices.values()) {
+			if (index.update(spot)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Discards the spatial index of the specified frame. It will be rebuilt on
+	 * next use. Must be called after modifying the list of spots of a frame
+	 * directly.
+	 */
+	public void invalidateSpatialIndex(final int frame) {
+		spatialIndices.remove(frame);
 	}
 
 	/**
@@ -125,9 +264,14 @@ public boolean add(Spot spot, Integer frame) {
 	 * feature satisfying the filter given. 
 	 */
 	public final SpotCollection filter(final FeatureFilter featurefilter) {
-		final SpotCollection selectedSpots = new SpotCollection();
+		final SpotCollection selectedSpots = new SpotCollection(store);
 		selectedSpots.setNumThreads(numThreads);
 
+		// Scan the feature column once, over all rows
+		final SpotFeatureStore.Column column = store.getColumn(featurefilter.feature);
+		final Double tval = featurefilter.value;
+		final boolean[] selected = null == tval ? null : column.select(tval, featurefilter.isAbove);
+
 		final int[] keys = new int[content.keySet().size()];
 		Iterator<Integer> it = content.keySet().iterator();
 		for (int i = 0; i < keys.length; i++) {
@@ -142,40 +286,17 @@ public final SpotCollection filter(final FeatureFilter featurefilter) {
 
 				public void run() {
 
-					Collection<Spot> spotThisFrame, spotToRemove;
+					Collection<Spot> spotThisFrame;
 					List<Spot> spotToKeep;
-					Double val, tval;	
 
 					for (int i = ai.getAndIncrement(); i < keys.length; i = ai.getAndIncrement()) {
 					
 						int timepoint = keys[i];
 						spotThisFrame = content.get(timepoint);
-						spotToKeep = new ArrayList<Spot>(spotThisFrame);
-						spotToRemove = new ArrayList<Spot>(spotThisFrame.size());
-
-						tval = featurefilter.value;
-						if (null != tval) {
-
-							if (featurefilter.isAbove) {
-								for (Spot spot : spotToKeep) {
-									val = spot.getFeature(featurefilter.feature);
-									if (null == val)
-										continue;
-									if ( val < tval)
-										spotToRemove.add(spot);
-								}
-
-							} else {
-								for (Spot spot : spotToKeep) {
-									val = spot.getFeature(featurefilter.feature);
-									if (null == val)
-										continue;
-									if ( val > tval)
-										spotToRemove.add(spot);
-								}
-							}
-							spotToKeep.removeAll(spotToRemove); // no need to treat them multiple times
-
+						if (null == tval) {
+							spotToKeep = new ArrayList<Spot>(spotThisFrame);
+						} else {
+							spotToKeep = filter(spotThisFrame, selected, column, tval, featurefilter.isAbove);
 						}
 
 						selectedSpots.put(timepoint, spotToKeep);
@@ -194,90 +315,91 @@ public void run() {
 	 * feature satisfying all the filters given. 
 	 */
 	public final SpotCollection filter(final Collection<FeatureFilter> filters) {
-		SpotCollection selectedSpots = new SpotCollection();
+		SpotCollection selectedSpots = new SpotCollection(store);
 		selectedSpots.setNumThreads(numThreads);
-		Collection<Spot> spotThisFrame, spotToRemove;
 		List<Spot> spotToKeep;
-		Double val, tval;	
-
-		for (int timepoint : content.keySet()) {
-
-			spotThisFrame = content.get(timepoint);
-			spotToKeep = new ArrayList<Spot>(spotThisFrame);
-			spotToRemove = new ArrayList<Spot>(spotThisFrame.size());
-
-			for (FeatureFilter filter : filters) {
 
-				tval = filter.value;
-				if (null == tval)
-					continue;
-				spotToRemove.clear();
+		// Scan each feature column once, over all rows
+		final List<FeatureFilter> activeFilters = new ArrayList<FeatureFilter>(filters.size());
+		final List<SpotFeatureStore.Column> columns = new ArrayList<SpotFeatureStore.Column>(filters.size());
+		final List<boolean[]> selections = new ArrayList<boolean[]>(filters.size());
+		for (FeatureFilter filter : filters) {
+			if (null == filter.value)
+				continue;
+			final SpotFeatureStore.Column column = store.getColumn(filter.feature);
+			activeFilters.add(filter);
+			columns.add(column);
+			selections.add(column.select(filter.value, filter.isAbove));
+		}
 
-				if (filter.isAbove) {
-					for (Spot spot : spotToKeep) {
-						val = spot.getFeature(filter.feature);
-						if (null == val)
-							continue;
-						if ( val < tval)
-							spotToRemove.add(spot);
-					}
+		for (int timepoint : content.keySet()) {
 
-				} else {
-					for (Spot spot : spotToKeep) {
-						val = spot.getFeature(filter.feature);
-						if (null == val)
-							continue;
-						if ( val > tval)
-							spotToRemove.add(spot);
-					}
-				}
-				spotToKeep.removeAll(spotToRemove); // no need to treat them multiple times
+			spotToKeep = new ArrayList<Spot>(content.get(timepoint));
+			for (int i = 0; i < activeFilters.size(); i++) {
+				final FeatureFilter filter = activeFilters.get(i);
+				spotToKeep = filter(spotToKeep, selections.get(i), columns.get(i), filter.value, filter.isAbove); // no need to treat them multiple times
 			}
 			selectedSpots.put(timepoint, spotToKeep);
 		}
 		return selectedSpots;
 	}
 
+	/**
+	 * @return a new list made of the spots of the given collection that pass the threshold.
+	 * Spots for which the feature is not set always pass. The spots attached to 
+	 * the store of this collection are looked up in the given selection, 
+	 * made by {@link SpotFeatureStore.Column#select(double, boolean)}, the 
+	 * others are tested one by one.
+	 */
+	private final List<Spot> filter(final Collection<Spot> spots, final boolean[] selected, final SpotFeatureStore.Column column, final double threshold, final boolean isAbove) {
+		final List<Spot> spotToKeep = new ArrayList<Spot>(spots.size());
+		for (Spot spot : spots) {
+			final boolean keep;
+			if (store.isAttached(spot) && spot.row >= 0 && spot.row < selected.length) {
+				keep = selected[spot.row];
+			} else {
+				final double val = column.get(spot);
+				keep = Double.isNaN(val) || (isAbove ? val >= threshold : val <= threshold);
+			}
+			if (keep) {
+				spotToKeep.add(spot);
+			}
+		}
+		return spotToKeep;
+	}
+
+	/**
+	 * @return the frame stored in the {@link Spot#FRAME} feature of the given
+	 * spot, or <code>null</code> if it is not set.
+	 */
+	private static final Integer frameOf(final Spot spot) {
+		final Double frame = spot.getFeature(Spot.FRAME);
+		return null == frame ? null : frame.intValue();
+	}
+
 	/**
 	 * Return the closest {@link Spot} to the given location (encoded as a 
 	 * Spot), contained in the frame <code>frame</code>. If the frame has no spot,
 	 * return <code>null</code>.
 	 */
 	public final Spot getClosestSpot(final Spot location, final int frame) {
-		final List<Spot> spots = content.get(frame);
-		if (null == spots)	
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index)
 			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		Spot target = null;
-		for(Spot s : spots) {
-			d2 = s.squareDistanceTo(location);
-			if (d2 < minDist) {
-				minDist = d2;
-				target = s;
-			}
-		}
-		return target;
+		return index.getClosestSpot(location);
 	}
 
 	/**
 	 * Return the {@link Spot} at the given location (encoded as a Spot), contained 
 	 * in the frame <code>frame</code>. A spot is returned <b>only</b> if there exists a spot
 	 * such that the given location is within the spot radius. Otherwise <code>null</code> is
-	 * returned. 
+	 * returned. If several spots contain the location, the closest one is returned.
 	 */
 	public final Spot getSpotAt(final Spot location, final int frame) {
-		final List<Spot> spots = content.get(frame);
-		if (null == spots)	
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index)
 			return null;
-		double d2;
-		for(Spot s : spots) {
-			d2 = s.squareDistanceTo(location);
-			if (d2 < s.getFeature(Spot.RADIUS) * s.getFeature(Spot.RADIUS)) {
-				return s;
-			}
-		}
-		return null;
+		return index.getSpotAt(location);
 	}
 
 
@@ -287,25 +409,12 @@ public final Spot getSpotAt(final Spot location, final int frame) {
 	 * spots in the frame is exhausted, a shorter set is returned.
 	 * <p>
 	 * The list is ordered by increasing distance to the given location.
-	 *  TODO Rewrite using kD tree.
 	 */
 	public final List<Spot> getNClosestSpots(final Spot location, final int frame, int n) {
-		final List<Spot> spots = content.get(frame);
-		final TreeMap<Double, Spot> distanceToSpot = new TreeMap<Double, Spot>();
-
-		double d2;
-		for(Spot s : spots) {
-			d2 = s.squareDistanceTo(location);
-			distanceToSpot.put(d2, s);
-		}
-
-		final List<Spot> selectedSpots = new ArrayList<Spot>(n);
-		final Iterator<Double> it = distanceToSpot.keySet().iterator();
-		while (n > 0 && it.hasNext()) {
-			selectedSpots.add(distanceToSpot.get(it.next()));
-			n--;
-		}
-		return selectedSpots;
+		final SpotSpatialIndex index = getSpatialIndex(frame);
+		if (null == index)
+			return new ArrayList<Spot>(0);
+		return index.getNClosestSpots(location, n);
 	}
 
 	/**
@@ -396,7 +505,13 @@ public Iterator<Spot> iterator(Integer frame) {
 
 	@Override
 	public void clear() {
+		if (ownsSpots) {
+			for (List<Spot> spots : content.values()) {
+				store.releaseAll(spots);
+			}
+		}
 		content.clear();
+		spatialIndices.clear();
 	}
 
 	@Override
@@ -436,15 +551,45 @@ public List<Spot> get(Object key) {
 	public List<Spot> put(Integer key, List<Spot> value) {
 		if (key == null)
 			return null;
+		if (ownsSpots) {
+			store.attachAll(value);
+		}
 		for (Spot spot : value) {
 			spot.putFeature(Spot.FRAME, key);
 		}
-		return content.put(key, value);
+		spatialIndices.remove(key);
+		final List<Spot> old = content.put(key, value);
+		if (ownsSpots && null != old && !old.isEmpty()) {
+			// Release the spots that were replaced
+			final Map<Spot, Boolean> kept = new IdentityHashMap<Spot, Boolean>(value.size());
+			for (Spot spot : value) {
+				kept.put(spot, Boolean.TRUE);
+			}
+			final List<Spot> replaced = new ArrayList<Spot>();
+			for (Spot spot : old) {
+				if (!kept.containsKey(spot) && key.equals(frameOf(spot))) {
+					replaced.add(spot);
+				}
+			}
+			store.releaseAll(replaced);
+		}
+		return old;
 	}
 
 	@Override
 	public List<Spot> remove(Object key) {
-		return content.remove(key);
+		spatialIndices.remove(key);
+		final List<Spot> removed = content.remove(key);
+		if (ownsSpots && null != removed) {
+			final List<Spot> released = new ArrayList<Spot>(removed.size());
+			for (Spot spot : removed) {
+				if (key.equals(frameOf(spot))) {
+					released.add(spot);
+				}
+			}
+			store.releaseAll(released);
+		}
+		return removed;
 	}
 
 	@Override
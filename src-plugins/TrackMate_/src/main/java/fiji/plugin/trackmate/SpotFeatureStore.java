@@ -0,0 +1,393 @@
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar storage for the numerical features of {@link Spot}s.
+ * <p>
+ * Each feature key is given one column of primitive <code>double</code>s, in
+ * which every spot attached to this store owns one row. An attached
+ * {@link Spot} does not store its features itself: it only keeps its row
+ * index, and reads and writes its values through this store. Compared to a map
+ * of boxed values per spot, this costs 8 bytes per spot and per feature, and
+ * scanning a feature over many spots (filtering, sorting, plotting, saving)
+ * runs over contiguous arrays.
+ * <p>
+ * A store belongs to the {@link SpotCollection} that owns the spots, which
+ * attaches a spot when it is added and releases it when it is removed. A spot
+ * that is not attached, for instance a spot just created by a detector, keeps
+ * its few features itself, so that creating spots never touches a store. A
+ * released spot takes its values back and its row is handed out again.
+ * <p>
+ * Columns are made of pages of {@value #PAGE_SIZE} rows, allocated the first
+ * time a value is written in their range, so that a column never needs to be
+ * copied when it grows. Writing to different rows from different threads is
+ * safe, and so is creating columns and growing them from several threads.
+ * Rows that have no value for a feature hold a private NaN marker, so that a
+ * feature explicitly set to {@link Double#NaN} is still reported as present.
+ */
+public class SpotFeatureStore {
+
+	/** Number of rows in one page of a column. */
+	public static final int PAGE_SIZE = 1 << 12;
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	/** The raw bits of the value marking a missing feature. It is a NaN with a payload no computation produces. */
+	private static final long MISSING_BITS = 0x7ff80000deadbeefL;
+	static final double MISSING = Double.longBitsToDouble(MISSING_BITS);
+
+	private final ConcurrentHashMap<String, Column> columns = new ConcurrentHashMap<String, Column>();
+	/** The columns of the position features, used for every distance computation. */
+	final Column[] positionColumns;
+
+	/** The number of rows handed out so far, used or free. Guarded by this store. */
+	private int rowLimit = 0;
+	/** The rows of released spots, ready to be handed out again. Guarded by this store. */
+	private int[] freeRows = new int[64];
+	private int nFreeRows = 0;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SpotFeatureStore() {
+		positionColumns = new Column[Spot.POSITION_FEATURES.length];
+		for (int i = 0; i < positionColumns.length; i++) {
+			positionColumns[i] = getColumn(Spot.POSITION_FEATURES[i]);
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Attaches the given spot to this store: it is given a row, and its
+	 * features are moved to the columns of this store. Nothing is done if the
+	 * spot is already attached to a store, this one or another.
+	 * @return <code>true</code> if the spot was attached by this call.
+	 */
+	public boolean attach(final Spot spot) {
+		synchronized (this) {
+			return attachLocked(spot);
+		}
+	}
+
+	/**
+	 * Attaches all the given spots, taking the lock on this store only once.
+	 * @see #attach(Spot)
+	 */
+	public void attachAll(final Collection<Spot> spots) {
+		synchronized (this) {
+			for (final Spot spot : spots) {
+				attachLocked(spot);
+			}
+		}
+	}
+
+	/**
+	 * Releases the given spot from this store: its values are copied back into
+	 * the spot, and its row is cleared and handed out again. Nothing is done if
+	 * the spot is not attached to this store.
+	 * @return <code>true</code> if the spot was released by this call.
+	 */
+	public boolean release(final Spot spot) {
+		synchronized (this) {
+			return releaseLocked(spot);
+		}
+	}
+
+	/**
+	 * Releases all the given spots, taking the lock on this store only once.
+	 * @see #release(Spot)
+	 */
+	public void releaseAll(final Collection<Spot> spots) {
+		synchronized (this) {
+			for (final Spot spot : spots) {
+				releaseLocked(spot);
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the given spot is attached to this store.
+	 */
+	public boolean isAttached(final Spot spot) {
+		return spot.store == this;
+	}
+
+	private boolean attachLocked(final Spot spot) {
+		synchronized (spot) {
+			if (null != spot.store) {
+				return false;
+			}
+			final int row = nFreeRows > 0 ? freeRows[--nFreeRows] : rowLimit++;
+			for (int i = 0; i < spot.nFeatures; i++) {
+				getColumn(spot.keys[i]).set(row, spot.values[i]);
+			}
+			spot.row = row;
+			// Publish the row with the store, which is volatile
+			spot.store = this;
+			spot.clearLocalFeatures();
+			return true;
+		}
+	}
+
+	private boolean releaseLocked(final Spot spot) {
+		synchronized (spot) {
+			if (spot.store != this) {
+				return false;
+			}
+			final int row = spot.row;
+			for (final Column column : columns.values()) {
+				final double val = column.get(row);
+				if (!isMissing(val)) {
+					spot.putLocalFeature(column.feature, val);
+					column.clear(row);
+				}
+			}
+			spot.store = null;
+			spot.row = -1;
+			if (nFreeRows == freeRows.length) {
+				freeRows = Arrays.copyOf(freeRows, 2 * freeRows.length);
+			}
+			freeRows[nFreeRows++] = row;
+			return true;
+		}
+	}
+
+	/**
+	 * @return the number of spots attached to this store.
+	 */
+	public synchronized int getRowCount() {
+		return rowLimit - nFreeRows;
+	}
+
+	/**
+	 * @return an upper bound on the rows of the spots attached to this store:
+	 * all of them are strictly smaller. Range scans over
+	 * <code>[0, getRowLimit()[</code> cover all attached spots.
+	 */
+	public synchronized int getRowLimit() {
+		return rowLimit;
+	}
+
+	/**
+	 * @return the column for the specified feature, creating it if needed.
+	 */
+	public Column getColumn(final String feature) {
+		Column column = columns.get(feature);
+		if (null == column) {
+			final Column newColumn = new Column(this, feature);
+			column = columns.putIfAbsent(feature, newColumn);
+			if (null == column) {
+				column = newColumn;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * @return the column for the specified feature, or <code>null</code> if no
+	 * value was ever set for it. Unlike {@link #getColumn(String)}, this does not
+	 * create a column.
+	 */
+	Column findColumn(final String feature) {
+		return columns.get(feature);
+	}
+
+	/**
+	 * @return all the columns of this store.
+	 */
+	public Collection<Column> getColumns() {
+		return Collections.unmodifiableCollection(columns.values());
+	}
+
+	/**
+	 * @return the keys of all the features that have a column in this store.
+	 */
+	public Set<String> getFeatureKeys() {
+		return Collections.unmodifiableSet(columns.keySet());
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ": " + getRowCount() + " rows, " + columns.size() + " features.";
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * The values of one feature, for all the spots attached to a store.
+	 * <p>
+	 * The methods that take a {@link Spot} also accept spots that are not
+	 * attached to the store of this column: their value is then looked up in
+	 * the spot itself, which is slower.
+	 */
+	public static final class Column {
+
+		private final SpotFeatureStore store;
+		private final String feature;
+		private volatile double[][] pages = new double[16][];
+
+		private Column(final SpotFeatureStore store, final String feature) {
+			this.store = store;
+			this.feature = feature;
+		}
+
+		/** @return the feature key of this column. */
+		public String getFeature() {
+			return feature;
+		}
+
+		/**
+		 * @return the value of this feature for the given spot, or {@link Double#NaN}
+		 * if it has not been set.
+		 */
+		public double get(final Spot spot) {
+			final double val = store == spot.store ? get(spot.row) : spot.getFeatureValue(feature);
+			return isMissing(val) ? Double.NaN : val;
+		}
+
+		/**
+		 * @return <code>true</code> if a value was set for this feature and the given spot.
+		 */
+		public boolean isSet(final Spot spot) {
+			return !isMissing(store == spot.store ? get(spot.row) : spot.getFeatureValue(feature));
+		}
+
+		/**
+		 * Copies the values of this feature for the given spots in a new array,
+		 * in the iteration order. Missing values are returned as {@link Double#NaN}.
+		 */
+		public double[] values(final Iterable<Spot> spots, final int nSpots) {
+			double[] values = new double[nSpots];
+			int index = 0;
+			for (final Spot spot : spots) {
+				if (index >= values.length) {
+					values = Arrays.copyOf(values, 2 * values.length + 1);
+				}
+				values[index++] = get(spot);
+			}
+			return index == values.length ? values : Arrays.copyOf(values, index);
+		}
+
+		/**
+		 * Copies the values of the rows <code>from</code> (inclusive) to
+		 * <code>to</code> (exclusive) into the given array, page by page.
+		 * Missing values and free rows are copied as {@link Double#NaN}.
+		 */
+		public void copy(final int from, final int to, final double[] dest, final int destPos) {
+			final double[][] p = pages;
+			int row = from;
+			while (row < to) {
+				final int pageIndex = row >>> PAGE_BITS;
+				final int start = row & PAGE_MASK;
+				final int length = Math.min(PAGE_SIZE - start, to - row);
+				final int pos = destPos + row - from;
+				final double[] page = pageIndex < p.length ? p[pageIndex] : null;
+				if (null == page) {
+					Arrays.fill(dest, pos, pos + length, Double.NaN);
+				} else {
+					System.arraycopy(page, start, dest, pos, length);
+					for (int i = pos; i < pos + length; i++) {
+						if (isMissing(dest[i])) {
+							dest[i] = Double.NaN;
+						}
+					}
+				}
+				row += length;
+			}
+		}
+
+		/**
+		 * Scans this column over all the rows of its store, and tells for each
+		 * row whether its value passes the given threshold. Missing values always
+		 * pass.
+		 * @return an array indexed by row. Rows attached after this call are not
+		 * covered by it.
+		 */
+		public boolean[] select(final double threshold, final boolean isAbove) {
+			final int nRows = store.getRowLimit();
+			final boolean[] selected = new boolean[nRows];
+			final double[] buffer = new double[Math.min(nRows, PAGE_SIZE)];
+			for (int from = 0; from < nRows; from += PAGE_SIZE) {
+				final int to = Math.min(nRows, from + PAGE_SIZE);
+				copy(from, to, buffer, 0);
+				for (int row = from; row < to; row++) {
+					final double val = buffer[row - from];
+					selected[row] = Double.isNaN(val) || (isAbove ? val >= threshold : val <= threshold);
+				}
+			}
+			return selected;
+		}
+
+		double get(final int row) {
+			final double[][] p = pages;
+			final int pageIndex = row >>> PAGE_BITS;
+			if (pageIndex >= p.length) {
+				return MISSING;
+			}
+			final double[] page = p[pageIndex];
+			if (null == page) {
+				return MISSING;
+			}
+			return page[row & PAGE_MASK];
+		}
+
+		void set(final int row, final double value) {
+			getPage(row >>> PAGE_BITS)[row & PAGE_MASK] = value;
+		}
+
+		/**
+		 * Marks the value of the given row as missing. Pages are never replaced,
+		 * only the array that holds them is, so this cannot be lost to a
+		 * concurrent growth of the column.
+		 */
+		void clear(final int row) {
+			final double[][] p = pages;
+			final int pageIndex = row >>> PAGE_BITS;
+			if (pageIndex < p.length && null != p[pageIndex]) {
+				p[pageIndex][row & PAGE_MASK] = MISSING;
+			}
+		}
+
+		private double[] getPage(final int pageIndex) {
+			final double[][] p = pages;
+			if (pageIndex < p.length && null != p[pageIndex]) {
+				return p[pageIndex];
+			}
+			synchronized (this) {
+				double[][] q = pages;
+				if (pageIndex >= q.length) {
+					q = Arrays.copyOf(q, Math.max(2 * q.length, pageIndex + 1));
+				} else if (null != q[pageIndex]) {
+					return q[pageIndex];
+				} else {
+					q = q.clone();
+				}
+				final double[] page = new double[PAGE_SIZE];
+				Arrays.fill(page, MISSING);
+				q[pageIndex] = page;
+				pages = q;
+				return page;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return super.toString() + ": " + feature;
+		}
+	}
+
+	static boolean isMissing(final double value) {
+		return Double.doubleToRawLongBits(value) == MISSING_BITS;
+	}
+
+}
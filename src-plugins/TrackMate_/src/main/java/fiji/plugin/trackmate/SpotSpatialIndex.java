@@ -0,0 +1,510 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A spatial index for the spots of a single frame, based on a uniform grid.
+ * <p>
+ * Space is divided in cubic cells of a fixed size, and each spot is stored in the
+ * cell that contains its center. Range, bounding-box and nearest neighbor queries
+ * then only have to inspect the cells close to the query location. Contrary to a
+ * KD-tree, the grid can be updated incrementally when spots are added, removed or
+ * moved, at a constant cost. It is therefore kept alive by the {@link SpotCollection}
+ * and shared by all the code that needs spatial queries on a frame.
+ * <p>
+ * A spot that is moved must be signaled with {@link #update(Spot)}, otherwise it
+ * will be searched for in its old cell. All methods are synchronized.
+ * <p>
+ * Cells are stored in a hash table keyed by primitive <code>long</code>s. When a
+ * query box spans more cells than the table holds, the occupied cells are scanned
+ * instead, so that a large search radius never costs more than a full scan.
+ */
+public class SpotSpatialIndex {
+
+	/** Cell coordinates are clamped to [-OFFSET, OFFSET[ so that 3 of them fit in a long. */
+	private static final int OFFSET = 1 << 20;
+	private static final long MASK = (1L << 21) - 1;
+
+	private final double cellSize;
+	/** The spots, per cell. */
+	private final CellMap cells = new CellMap();
+	/** The cell each spot is stored in. */
+	private final Map<Spot, Long> cellOf = new HashMap<Spot, Long>();
+	/** The bounds of the cell coordinates ever used, to stop searches. */
+	private final int[] minCell = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+	private final int[] maxCell = new int[] { Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+	/** The largest spot radius ever added, for {@link #getSpotAt(Spot)}. */
+	private double maxRadius = 0;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new empty index.
+	 * @param cellSize  the size of a grid cell, in physical units. Ideally in the
+	 * order of the typical search radius.
+	 */
+	public SpotSpatialIndex(final double cellSize) {
+		if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+			throw new IllegalArgumentException("Cell size must be strictly positive and finite, was " + cellSize + ".");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Creates a new index that contains the given spots, with a cell size
+	 * estimated from their radius. A <code>null</code> collection yields an
+	 * empty index.
+	 */
+	public SpotSpatialIndex(final Collection<Spot> spots) {
+		this(estimateCellSize(spots));
+		if (null == spots) {
+			return;
+		}
+		for (final Spot spot : spots) {
+			add(spot);
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public synchronized void add(final Spot spot) {
+		final long key = keyOf(spot);
+		List<Spot> cell = cells.get(key);
+		if (null == cell) {
+			cell = new ArrayList<Spot>(2);
+			cells.put(key, cell);
+		}
+		cell.add(spot);
+		cellOf.put(spot, key);
+		final Double radius = spot.getFeature(Spot.RADIUS);
+		if (null != radius && radius > maxRadius) {
+			maxRadius = radius;
+		}
+	}
+
+	/**
+	 * Removes the given spot from this index.
+	 * @return true if the spot was in this index.
+	 */
+	public synchronized boolean remove(final Spot spot) {
+		final Long key = cellOf.remove(spot);
+		if (null == key) {
+			return false;
+		}
+		final List<Spot> cell = cells.get(key);
+		cell.remove(spot);
+		if (cell.isEmpty()) {
+			cells.remove(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the given spot to the cell matching its current position. Must be
+	 * called after the position features of a spot in this index are changed.
+	 * @return true if the spot was in this index.
+	 */
+	public synchronized boolean update(final Spot spot) {
+		if (!remove(spot)) {
+			return false;
+		}
+		add(spot);
+		return true;
+	}
+
+	/** @return the number of spots in this index. */
+	public synchronized int size() {
+		return cellOf.size();
+	}
+
+	/** @return the size of the grid cells, in physical units. */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return a new list of the spots whose center is not farther than the given 
+	 * radius from the given location, in no particular order.
+	 */
+	public synchronized List<Spot> getSpotsWithin(final Spot location, final double radius) {
+		final double[] center = positionOf(location);
+		final double r2 = radius * radius;
+		final List<Spot> found = new ArrayList<Spot>();
+		final int[] from = new int[3];
+		final int[] to = new int[3];
+		for (int d = 0; d < 3; d++) {
+			from[d] = Math.max(minCell[d], cellCoord(center[d] - radius));
+			to[d] = Math.min(maxCell[d], cellCoord(center[d] + radius));
+		}
+		for (final List<Spot> cell : cellsIn(from, to)) {
+			for (final Spot spot : cell) {
+				if (spot.squareDistanceTo(location) <= r2) {
+					found.add(spot);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return a new list of the spots whose center is in the box defined by the
+	 * two given corners (inclusive), in no particular order. Both arrays must
+	 * have 3 elements, for X, Y and Z.
+	 */
+	public synchronized List<Spot> getSpotsIn(final double[] min, final double[] max) {
+		final List<Spot> found = new ArrayList<Spot>();
+		final int[] from = new int[3];
+		final int[] to = new int[3];
+		for (int d = 0; d < 3; d++) {
+			from[d] = Math.max(minCell[d], cellCoord(min[d]));
+			to[d] = Math.min(maxCell[d], cellCoord(max[d]));
+		}
+		for (final List<Spot> cell : cellsIn(from, to)) {
+			for (final Spot spot : cell) {
+				final double[] pos = positionOf(spot);
+				if (pos[0] >= min[0] && pos[0] <= max[0]
+						&& pos[1] >= min[1] && pos[1] <= max[1]
+						&& pos[2] >= min[2] && pos[2] <= max[2]) {
+					found.add(spot);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the spot that contains the given location, that is, such that the
+	 * location is closer to the spot center than its radius. If several spots do,
+	 * the closest one is returned. Returns <code>null</code> if there is none.
+	 */
+	public synchronized Spot getSpotAt(final Spot location) {
+		Spot target = null;
+		double minDist = Double.POSITIVE_INFINITY;
+		for (final Spot spot : getSpotsWithin(location, maxRadius)) {
+			final double d2 = spot.squareDistanceTo(location);
+			final double radius = spot.getFeature(Spot.RADIUS);
+			if (d2 < radius * radius && d2 < minDist) {
+				minDist = d2;
+				target = spot;
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * @return the closest spot to the given location, or <code>null</code> if this
+	 * index is empty.
+	 */
+	public synchronized Spot getClosestSpot(final Spot location) {
+		final List<Spot> closest = getNClosestSpots(location, 1);
+		return closest.isEmpty() ? null : closest.get(0);
+	}
+
+	/**
+	 * Returns the <code>n</code> closest spots to the given location, ordered by
+	 * increasing distance. If there are less than <code>n</code> spots in this
+	 * index, they are all returned.
+	 * <p>
+	 * Cells are visited in shells of increasing size around the cell of the
+	 * location. The search stops once <code>n</code> spots have been found that
+	 * are closer than any spot of the next shell can be.
+	 */
+	public synchronized List<Spot> getNClosestSpots(final Spot location, final int n) {
+		if (n < 1 || cellOf.isEmpty()) {
+			return new ArrayList<Spot>(0);
+		}
+		final double[] center = positionOf(location);
+		final int[] c = new int[3];
+		int maxShell = 0;
+		for (int d = 0; d < 3; d++) {
+			c[d] = cellCoord(center[d]);
+			maxShell = Math.max(maxShell, Math.max(c[d] - minCell[d], maxCell[d] - c[d]));
+		}
+
+		// Max-heap on distance, holding the n best candidates
+		final Map<Spot, Double> distances = new HashMap<Spot, Double>();
+		final PriorityQueue<Spot> best = new PriorityQueue<Spot>(n + 1, new Comparator<Spot>() {
+			@Override
+			public int compare(final Spot o1, final Spot o2) {
+				return Double.compare(distances.get(o2), distances.get(o1));
+			}
+		});
+
+		for (int r = 0; r <= maxShell; r++) {
+			for (int x = Math.max(c[0] - r, minCell[0]); x <= Math.min(c[0] + r, maxCell[0]); x++) {
+				for (int y = Math.max(c[1] - r, minCell[1]); y <= Math.min(c[1] + r, maxCell[1]); y++) {
+					for (int z = Math.max(c[2] - r, minCell[2]); z <= Math.min(c[2] + r, maxCell[2]); z++) {
+						if (Math.abs(x - c[0]) != r && Math.abs(y - c[1]) != r && Math.abs(z - c[2]) != r) {
+							continue; // inner shells were already visited
+						}
+						final List<Spot> cell = cells.get(key(x, y, z));
+						if (null == cell) {
+							continue;
+						}
+						for (final Spot spot : cell) {
+							final double d2 = spot.squareDistanceTo(location);
+							if (best.size() < n) {
+								distances.put(spot, d2);
+								best.add(spot);
+							} else if (d2 < distances.get(best.peek())) {
+								distances.remove(best.poll());
+								distances.put(spot, d2);
+								best.add(spot);
+							}
+						}
+					}
+				}
+			}
+			// Any spot beyond shell r is at least r cells away from the location
+			if (best.size() == n) {
+				final double bound = r * cellSize;
+				if (distances.get(best.peek()) <= bound * bound) {
+					break;
+				}
+			}
+		}
+
+		final List<Spot> result = new ArrayList<Spot>(best);
+		Collections.sort(result, new Comparator<Spot>() {
+			@Override
+			public int compare(final Spot o1, final Spot o2) {
+				return Double.compare(distances.get(o1), distances.get(o2));
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ": " + size() + " spots in " + cells.size() + " cells of size " + cellSize + ".";
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * @return a cell size suitable for the given spots: twice their mean radius,
+	 * or 1 if they do not have a radius or if the collection is <code>null</code>.
+	 */
+	public static double estimateCellSize(final Collection<Spot> spots) {
+		if (null == spots) {
+			return 1d;
+		}
+		double sum = 0;
+		int n = 0;
+		for (final Spot spot : spots) {
+			final Double radius = spot.getFeature(Spot.RADIUS);
+			if (null != radius && radius > 0) {
+				sum += radius;
+				n++;
+			}
+		}
+		if (n == 0) {
+			return 1d;
+		}
+		return 2 * sum / n;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns the non-empty cells whose coordinates are in the given range
+	 * (inclusive). The box is enumerated cell by cell if it is smaller than the
+	 * table of occupied cells, and the table is scanned otherwise.
+	 */
+	private List<List<Spot>> cellsIn(final int[] from, final int[] to) {
+		final List<List<Spot>> found = new ArrayList<List<Spot>>();
+		long boxSize = 1;
+		for (int d = 0; d < 3; d++) {
+			if (to[d] < from[d]) {
+				return found;
+			}
+			boxSize *= (long) to[d] - from[d] + 1;
+		}
+		if (boxSize <= cells.capacity()) {
+			for (int x = from[0]; x <= to[0]; x++) {
+				for (int y = from[1]; y <= to[1]; y++) {
+					for (int z = from[2]; z <= to[2]; z++) {
+						final List<Spot> cell = cells.get(key(x, y, z));
+						if (null != cell) {
+							found.add(cell);
+						}
+					}
+				}
+			}
+		} else {
+			for (int i = 0; i < cells.capacity(); i++) {
+				final List<Spot> cell = cells.valueAt(i);
+				if (null == cell) {
+					continue;
+				}
+				final long key = cells.keyAt(i);
+				final int x = (int) ((key >>> 42) & MASK) - OFFSET;
+				final int y = (int) ((key >>> 21) & MASK) - OFFSET;
+				final int z = (int) (key & MASK) - OFFSET;
+				if (x >= from[0] && x <= to[0] && y >= from[1] && y <= to[1] && z >= from[2] && z <= to[2]) {
+					found.add(cell);
+				}
+			}
+		}
+		return found;
+	}
+
+	private long keyOf(final Spot spot) {
+		final double[] pos = positionOf(spot);
+		final int[] coords = new int[3];
+		for (int d = 0; d < 3; d++) {
+			coords[d] = cellCoord(pos[d]);
+			if (coords[d] < minCell[d]) {
+				minCell[d] = coords[d];
+			}
+			if (coords[d] > maxCell[d]) {
+				maxCell[d] = coords[d];
+			}
+		}
+		return key(coords[0], coords[1], coords[2]);
+	}
+
+	private int cellCoord(final double x) {
+		final double c = Math.floor(x / cellSize);
+		if (c < -OFFSET) {
+			return -OFFSET;
+		}
+		if (c >= OFFSET) {
+			return OFFSET - 1;
+		}
+		return (int) c;
+	}
+
+	private static long key(final int x, final int y, final int z) {
+		return (((x + OFFSET) & MASK) << 42) | (((y + OFFSET) & MASK) << 21) | ((z + OFFSET) & MASK);
+	}
+
+	private static double[] positionOf(final Spot spot) {
+		final double[] pos = new double[3];
+		for (int d = 0; d < 3; d++) {
+			final Double val = spot.getFeature(Spot.POSITION_FEATURES[d]);
+			pos[d] = null == val ? 0 : val;
+		}
+		return pos;
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * An open addressing hash table from <code>long</code> cell keys to the
+	 * list of spots in the cell, with linear probing. Avoids boxing a key for
+	 * every cell visited by a query.
+	 */
+	private static final class CellMap {
+
+		private long[] keys = new long[16];
+		private List<Spot>[] values = newValues(16);
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		int capacity() {
+			return keys.length;
+		}
+
+		long keyAt(final int slot) {
+			return keys[slot];
+		}
+
+		List<Spot> valueAt(final int slot) {
+			return values[slot];
+		}
+
+		List<Spot> get(final long key) {
+			final int mask = keys.length - 1;
+			for (int i = slot(key, mask); null != values[i]; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		void put(final long key, final List<Spot> value) {
+			if (2 * (size + 1) > keys.length) {
+				rehash(2 * keys.length);
+			}
+			final int mask = keys.length - 1;
+			int i = slot(key, mask);
+			for (; null != values[i]; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					values[i] = value;
+					return;
+				}
+			}
+			keys[i] = key;
+			values[i] = value;
+			size++;
+		}
+
+		void remove(final long key) {
+			final int mask = keys.length - 1;
+			int i = slot(key, mask);
+			while (null != values[i] && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (null == values[i]) {
+				return;
+			}
+			// Shift back the following entries of the run, so that probing never stops early
+			for (int j = (i + 1) & mask; null != values[j]; j = (j + 1) & mask) {
+				final int home = slot(keys[j], mask);
+				if (((j - home) & mask) >= ((j - i) & mask)) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					i = j;
+				}
+			}
+			values[i] = null;
+			size--;
+		}
+
+		private void rehash(final int capacity) {
+			final long[] oldKeys = keys;
+			final List<Spot>[] oldValues = values;
+			keys = new long[capacity];
+			values = newValues(capacity);
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (null != oldValues[i]) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static int slot(final long key, final int mask) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 32;
+			return (int) h & mask;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static List<Spot>[] newValues(final int capacity) {
+			return new List[capacity];
+		}
+	}
+}
@@ -60,6 +60,10 @@ public class TrackGraphModel {
 	private Map<Integer, Set<Spot>> trackSpots = new HashMap<Integer, Set<Spot>>();
 	/** The map of track names, indexed by track ID. */
 	private Map<Integer, String> trackNames = new HashMap<Integer, String>();
+	/** The ID of the track each spot belongs to. Spots that are not in a track are not in this map. */
+	private Map<Spot, Integer> spotTrackIDs = new HashMap<Spot, Integer>();
+	/** The ID of the track each edge belongs to. */
+	private Map<DefaultWeightedEdge, Integer> edgeTrackIDs = new HashMap<DefaultWeightedEdge, Integer>();
 
 	/**
 	 * The filtered track keys. Is a set made of the keys in the two maps
@@ -164,6 +168,8 @@ public void clearTracks() {
 		this.graph.addGraphListener(new MyGraphListener());
 		this.trackEdges = new HashMap<Integer, Set<DefaultWeightedEdge>>();
 		this.trackSpots = new HashMap<Integer, Set<Spot>>();
+		this.spotTrackIDs = new HashMap<Spot, Integer>();
+		this.edgeTrackIDs = new HashMap<DefaultWeightedEdge, Integer>();
 	}
 
 
@@ -358,13 +364,7 @@ public int getNTracks() {
 	 * edge is not in any track.
 	 */
 	public Integer getTrackIDOf(final DefaultWeightedEdge edge) {
-		for (Integer trackID : trackSpots.keySet()) {
-			Set<DefaultWeightedEdge> edges = trackEdges.get(trackID);
-			if (edges.contains(edge)) {
-				return trackID;
-			}
-		}
-		return null;
+		return edgeTrackIDs.get(edge);
 	}
 
 	/**
@@ -372,13 +372,7 @@ public Integer getTrackIDOf(final DefaultWeightedEdge edge) {
 	 * spot is not in any track.
 	 */
 	public Integer getTrackIDOf(final Spot spot) {
-		for (Integer trackID : trackSpots.keySet()) {
-			Set<Spot> spots = trackSpots.get(trackID);
-			if (spots.contains(spot)) {
-				return trackID;
-			}
-		}
-		return null;
+		return spotTrackIDs.get(spot);
 	}
 
 	/**
@@ -421,9 +415,9 @@ public Set<DefaultWeightedEdge> getTrackEdges(Integer trackID) {
 	 * There is no empty track, nor a track made of a single spot. 
 	 * <p>
 	 * <b>Note:</b> the actual map object return by this method is 
-	 * re-instantiated every time a change is made to the model that affects
-	 * tracks. So this method needs to be called again after each change for
-	 * the map to be accurate.
+	 * re-instantiated when all the tracks are recomputed, and is updated in 
+	 * place when a model update touches some tracks. So this method needs to 
+	 * be called again after each change for the map to be accurate.
 	 */
 	public Map<Integer,Set<Spot>> getTrackSpots() {
 		return trackSpots;
@@ -435,9 +429,9 @@ public Map<Integer,Set<Spot>> getTrackSpots() {
 	 * There is no empty track. 
 	 * <p>
 	 * <b>Note:</b> the actual map object return by this method is 
-	 * re-instantiated every time a change is made to the model that affects
-	 * tracks. So this method needs to be called again after each change for
-	 * the map to be accurate.
+	 * re-instantiated when all the tracks are recomputed, and is updated in 
+	 * place when a model update touches some tracks. So this method needs to 
+	 * be called again after each change for the map to be accurate.
 	 */
 	public Map<Integer,Set<DefaultWeightedEdge>> getTrackEdges() {
 		return trackEdges;
@@ -690,6 +684,7 @@ void computeTracksFromGraph() {
 		// Retain old values
 		Map<Integer, Set<Spot>> oldTrackSpots = trackSpots;
 		Map<Integer, String> oldNames = trackNames;
+		Map<Spot, Integer> oldSpotTrackIDs = spotTrackIDs;
 
 		if (DEBUG) {
 			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): storing " + oldTrackSpots.size() + " old spot tracks.");
@@ -700,6 +695,8 @@ void computeTracksFromGraph() {
 		this.trackSpots = new HashMap<Integer, Set<Spot>>(connectedSets.size());
 		this.trackEdges = new HashMap<Integer, Set<DefaultWeightedEdge>>(connectedSets.size());
 		this.trackNames = new HashMap<Integer, String>(connectedSets.size());
+		this.spotTrackIDs = new HashMap<Spot, Integer>(graph.vertexSet().size());
+		this.edgeTrackIDs = new HashMap<DefaultWeightedEdge, Integer>(graph.edgeSet().size());
 
 		for(Set<Spot> track : connectedSets) {
 
@@ -709,15 +706,11 @@ void computeTracksFromGraph() {
 				continue;
 			}
 
-			Integer uniqueKey = track.hashCode();
-			// Add to spot set collection
-			trackSpots.put(uniqueKey, track);
-			// Add to edge set collection, using the same hash as a key
 			Set<DefaultWeightedEdge> spotEdge = new HashSet<DefaultWeightedEdge>();
 			for (Spot spot : track) {
 				spotEdge.addAll(graph.edgesOf(spot));
 			}
-			trackEdges.put(uniqueKey, spotEdge);
+			putTrack(track, spotEdge);
 
 		}
 
@@ -739,110 +732,218 @@ void computeTracksFromGraph() {
 		 * For de novo tracks, there is no spot in the Set<Spot> that can be found in 
 		 * oldTrackSpots.	 */
 
-		/*
-		 * Map the new track IDs to the old ones. That is, the new track with ID newID
-		 * is built from parts of the old tracks with old IDs contained in the matching value set.
-		 */
-		Map<Integer, Set<Integer>> newToOldKeyMap = new HashMap<Integer, Set<Integer>>(trackSpots.size());
-		for (Integer trackID : trackSpots.keySet()) {
-			newToOldKeyMap.put(trackID, new HashSet<Integer>());
-		}
-
-		// Loop over old tracks to get where they can be found in the new tracks
 		if (DEBUG) {
-			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): inspecting old tracks.");
+			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): assembling new tracks visibility and name.");
 		}
 
-		for (Integer oldKey : oldTrackSpots.keySet()) {
-			Set<Spot> oldTrack = oldTrackSpots.get(oldKey);
-
-			for (Integer trackKey : trackSpots.keySet()) { // Iterate over new tracks
-				Set<Spot> track = trackSpots.get(trackKey);
-
-				boolean found = false;
-				for (Spot spot : track) {
-					if (oldTrack.contains(spot)) {
-						found = true;
-						break;
-					}
-				}
-
-				if (found) {
-					// There were common elements. We store this old track ID as part of the new track, and skip the rest
-					if (DEBUG) {
-						System.out.println("[TrackGraphModel] #computeTracksFromGraph(): old track " + oldKey + " parts were found in new track " + trackKey);
-					}
-					newToOldKeyMap.get(trackKey).add(oldKey);
-					// FIXME can we skip once we have found one?
+		for (Integer trackKey : trackSpots.keySet()) {
+			// Map the new track ID to the IDs of the old tracks it is built from
+			Set<Integer> oldKeys = new HashSet<Integer>();
+			for (Spot spot : trackSpots.get(trackKey)) {
+				Integer oldKey = oldSpotTrackIDs.get(spot);
+				if (null != oldKey) {
+					oldKeys.add(oldKey);
 				}
-
-			} // Finished iterating over new tracks
-
+			}
+			inheritNameAndVisibility(trackKey, oldKeys, oldTrackSpots, oldNames, oldTrackVisibility);
 		}
 
+		// Clean track feature value map
+		HashSet<Integer> trackIDsToRemove = new HashSet<Integer>(oldTrackSpots.keySet());
+		trackIDsToRemove.removeAll(trackSpots.keySet());
+		for (Integer toRemove : trackIDsToRemove) {
+			model.getFeatureModel().trackFeatureValues.remove(toRemove);
+		}
 
 
+		if (DEBUG) {
+			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): the end; found " + trackSpots.size() + " new spot tracks.");
+		}
+	}
 
-		// Assemble visibility and name from old parts
+	/**
+	 * Update the track lists for the tracks touched by the edges added and removed
+	 * in the current transaction only. The old tracks these edges belonged to are
+	 * removed, and the new tracks are rebuilt by walking the graph from their
+	 * remaining spots. Names and visibility are inherited as in {@link #computeTracksFromGraph()}.
+	 * <p>
+	 * The cost of this method is proportional to the size of the tracks that were 
+	 * touched, not to the number of tracks in the model. Edges that were only 
+	 * modified do not change the track layout, and are ignored here.
+	 * 
+	 * @return  the IDs of the tracks that were rebuilt. 
+	 */
+	Set<Integer> updateTracksFromGraph() {
 
 		if (DEBUG) {
-			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): assembling new tracks visibility and name.");
+			System.out.println("[TrackGraphModel] #updateTracksFromGraph()");
 		}
 
+		// Collect the tracks touched by this transaction, and the spots to start from
+		Set<Integer> dirtyKeys = new HashSet<Integer>();
+		Set<Spot> seeds = new HashSet<Spot>();
+		for (DefaultWeightedEdge edge : edgesRemoved) {
+			Integer oldKey = edgeTrackIDs.get(edge);
+			if (null != oldKey) {
+				dirtyKeys.add(oldKey);
+			}
+		}
+		for (DefaultWeightedEdge edge : edgesAdded) {
+			if (!graph.containsEdge(edge)) {
+				continue; // added then removed in the same transaction
+			}
+			Spot source = graph.getEdgeSource(edge);
+			Spot target = graph.getEdgeTarget(edge);
+			seeds.add(source);
+			seeds.add(target);
+			Integer sourceKey = spotTrackIDs.get(source);
+			if (null != sourceKey) {
+				dirtyKeys.add(sourceKey);
+			}
+			Integer targetKey = spotTrackIDs.get(target);
+			if (null != targetKey) {
+				dirtyKeys.add(targetKey);
+			}
+		}
 
-		// Build this map
-		for (Integer trackKey : trackSpots.keySet()) {
-
-			if (newToOldKeyMap.get(trackKey).isEmpty()) {
-				// Is new, so we make it visible and give it a default name.
-				filteredTrackKeys.add(trackKey);
-				trackNames.put(trackKey, generateDefaultTrackName() );
-				if (DEBUG) {
-					System.out.println("[TrackGraphModel] #computeTracksFromGraph(): track " + trackKey + " is completely new. Making it visible with name " + trackNames.get(trackKey));
+		// Take the old tracks out
+		final Map<Integer, Set<Spot>> oldTrackSpots = new HashMap<Integer, Set<Spot>>(dirtyKeys.size());
+		final Map<Integer, String> oldNames = new HashMap<Integer, String>(dirtyKeys.size());
+		final Map<Integer, Boolean> oldTrackVisibility = new HashMap<Integer, Boolean>(dirtyKeys.size());
+		final Map<Spot, Integer> oldSpotTrackIDs = new HashMap<Spot, Integer>();
+		for (Integer oldKey : dirtyKeys) {
+			Set<Spot> oldTrack = trackSpots.remove(oldKey);
+			oldTrackSpots.put(oldKey, oldTrack);
+			oldNames.put(oldKey, trackNames.remove(oldKey));
+			oldTrackVisibility.put(oldKey, filteredTrackKeys.remove(oldKey));
+			for (DefaultWeightedEdge edge : trackEdges.remove(oldKey)) {
+				edgeTrackIDs.remove(edge);
+			}
+			for (Spot spot : oldTrack) {
+				oldSpotTrackIDs.put(spot, spotTrackIDs.remove(spot));
+				if (graph.containsVertex(spot)) {
+					seeds.add(spot);
 				}
+			}
+		}
+
+		// Rebuild the tracks they are now part of
+		Set<Integer> updatedKeys = new HashSet<Integer>();
+		Set<Spot> visited = new HashSet<Spot>(seeds.size());
+		for (Spot seed : seeds) {
+			if (!visited.add(seed)) {
+				continue;
+			}
 
-			} else {
-				/* Is made of old tracks, so we can pick its name and visibility from there.
-				 * 
-				 * We copy the name from the largest old track that is part of this one now.
-				 * 
-				 * How to know if a new track should be visible or not?
-				 * We can say this: the new track should be visible if it has at least
-				 * one spot that can be found in a visible old track. */
-				Iterator<Integer> it = newToOldKeyMap.get(trackKey).iterator();
-				Integer keyOfLargestOldTracks = it.next();
-				boolean shouldBeVisible = oldTrackVisibility.get(keyOfLargestOldTracks);
-				while (it.hasNext()) {
-					Integer oldKey = it.next();
-					if (oldTrackSpots.get(oldKey).size() > oldTrackSpots.get(keyOfLargestOldTracks).size()) {
-						keyOfLargestOldTracks = oldKey;	
+			Set<Spot> track = new HashSet<Spot>();
+			Set<DefaultWeightedEdge> spotEdge = new HashSet<DefaultWeightedEdge>();
+			List<Spot> stack = new ArrayList<Spot>();
+			stack.add(seed);
+			while (!stack.isEmpty()) {
+				Spot spot = stack.remove(stack.size() - 1);
+				track.add(spot);
+				for (DefaultWeightedEdge edge : graph.edgesOf(spot)) {
+					spotEdge.add(edge);
+					Spot other = graph.getEdgeSource(edge);
+					if (other == spot) {
+						other = graph.getEdgeTarget(edge);
+					}
+					if (visited.add(other)) {
+						stack.add(other);
 					}
-					shouldBeVisible = shouldBeVisible | oldTrackVisibility.get(oldKey);
-				}
-				trackNames.put(trackKey, oldNames.get(keyOfLargestOldTracks));
-				if (shouldBeVisible) {
-					filteredTrackKeys.add(trackKey);
 				}
-				if (DEBUG) {
-					System.out.println("[TrackGraphModel] #computeTracksFromGraph(): track " + trackKey + " is not new; it is made in parts of old tracks " +  newToOldKeyMap.get(trackKey));
-					System.out.println("[TrackGraphModel] #computeTracksFromGraph():  - giving it the name: " + trackNames.get(trackKey));
-					System.out.println("[TrackGraphModel] #computeTracksFromGraph():  - making it visible? " + shouldBeVisible);
+			}
 
+			// Still no track made of a single spot
+			if (track.size() < 2) {
+				continue;
+			}
+
+			Integer trackKey = putTrack(track, spotEdge);
+			Set<Integer> oldKeys = new HashSet<Integer>();
+			for (Spot spot : track) {
+				Integer oldKey = oldSpotTrackIDs.get(spot);
+				if (null != oldKey) {
+					oldKeys.add(oldKey);
 				}
 			}
+			inheritNameAndVisibility(trackKey, oldKeys, oldTrackSpots, oldNames, oldTrackVisibility);
+			updatedKeys.add(trackKey);
 		}
 
-
 		// Clean track feature value map
-		HashSet<Integer> trackIDsToRemove = new HashSet<Integer>(oldTrackSpots.keySet());
-		trackIDsToRemove.removeAll(trackSpots.keySet());
-		for (Integer toRemove : trackIDsToRemove) {
-			model.getFeatureModel().trackFeatureValues.remove(toRemove);
+		for (Integer oldKey : dirtyKeys) {
+			if (!trackSpots.containsKey(oldKey)) {
+				model.getFeatureModel().trackFeatureValues.remove(oldKey);
+			}
 		}
 
-
 		if (DEBUG) {
-			System.out.println("[TrackGraphModel] #computeTracksFromGraph(): the end; found " + trackSpots.size() + " new spot tracks.");
+			System.out.println("[TrackGraphModel] #updateTracksFromGraph(): replaced " + dirtyKeys.size() + " old tracks by " + updatedKeys.size() + " new ones.");
+		}
+		return updatedKeys;
+	}
+
+	/**
+	 * Store the given track in the track lists, and return its key.
+	 */
+	private Integer putTrack(final Set<Spot> track, final Set<DefaultWeightedEdge> edges) {
+		Integer uniqueKey = track.hashCode();
+		// Add to spot set collection
+		trackSpots.put(uniqueKey, track);
+		// Add to edge set collection, using the same hash as a key
+		trackEdges.put(uniqueKey, edges);
+		for (Spot spot : track) {
+			spotTrackIDs.put(spot, uniqueKey);
+		}
+		for (DefaultWeightedEdge edge : edges) {
+			edgeTrackIDs.put(edge, uniqueKey);
+		}
+		return uniqueKey;
+	}
+
+	/**
+	 * Give a name and a visibility to the new track with the given key, from the old 
+	 * tracks it is built from.
+	 */
+	private void inheritNameAndVisibility(final Integer trackKey, final Set<Integer> oldKeys, final Map<Integer, Set<Spot>> oldTrackSpots, 
+			final Map<Integer, String> oldNames, final Map<Integer, Boolean> oldTrackVisibility) {
+
+		if (oldKeys.isEmpty()) {
+			// Is new, so we make it visible and give it a default name.
+			filteredTrackKeys.add(trackKey);
+			trackNames.put(trackKey, generateDefaultTrackName() );
+			if (DEBUG) {
+				System.out.println("[TrackGraphModel] #inheritNameAndVisibility(): track " + trackKey + " is completely new. Making it visible with name " + trackNames.get(trackKey));
+			}
+
+		} else {
+			/* Is made of old tracks, so we can pick its name and visibility from there.
+			 * 
+			 * We copy the name from the largest old track that is part of this one now.
+			 * 
+			 * How to know if a new track should be visible or not?
+			 * We can say this: the new track should be visible if it has at least
+			 * one spot that can be found in a visible old track. */
+			Iterator<Integer> it = oldKeys.iterator();
+			Integer keyOfLargestOldTracks = it.next();
+			boolean shouldBeVisible = oldTrackVisibility.get(keyOfLargestOldTracks);
+			while (it.hasNext()) {
+				Integer oldKey = it.next();
+				if (oldTrackSpots.get(oldKey).size() > oldTrackSpots.get(keyOfLargestOldTracks).size()) {
+					keyOfLargestOldTracks = oldKey;	
+				}
+				shouldBeVisible = shouldBeVisible | oldTrackVisibility.get(oldKey);
+			}
+			trackNames.put(trackKey, oldNames.get(keyOfLargestOldTracks));
+			if (shouldBeVisible) {
+				filteredTrackKeys.add(trackKey);
+			}
+			if (DEBUG) {
+				System.out.println("[TrackGraphModel] #inheritNameAndVisibility(): track " + trackKey + " is not new; it is made in parts of old tracks " +  oldKeys);
+				System.out.println("[TrackGraphModel] #inheritNameAndVisibility():  - giving it the name: " + trackNames.get(trackKey));
+				System.out.println("[TrackGraphModel] #inheritNameAndVisibility():  - making it visible? " + shouldBeVisible);
+			}
 		}
 	}
 
@@ -1,7 +1,6 @@
 package fiji.plugin.trackmate;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -496,11 +495,15 @@ public Spot removeSpotFrom(final Spot spotToRemove, Integer fromFrame) {
 	/**
 	 * Mark the specified spot for update. At the end of the model transaction, its features 
 	 * will be recomputed, and other edge and track features that depends on it will 
-	 * be as well.
+	 * be as well. Its place in the spatial indices of the spot collections is 
+	 * updated immediately, in case it was moved.
 	 * @param spotToUpdate  the spot to mark for update
 	 */
 	public void updateFeatures(final Spot spotToUpdate) {
 		spotsUpdated.add(spotToUpdate); // Enlist for feature update when transaction is marked as finished
+		// Its position might have changed
+		spots.updateSpatialIndex(spotToUpdate);
+		filteredSpots.updateSpatialIndex(spotToUpdate);
 		Set<DefaultWeightedEdge> touchingEdges = trackGraphModel.edgesOf(spotToUpdate);
 		if (null != touchingEdges) {
 			trackGraphModel.edgesModified.addAll(touchingEdges);
@@ -551,36 +554,39 @@ private void flushUpdate() {
 			System.out.println("[TrackMateModel] #flushUpdate(): Event cache is :" + eventCache);
 		}
 
-		/* Before they enter void, we grab the trackID of removed edges. We will need to 
-		 * know from where they were removed to recompute trackIDs intelligently. Or so */
-		HashMap<DefaultWeightedEdge, Integer> edgeRemovedOrigins = new HashMap<DefaultWeightedEdge, Integer>(trackGraphModel.edgesRemoved.size());
-		if (trackGraphModel.edgesRemoved.size() > 0) {
-			for (DefaultWeightedEdge edge : trackGraphModel.edgesRemoved) {
-				edgeRemovedOrigins.put(edge, getTrackModel().getTrackIDOf(edge)); // we store old track IDs
-			}
-		}
-
-		// Store old track IDs to monitor what tracks are new
-		HashSet<Integer> oldTrackIDs = new HashSet<Integer>(trackGraphModel.getTrackIDs());
-
-		/* We recompute tracks only if some edges have been added or removed,
+		/* We update tracks only if some edges have been added or removed,
 		 * (if some spots have been removed that causes edges to be removes, we already know about it).
-		 * We do NOT recompute tracks if spots have been added: they will not result in
-		 * new tracks made of single spots.	 */
+		 * We do NOT update tracks if spots have been added: they will not result in
+		 * new tracks made of single spots. Only the tracks touched by these edges are
+		 * rebuilt, and they are the only ones whose features need to be recomputed. */
 		int nEdgesToSignal = trackGraphModel.edgesAdded.size() + trackGraphModel.edgesRemoved.size() + trackGraphModel.edgesModified.size();
-		if (nEdgesToSignal > 0) {
-			// First, regenerate the tracks
-			trackGraphModel.computeTracksFromGraph();
+		HashSet<Integer> tracksToUpdate = new HashSet<Integer>();
+		if (trackGraphModel.edgesAdded.size() + trackGraphModel.edgesRemoved.size() > 0) {
+			tracksToUpdate.addAll(trackGraphModel.updateTracksFromGraph());
 		}
 
-		// Do we have new track appearing?
-		HashSet<Integer> tracksToUpdate = new HashSet<Integer>(trackGraphModel.getTrackIDs());
-		tracksToUpdate.removeAll(oldTrackIDs);
-
 		// We also want to update the tracks that have edges that were modified
 		for (DefaultWeightedEdge modifiedEdge : trackGraphModel.edgesModified) {
-			tracksToUpdate.add(trackGraphModel.getTrackIDOf(modifiedEdge));
+			Integer trackID = trackGraphModel.getTrackIDOf(modifiedEdge);
+			if (null != trackID) {
+				tracksToUpdate.add(trackID);
+			}
+		}
+
+		/* And the tracks and edges of spots that were moved or updated: edge and 
+		 * track features depend on spot features. */
+		HashSet<DefaultWeightedEdge> edgesToUpdate =  
+				new HashSet<DefaultWeightedEdge>(trackGraphModel.edgesAdded.size() + trackGraphModel.edgesModified.size());
+		edgesToUpdate.addAll(trackGraphModel.edgesAdded);
+		edgesToUpdate.addAll(trackGraphModel.edgesModified);
+		for (Spot spot : spotsMoved) {
+			markSpotTrackDirty(spot, tracksToUpdate, edgesToUpdate);
 		}
+		for (Spot spot : spotsUpdated) {
+			markSpotTrackDirty(spot, tracksToUpdate, edgesToUpdate);
+		}
+		// Edges added then removed in the same transaction are gone
+		edgesToUpdate.removeAll(trackGraphModel.edgesRemoved);
 
 		// Deal with new or moved spots: we need to update their features.
 		int nSpotsToUpdate = spotsAdded.size() + spotsMoved.size() + spotsUpdated.size();
@@ -645,13 +651,8 @@ private void flushUpdate() {
 		 * In this order: edges then tracks (in case track features depend on edge features) 
 		 */
 
-		int nEdgesToUpdate = trackGraphModel.edgesAdded.size() + trackGraphModel.edgesModified.size();
-		if (nEdgesToUpdate > 0) {
-			if (null != featureModel.trackAnalyzerProvider) {
-				HashSet<DefaultWeightedEdge> edgesToUpdate =  
-						new HashSet<DefaultWeightedEdge>(trackGraphModel.edgesAdded.size() + trackGraphModel.edgesModified.size());
-				edgesToUpdate.addAll(trackGraphModel.edgesAdded);
-				edgesToUpdate.addAll(trackGraphModel.edgesModified);
+		if (!edgesToUpdate.isEmpty()) {
+			if (null != featureModel.edgeAnalyzerProvider) {
 				HashSet<DefaultWeightedEdge> globalEdgesToUpdate = null; // for now - compute it only if we need
 
 				for (String analyzerKey : featureModel.edgeAnalyzerProvider.getAvailableEdgeFeatureAnalyzers()) {
@@ -667,7 +668,9 @@ private void flushUpdate() {
 							globalEdgesToUpdate = new HashSet<DefaultWeightedEdge>();
 							for (DefaultWeightedEdge edge : edgesToUpdate) {
 								Integer motherTrackID = trackGraphModel.getTrackIDOf(edge);
-								globalEdgesToUpdate.addAll(trackGraphModel.getTrackEdges(motherTrackID));
+								if (null != motherTrackID) {
+									globalEdgesToUpdate.addAll(trackGraphModel.getTrackEdges(motherTrackID));
+								}
 							}
 						}
 						analyzer.process(globalEdgesToUpdate);
@@ -681,18 +684,18 @@ private void flushUpdate() {
 		 *  If required, recompute features for new tracks or tracks that 
 		 *  have been modified, BEFORE any other listeners to model changes, 
 		 *  and that night need to exploit new feature values (e.g. model views).
+		 *  Local analyzers only see the tracks touched by this transaction. Non-local
+		 *  ones need all the tracks, but only if tracks were added or removed.
 		 */
-		if (nEdgesToSignal > 0) {
-			if (null != featureModel.trackAnalyzerProvider) {
-				for (String analyzerKey : featureModel.trackAnalyzerProvider.getAvailableTrackFeatureAnalyzers()) {
-					TrackAnalyzer analyzer = featureModel.trackAnalyzerProvider.getTrackFeatureAnalyzer(analyzerKey);
-					if (analyzer.isLocal()) {
-						if (!tracksToUpdate.isEmpty()) {
-							analyzer.process(tracksToUpdate);
-						}
-					} else {
-						analyzer.process(trackGraphModel.getFilteredTrackIDs());
+		if (null != featureModel.trackAnalyzerProvider) {
+			for (String analyzerKey : featureModel.trackAnalyzerProvider.getAvailableTrackFeatureAnalyzers()) {
+				TrackAnalyzer analyzer = featureModel.trackAnalyzerProvider.getTrackFeatureAnalyzer(analyzerKey);
+				if (analyzer.isLocal()) {
+					if (!tracksToUpdate.isEmpty()) {
+						analyzer.process(tracksToUpdate);
 					}
+				} else if (nEdgesToSignal > 0) {
+					analyzer.process(trackGraphModel.getFilteredTrackIDs());
 				}
 			}
 		}
@@ -733,4 +736,17 @@ private void flushUpdate() {
 
 
 
+	/**
+	 * Add the track of the given spot to the given set of track IDs, and its edges
+	 * to the given set of edges, so that their features get recomputed.
+	 */
+	private void markSpotTrackDirty(final Spot spot, final Set<Integer> tracksToUpdate, final Set<DefaultWeightedEdge> edgesToUpdate) {
+		Integer trackID = trackGraphModel.getTrackIDOf(spot);
+		if (null == trackID) {
+			return;
+		}
+		tracksToUpdate.add(trackID);
+		edgesToUpdate.addAll(trackGraphModel.edgesOf(spot));
+	}
+
 }
@@ -474,6 +474,8 @@ public boolean execDetection() {
 
 		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
 		final AtomicBoolean ok = new AtomicBoolean(true);
+		// If there are fewer frames than threads, multi-threaded detectors get the remaining ones
+		final int threadsPerFrame = Math.max(1, numThreads / Math.max(1, numFrames));
 
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger(settings.tstart);
@@ -487,6 +489,9 @@ public void run() {
 
 						// Yield detector for target frame
 						SpotDetector<?> detector = factory.getDetector(frame);
+						if (detector instanceof MultiThreaded) {
+							((MultiThreaded) detector).setNumThreads(threadsPerFrame);
+						}
 
 						// Execute detection
 						if (ok.get() && detector.checkInput() && detector.process()) {
@@ -33,6 +33,7 @@
 import fiji.plugin.trackmate.tracking.FastLAPTracker;
 import fiji.plugin.trackmate.tracking.LAPUtils;
 import fiji.plugin.trackmate.tracking.SimpleFastLAPTracker;
+import fiji.plugin.trackmate.tracking.SparseLAPTracker;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.tracking.TrackerKeys;
 import fiji.plugin.trackmate.tracking.kdtree.NearestNeighborTracker;
@@ -85,16 +86,19 @@ protected void registerTrackers() {
 		keys = new ArrayList<String>();
 		keys.add(SimpleFastLAPTracker.TRACKER_KEY);
 		keys.add(FastLAPTracker.TRACKER_KEY);
+		keys.add(SparseLAPTracker.TRACKER_KEY);
 		keys.add(NearestNeighborTracker.TRACKER_KEY);
 		// infoTexts
 		infoTexts = new ArrayList<String>();
 		infoTexts.add(SimpleFastLAPTracker.INFO_TEXT);
 		infoTexts.add(FastLAPTracker.INFO_TEXT);
+		infoTexts.add(SparseLAPTracker.INFO_TEXT);
 		infoTexts.add(NearestNeighborTracker.INFO_TEXT);
 		// Names
 		names = new ArrayList<String>();
 		names.add(SimpleFastLAPTracker.NAME);
 		names.add(FastLAPTracker.NAME);
+		names.add(SparseLAPTracker.NAME);
 		names.add(NearestNeighborTracker.NAME);
 	}
 
@@ -113,6 +117,9 @@ public SpotTracker getTracker() {
 		} else if (currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
 			tracker = new FastLAPTracker(spots, logger);
 
+		} else if (currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
+			tracker = new SparseLAPTracker(spots, logger);
+
 		} else if (currentKey.equals(NearestNeighborTracker.TRACKER_KEY)) {
 			tracker = new NearestNeighborTracker(spots, logger);
 
@@ -135,6 +142,9 @@ public String getInfoText() {
 		} else if (currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
 			return FastLAPTracker.INFO_TEXT;
 
+		} else if (currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
+			return SparseLAPTracker.INFO_TEXT;
+
 		} else if (currentKey.equals(NearestNeighborTracker.TRACKER_KEY)) {
 			return NearestNeighborTracker.INFO_TEXT;
 
@@ -154,6 +164,9 @@ public String getName() {
 		} else if (currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
 			return FastLAPTracker.NAME;
 
+		} else if (currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
+			return SparseLAPTracker.NAME;
+
 		} else if (currentKey.equals(NearestNeighborTracker.TRACKER_KEY)) {
 			return NearestNeighborTracker.NAME;
 
@@ -178,7 +191,7 @@ public ConfigurationPanel getTrackerConfigurationPanel() 	{
 		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY)) {
 			return new SimpleLAPTrackerSettingsPanel(trackerName, SimpleFastLAPTracker.INFO_TEXT, spaceUnits);
 
-		} else if (currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
+		} else if (currentKey.equals(FastLAPTracker.TRACKER_KEY) || currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 			return new LAPTrackerSettingsPanel(trackerName, spaceUnits, features, featureNames);
 
 		} else if (currentKey.equals(NearestNeighborTracker.TRACKER_KEY)) {
@@ -197,7 +210,8 @@ public ConfigurationPanel getTrackerConfigurationPanel() 	{
 	public Map<String, Object> getDefaultSettings() {
 		Map<String, Object> settings;
 
-		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
+		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)
+				|| currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 			settings = LAPUtils.getDefaultLAPSettingsMap();
 
 		} else if (currentKey.equals(NearestNeighborTracker.TRACKER_KEY)) {
@@ -224,7 +238,8 @@ public Map<String, Object> getDefaultSettings() {
 	public boolean marshall(final Map<String, Object> settings, Element element) {
 
 		element.setAttribute(XML_ATTRIBUTE_TRACKER_NAME, currentKey);
-		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
+		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)
+				|| currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 
 			boolean ok = true;
 
@@ -318,7 +333,8 @@ public boolean unmarshall(Element element, final Map<String, Object> settings) {
 			return false;
 		}
 
-		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)) {
+		if (currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY) || currentKey.equals(FastLAPTracker.TRACKER_KEY)
+				|| currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 			StringBuilder errorHolder = new StringBuilder(); 
 
 			// Linking
@@ -462,7 +478,8 @@ public boolean checkSettingsValidity(final Map<String, Object> settings) {
 		boolean ok = true;
 
 		if (currentKey.equals(FastLAPTracker.TRACKER_KEY) 
-				|| currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY)) {
+				|| currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY)
+				|| currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 
 			ok = LAPUtils.checkSettingsValidity(settings, str);
 			if (!ok) {
@@ -498,7 +515,8 @@ public String toString(Map<String, Object> sm) {
 		}
 		
 		StringBuilder str = new StringBuilder();
-		if (currentKey.equals(FastLAPTracker.TRACKER_KEY) || currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY)) {
+		if (currentKey.equals(FastLAPTracker.TRACKER_KEY) || currentKey.equals(SimpleFastLAPTracker.TRACKER_KEY)
+				|| currentKey.equals(SparseLAPTracker.TRACKER_KEY)) {
 			
 			str.append("  Linking conditions:\n");
 			str.append(String.format("    - max distance: %.1f\n", (Double) sm.get(KEY_LINKING_MAX_DISTANCE)));
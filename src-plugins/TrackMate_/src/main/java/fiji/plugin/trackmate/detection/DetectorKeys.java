@@ -97,4 +97,21 @@ public class DetectorKeys {
 	/** A default value for the {@link #KEY_DO_SUBPIXEL_LOCALIZATION} parameter. */
 	public static final boolean DEFAULT_DO_SUBPIXEL_LOCALIZATION = true;
 
+	/** The key identifying the parameter setting the size of the tiles, in pixels, 
+	 * in which each frame is split before detection. Tiles are processed separately,
+	 * which bounds the memory needed to detect spots in very large images. A value 
+	 * of 0 disables tiling. Expected values are {@link Integer}s. This parameter is 
+	 * optional.
+	 * <p>
+	 * Currently used by:
+	 * <ul>
+	 * 	<li> {@link LogDetector}, through {@link TiledDetector}
+	 * 	<li> {@link DogDetector}, through {@link TiledDogDetector}
+	 * </ul>
+	 */
+	public static final String KEY_TILE_SIZE = "TILE_SIZE";
+	
+	/** A default value for the {@link #KEY_TILE_SIZE} parameter. */
+	public static final int DEFAULT_TILE_SIZE = 0;
+
 }
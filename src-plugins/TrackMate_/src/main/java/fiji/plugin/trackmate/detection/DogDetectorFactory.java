@@ -44,6 +44,10 @@ public SpotDetector<T> getDetector(final int frame) {
 		final double threshold = (Double) settings.get(KEY_THRESHOLD);
 		final boolean doMedian = (Boolean) settings.get(KEY_DO_MEDIAN_FILTERING);
 		final boolean doSubpixel = (Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION);
+		final int tileSize = getTileSize();
+		if (tileSize > 0) {
+			return new TiledDogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian, tileSize);
+		}
 		return new DogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
 	}
 	
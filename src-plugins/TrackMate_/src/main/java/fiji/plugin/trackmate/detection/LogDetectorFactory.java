@@ -5,6 +5,7 @@
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_THRESHOLD;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TILE_SIZE;
 import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
@@ -35,6 +36,9 @@
 			"filtered image are searched for, and maxima too close from each <br>" +
 			"other are suppressed. A quadratic fitting scheme allows to do <br>" +
 			"sub-pixel localization. " +
+			"<p>" +
+			"Very large images can be processed in overlapping tiles, <br>" +
+			"to limit the memory needed by the convolution. " +
 			"</html>";
 
 
@@ -67,9 +71,21 @@ public SpotDetector<T> getDetector(final int frame) {
 		final double threshold = (Double) settings.get(KEY_THRESHOLD);
 		final boolean doMedian = (Boolean) settings.get(KEY_DO_MEDIAN_FILTERING);
 		final boolean doSubpixel = (Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION);
+		final int tileSize = getTileSize();
+		if (tileSize > 0) {
+			return new TiledDetector<T>(imgT, radius, threshold, doSubpixel, doMedian, tileSize);
+		}
 		return new LogDetector<T>(imgT, radius, threshold, doSubpixel, doMedian);
 	}
 
+	/**
+	 * @return the tile size set in the settings map, or 0 if tiling is not required.
+	 */
+	protected int getTileSize() {
+		final Integer tileSize = (Integer) settings.get(KEY_TILE_SIZE);
+		return null == tileSize ? 0 : tileSize;
+	}
+
 	@Override
 	public String getKey() {
 		return DETECTOR_KEY;
@@ -115,7 +131,12 @@ public static boolean checkInput(Map<String, Object> settings, StringBuilder err
 		mandatoryKeys.add(KEY_THRESHOLD);
 		mandatoryKeys.add(KEY_DO_MEDIAN_FILTERING);
 		mandatoryKeys.add(KEY_DO_SUBPIXEL_LOCALIZATION);
-		ok = ok & checkMapKeys(settings, mandatoryKeys, null, errorHolder);
+		List<String> optionalKeys = new ArrayList<String>();
+		optionalKeys.add(KEY_TILE_SIZE);
+		if (settings.containsKey(KEY_TILE_SIZE)) {
+			ok = ok & checkParameter(settings, KEY_TILE_SIZE, Integer.class, errorHolder);
+		}
+		ok = ok & checkMapKeys(settings, mandatoryKeys, optionalKeys, errorHolder);
 		return ok;	
 	}
 
@@ -0,0 +1,303 @@
+package fiji.plugin.trackmate.detection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * A detector that runs a {@link LogDetector} on overlapping tiles of the target
+ * frame, instead of on the whole frame at once.
+ * <p>
+ * The frame is split in blocks of at most {@link #tileSize} pixels in each
+ * dimension. Each block is extended by a halo large enough to hold the filter
+ * support (3 sigma) and the peak suppression radius, copied to a small image, and
+ * processed independently. Only the spots whose center falls in the block core
+ * are kept, so every spot is reported by exactly one tile. Spots close to an
+ * internal tile border are then compared across tiles, and the ones too close to
+ * a brighter spot are suppressed, as they would have been on the whole frame.
+ * <p>
+ * Peak memory is therefore bounded by the size of a tile and of its
+ * convolution buffers, rather than by the size of the frame. Tiles are processed
+ * concurrently on {@link #getNumThreads()} threads.
+ */
+public class TiledDetector <T extends RealType<T>  & NativeType<T>> extends LogDetector<T> implements MultiThreaded {
+
+	/*
+	 * CONSTANTS
+	 */
+
+	public final static String BASE_ERROR_MESSAGE = "TiledDetector: ";
+
+	/*
+	 * FIELDS
+	 */
+
+	/** The size of a tile core, in pixels, along all dimensions. */
+	protected final int tileSize;
+	protected int numThreads = 1;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public TiledDetector(final ImgPlus<T> img, final double radius, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter, final int tileSize) {
+		super(img, radius, threshold, doSubPixelLocalization, doMedianFilter);
+		this.tileSize = tileSize;
+		this.baseErrorMessage = BASE_ERROR_MESSAGE;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public boolean checkInput() {
+		if (!super.checkInput()) {
+			return false;
+		}
+		if (tileSize < 1) {
+			errorMessage = baseErrorMessage + "Tile size must be at least 1, was " + tileSize + ".";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process() {
+
+		long start = System.currentTimeMillis();
+
+		final int nDims = img.numDimensions();
+		final double[] calibration = TMUtils.getSpatialCalibration(img);
+		final long[] halo = getHalo(calibration);
+
+		// Tile grid
+		final long[] nTiles = new long[nDims];
+		long totalTiles = 1;
+		for (int d = 0; d < nDims; d++) {
+			nTiles[d] = (img.dimension(d) + tileSize - 1) / tileSize;
+			totalTiles *= nTiles[d];
+		}
+		final int nTotalTiles = (int) totalTiles;
+
+		@SuppressWarnings("unchecked")
+		final List<Spot>[] tileSpots = new List[nTotalTiles];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicBoolean ok = new AtomicBoolean(true);
+		final Thread[] threads = SimpleMultiThreading.newThreads(Math.min(numThreads, nTotalTiles));
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread("TrackMate tiled detection thread "+(1+ithread)+"/"+threads.length) {
+
+				public void run() {
+					for (int t = ai.getAndIncrement(); t < nTotalTiles; t = ai.getAndIncrement()) {
+						if (!ok.get()) {
+							return;
+						}
+						// Core and extended bounds of this tile
+						final long[] coreMin = new long[nDims];
+						final long[] coreMax = new long[nDims];
+						final long[] min = new long[nDims];
+						final long[] max = new long[nDims];
+						long index = t;
+						for (int d = 0; d < nDims; d++) {
+							final long td = index % nTiles[d];
+							index /= nTiles[d];
+							coreMin[d] = td * tileSize;
+							coreMax[d] = Math.min(coreMin[d] + tileSize, img.dimension(d)) - 1;
+							min[d] = Math.max(0, coreMin[d] - halo[d]);
+							max[d] = Math.min(img.dimension(d) - 1, coreMax[d] + halo[d]);
+						}
+
+						final List<Spot> spots = processTile(coreMin, coreMax, min, max, calibration);
+						if (null == spots) {
+							ok.set(false);
+							return;
+						}
+						tileSpots[t] = spots;
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		if (!ok.get()) {
+			return false;
+		}
+
+		// Merge, and set apart the spots close to an internal tile border
+		final double suppressionDistance = getSuppressionDistance();
+		final List<Spot> merged = new ArrayList<Spot>();
+		final List<Spot> borderSpots = new ArrayList<Spot>();
+		for (final List<Spot> spots : tileSpots) {
+			for (final Spot spot : spots) {
+				if (isCloseToTileBorder(spot, calibration, suppressionDistance)) {
+					borderSpots.add(spot);
+				} else {
+					merged.add(spot);
+				}
+			}
+		}
+
+		// Deduplicate across tile borders: the brightest spot wins
+		Collections.sort(borderSpots, TMUtils.createDescendingComparatorFor(Spot.QUALITY));
+		final double d2 = suppressionDistance * suppressionDistance;
+		final List<Spot> acceptedBorderSpots = new ArrayList<Spot>(borderSpots.size());
+		for (final Spot spot : borderSpots) {
+			boolean accept = true;
+			for (final Spot target : acceptedBorderSpots) {
+				if (spot.squareDistanceTo(target) < d2) {
+					accept = false;
+					break;
+				}
+			}
+			if (accept) {
+				acceptedBorderSpots.add(spot);
+			}
+		}
+		merged.addAll(acceptedBorderSpots);
+		spots = merged;
+
+		long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return true;
+	}
+
+	/**
+	 * Creates the detector that will operate on a single tile. Subclasses can
+	 * override this method to change the detection algorithm.
+	 */
+	protected LogDetector<T> createTileDetector(final ImgPlus<T> tile) {
+		return new LogDetector<T>(tile, radius, threshold, doSubPixelLocalization, doMedianFilter);
+	}
+
+	/**
+	 * @return the halo to add around each tile, in pixels, for each dimension.
+	 * It must hold the filter support plus the peak suppression radius.
+	 */
+	protected long[] getHalo(final double[] calibration) {
+		final double sigma = radius / Math.sqrt(img.numDimensions());
+		final long[] halo = new long[img.numDimensions()];
+		for (int d = 0; d < halo.length; d++) {
+			halo[d] = (long) Math.ceil((3 * sigma + radius) / calibration[d]) + 1;
+		}
+		return halo;
+	}
+
+	/**
+	 * @return the minimal distance, in physical units, allowed between two spots
+	 * detected by different tiles.
+	 */
+	protected double getSuppressionDistance() {
+		return radius;
+	}
+
+	@Override
+	public void setNumThreads() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Copies the specified extended tile, runs detection on it, and returns the
+	 * spots that belong to its core, in frame coordinates. Returns
+	 * <code>null</code> if detection failed.
+	 */
+	private List<Spot> processTile(final long[] coreMin, final long[] coreMax, final long[] min, final long[] max, final double[] calibration) {
+		final int nDims = img.numDimensions();
+		final long[] dimensions = new long[nDims];
+		for (int d = 0; d < nDims; d++) {
+			dimensions[d] = max[d] - min[d] + 1;
+		}
+
+		// Copy the tile
+		final Img<T> tileImg = img.factory().create(dimensions, img.firstElement().createVariable());
+		final ImgPlus<T> tile = new ImgPlus<T>(tileImg, img);
+		final Cursor<T> tileCursor = tileImg.localizingCursor();
+		final RandomAccess<T> srcCursor = img.randomAccess();
+		final long[] pos = new long[nDims];
+		while (tileCursor.hasNext()) {
+			tileCursor.fwd();
+			tileCursor.localize(pos);
+			for (int d = 0; d < nDims; d++) {
+				pos[d] += min[d];
+			}
+			srcCursor.setPosition(pos);
+			tileCursor.get().set(srcCursor.get());
+		}
+
+		// Detect
+		final LogDetector<T> detector = createTileDetector(tile);
+		if (!detector.checkInput() || !detector.process()) {
+			synchronized (this) {
+				errorMessage = baseErrorMessage + detector.getErrorMessage();
+			}
+			return null;
+		}
+
+		// Keep core spots, and move them back in frame coordinates
+		final List<Spot> tileSpots = detector.getResult();
+		final List<Spot> kept = new ArrayList<Spot>(tileSpots.size());
+		for (final Spot spot : tileSpots) {
+			boolean inCore = true;
+			for (int d = 0; d < nDims; d++) {
+				final long pixel = Math.round(spot.getFeature(Spot.POSITION_FEATURES[d]) / calibration[d]) + min[d];
+				if (pixel < coreMin[d] || pixel > coreMax[d]) {
+					inCore = false;
+					break;
+				}
+			}
+			if (!inCore) {
+				continue;
+			}
+			for (int d = 0; d < nDims; d++) {
+				spot.putFeature(Spot.POSITION_FEATURES[d], spot.getFeature(Spot.POSITION_FEATURES[d]) + min[d] * calibration[d]);
+			}
+			kept.add(spot);
+		}
+		return kept;
+	}
+
+	/**
+	 * @return true if the given spot, in frame coordinates, is closer than the given
+	 * distance to a border between two tiles.
+	 */
+	private boolean isCloseToTileBorder(final Spot spot, final double[] calibration, final double distance) {
+		for (int d = 0; d < img.numDimensions(); d++) {
+			final double x = spot.getFeature(Spot.POSITION_FEATURES[d]) / calibration[d];
+			final double dist = distance / calibration[d];
+			// Internal borders lie between pixel k*tileSize-1 and k*tileSize, for 0 < k*tileSize < dimension
+			final long k = Math.round((x + 0.5) / tileSize);
+			final double border = k * tileSize - 0.5;
+			if (k > 0 && k * tileSize < img.dimension(d) && Math.abs(x - border) < dist) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
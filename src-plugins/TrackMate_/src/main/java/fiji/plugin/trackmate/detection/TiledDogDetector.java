@@ -0,0 +1,59 @@
+package fiji.plugin.trackmate.detection;
+
+import net.imglib2.img.ImgPlus;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A {@link TiledDetector} that runs a {@link DogDetector} on each tile.
+ */
+public class TiledDogDetector <T extends RealType<T>  & NativeType<T>> extends TiledDetector<T> {
+
+	/*
+	 * CONSTANTS
+	 */
+
+	public final static String BASE_ERROR_MESSAGE = "TiledDogDetector: ";
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public TiledDogDetector(final ImgPlus<T> img, final double radius, final double threshold, final boolean doSubPixelLocalization, final boolean doMedianFilter, final int tileSize) {
+		super(img, radius, threshold, doSubPixelLocalization, doMedianFilter, tileSize);
+		this.baseErrorMessage = BASE_ERROR_MESSAGE;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	protected LogDetector<T> createTileDetector(final ImgPlus<T> tile) {
+		return new DogDetector<T>(tile, radius, threshold, doSubPixelLocalization, doMedianFilter);
+	}
+
+	/**
+	 * The halo must hold the largest of the two gaussians, and the DoG
+	 * suppression distance, which is twice the radius.
+	 */
+	@Override
+	protected long[] getHalo(final double[] calibration) {
+		final int nDims = img.numDimensions();
+		final double sigma1 = 2 / (1 + Math.sqrt(nDims)) * radius;
+		final double sigma2 = Math.sqrt(nDims) * sigma1;
+		final long[] halo = new long[nDims];
+		for (int d = 0; d < halo.length; d++) {
+			halo[d] = (long) Math.ceil((3 * sigma2 + getSuppressionDistance()) / calibration[d]) + 1;
+		}
+		return halo;
+	}
+
+	/**
+	 * The {@link DogDetector} suppresses spots closer than the sum of their radius.
+	 */
+	@Override
+	protected double getSuppressionDistance() {
+		return 2 * radius;
+	}
+}
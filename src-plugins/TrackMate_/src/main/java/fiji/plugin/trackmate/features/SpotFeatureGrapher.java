@@ -21,6 +21,7 @@
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotFeatureStore;
 import fiji.plugin.trackmate.TrackMateModel;
 import fiji.plugin.trackmate.util.ExportableChartPanel;
 import fiji.plugin.trackmate.util.TMUtils;
@@ -128,17 +129,18 @@ public void render() {
 	 * @return a new dataset that contains the values, specified from the given feature, and  extracted from all
 	 * the given spots.
 	 */
-	private XYSeriesCollection buildSpotDataSet(final Iterable<String> targetYFeatures, final Iterable<Spot> spots) {
+	private XYSeriesCollection buildSpotDataSet(final Iterable<String> targetYFeatures, final List<Spot> spots) {
 		XYSeriesCollection dataset = new XYSeriesCollection();
+		final SpotFeatureStore store = model.getSpots().getFeatureStore();
+		final double[] xs = store.getColumn(xFeature).values(spots, spots.size());
 		for(String feature : targetYFeatures) {
 			XYSeries series = new XYSeries(featureNames.get(feature));
-			for(Spot spot : spots) {
-				Double x = spot.getFeature(xFeature);
-				Double y = spot.getFeature(feature);
-				if (null == x || null == y) {
+			final double[] ys = store.getColumn(feature).values(spots, spots.size());
+			for (int i = 0; i < xs.length; i++) {
+				if (Double.isNaN(xs[i]) || Double.isNaN(ys[i])) {
 					continue;
 				}
-				series.add(x.doubleValue(), y.doubleValue());
+				series.add(xs[i], ys[i]);
 			}
 			dataset.addSeries(series);
 		}
@@ -156,22 +158,25 @@ private XYEdgeSeriesCollection buildEdgeDataSet(final Iterable<String> targetYFe
 		
 		// Build dataset
 		XYEdgeSeriesCollection edgeDataset = new XYEdgeSeriesCollection();
-		Double x0, x1, y0, y1;
+		final SpotFeatureStore store = model.getSpots().getFeatureStore();
+		final SpotFeatureStore.Column xColumn = store.getColumn(xFeature);
+		double x0, x1, y0, y1;
 		XYEdgeSeries edgeSeries;
 		Spot source, target;
 		for(String yFeature : targetYFeatures) {
 			edgeSeries = new XYEdgeSeries(featureNames.get(yFeature));
+			final SpotFeatureStore.Column yColumn = store.getColumn(yFeature);
 			for(DefaultWeightedEdge	edge : edges) {
 				source = model.getTrackModel().getEdgeSource(edge);
 				target = model.getTrackModel().getEdgeTarget(edge);
-				x0 = source.getFeature(xFeature);
-				y0 = source.getFeature(yFeature);
-				x1 = target.getFeature(xFeature);
-				y1 = target.getFeature(yFeature);
-				if (null == x0 || null == y0 || null == x1 || null == y1) {
+				x0 = xColumn.get(source);
+				y0 = yColumn.get(source);
+				x1 = xColumn.get(target);
+				y1 = yColumn.get(target);
+				if (Double.isNaN(x0) || Double.isNaN(y0) || Double.isNaN(x1) || Double.isNaN(y1)) {
 					continue;
 				}
-				edgeSeries.addEdge(x0.doubleValue(), y0.doubleValue(), x1.doubleValue(), y1.doubleValue());
+				edgeSeries.addEdge(x0, y0, x1, y1);
 			}
 			edgeDataset.addSeries(edgeSeries);
 		}
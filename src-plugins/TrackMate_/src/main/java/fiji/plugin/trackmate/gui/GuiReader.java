@@ -18,8 +18,11 @@
 import fiji.plugin.trackmate.TrackMateModel;
 import fiji.plugin.trackmate.TrackMate_;
 import fiji.plugin.trackmate.detection.SpotDetectorFactory;
+import fiji.plugin.trackmate.io.TmBinaryReader;
+import fiji.plugin.trackmate.io.TmBinaryWriter;
 import fiji.plugin.trackmate.io.TmXmlReader;
 import fiji.plugin.trackmate.io.TmXmlReader_v12;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
 import fiji.plugin.trackmate.tracking.SpotTracker;
 import fiji.plugin.trackmate.util.TMUtils;
 import fiji.plugin.trackmate.util.Version;
@@ -43,6 +46,8 @@ public class GuiReader {
 	private String targetDescriptor;
 	private TrackMate_ plugin;
 	private TrackMateModelView displayer;
+	/** The reader of the file being loaded, if it can be canceled. */
+	private volatile TmXmlStreamReader streamReader;
 
 	/*
 	 * CONSTRUCTORS
@@ -71,6 +76,19 @@ public TrackMate_ getPlugin() {
 		return plugin;
 	}
 
+	/**
+	 * Stop loading the file given to {@link #loadFile(File)}, as soon as possible.
+	 * Can be called from any thread. XML files are read by a {@link TmXmlStreamReader},
+	 * which is canceled; binary files and files older than v2.0.0 are loaded
+	 * until the end.
+	 */
+	public void cancel() {
+		final TmXmlStreamReader reader = streamReader;
+		if (null != reader) {
+			reader.cancel();
+		}
+	}
+
 	/**
 	 * Return the descriptor for the {@link WizardPanelDescriptor} that matches the amount of data 
 	 * found in the target file. This identifier can be used to resume the tracking process
@@ -104,7 +122,14 @@ public void loadFile(File file) {
 		msg = "Opening file "+file.getName()+'\n';
 		logger.log(msg);
 		str.append(msg);
-		TmXmlReader reader = new TmXmlReader(file, plugin);
+		TmXmlReader reader;
+		if (TmBinaryReader.isBinaryFile(file)) {
+			reader = new TmBinaryReader(file, plugin);
+		} else {
+			streamReader = new TmXmlStreamReader(file, plugin);
+			streamReader.setProgressLogger(logger);
+			reader = streamReader;
+		}
 
 		if (!reader.checkInput()) {
 			logger.error("There was a problem opening the source file:\n" + reader.getErrorMessage() + '\n');
@@ -131,11 +156,13 @@ public void loadFile(File file) {
 			logger.log("  Detected an older file format: v"+fileVersionStr);
 			logger.log(" Converting on the fly.\n");
 			// We substitute an able reader
+			streamReader = null;
 			reader = new TmXmlReader_v12(file, plugin);
 		}
 
 		// Retrieve data and update GUI
 		boolean readWasOk = reader.process();
+		streamReader = null;
 		if (!readWasOk) {
 			logger.error("There was some errors when loading the file:\n");
 			logger.error(reader.getErrorMessage());
@@ -373,7 +400,7 @@ public File askForFile(File file) {
 			FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(File dir, String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(TmBinaryWriter.FILE_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -389,7 +416,7 @@ public boolean accept(File dir, String name) {
 			// use a swing file dialog on the other platforms
 			JFileChooser fileChooser = new JFileChooser(file.getParent());
 			fileChooser.setSelectedFile(file);
-			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML and TrackMate binary files", "xml", TmBinaryWriter.FILE_EXTENSION.substring(1));
 			fileChooser.setFileFilter(filter);
 			int returnVal = fileChooser.showOpenDialog(parent);
 			if(returnVal == JFileChooser.APPROVE_OPTION) {
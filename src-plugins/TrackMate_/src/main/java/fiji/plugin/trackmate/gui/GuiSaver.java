@@ -6,6 +6,7 @@
 
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.TrackMateModel;
+import fiji.plugin.trackmate.io.TmBinaryWriter;
 import fiji.plugin.trackmate.io.TmXmlWriter;
 
 /**
@@ -46,6 +47,11 @@ public void writeFile(final File file) {
 
 		String log = wizard.getLogPanel().getTextContent();
 
+		if (file.getName().endsWith(TmBinaryWriter.FILE_EXTENSION)) {
+			writeBinaryFile(file, log);
+			return;
+		}
+
 		TmXmlWriter writer = new TmXmlWriter(wizard.getController().getPlugin(), log);
 		
 		if (!writer.checkInput()) {
@@ -70,6 +76,27 @@ public void writeFile(final File file) {
 		} 
 	}
 
+	/**
+	 * Write the model in the plugin managed by this GUI in the specified file,
+	 * using the binary format.
+	 */
+	private void writeBinaryFile(final File file, final String log) {
+		TmBinaryWriter writer = new TmBinaryWriter(wizard.getController().getPlugin(), log);
+
+		if (!writer.checkInput() || !writer.process()) {
+			logger.error("There was some errors when preparing the file:\n" + writer.getErrorMessage());
+			logger.error("Aborting.\n");
+			return;
+		}
+
+		try {
+			writer.writeToFile(file);
+			logger.log("Data saved to: "+file.toString()+'\n');
+		} catch (IOException e) {
+			logger.error("Input/Output error:\n"+e.getMessage()+'\n');
+		}
+	}
+
 
 	
 }
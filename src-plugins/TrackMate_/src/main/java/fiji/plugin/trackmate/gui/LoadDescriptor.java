@@ -5,6 +5,8 @@
 public class LoadDescriptor extends SomeDialogDescriptor {
 
 	public static final String DESCRIPTOR = "LoadingPanel";
+	/** The reader currently loading a file, if any. */
+	private volatile GuiReader reader;
 
 	@Override
 	public String getDescriptorID() {
@@ -26,7 +28,7 @@ public void displayingPanel() {
 				}
 			}
 
-			GuiReader reader = new GuiReader(wizard);
+			reader = new GuiReader(wizard);
 			File tmpFile = reader.askForFile(file);
 			if (null == tmpFile) {
 				wizard.setNextButtonEnabled(true);
@@ -38,9 +40,21 @@ public void displayingPanel() {
 			setTargetNextID(reader.getTargetDescriptor());
 
 		} finally {
+			reader = null;
 			wizard.setNextButtonEnabled(true);
 		}
 
 	}
 
+	/**
+	 * Stop loading the file, if one is being loaded.
+	 * @see GuiReader#cancel()
+	 */
+	public void cancel() {
+		final GuiReader current = reader;
+		if (null != current) {
+			current.cancel();
+		}
+	}
+
 }
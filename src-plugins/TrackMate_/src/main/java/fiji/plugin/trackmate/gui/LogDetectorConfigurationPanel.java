@@ -5,6 +5,7 @@
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_RADIUS;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TARGET_CHANNEL;
 import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_THRESHOLD;
+import static fiji.plugin.trackmate.detection.DetectorKeys.KEY_TILE_SIZE;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.BIG_FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.FONT;
 import static fiji.plugin.trackmate.gui.TrackMateWizard.SMALL_FONT;
@@ -53,6 +54,8 @@ public class LogDetectorConfigurationPanel extends ConfigurationPanel {
 	protected JSlider sliderChannel;
 	protected JLabel labelChannel;
 	protected ImagePlus imp;
+	/** The optional tile size, which has no field in this panel. */
+	protected Integer tileSize;
 
 	/*
 	 * CONSTRUCTOR
@@ -84,6 +87,9 @@ public Map<String, Object> getSettings() {
 		settings.put(KEY_THRESHOLD, threshold);
 		settings.put(KEY_DO_MEDIAN_FILTERING, useMedianFilter);
 		settings.put(KEY_DO_SUBPIXEL_LOCALIZATION, doSubPixelLocalization);
+		if (null != tileSize) {
+			settings.put(KEY_TILE_SIZE, tileSize);
+		}
 		return settings;
 	}
 
@@ -94,6 +100,7 @@ public void setSettings(final Map<String, Object> settings) {
 		jCheckBoxMedianFilter.setSelected((Boolean) settings.get(KEY_DO_MEDIAN_FILTERING));
 		jTextFieldThreshold.setText("" + settings.get(KEY_THRESHOLD));
 		jCheckSubPixel.setSelected((Boolean) settings.get(KEY_DO_SUBPIXEL_LOCALIZATION));
+		tileSize = (Integer) settings.get(KEY_TILE_SIZE); // not editable here, but kept
 	}
 
 
@@ -9,6 +9,7 @@
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
@@ -41,6 +42,10 @@ public class WizardController implements ActionListener {
 	 * user has pressed the log button. 
 	 */
 	private boolean displayingLog = false;
+	/**
+	 * Is true while a file is being loaded. The load button then cancels the loading.
+	 */
+	private volatile boolean loading = false;
 	/** 
 	 * Used to store the ID of the previous descriptor before the user pressed the log button.
 	 */
@@ -202,13 +207,32 @@ public void run() {
 			actionFlag = false;
 			wizard.jButtonNext.setText("Resume");
 			wizard.disableButtonsAndStoreState();
+			// While loading, the load button cancels the loading
+			loading = true;
+			wizard.jButtonLoad.setText("Cancel");
+			wizard.setLoadButtonEnabled(true);
 
 			new Thread("TrackMate moving to load state thread.") {
 				public void run() {
-					load();
+					try {
+						load();
+					} finally {
+						loading = false;
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								wizard.jButtonLoad.setText("Load");
+								wizard.jButtonLoad.setEnabled(false);
+							}
+						});
+					}
 				};
 			}.start();
 
+		} else if (event == wizard.LOAD_BUTTON_PRESSED && loading) {
+
+			LoadDescriptor loadDescriptor = (LoadDescriptor) wizard.getPanelDescriptorFor(LoadDescriptor.DESCRIPTOR);
+			loadDescriptor.cancel();
+
 		} else if (event == wizard.SAVE_BUTTON_PRESSED && actionFlag) {
 
 			actionFlag = false;
@@ -44,7 +44,7 @@ public static File askForFile(File file, Frame parent, Logger logger) {
 			FilenameFilter filter = new FilenameFilter() {
 				@Override
 				public boolean accept(File dir, String name) {
-					return name.endsWith(".xml");
+					return name.endsWith(".xml") || name.endsWith(TmBinaryWriter.FILE_EXTENSION);
 				}
 			};
 			dialog.setFilenameFilter(filter);
@@ -54,13 +54,13 @@ public boolean accept(File dir, String name) {
 				logger.log("Save data aborted.\n");
 				return null;
 			}
-			if (!selectedFile.endsWith(".xml"))
+			if (!selectedFile.endsWith(".xml") && !selectedFile.endsWith(TmBinaryWriter.FILE_EXTENSION))
 				selectedFile += ".xml";
 			file = new File(dialog.getDirectory(), selectedFile);
 		} else {
 			JFileChooser fileChooser = new JFileChooser(file.getParent());
 			fileChooser.setSelectedFile(file);
-			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML files", "xml");
+			FileNameExtensionFilter filter = new FileNameExtensionFilter("XML and TrackMate binary files", "xml", TmBinaryWriter.FILE_EXTENSION.substring(1));
 			fileChooser.setFileFilter(filter);
 
 			int returnVal = fileChooser.showSaveDialog(parent);
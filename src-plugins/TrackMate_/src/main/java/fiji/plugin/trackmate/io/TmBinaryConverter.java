@@ -0,0 +1,72 @@
+package fiji.plugin.trackmate.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.TrackMate_;
+
+/**
+ * Static utilities to convert TrackMate files between the XML format and the
+ * binary format. The whole session is loaded in a new {@link TrackMate_} plugin,
+ * then written in the other format.
+ */
+public class TmBinaryConverter {
+
+	private TmBinaryConverter() {}
+
+	/**
+	 * Convert the given TrackMate XML file to a binary file.
+	 * @return true if the conversion was successful. Errors are reported to the logger.
+	 */
+	public static boolean xmlToBinary(final File xmlFile, final File binaryFile, final Logger logger) {
+		final TrackMate_ plugin = new TrackMate_();
+		plugin.initModules();
+		final TmXmlStreamReader reader = new TmXmlStreamReader(xmlFile, plugin);
+		reader.setProgressLogger(logger);
+		if (!reader.checkInput() || !reader.process()) {
+			logger.error("Could not read "+xmlFile+":\n"+reader.getErrorMessage());
+			return false;
+		}
+
+		final TmBinaryWriter writer = new TmBinaryWriter(plugin, reader.getLogText());
+		if (!writer.checkInput() || !writer.process()) {
+			logger.error("Could not prepare "+binaryFile+":\n"+writer.getErrorMessage());
+			return false;
+		}
+		try {
+			writer.writeToFile(binaryFile);
+		} catch (IOException e) {
+			logger.error("Could not write "+binaryFile+":\n"+e.getMessage()+'\n');
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Convert the given TrackMate binary file to a XML file.
+	 * @return true if the conversion was successful. Errors are reported to the logger.
+	 */
+	public static boolean binaryToXml(final File binaryFile, final File xmlFile, final Logger logger) {
+		final TrackMate_ plugin = new TrackMate_();
+		plugin.initModules();
+		final TmBinaryReader reader = new TmBinaryReader(binaryFile, plugin);
+		if (!reader.checkInput() || !reader.process()) {
+			logger.error("Could not read "+binaryFile+":\n"+reader.getErrorMessage());
+			return false;
+		}
+
+		final TmXmlWriter writer = new TmXmlWriter(plugin, reader.getLogText());
+		if (!writer.checkInput() || !writer.process()) {
+			logger.error("Could not prepare "+xmlFile+":\n"+writer.getErrorMessage());
+			return false;
+		}
+		try {
+			writer.writeToFile(xmlFile);
+		} catch (IOException e) {
+			logger.error("Could not write "+xmlFile+":\n"+e.getMessage()+'\n');
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,52 @@
+package fiji.plugin.trackmate.io;
+
+/**
+ * Contains the constants of the TrackMate binary file format, written by the
+ * {@link TmBinaryWriter} and read by the {@link TmBinaryReader}.
+ * <p>
+ * All numbers are little-endian. The file is made of:
+ * <ol>
+ * 	<li> the {@link #MAGIC} bytes, the {@link #FORMAT_VERSION} as an int, then
+ * the length of the header as an int, and the header itself: a TrackMate XML
+ * document holding the log, settings and filters, but no spots nor tracks;
+ * 	<li> the number of frames as an int, followed for each frame by the frame
+ * number as an int and the spot table of this frame;
+ * 	<li> the edge table;
+ * 	<li> the track table.
+ * </ol>
+ * All tables have the same layout, every part of it starting on a multiple of
+ * {@value #ALIGNMENT} bytes, so that columns can be mapped directly:
+ * <ol>
+ * 	<li> the number of rows, of int columns and of double columns, as ints;
+ * 	<li> the names of the int columns, then of the double columns, each as an int
+ * length followed by the UTF-8 bytes;
+ * 	<li> the int columns, one after the other;
+ * 	<li> one flag byte per row, set to 1 if the row is in the filtered selection;
+ * 	<li> <code>nRows+1</code> int offsets in the name blob, followed by the UTF-8 name
+ * blob itself (row names are empty for edges);
+ * 	<li> the double columns, one after the other. Missing values are stored as
+ * the NaN whose raw bits are {@link #MISSING_BITS}.
+ * </ol>
+ */
+class TmBinaryKeys {
+
+	/** The first bytes of a TrackMate binary file. */
+	public static final byte[] MAGIC = new byte[] { 'T', 'M', 'B', 'I', 'N', 'A', 'R', 'Y' };
+	public static final int FORMAT_VERSION = 1;
+	public static final int ALIGNMENT = 8;
+	/** The raw bits of the NaN that marks a missing value in a double column. */
+	public static final long MISSING_BITS = 0x7ff80000deadbeefL;
+
+	/*
+	 * SPOT TABLES
+	 */
+
+	public static final String SPOT_ID_COLUMN 			= "ID";
+
+	/*
+	 * EDGE TABLE
+	 */
+
+	public static final String EDGE_TRACK_ID_COLUMN 	= "TRACK_ID";
+
+}
@@ -0,0 +1,650 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryKeys.ALIGNMENT;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TRACK_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.FORMAT_VERSION;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MISSING_BITS;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ID_COLUMN;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * Reads a TrackMate session from the binary format described in {@link TmBinaryKeys}.
+ * <p>
+ * Only the header and the layout of the tables are read at construction. The
+ * columns are mapped from the file with {@link FileChannel#map(MapMode, long, long)}
+ * when they are needed, either by {@link #process()}, which loads the whole session
+ * in the plugin as the {@link TmXmlReader} does, or through the getters of this
+ * class, which give access to single columns without loading anything else.
+ * <p>
+ * Spots are stored frame by frame. {@link #readSpots(int)} creates the spots of a
+ * single frame, and {@link #process()} loads the frames one after the other, so
+ * that only the columns of one frame are read at a time.
+ */
+public class TmBinaryReader extends TmXmlReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The frame numbers, in file order. */
+	private int[] spotFrames;
+	/** The spot table of each frame, in the same order. */
+	private Table[] spotTables;
+	private int nSpots;
+	private Table edgeTable;
+	private Table trackTable;
+	/** The filtered spots, built along with the cache by {@link #readAllSpots()}. */
+	private SpotCollection filteredSpots;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Initialize this reader to read the binary file given in argument.
+	 * @see TmXmlReader#TmXmlReader(File, TrackMate_)
+	 */
+	public TmBinaryReader(File file, TrackMate_ plugin) {
+		super(file, plugin);
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * @return true if the given file starts with the magic bytes of the TrackMate
+	 * binary format.
+	 */
+	public static boolean isBinaryFile(final File file) {
+		final byte[] bytes = new byte[MAGIC.length];
+		try {
+			final FileInputStream is = new FileInputStream(file);
+			try {
+				int n = 0;
+				while (n < bytes.length) {
+					final int read = is.read(bytes, n, bytes.length - n);
+					if (read < 0) {
+						return false;
+					}
+					n += read;
+				}
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		return Arrays.equals(bytes, MAGIC);
+	}
+
+	/**
+	 * @return true if the given value, read from a double column of this file,
+	 * marks a missing value.
+	 */
+	public static boolean isMissing(final double value) {
+		return Double.doubleToRawLongBits(value) == MISSING_BITS;
+	}
+
+	/** @return the number of spots in all frames. */
+	public int getNSpots() {
+		return nSpots;
+	}
+
+	/** @return the frames that have a spot table in this file, in file order. */
+	public int[] getFrames() {
+		return spotFrames.clone();
+	}
+
+	/** @return the number of spots in the given frame, 0 if the frame is not in the file. */
+	public int getNSpots(final int frame) {
+		final Table table = getSpotTable(frame);
+		return null == table ? 0 : table.nRows;
+	}
+
+	/** @return the spot features stored in this file, for at least one frame. */
+	public List<String> getSpotFeatures() {
+		final Set<String> features = new LinkedHashSet<String>();
+		for (final Table table : spotTables) {
+			features.addAll(table.doubleColumnNames);
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(features));
+	}
+
+	/**
+	 * @return the values of the given spot feature for the spots of the given
+	 * frame, in file order, or <code>null</code> if this feature or this frame is
+	 * not in the file. Missing values can be detected with {@link #isMissing(double)}.
+	 */
+	public DoubleBuffer getSpotFeature(final int frame, final String feature) throws IOException {
+		final Table table = getSpotTable(frame);
+		return null == table ? null : table.mapDoubleColumn(feature);
+	}
+
+	/**
+	 * @return the IDs of the spots of the given frame, in file order, or
+	 * <code>null</code> if this frame is not in the file.
+	 */
+	public IntBuffer getSpotIDs(final int frame) throws IOException {
+		final Table table = getSpotTable(frame);
+		return null == table ? null : table.mapIntColumn(SPOT_ID_COLUMN);
+	}
+
+	/**
+	 * Create the spots of a single frame, without reading the other frames. The
+	 * spots are new instances at each call: they are not the ones loaded in the
+	 * plugin by {@link #process()}.
+	 * @return the spots of the given frame, in file order, or <code>null</code> if
+	 * this frame is not in the file.
+	 */
+	public List<Spot> readSpots(final int frame) throws IOException {
+		final Table table = getSpotTable(frame);
+		if (null == table) {
+			return null;
+		}
+		final List<Spot> spots = new ArrayList<Spot>(table.nRows);
+		readSpots(table, spots, null);
+		return spots;
+	}
+
+	public int getNEdges() {
+		return edgeTable.nRows;
+	}
+
+	/** @return the edge features stored in this file. */
+	public List<String> getEdgeFeatures() {
+		return Collections.unmodifiableList(edgeTable.doubleColumnNames);
+	}
+
+	/**
+	 * @return the values of the given edge feature, for all edges, in file order, or
+	 * <code>null</code> if this feature is not in the file.
+	 */
+	public DoubleBuffer getEdgeFeature(final String feature) throws IOException {
+		return edgeTable.mapDoubleColumn(feature);
+	}
+
+	public int getNTracks() {
+		return trackTable.nRows;
+	}
+
+	/** @return the track features stored in this file. */
+	public List<String> getTrackFeatures() {
+		return Collections.unmodifiableList(trackTable.doubleColumnNames);
+	}
+
+	/**
+	 * @return the values of the given track feature, for all tracks, in file order, or
+	 * <code>null</code> if this feature is not in the file.
+	 */
+	public DoubleBuffer getTrackFeature(final String feature) throws IOException {
+		return trackTable.mapDoubleColumn(feature);
+	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Read the XML header and the layout of the tables.
+	 */
+	@Override
+	protected void parse() {
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				final FileChannel channel = raf.getChannel();
+
+				final ByteBuffer magic = read(channel, 0, MAGIC.length);
+				final byte[] bytes = new byte[MAGIC.length];
+				magic.get(bytes);
+				if (!Arrays.equals(bytes, MAGIC)) {
+					logger.error("Problem parsing "+file.getName()+", it is not a TrackMate binary file.\n");
+					return;
+				}
+				long position = MAGIC.length;
+				final int version = read(channel, position, 4).getInt();
+				position += 4;
+				if (version > FORMAT_VERSION) {
+					logger.error("Cannot read "+file.getName()+", it was written with a newer binary format version: "+version+".\n");
+					return;
+				}
+
+				// XML header
+				final int headerLength = read(channel, position, 4).getInt();
+				position += 4;
+				checkRange(channel, position, headerLength);
+				final ByteBuffer header = read(channel, position, headerLength);
+				final byte[] xml = new byte[headerLength];
+				header.get(xml);
+				position = align(position + headerLength);
+				document = new SAXBuilder().build(new ByteArrayInputStream(xml));
+				root = document.getRootElement();
+
+				// Tables layout
+				final int nFrames = read(channel, position, 4).getInt();
+				position = align(position + 4);
+				// Each frame takes at least 8 bytes for its number
+				if (nFrames < 0) {
+					throw new StreamCorruptedException("Corrupted number of frames: "+nFrames+".");
+				}
+				checkRange(channel, position, 8L * nFrames);
+				spotFrames = new int[nFrames];
+				spotTables = new Table[nFrames];
+				nSpots = 0;
+				for (int f = 0; f < nFrames; f++) {
+					spotFrames[f] = read(channel, position, 4).getInt();
+					spotTables[f] = new Table(channel, align(position + 4));
+					position = spotTables[f].end;
+					nSpots += spotTables[f].nRows;
+				}
+				edgeTable = new Table(channel, position);
+				trackTable = new Table(channel, edgeTable.end);
+				checkRange(channel, 0, trackTable.end);
+
+			} finally {
+				raf.close();
+			}
+		} catch (JDOMException e) {
+			document = null;
+			logger.error("Problem parsing the header of "+file.getName()+", it is not a valid TrackMate file.\nError message is:\n"
+					+e.getLocalizedMessage()+'\n');
+		} catch (IOException e) {
+			document = null;
+			logger.error("Problem reading "+file.getName()
+					+".\nError message is:\n"+e.getLocalizedMessage()+'\n');
+		}
+	}
+
+	/**
+	 * Load the spots frame by frame, building the filtered spots at the same time.
+	 */
+	@Override
+	protected SpotCollection readAllSpots() {
+		cache = new ConcurrentHashMap<Integer, Spot>(Math.max(16, nSpots));
+		filteredSpots = null;
+		if (nSpots == 0) {
+			return null;
+		}
+		try {
+			final SpotCollection allSpots = new SpotCollection();
+			final SpotCollection filtered = new SpotCollection();
+			for (int f = 0; f < spotTables.length; f++) {
+				final List<Spot> spots = new ArrayList<Spot>(spotTables[f].nRows);
+				final List<Spot> kept = new ArrayList<Spot>();
+				readSpots(spotTables[f], spots, kept);
+				for (final Spot spot : spots) {
+					cache.put(spot.ID(), spot);
+				}
+				allSpots.put(spotFrames[f], spots);
+				filtered.put(spotFrames[f], kept);
+			}
+			filteredSpots = filtered;
+			return allSpots;
+
+		} catch (IOException e) {
+			logger.error("Problem reading the spots of "+file.getName()+".\nError message is:\n"+e.getLocalizedMessage()+'\n');
+			return null;
+		}
+	}
+
+	@Override
+	protected SpotCollection readFilteredSpots() {
+		if (nSpots == 0) {
+			return null;
+		}
+		if (null == cache) {
+			readAllSpots();
+		}
+		return filteredSpots;
+	}
+
+	@Override
+	protected boolean loadTracks() {
+		if (trackTable.nRows == 0) {
+			return true;
+		}
+		if (null == cache) {
+			readAllSpots();
+		}
+
+		try {
+			final FeatureModel fm = plugin.getModel().getFeatureModel();
+			final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+			final HashMap<Integer, Spot> savedTrackMap = new HashMap<Integer, Spot>(trackTable.nRows);
+
+			// Edges
+			final IntBuffer edgeTrackIDs = edgeTable.mapIntColumn(EDGE_TRACK_ID_COLUMN);
+			final IntBuffer sources = edgeTable.mapIntColumn(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+			final IntBuffer targets = edgeTable.mapIntColumn(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+			final List<String> edgeFeatures = edgeTable.doubleColumnNames;
+			final DoubleBuffer[] edgeValues = new DoubleBuffer[edgeFeatures.size()];
+			for (int c = 0; c < edgeValues.length; c++) {
+				edgeValues[c] = getEdgeFeature(edgeFeatures.get(c));
+			}
+			final DoubleBuffer costs = getEdgeFeature(EdgeTargetAnalyzer.EDGE_COST);
+
+			for (int i = 0; i < edgeTable.nRows; i++) {
+				final int trackID = edgeTrackIDs.get(i);
+				final int sourceID = sources.get(i);
+				final int targetID = targets.get(i);
+				final Spot sourceSpot = cache.get(sourceID);
+				final Spot targetSpot = cache.get(targetID);
+
+				// Error check
+				if (null == sourceSpot) {
+					logger.error("Unknown spot ID: "+sourceID + "\n");
+					return false;
+				}
+				if (null == targetSpot) {
+					logger.error("Unknown spot ID: "+targetID + "\n");
+					return false;
+				}
+				if (sourceSpot.equals(targetSpot)) {
+					logger.error("Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n");
+					return false;
+				}
+
+				graph.addVertex(sourceSpot);
+				graph.addVertex(targetSpot);
+				final DefaultWeightedEdge edge = graph.addEdge(sourceSpot, targetSpot);
+				if (edge == null) {
+					logger.error("Bad edge found for track " + trackID + "\n");
+					return false;
+				}
+				double weight = null == costs ? 0 : costs.get(i);
+				graph.setEdgeWeight(edge, isMissing(weight) ? 0 : weight);
+
+				// Edge features
+				for (int c = 0; c < edgeValues.length; c++) {
+					final double val = edgeValues[c].get(i);
+					if (!isMissing(val)) {
+						fm.putEdgeFeature(edge, edgeFeatures.get(c), val);
+					}
+				}
+				fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, (double) sourceID);
+				fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, (double) targetID);
+
+				// Store one of the spot in the saved trackID key map
+				savedTrackMap.put(trackID, sourceSpot);
+			}
+
+			// Tracks
+			final IntBuffer trackIDs = trackTable.mapIntColumn(TrackIndexAnalyzer.TRACK_ID);
+			final ByteBuffer flags = trackTable.mapFlags();
+			final String[] names = trackTable.readNames();
+			final List<String> trackFeatures = trackTable.doubleColumnNames;
+			final DoubleBuffer[] trackValues = new DoubleBuffer[trackFeatures.size()];
+			for (int c = 0; c < trackValues.length; c++) {
+				trackValues[c] = getTrackFeature(trackFeatures.get(c));
+			}
+
+			final Map<Integer, String> savedTrackNames = new HashMap<Integer, String>(trackTable.nRows);
+			final Set<Integer> savedFilteredTrackIDs = new HashSet<Integer>();
+			final Map<Integer, Map<String, Double>> savedFeatureMap = new HashMap<Integer, Map<String,Double>>(trackTable.nRows);
+			for (int i = 0; i < trackTable.nRows; i++) {
+				final int trackID = trackIDs.get(i);
+				if (!savedTrackMap.containsKey(trackID)) {
+					savedTrackMap.put(trackID, null);
+				}
+				savedTrackNames.put(trackID, names[i].isEmpty() ? "Unnamed" : names[i]);
+				if (flags.get(i) != 0) {
+					savedFilteredTrackIDs.add(trackID);
+				}
+				final Map<String, Double> features = new HashMap<String, Double>(trackValues.length);
+				for (int c = 0; c < trackValues.length; c++) {
+					final double val = trackValues[c].get(i);
+					if (!isMissing(val)) {
+						features.put(trackFeatures.get(c), val);
+					}
+				}
+				savedFeatureMap.put(trackID, features);
+			}
+
+			return applyTracks(graph, savedTrackMap, savedTrackNames, savedFilteredTrackIDs, savedFeatureMap);
+
+		} catch (IOException e) {
+			logger.error("Problem reading the tracks of "+file.getName()+".\nError message is:\n"+e.getLocalizedMessage()+'\n');
+			return false;
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * @return the spot table of the given frame, or <code>null</code> if the frame
+	 * is not in the file.
+	 */
+	private Table getSpotTable(final int frame) {
+		for (int f = 0; f < spotFrames.length; f++) {
+			if (spotFrames[f] == frame) {
+				return spotTables[f];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Create the spots of one spot table, and add them to the given list.
+	 * @param filtered  if not <code>null</code>, the spots flagged as filtered are
+	 * also added to this list.
+	 */
+	private void readSpots(final Table table, final List<Spot> spots, final List<Spot> filtered) throws IOException {
+		final IntBuffer IDs = table.mapIntColumn(SPOT_ID_COLUMN);
+		if (null == IDs) {
+			throw new StreamCorruptedException("Spot table without an "+SPOT_ID_COLUMN+" column.");
+		}
+		final ByteBuffer flags = table.mapFlags();
+		final String[] names = table.readNames();
+		final List<String> features = table.doubleColumnNames;
+		final double[][] values = table.readDoubleColumns();
+		for (int i = 0; i < table.nRows; i++) {
+			final int ID = IDs.get(i);
+			final Spot spot = new Spot(ID);
+			spot.setName(names[i].isEmpty() ? "ID"+ID : names[i]);
+			for (int c = 0; c < values.length; c++) {
+				final double val = values[c][i];
+				if (!isMissing(val)) {
+					spot.putFeature(features.get(c), val);
+				}
+			}
+			spots.add(spot);
+			if (null != filtered && flags.get(i) != 0) {
+				filtered.add(spot);
+			}
+		}
+	}
+
+	private static long align(final long position) {
+		return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 * Read the given number of bytes at the given position of the channel, in a
+	 * little-endian buffer ready to be read.
+	 */
+	private static ByteBuffer read(final FileChannel channel, final long position, final int nBytes) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(nBytes).order(ByteOrder.LITTLE_ENDIAN);
+		long pos = position;
+		while (buffer.hasRemaining()) {
+			final int n = channel.read(buffer, pos);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of file at position "+pos+".");
+			}
+			pos += n;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Throw a {@link StreamCorruptedException} if the given region does not lie
+	 * within the file, which happens with truncated or corrupted files.
+	 */
+	private static void checkRange(final FileChannel channel, final long position, final long nBytes) throws IOException {
+		if (position < 0 || nBytes < 0 || position + nBytes > channel.size()) {
+			throw new StreamCorruptedException("Corrupted or truncated file: "+nBytes+" bytes expected at position "+position
+					+", but the file is "+channel.size()+" bytes long.");
+		}
+	}
+
+	private static String readString(final FileChannel channel, final long position) throws IOException {
+		final int length = read(channel, position, 4).getInt();
+		checkRange(channel, position + 4, length);
+		final ByteBuffer buffer = read(channel, position + 4, length);
+		return UTF8.decode(buffer).toString();
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * The layout of one table of the file: where each of its parts starts.
+	 */
+	private final class Table {
+
+		private final int nRows;
+		private final List<String> intColumnNames;
+		private final List<String> doubleColumnNames;
+		private final long intColumnsStart;
+		private final long flagsStart;
+		private final long namesStart;
+		private final long doubleColumnsStart;
+		private final long end;
+
+		private Table(final FileChannel channel, final long start) throws IOException {
+			final ByteBuffer counts = read(channel, start, 12);
+			nRows = counts.getInt();
+			final int nIntColumns = counts.getInt();
+			final int nDoubleColumns = counts.getInt();
+			if (nRows < 0 || nIntColumns < 0 || nDoubleColumns < 0) {
+				throw new StreamCorruptedException("Corrupted table at position "+start+".");
+			}
+
+			long position = start + 12;
+			intColumnNames = new ArrayList<String>(nIntColumns);
+			for (int i = 0; i < nIntColumns; i++) {
+				final String name = readString(channel, position);
+				intColumnNames.add(name);
+				position += 4 + name.getBytes(UTF8).length;
+			}
+			doubleColumnNames = new ArrayList<String>(nDoubleColumns);
+			for (int i = 0; i < nDoubleColumns; i++) {
+				final String name = readString(channel, position);
+				doubleColumnNames.add(name);
+				position += 4 + name.getBytes(UTF8).length;
+			}
+
+			intColumnsStart = align(position);
+			final long intColumnSize = align(4L * nRows);
+			flagsStart = intColumnsStart + nIntColumns * intColumnSize;
+			namesStart = flagsStart + align(nRows);
+			checkRange(channel, namesStart, 4L * (nRows + 1));
+			final int blobLength = read(channel, namesStart + 4L * nRows, 4).getInt();
+			checkRange(channel, namesStart + 4L * (nRows + 1), blobLength);
+			doubleColumnsStart = namesStart + align(4L * (nRows + 1) + blobLength);
+			end = doubleColumnsStart + nDoubleColumns * 8L * nRows;
+		}
+
+		private IntBuffer mapIntColumn(final String name) throws IOException {
+			final int index = intColumnNames.indexOf(name);
+			if (index < 0) {
+				return null;
+			}
+			return map(intColumnsStart + index * align(4L * nRows), 4L * nRows).asIntBuffer();
+		}
+
+		private DoubleBuffer mapDoubleColumn(final String name) throws IOException {
+			final int index = doubleColumnNames.indexOf(name);
+			if (index < 0) {
+				return null;
+			}
+			return map(doubleColumnsStart + index * 8L * nRows, 8L * nRows).asDoubleBuffer();
+		}
+
+		/**
+		 * @return all the double columns of this table, copied in primitive arrays.
+		 */
+		private double[][] readDoubleColumns() throws IOException {
+			final double[][] columns = new double[doubleColumnNames.size()][nRows];
+			if (columns.length == 0 || nRows == 0) {
+				return columns;
+			}
+			final DoubleBuffer buffer = map(doubleColumnsStart, columns.length * 8L * nRows).asDoubleBuffer();
+			for (final double[] column : columns) {
+				buffer.get(column);
+			}
+			return columns;
+		}
+
+		private ByteBuffer mapFlags() throws IOException {
+			return map(flagsStart, nRows);
+		}
+
+		private String[] readNames() throws IOException {
+			final IntBuffer offsets = map(namesStart, 4L * (nRows + 1)).asIntBuffer();
+			final ByteBuffer blob = map(namesStart + 4L * (nRows + 1), offsets.get(nRows));
+			final String[] names = new String[nRows];
+			final byte[] bytes = new byte[256];
+			for (int i = 0; i < nRows; i++) {
+				final int from = offsets.get(i);
+				final int length = offsets.get(i + 1) - from;
+				if (from < 0 || length < 0 || from + length > blob.limit()) {
+					throw new StreamCorruptedException("Corrupted row names at position "+namesStart+".");
+				}
+				final byte[] target = length <= bytes.length ? bytes : new byte[length];
+				blob.position(from);
+				blob.get(target, 0, length);
+				names[i] = new String(target, 0, length, UTF8);
+			}
+			return names;
+		}
+
+		private ByteBuffer map(final long position, final long size) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				return raf.getChannel().map(MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmBinaryKeys.ALIGNMENT;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.EDGE_TRACK_ID_COLUMN;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.FORMAT_VERSION;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MAGIC;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.MISSING_BITS;
+import static fiji.plugin.trackmate.io.TmBinaryKeys.SPOT_ID_COLUMN;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.Benchmark;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotFeatureStore;
+import fiji.plugin.trackmate.TrackGraphModel;
+import fiji.plugin.trackmate.TrackMateModel;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * Writes a TrackMate session to the binary format described in {@link TmBinaryKeys}.
+ * <p>
+ * Settings, filters and log are written as a small TrackMate XML header, by a
+ * {@link TmXmlWriter}. Spot, edge and track features are written as columns of
+ * primitive doubles, which makes the file much smaller than its XML counterpart,
+ * and allows the {@link TmBinaryReader} to map them directly, without parsing.
+ * Spots are written one frame at a time, straight from the feature columns of
+ * the model.
+ * <p>
+ * Usage is the same as for the {@link TmXmlWriter}: call {@link #process()},
+ * then {@link #writeToFile(File)}.
+ */
+public class TmBinaryWriter implements Algorithm, Benchmark {
+
+	/** The extension of TrackMate binary files. */
+	public static final String FILE_EXTENSION = ".tmb";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final double MISSING = Double.longBitsToDouble(MISSING_BITS);
+
+	/*
+	 * FIELDS
+	 */
+
+	private final TrackMateModel model;
+	private final TmXmlWriter settingsWriter;
+	private final Logger logger = new Logger.StringBuilderLogger();
+	private long processingTime;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Create a new binary file writer for the specified TrackMate plugin.
+	 * No log is added to the file.
+	 */
+	public TmBinaryWriter(final TrackMate_ plugin) {
+		this(plugin, null);
+	}
+
+	/**
+	 * Create a new binary file writer for the specified TrackMate plugin,
+	 * that will append the specified log string to the file.
+	 */
+	public TmBinaryWriter(final TrackMate_ plugin, final String log) {
+		this.model = plugin.getModel();
+		this.settingsWriter = new TmXmlWriter(plugin, log);
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	@Override
+	public boolean checkInput() {
+		return settingsWriter.checkInput();
+	}
+
+	/**
+	 * Prepare the settings header. Feature columns are streamed from the model
+	 * when writing the file.
+	 */
+	@Override
+	public boolean process() {
+		long start = System.currentTimeMillis();
+		boolean ok = settingsWriter.process();
+		long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return ok;
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return settingsWriter.getErrorMessage() + logger.toString();
+	}
+
+	@Override
+	public long getProcessingTime() {
+		return processingTime;
+	}
+
+	/**
+	 * Write the binary file. The {@link #process()} method must have been
+	 * called before.
+	 */
+	public void writeToFile(final File file) throws IOException {
+		logger.log("  Writing to file.\n");
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			final BlockWriter out = new BlockWriter(fos.getChannel());
+
+			// Header
+			final ByteArrayOutputStream header = new ByteArrayOutputStream();
+			settingsWriter.writeSettings(header);
+			out.putBytes(MAGIC);
+			out.putInt(FORMAT_VERSION);
+			out.putInt(header.size());
+			out.putBytes(header.toByteArray());
+			out.align();
+
+			writeSpots(out);
+			writeEdgesAndTracks(out);
+			out.flush();
+		} finally {
+			fos.close();
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Write the spots frame by frame, each frame as a table of its own, so that
+	 * only the arrays of one frame are held at a time.
+	 */
+	private void writeSpots(final BlockWriter out) throws IOException {
+		final SpotCollection allSpots = model.getSpots();
+		final SpotCollection filteredSpots = model.getFilteredSpots();
+		if (null == allSpots) {
+			out.putInt(0);
+			out.align();
+			logger.log("  Added 0 spots.\n");
+			return;
+		}
+		final Set<Integer> frames = allSpots.keySet();
+		out.putInt(frames.size());
+		out.align();
+
+		final Collection<SpotFeatureStore.Column> allColumns = allSpots.getFeatureColumns();
+		final List<SpotFeatureStore.Column> columns = new ArrayList<SpotFeatureStore.Column>(allColumns.size());
+		double[] values = new double[0];
+		int nSpots = 0;
+		for (final int frame : frames) {
+			final List<Spot> spots = allSpots.get(frame);
+			final int n = spots.size();
+
+			final int[] IDs = new int[n];
+			final String[] names = new String[n];
+			final byte[] flags = new byte[n];
+			final List<Spot> filteredList = null == filteredSpots ? null : filteredSpots.get(frame);
+			final Set<Spot> filtered = null == filteredList ? Collections.<Spot>emptySet() : new HashSet<Spot>(filteredList);
+			for (int i = 0; i < n; i++) {
+				final Spot spot = spots.get(i);
+				IDs[i] = spot.ID();
+				names[i] = spot.getName();
+				flags[i] = (byte) (filtered.contains(spot) ? 1 : 0);
+			}
+
+			// Only keep the feature columns that have a value for one of the spots of this frame
+			columns.clear();
+			for (final SpotFeatureStore.Column column : allColumns) {
+				for (final Spot spot : spots) {
+					if (column.isSet(spot)) {
+						columns.add(column);
+						break;
+					}
+				}
+			}
+			final String[] featureNames = new String[columns.size()];
+			for (int c = 0; c < featureNames.length; c++) {
+				featureNames[c] = columns.get(c).getFeature();
+			}
+
+			out.putInt(frame);
+			out.align();
+			writeTableStart(out, n, new String[] { SPOT_ID_COLUMN }, new int[][] { IDs }, flags, names, featureNames);
+			if (values.length < n) {
+				values = new double[Math.max(n, 2 * values.length)];
+			}
+			for (final SpotFeatureStore.Column column : columns) {
+				for (int i = 0; i < n; i++) {
+					final Spot spot = spots.get(i);
+					values[i] = column.isSet(spot) ? column.get(spot) : MISSING;
+				}
+				out.putDoubles(values, n);
+				out.align();
+			}
+			nSpots += n;
+		}
+		logger.log("  Added "+nSpots+" spots.\n");
+	}
+
+	private void writeEdgesAndTracks(final BlockWriter out) throws IOException {
+		final TrackGraphModel trackModel = model.getTrackModel();
+		final FeatureModel fm = model.getFeatureModel();
+		final Map<Integer, Set<DefaultWeightedEdge>> trackEdges = trackModel.getTrackEdges();
+
+		// Tracks without edges are not saved, as in the XML format
+		int nTracks = 0;
+		int nEdges = 0;
+		for (final Set<DefaultWeightedEdge> track : trackEdges.values()) {
+			if (!track.isEmpty()) {
+				nTracks++;
+				nEdges += track.size();
+			}
+		}
+		final int[] trackIDs = new int[nTracks];
+		final DefaultWeightedEdge[] edges = new DefaultWeightedEdge[nEdges];
+		final int[] edgeTrackIDs = new int[nEdges];
+		int t = 0;
+		int e = 0;
+		for (final Integer trackID : trackEdges.keySet()) {
+			final Set<DefaultWeightedEdge> track = trackEdges.get(trackID);
+			if (track.isEmpty()) {
+				continue;
+			}
+			trackIDs[t++] = trackID;
+			for (final DefaultWeightedEdge edge : track) {
+				edges[e] = edge;
+				edgeTrackIDs[e] = trackID;
+				e++;
+			}
+		}
+
+		// Edges
+		final int[] sources = new int[nEdges];
+		final int[] targets = new int[nEdges];
+		for (int i = 0; i < nEdges; i++) {
+			sources[i] = trackModel.getEdgeSource(edges[i]).ID();
+			targets[i] = trackModel.getEdgeTarget(edges[i]).ID();
+		}
+		final List<String> edgeFeatures = new ArrayList<String>(fm.getEdgeFeatures());
+		edgeFeatures.remove(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeFeatures.remove(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+
+		writeTableStart(out, nEdges,
+				new String[] { EDGE_TRACK_ID_COLUMN, EdgeTargetAnalyzer.SPOT_SOURCE_ID, EdgeTargetAnalyzer.SPOT_TARGET_ID },
+				new int[][] { edgeTrackIDs, sources, targets },
+				new byte[nEdges], null, edgeFeatures.toArray(new String[edgeFeatures.size()]));
+		final double[] edgeValues = new double[nEdges];
+		for (final String feature : edgeFeatures) {
+			for (int i = 0; i < nEdges; i++) {
+				edgeValues[i] = toStored(fm.getEdgeFeature(edges[i], feature));
+			}
+			out.putDoubles(edgeValues, nEdges);
+			out.align();
+		}
+		logger.log("  Added "+nEdges+" edges.\n");
+
+		// Tracks
+		final String[] trackNames = new String[nTracks];
+		final byte[] trackFlags = new byte[nTracks];
+		final Set<Integer> filteredTrackIDs = trackModel.getFilteredTrackIDs();
+		for (int i = 0; i < nTracks; i++) {
+			trackNames[i] = trackModel.getTrackName(trackIDs[i]);
+			trackFlags[i] = (byte) (null != filteredTrackIDs && filteredTrackIDs.contains(trackIDs[i]) ? 1 : 0);
+		}
+		final List<String> trackFeatures = fm.getTrackFeatures();
+
+		writeTableStart(out, nTracks, new String[] { TrackIndexAnalyzer.TRACK_ID }, new int[][] { trackIDs },
+				trackFlags, trackNames, trackFeatures.toArray(new String[trackFeatures.size()]));
+		final double[] trackValues = new double[nTracks];
+		for (final String feature : trackFeatures) {
+			for (int i = 0; i < nTracks; i++) {
+				trackValues[i] = toStored(fm.getTrackFeature(trackIDs[i], feature));
+			}
+			out.putDoubles(trackValues, nTracks);
+			out.align();
+		}
+		logger.log("  Added "+nTracks+" tracks.\n");
+	}
+
+	/**
+	 * Write all the parts of a table that come before its double columns.
+	 * @param names  the row names, or <code>null</code> if rows have no name.
+	 */
+	private static void writeTableStart(final BlockWriter out, final int nRows, final String[] intColumnNames, final int[][] intColumns,
+			final byte[] flags, final String[] names, final String[] doubleColumnNames) throws IOException {
+		out.putInt(nRows);
+		out.putInt(intColumnNames.length);
+		out.putInt(doubleColumnNames.length);
+		for (final String name : intColumnNames) {
+			out.putString(name);
+		}
+		for (final String name : doubleColumnNames) {
+			out.putString(name);
+		}
+		out.align();
+
+		for (final int[] column : intColumns) {
+			out.putInts(column, nRows);
+			out.align();
+		}
+
+		out.putBytes(flags);
+		out.align();
+
+		// Row names: offsets then blob
+		final byte[][] encoded = new byte[nRows][];
+		int offset = 0;
+		for (int i = 0; i < nRows; i++) {
+			encoded[i] = (null == names || null == names[i]) ? new byte[0] : names[i].getBytes(UTF8);
+			out.putInt(offset);
+			offset += encoded[i].length;
+		}
+		out.putInt(offset);
+		for (final byte[] bytes : encoded) {
+			out.putBytes(bytes);
+		}
+		out.align();
+	}
+
+	private static double toStored(final Double value) {
+		return null == value ? MISSING : value.doubleValue();
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * Buffers little-endian values and writes them to a channel by blocks.
+	 */
+	private static final class BlockWriter {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private long position = 0;
+
+		private BlockWriter(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void ensure(final int nBytes) throws IOException {
+			if (buffer.remaining() < nBytes) {
+				flush();
+			}
+		}
+
+		private void putInt(final int val) throws IOException {
+			ensure(4);
+			buffer.putInt(val);
+			position += 4;
+		}
+
+		private void putDouble(final double val) throws IOException {
+			ensure(8);
+			buffer.putDouble(val);
+			position += 8;
+		}
+
+		/** Write the first <code>length</code> values of the given array. */
+		private void putInts(final int[] values, final int length) throws IOException {
+			int offset = 0;
+			while (offset < length) {
+				ensure(4);
+				final int n = Math.min(buffer.remaining() / 4, length - offset);
+				buffer.asIntBuffer().put(values, offset, n);
+				buffer.position(buffer.position() + 4 * n);
+				offset += n;
+			}
+			position += 4L * length;
+		}
+
+		/** Write the first <code>length</code> values of the given array. */
+		private void putDoubles(final double[] values, final int length) throws IOException {
+			int offset = 0;
+			while (offset < length) {
+				ensure(8);
+				final int n = Math.min(buffer.remaining() / 8, length - offset);
+				buffer.asDoubleBuffer().put(values, offset, n);
+				buffer.position(buffer.position() + 8 * n);
+				offset += n;
+			}
+			position += 8L * length;
+		}
+
+		private void putBytes(final byte[] bytes) throws IOException {
+			int offset = 0;
+			while (offset < bytes.length) {
+				ensure(1);
+				final int n = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, n);
+				offset += n;
+			}
+			position += bytes.length;
+		}
+
+		private void putString(final String str) throws IOException {
+			final byte[] bytes = str.getBytes(UTF8);
+			putInt(bytes.length);
+			putBytes(bytes);
+		}
+
+		/** Pad with zeros up to the next multiple of {@link TmBinaryKeys#ALIGNMENT}. */
+		private void align() throws IOException {
+			final int padding = (int) ((ALIGNMENT - position % ALIGNMENT) % ALIGNMENT);
+			putBytes(new byte[padding]);
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
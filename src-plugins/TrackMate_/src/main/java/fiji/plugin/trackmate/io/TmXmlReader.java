@@ -181,12 +181,12 @@ public boolean process() {
 		List<FeatureFilter> spotFilters = getSpotFeatureFilters();
 		model.getSettings().setSpotFilters(spotFilters);
 		// Spots
-		SpotCollection allSpots = getAllSpots();
-		SpotCollection filteredSpots = getFilteredSpots();
+		SpotCollection allSpots = readAllSpots();
+		SpotCollection filteredSpots = readFilteredSpots();
 		model.setSpots(allSpots, true);
 		model.setFilteredSpots(filteredSpots, true);
 		// Tracks, filtered tracks and track features all at once
-		if (!readTracks()) {
+		if (!loadTracks()) {
 			return false;
 		}
 
@@ -265,7 +265,7 @@ private ImagePlus getImage()  {
 	/**
 	 * Parse the file to create a JDom {@link Document}. This method is called at construction.
 	 */
-	private void parse() {
+	protected void parse() {
 		SAXBuilder sb = new SAXBuilder();
 		try {
 			document = sb.build(file);
@@ -500,17 +500,15 @@ private void getTrackerSettings(Settings settings) {
 	 * Internally, this methods also builds the cache field, which will be required by the
 	 * following methods:
 	 * <ul>
-	 * 	<li> {@link #getFilteredSpots()}
-	 * 	<li> {@link #readTracks()}
-	 * 	<li> {@link #readTrackEdges(SimpleDirectedWeightedGraph)}
-	 * 	<li> {@link #readTrackSpots(SimpleDirectedWeightedGraph)}
+	 * 	<li> {@link #readFilteredSpots()}
+	 * 	<li> {@link #loadTracks()}
 	 * </ul>
 	 * It is therefore sensible to call this method first, just afther {@link #parse()}ing the file.
 	 * If not called, this method will be called anyway by the other methods to build the cache.
 	 * 
 	 * @return  a {@link SpotCollection}. Return <code>null</code> if the spot section is not present in the file.
 	 */
-	private SpotCollection getAllSpots() {
+	protected SpotCollection readAllSpots() {
 		// Root element for collection
 		Element spotCollection = root.getChild(SPOT_COLLECTION_ELEMENT_KEY);
 		if (null == spotCollection)
@@ -563,13 +561,13 @@ private SpotCollection getAllSpots() {
 	 * @return  a {@link SpotCollection}. Each spot of this collection belongs also to the  given collection.
 	 * Return <code>null</code> if the spot selection section does is not present in the file.
 	 */
-	private SpotCollection getFilteredSpots()  {
+	protected SpotCollection readFilteredSpots()  {
 		Element selectedSpotCollection = root.getChild(FILTERED_SPOT_ELEMENT_KEY);
 		if (null == selectedSpotCollection)
 			return null;
 
 		if (null == cache)
-			getAllSpots(); // build it if it's not here
+			readAllSpots(); // build it if it's not here
 
 		int currentFrame = 0;
 		int ID;
@@ -598,17 +596,16 @@ private SpotCollection getFilteredSpots()  {
 	/**
 	 * Load the tracks, the track features and the ID of the filtered tracks into the model
 	 * modified by this reader. 
-	 * @return 
 	 * @return true if reading tracks was successsful, false otherwise.
 	 */
-	private boolean readTracks() {
+	protected boolean loadTracks() {
 
 		Element allTracksElement = root.getChild(TRACK_COLLECTION_ELEMENT_KEY);
 		if (null == allTracksElement)
 			return true;
 
 		if (null == cache) 
-			getAllSpots(); // build the cache if it's not there
+			readAllSpots(); // build the cache if it's not there
 
 		final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
 
@@ -703,11 +700,30 @@ private boolean readTracks() {
 
 		}
 
+		return applyTracks(graph, savedTrackMap, savedTrackNames, readFilteredTrackIDs(), readTrackFeatures());
+	}
+
+	/**
+	 * Pass the loaded track graph to the model, and restore the filtered track IDs, 
+	 * the track features and the track names, as they were saved, on the tracks
+	 * the model regenerates from the graph. 
+	 * @param graph  the graph of all the tracks.
+	 * @param savedTrackMap  a map of the saved track IDs to one of the spot of the track.
+	 * @param savedTrackNames  a map of the saved track IDs to the track names. 
+	 * @param savedFilteredTrackIDs  the saved IDs of the filtered tracks. 
+	 * @param savedFeatureMap  a map of the saved track IDs to the track features.
+	 * @return true if the saved tracks could be matched to the model tracks, false otherwise.
+	 */
+	protected boolean applyTracks(final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph, 
+			final Map<Integer, Spot> savedTrackMap, final Map<Integer, String> savedTrackNames, 
+			final Set<Integer> savedFilteredTrackIDs, final Map<Integer, Map<String, Double>> savedFeatureMap) {
+
 		/* Pass the loaded graph to the model. The model will in turn regenerate a new 
 		 * map of tracks vs trackID, using the hash as new keys. Because there is a 
 		 * good chance that they saved keys and the new keys differ, we must retrieve
 		 * the mapping between the two using the retrieve spots.	 */
 		final TrackMateModel model = plugin.getModel();
+		final FeatureModel fm = model.getFeatureModel();
 		model.getTrackModel().setGraph(graph);
 
 		// Retrieve the new track map
@@ -746,21 +762,21 @@ private boolean readTracks() {
 		 * Now we know who's who. We can therefore retrieve the saved filtered track index, and 
 		 * match it to the proper new track IDs. 
 		 */
-		Set<Integer> savedFilteredTrackIDs = readFilteredTrackIDs();
-		// Build a new set with the new trackIDs;
-		Set<Integer> newFilteredTrackIDs = new HashSet<Integer>(savedFilteredTrackIDs.size());
-		for (Integer savedKey : savedFilteredTrackIDs) {
-			Integer newKey = newKeyMap.get(savedKey);
-			newFilteredTrackIDs.add(newKey);
+		if (null != savedFilteredTrackIDs) {
+			// Build a new set with the new trackIDs;
+			Set<Integer> newFilteredTrackIDs = new HashSet<Integer>(savedFilteredTrackIDs.size());
+			for (Integer savedKey : savedFilteredTrackIDs) {
+				Integer newKey = newKeyMap.get(savedKey);
+				newFilteredTrackIDs.add(newKey);
+			}
+			model.getTrackModel().setFilteredTrackIDs(newFilteredTrackIDs, false);
 		}
-		model.getTrackModel().setFilteredTrackIDs(newFilteredTrackIDs, false);
 
 
 		/* 
 		 * We do the same thing for the track features.
 		 */
 		try {
-			Map<Integer, Map<String, Double>> savedFeatureMap = readTrackFeatures();
 			for (Integer savedKey : savedFeatureMap.keySet()) {
 
 				Map<String, Double> savedFeatures = savedFeatureMap.get(savedKey);
@@ -0,0 +1,713 @@
+package fiji.plugin.trackmate.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FILTERED_TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.FRAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_FRAME_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_NAME_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_COLLECTION_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+/**
+ * A {@link TmXmlReader} that reads the file in a single streaming pass, using
+ * StAX, instead of building a whole JDom {@link Document} in memory first.
+ * <p>
+ * Spots are created as their element is read, and track edges are stored in
+ * compact primitive buffers until all spots are known. Only the small sections
+ * of the file (settings, filters, log...) are turned into JDom elements, so that
+ * the providers and the logic of the mother class can still be used on them.
+ * The file format is the same as for the {@link TmXmlReader}; files older than
+ * v2.0.0 must still be read with the {@link TmXmlReader_v12}.
+ * <p>
+ * Progress is reported to the logger set with {@link #setProgressLogger(Logger)},
+ * and reading can be stopped from another thread with {@link #cancel()}.
+ */
+public class TmXmlStreamReader extends TmXmlReader {
+
+	/** Progress is reported every this number of spots or edges read. */
+	private static final int PROGRESS_INTERVAL = 10000;
+
+	private Logger progressLogger = Logger.VOID_LOGGER;
+	private volatile boolean canceled = false;
+
+	/*
+	 * Content found while streaming.
+	 */
+
+	private SpotCollection allSpots;
+	private SpotCollection filteredSpots;
+	/** Filtered spot IDs met before the matching spot, per frame. Normally empty. */
+	private Map<Integer, List<Integer>> pendingFilteredSpots;
+	private boolean hasTracks;
+	/** Saved track IDs, in file order. */
+	private List<Integer> trackIDs;
+	private Map<Integer, String> trackNames;
+	private Map<Integer, Map<String, Double>> trackFeatures;
+	/** The edge features stored in {@link #edges}, in order. */
+	private List<String> edgeDoubleFeatures;
+	private EdgeBuffer edges;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Initialize this reader to read the file given in argument. Contrary to the
+	 * {@link TmXmlReader}, only the root element of the file is read at construction.
+	 * @see TmXmlReader#TmXmlReader(File, TrackMate_)
+	 */
+	public TmXmlStreamReader(File file, TrackMate_ plugin) {
+		super(file, plugin);
+	}
+
+	/*
+	 * PUBLIC METHODS
+	 */
+
+	/**
+	 * Set the logger that will receive the progress of the {@link #process()} method.
+	 * Errors are still reported through {@link #getErrorMessage()}.
+	 */
+	public void setProgressLogger(final Logger progressLogger) {
+		this.progressLogger = progressLogger;
+	}
+
+	/**
+	 * Request the {@link #process()} method to stop as soon as possible. It will
+	 * then return <code>false</code>, and the model must be considered incomplete.
+	 */
+	public void cancel() {
+		canceled = true;
+	}
+
+	/**
+	 * @return true if {@link #cancel()} was called.
+	 */
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	@Override
+	public boolean process() {
+		long start = System.currentTimeMillis();
+
+		progressLogger.setStatus("Reading "+file.getName());
+		boolean ok = stream();
+		progressLogger.setProgress(0);
+		progressLogger.setStatus("");
+		if (!ok) {
+			return false;
+		}
+		ok = super.process();
+
+		// Release buffers
+		edges = null;
+		pendingFilteredSpots = null;
+
+		long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return ok;
+	}
+
+	/*
+	 * PROTECTED METHODS
+	 */
+
+	/**
+	 * Only read the root element and its attributes, so that the file version can
+	 * be checked before processing.
+	 */
+	@Override
+	protected void parse() {
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(new FileInputStream(file));
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			reader.nextTag();
+			root = new Element(reader.getLocalName());
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				root.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+			document = new Document(root);
+			reader.close();
+		} catch (XMLStreamException e) {
+			logger.error("Problem parsing "+file.getName()+", it is not a valid TrackMate XML file.\nError message is:\n"
+					+e.getLocalizedMessage()+'\n');
+		} catch (IOException e) {
+			logger.error("Problem reading "+file.getName()
+					+".\nError message is:\n"+e.getLocalizedMessage()+'\n');
+		} finally {
+			closeQuietly(is);
+		}
+	}
+
+	@Override
+	protected SpotCollection readAllSpots() {
+		return allSpots;
+	}
+
+	@Override
+	protected SpotCollection readFilteredSpots() {
+		return filteredSpots;
+	}
+
+	/**
+	 * Build the track graph from the edges buffered while streaming.
+	 */
+	@Override
+	protected boolean loadTracks() {
+		if (!hasTracks) {
+			return true;
+		}
+		if (null == cache) {
+			logger.error("Found tracks, but no spots in file "+file.getName()+".\n");
+			return false;
+		}
+
+		final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		final HashMap<Integer, Spot> savedTrackMap = new HashMap<Integer, Spot>(trackIDs.size());
+		final FeatureModel fm = plugin.getModel().getFeatureModel();
+		final int nFeatures = edgeDoubleFeatures.size();
+
+		for (int e = 0; e < edges.size; e++) {
+			final int trackID = edges.trackIDs[e];
+			final int sourceID = edges.sources[e];
+			final int targetID = edges.targets[e];
+			final Spot sourceSpot = cache.get(sourceID);
+			final Spot targetSpot = cache.get(targetID);
+
+			// Error check
+			if (null == sourceSpot) {
+				logger.error("Unknown spot ID: "+sourceID + "\n");
+				return false;
+			}
+			if (null == targetSpot) {
+				logger.error("Unknown spot ID: "+targetID + "\n");
+				return false;
+			}
+			if (sourceSpot.equals(targetSpot)) {
+				logger.error("Bad link for track " + trackID + ". Source = Target with ID: " + sourceID + "\n");
+				return false;
+			}
+
+			graph.addVertex(sourceSpot);
+			graph.addVertex(targetSpot);
+			final DefaultWeightedEdge edge = graph.addEdge(sourceSpot, targetSpot);
+			if (edge == null) {
+				logger.error("Bad edge found for track " + trackID + "\n");
+				return false;
+			}
+			graph.setEdgeWeight(edge, edges.weights[e]);
+
+			// Put edge features
+			for (int f = 0; f < nFeatures; f++) {
+				fm.putEdgeFeature(edge, edgeDoubleFeatures.get(f), edges.features[e * nFeatures + f]);
+			}
+			fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_SOURCE_ID, (double) sourceID);
+			fm.putEdgeFeature(edge, EdgeTargetAnalyzer.SPOT_TARGET_ID, (double) targetID);
+
+			// Store one of the spot in the saved trackID key map
+			savedTrackMap.put(trackID, sourceSpot);
+		}
+
+		for (final Integer trackID : trackIDs) {
+			if (!savedTrackMap.containsKey(trackID)) {
+				// No edge: we cannot match this track, as in the mother class.
+				savedTrackMap.put(trackID, null);
+			}
+		}
+
+		return applyTracks(graph, savedTrackMap, trackNames, readFilteredTrackIDs(), trackFeatures);
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Read the whole file in one pass. Spots and edges are loaded in the fields of
+	 * this reader, the other elements are attached to the JDom root.
+	 * @return true if the file could be read.
+	 */
+	private boolean stream() {
+		if (null == root) {
+			return false;
+		}
+		root.removeContent();
+
+		final FeatureModel fm = plugin.getModel().getFeatureModel();
+		edgeDoubleFeatures = new ArrayList<String>(fm.getEdgeFeatures());
+		edgeDoubleFeatures.remove(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeDoubleFeatures.remove(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+
+		allSpots = null;
+		filteredSpots = null;
+		pendingFilteredSpots = new HashMap<Integer, List<Integer>>();
+		hasTracks = false;
+
+		CountingInputStream is = null;
+		try {
+			is = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)), file.length());
+			final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			reader.nextTag(); // root
+
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (canceled) {
+					logger.error("Reading "+file.getName()+" was canceled.\n");
+					return false;
+				}
+				final String name = reader.getLocalName();
+				if (SPOT_COLLECTION_ELEMENT_KEY.equals(name)) {
+					if (!readSpots(reader, is)) {
+						return false;
+					}
+				} else if (FILTERED_SPOT_ELEMENT_KEY.equals(name)) {
+					readFilteredSpotIDs(reader);
+				} else if (TRACK_COLLECTION_ELEMENT_KEY.equals(name)) {
+					if (!readTrackCollection(reader, is)) {
+						return false;
+					}
+				} else {
+					root.addContent(readElement(reader));
+				}
+			}
+			reader.close();
+
+		} catch (XMLStreamException e) {
+			logger.error("Problem parsing "+file.getName()+", it is not a valid TrackMate XML file.\nError message is:\n"
+					+e.getLocalizedMessage()+'\n');
+			return false;
+		} catch (IOException e) {
+			logger.error("Problem reading "+file.getName()
+					+".\nError message is:\n"+e.getLocalizedMessage()+'\n');
+			return false;
+		} finally {
+			closeQuietly(is);
+		}
+
+		resolvePendingFilteredSpots();
+		return true;
+	}
+
+	/**
+	 * Read the {@link TmXmlKeys#SPOT_COLLECTION_ELEMENT_KEY} element the reader is on, and
+	 * build the cache.
+	 */
+	private boolean readSpots(final XMLStreamReader reader, final CountingInputStream is) throws XMLStreamException {
+		final int nspots = readIntAttribute(reader, SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, Logger.VOID_LOGGER, 0);
+		cache = new ConcurrentHashMap<Integer, Spot>(Math.max(16, nspots));
+		allSpots = new SpotCollection();
+
+		int count = 0;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!SPOT_FRAME_COLLECTION_ELEMENT_KEY.equals(reader.getLocalName())) {
+				skipElement(reader);
+				continue;
+			}
+			final int frame = readIntAttribute(reader, FRAME_ATTRIBUTE_NAME, logger, 0);
+			final ArrayList<Spot> spotList = new ArrayList<Spot>();
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!SPOT_ELEMENT_KEY.equals(reader.getLocalName())) {
+					skipElement(reader);
+					continue;
+				}
+				final Spot spot = createSpotFrom(reader);
+				skipElement(reader);
+				spotList.add(spot);
+				cache.put(spot.ID(), spot);
+
+				if (++count % PROGRESS_INTERVAL == 0) {
+					if (canceled) {
+						logger.error("Reading "+file.getName()+" was canceled.\n");
+						return false;
+					}
+					progressLogger.setProgress(is.getProgress());
+				}
+			}
+			spotList.trimToSize();
+			allSpots.put(frame, spotList);
+		}
+		return true;
+	}
+
+	/**
+	 * Read the {@link TmXmlKeys#FILTERED_SPOT_ELEMENT_KEY} element the reader is on.
+	 */
+	private void readFilteredSpotIDs(final XMLStreamReader reader) throws XMLStreamException {
+		filteredSpots = new SpotCollection();
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!FILTERED_SPOT_COLLECTION_ELEMENT_KEY.equals(reader.getLocalName())) {
+				skipElement(reader);
+				continue;
+			}
+			final int frame = readIntAttribute(reader, FRAME_ATTRIBUTE_NAME, logger, 0);
+			final ArrayList<Spot> spotList = new ArrayList<Spot>();
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (SPOT_ID_ELEMENT_KEY.equals(reader.getLocalName())) {
+					final int ID = readIntAttribute(reader, SPOT_ID_ATTRIBUTE_NAME, logger, 0);
+					final Spot spot = null == cache ? null : cache.get(ID);
+					if (null != spot) {
+						spotList.add(spot);
+					} else {
+						// Spots not read yet
+						List<Integer> pending = pendingFilteredSpots.get(frame);
+						if (null == pending) {
+							pending = new ArrayList<Integer>();
+							pendingFilteredSpots.put(frame, pending);
+						}
+						pending.add(ID);
+					}
+				}
+				skipElement(reader);
+			}
+			spotList.trimToSize();
+			filteredSpots.put(frame, spotList);
+		}
+	}
+
+	/**
+	 * Add the filtered spots whose ID was met before their spot element.
+	 */
+	private void resolvePendingFilteredSpots() {
+		for (final Integer frame : pendingFilteredSpots.keySet()) {
+			for (final Integer ID : pendingFilteredSpots.get(frame)) {
+				final Spot spot = null == cache ? null : cache.get(ID);
+				if (null == spot) {
+					logger.error("Unknown filtered spot ID: "+ID+". Skipping.\n");
+					continue;
+				}
+				filteredSpots.add(spot, frame);
+			}
+		}
+	}
+
+	/**
+	 * Read the {@link TmXmlKeys#TRACK_COLLECTION_ELEMENT_KEY} element the reader is on. Track
+	 * attributes are stored in maps, and edges in the edge buffer, since the spots they
+	 * link might not be known yet.
+	 */
+	private boolean readTrackCollection(final XMLStreamReader reader, final CountingInputStream is) throws XMLStreamException {
+		hasTracks = true;
+		trackIDs = new ArrayList<Integer>();
+		trackNames = new HashMap<Integer, String>();
+		trackFeatures = new HashMap<Integer, Map<String, Double>>();
+		edges = new EdgeBuffer(edgeDoubleFeatures.size());
+		final double[] featureValues = new double[edgeDoubleFeatures.size()];
+
+		int count = 0;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			if (!TRACK_ELEMENT_KEY.equals(reader.getLocalName())) {
+				skipElement(reader);
+				continue;
+			}
+
+			// Track attributes
+			final int trackID = readIntAttribute(reader, TrackIndexAnalyzer.TRACK_ID, logger, 0);
+			String trackName = reader.getAttributeValue(null, TRACK_NAME_ATTRIBUTE_NAME);
+			if (null == trackName) {
+				trackName = "Unnamed";
+			}
+			final HashMap<String, Double> trackMap = new HashMap<String, Double>();
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				final String attName = reader.getAttributeLocalName(i);
+				if (TRACK_NAME_ATTRIBUTE_NAME.equals(attName)) {
+					continue;
+				}
+				try {
+					trackMap.put(attName, Double.parseDouble(reader.getAttributeValue(i)));
+				} catch (NumberFormatException nfe) {
+					logger.error("Track "+trackID+": Cannot read the feature "+attName+" value. Skipping.\n");
+				}
+			}
+			trackIDs.add(trackID);
+			trackNames.put(trackID, trackName);
+			trackFeatures.put(trackID, trackMap);
+
+			// Edges
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!TRACK_EDGE_ELEMENT_KEY.equals(reader.getLocalName())) {
+					skipElement(reader);
+					continue;
+				}
+				final int sourceID = readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_SOURCE_ID, logger, 0);
+				final int targetID = readIntAttribute(reader, EdgeTargetAnalyzer.SPOT_TARGET_ID, logger, 0);
+				double weight = 0;
+				if (null != reader.getAttributeValue(null, EdgeTargetAnalyzer.EDGE_COST)) {
+					weight = readDoubleAttribute(reader, EdgeTargetAnalyzer.EDGE_COST, logger);
+				}
+				for (int f = 0; f < featureValues.length; f++) {
+					featureValues[f] = readDoubleAttribute(reader, edgeDoubleFeatures.get(f), logger);
+				}
+				edges.add(trackID, sourceID, targetID, weight, featureValues);
+				skipElement(reader);
+
+				if (++count % PROGRESS_INTERVAL == 0) {
+					if (canceled) {
+						logger.error("Reading "+file.getName()+" was canceled.\n");
+						return false;
+					}
+					progressLogger.setProgress(is.getProgress());
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read and return the track IDs that define the filtered track collection,
+	 * checking that they exist in the track list.
+	 */
+	private Set<Integer> readFilteredTrackIDs() {
+		final Element filteredTracksElement = root.getChild(FILTERED_TRACK_ELEMENT_KEY);
+		if (null == filteredTracksElement)
+			return null;
+
+		final HashSet<Integer> existingIDs = new HashSet<Integer>(trackIDs);
+		final List<Element> elements = filteredTracksElement.getChildren(TRACK_ID_ELEMENT_KEY);
+		final HashSet<Integer> filteredTrackIndices = new HashSet<Integer>(elements.size());
+		for (final Element indexElement : elements) {
+			final int trackID = IOUtils.readIntAttribute(indexElement, TrackIndexAnalyzer.TRACK_ID, logger);
+			if (!existingIDs.contains(trackID)) {
+				logger.error("Invalid filtered track index: "+trackID+". Track ID does not exist.\n");
+			} else {
+				filteredTrackIndices.add(trackID);
+			}
+		}
+		return filteredTrackIndices;
+	}
+
+	/**
+	 * Create a spot from the attributes of the spot element the reader is on.
+	 */
+	private Spot createSpotFrom(final XMLStreamReader reader) {
+		final int ID = readIntAttribute(reader, SPOT_ID_ATTRIBUTE_NAME, logger, 0);
+		final Spot spot = new Spot(ID);
+
+		String name = reader.getAttributeValue(null, SPOT_NAME_ATTRIBUTE_NAME);
+		if (null == name || name.equals(""))
+			name = "ID"+ID;
+		spot.setName(name);
+
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			final String attName = reader.getAttributeLocalName(i);
+			if (attName.equals(SPOT_NAME_ATTRIBUTE_NAME) || attName.equals(SPOT_ID_ATTRIBUTE_NAME)) {
+				continue;
+			}
+			try {
+				spot.putFeature(attName, Double.parseDouble(reader.getAttributeValue(i)));
+			} catch (NumberFormatException nfe) {
+				logger.error("Cannot read the feature "+attName+" value. Skipping.\n");
+			}
+		}
+		return spot;
+	}
+
+	/**
+	 * Build a JDom element from the element the reader is on, and leave the reader
+	 * on its end tag. Only meant for the small elements of the file.
+	 */
+	private static Element readElement(final XMLStreamReader reader) throws XMLStreamException {
+		final Element element = new Element(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				element.addContent(readElement(reader));
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+				if (!reader.isWhiteSpace()) {
+					element.addContent(reader.getText());
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return element;
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * Skip the element the reader is on, and leave the reader on its end tag.
+	 */
+	private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			}
+		}
+	}
+
+	private static int readIntAttribute(final XMLStreamReader reader, final String name, final Logger logger, final int defaultValue) {
+		final String str = reader.getAttributeValue(null, name);
+		if (null == str) {
+			logger.error("Could not find attribute "+name+" for element "+reader.getLocalName()+", substituting default value: "+defaultValue+".\n");
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(str.trim());
+		} catch (NumberFormatException nfe) {
+			logger.error("Cannot read the attribute "+name+" of the element "+reader.getLocalName()+", substituting default value: "+defaultValue+".\n");
+			return defaultValue;
+		}
+	}
+
+	private static double readDoubleAttribute(final XMLStreamReader reader, final String name, final Logger logger) {
+		final String str = reader.getAttributeValue(null, name);
+		if (null == str) {
+			logger.error("Could not find attribute "+name+" for element "+reader.getLocalName()+", substituting default value.\n");
+			return 0;
+		}
+		try {
+			return Double.parseDouble(str);
+		} catch (NumberFormatException nfe) {
+			logger.error("Cannot read the attribute "+name+" of the element "+reader.getLocalName()+", substituting default value.\n");
+			return 0;
+		}
+	}
+
+	private static void closeQuietly(final InputStream is) {
+		if (null == is) {
+			return;
+		}
+		try {
+			is.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * Growable primitive storage for the edges read in the file, so that we do not
+	 * have to keep an object per edge until the spots are known.
+	 */
+	private static final class EdgeBuffer {
+
+		private final int nFeatures;
+		private int size = 0;
+		private int[] trackIDs = new int[1024];
+		private int[] sources = new int[1024];
+		private int[] targets = new int[1024];
+		private double[] weights = new double[1024];
+		private double[] features;
+
+		private EdgeBuffer(final int nFeatures) {
+			this.nFeatures = nFeatures;
+			this.features = new double[1024 * nFeatures];
+		}
+
+		private void add(final int trackID, final int source, final int target, final double weight, final double[] featureValues) {
+			if (size == sources.length) {
+				final int capacity = 2 * size;
+				trackIDs = Arrays.copyOf(trackIDs, capacity);
+				sources = Arrays.copyOf(sources, capacity);
+				targets = Arrays.copyOf(targets, capacity);
+				weights = Arrays.copyOf(weights, capacity);
+				features = Arrays.copyOf(features, capacity * nFeatures);
+			}
+			trackIDs[size] = trackID;
+			sources[size] = source;
+			targets[size] = target;
+			weights[size] = weight;
+			System.arraycopy(featureValues, 0, features, size * nFeatures, nFeatures);
+			size++;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the file, to report progress.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+
+		private final long length;
+		private long count = 0;
+
+		private CountingInputStream(final InputStream in, final long length) {
+			super(in);
+			this.length = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		private double getProgress() {
+			return length > 0 ? Math.min(1d, (double) count / length) : 0d;
+		}
+	}
+}
@@ -51,10 +51,12 @@
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ELEMENT_KEY;
 import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_NAME_ATTRIBUTE_NAME;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -62,14 +64,17 @@
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import net.imglib2.algorithm.Algorithm;
 import net.imglib2.algorithm.Benchmark;
 
 import org.jdom2.Attribute;
-import org.jdom2.Document;
+import org.jdom2.Content;
 import org.jdom2.Element;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
+import org.jdom2.Text;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 import fiji.plugin.trackmate.DetectorProvider;
@@ -78,6 +83,7 @@
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotFeatureStore;
 import fiji.plugin.trackmate.TrackMateModel;
 import fiji.plugin.trackmate.TrackMate_;
 import fiji.plugin.trackmate.TrackerProvider;
@@ -142,10 +148,17 @@ public boolean checkInput() {
 		return true;
 	}
 
+	/**
+	 * Prepare the small sections of the file: log, settings and filters. The 
+	 * dense sections (tracks and spots) are streamed straight from the model 
+	 * when the file is written, so that we never hold them all as XML elements 
+	 * in memory.
+	 */
 	@Override
 	public boolean process() {
 		long start = System.currentTimeMillis();
 		
+		root.removeContent();
 		echoLog();
 		echoImageInfo();
 		echoBaseSettings();
@@ -154,10 +167,6 @@ public boolean process() {
 		echoSpotFilters();
 		echoTrackerSettings();
 		echoTrackFilters();
-		echoTracks(); // dense stuff is put at the end of file
-		echoFilteredTracks();
-		echoAllSpots();
-		echoFilteredSpots();
 
 		long end = System.currentTimeMillis();
 		processingTime = end - start;
@@ -171,29 +180,49 @@ public String getErrorMessage() {
 	}
 
 	/**
-	 * Write the document to the given file.
+	 * Write the document to the given file. The {@link #process()} method must
+	 * have been called before.
 	 */
 	public void writeToFile(File file) throws FileNotFoundException, IOException {
 		logger.log("  Writing to file.\n");
-		Document document = new Document(root);
-		XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-		outputter.output(document, new FileOutputStream(file));
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			write(xsw, true);
+			xsw.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Write only the elements prepared by {@link #process()} (log, settings and
+	 * filters) to the given stream, as a TrackMate XML document without tracks
+	 * nor spots. This is how the {@link TmBinaryWriter} stores them.
+	 */
+	void writeSettings(OutputStream os) throws IOException {
+		try {
+			XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			write(xsw, false);
+			xsw.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
 	}
 
 	@Override
 	public String toString() {
-		String str = "";
-
-		Document document = new Document(root);
-		XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
 		StringWriter writer = new StringWriter();
 		try {
-			outputter.output(document, writer);
-		} catch (IOException e) {
+			XMLStreamWriter xsw = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+			write(xsw, true);
+			xsw.close();
+		} catch (XMLStreamException e) {
 			e.printStackTrace();
 		}
-		str = writer.toString();
-		return str;
+		return writer.toString();
 	}
 
 	/*
@@ -260,92 +289,6 @@ private void echoTrackerSettings() {
 		logger.log("  Added tracker settings.\n");
 	}
 
-	private void echoTracks() {
-		if (model.getTrackModel().getNTracks() == 0)
-			return;
-
-		Element allTracksElement = new Element(TRACK_COLLECTION_ELEMENT_KEY);
-
-		Map<Integer, Set<DefaultWeightedEdge>> trackEdges = model.getTrackModel().getTrackEdges();
-		
-		// Prepare track features for writing: we separate ints from doubles 
-		List<String> trackIntFeatures = new ArrayList<String>();
-		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_ID);
-		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_INDEX); // TODO is there a better way?
-		List<String> trackDoubleFeatures = new ArrayList<String>(model.getFeatureModel().getTrackFeatures());
-		trackDoubleFeatures.removeAll(trackIntFeatures);
-		
-		// Same thing for edge features
-		List<String> edgeIntFeatures = new ArrayList<String>();// TODO is there a better way?
-		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
-		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
-		List<String> edgeDoubleFeatures = new ArrayList<String>(model.getFeatureModel().getEdgeFeatures());
-		edgeDoubleFeatures.removeAll(edgeIntFeatures);
-		
-		for (int trackID : trackEdges.keySet()) {
-			Set<DefaultWeightedEdge> track = trackEdges.get(trackID);
-
-			Element trackElement = new Element(TRACK_ELEMENT_KEY);
-			trackElement.setAttribute(TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().getTrackName(trackID));
-			
-			for(String feature : trackDoubleFeatures) {
-				Double val = model.getFeatureModel().getTrackFeature(trackID, feature);
-				trackElement.setAttribute(feature, val.toString());
-			}
-			
-			for(String feature : trackIntFeatures) {
-				int val = model.getFeatureModel().getTrackFeature(trackID, feature).intValue();
-				trackElement.setAttribute(feature, ""+val);
-			}
-
-			// Echo edges
-			if (track.size() == 0) {
-				/* Special case: the track has only one spot in it, therefore no edge. 
-				 * It just should not be, since the model never returns a track with less
-				 * than one edge. So we skip writing it. */
-				continue;
-
-			} else {
-				
-
-				for (DefaultWeightedEdge edge : track) {
-
-					Element edgeElement = new Element(TRACK_EDGE_ELEMENT_KEY);
-					for(String feature : edgeDoubleFeatures) {
-						Double val = model.getFeatureModel().getEdgeFeature(edge, feature);
-						edgeElement.setAttribute(feature, val.toString());
-					}
-					for(String feature : edgeIntFeatures) {
-						int val = model.getFeatureModel().getEdgeFeature(edge, feature).intValue();
-						edgeElement.setAttribute(feature, ""+val);
-					}
-
-					trackElement.addContent(edgeElement);
-				}
-			}
-			allTracksElement.addContent(trackElement);
-		}
-		root.addContent(allTracksElement);
-		logger.log("  Added tracks.\n");
-		return;
-	}
-
-	private void echoFilteredTracks() {
-		if (model.getTrackModel().getFilteredTrackIDs() == null) {
-			return;
-		}
-
-		Element filteredTracksElement = new Element(FILTERED_TRACK_ELEMENT_KEY);
-		Set<Integer> filteredTrackKeys = model.getTrackModel().getFilteredTrackIDs();
-		for (int trackID : filteredTrackKeys) {
-			Element trackIDElement = new Element(TRACK_ID_ELEMENT_KEY);
-			trackIDElement.setAttribute(TrackIndexAnalyzer.TRACK_ID, ""+trackID);
-			filteredTracksElement.addContent(trackIDElement);
-		}
-		root.addContent(filteredTracksElement);
-		logger.log("  Added filtered tracks.\n");
-	}
-
 	private void echoImageInfo() {
 		Settings settings = model.getSettings();
 		if (null == settings || null == settings.imp)
@@ -368,35 +311,6 @@ private void echoImageInfo() {
 		return;
 	}
 
-	private void echoAllSpots() {		
-		SpotCollection allSpots = model.getSpots();
-		if (null == allSpots || allSpots.isEmpty())
-			return; // and write nothing
-		List<Spot> spots;
-
-		Element spotElement;
-		Element frameSpotsElement;
-		Element spotCollection = new Element(SPOT_COLLECTION_ELEMENT_KEY);
-		// Store total number of spots
-		spotCollection.setAttribute(SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, ""+allSpots.getNSpots());
-
-		for(int frame : allSpots.keySet()) {
-
-			frameSpotsElement = new Element(SPOT_FRAME_COLLECTION_ELEMENT_KEY);
-			frameSpotsElement.setAttribute(FRAME_ATTRIBUTE_NAME, ""+frame);
-			spots = allSpots.get(frame);
-
-			for (Spot spot : spots) {
-				spotElement = marshalSpot(spot);
-				frameSpotsElement.addContent(spotElement);
-			}
-			spotCollection.addContent(frameSpotsElement);
-		}
-		root.addContent(spotCollection);
-		logger.log("  Added spots.\n");
-		return;
-	}
-
 	private void echoInitialSpotFilter() {
 		Double filterVal = model.getSettings().initialSpotFilterValue;
 		if (null == filterVal) {
@@ -443,54 +357,225 @@ private void echoTrackFilters() {
 		return;
 	}
 
-	private void echoFilteredSpots() {
-		SpotCollection filteredSpots =  model.getFilteredSpots();
-		if (null == filteredSpots || filteredSpots.isEmpty())
+	/**
+	 * Write the whole document to the given stream writer: first the elements
+	 * prepared by {@link #process()}, then the dense sections, directly from the
+	 * model, if requested.
+	 */
+	private void write(final XMLStreamWriter xsw, final boolean withData) throws XMLStreamException {
+		xsw.writeStartDocument("UTF-8", "1.0");
+		newLine(xsw, 0);
+		xsw.writeStartElement(ROOT_ELEMENT_KEY);
+		for (Attribute attribute : root.getAttributes()) {
+			xsw.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+		for (Element element : root.getChildren()) {
+			writeElement(xsw, element, 1);
+		}
+		if (withData) {
+			echoTracks(xsw); // dense stuff is put at the end of file
+			echoFilteredTracks(xsw);
+			echoAllSpots(xsw);
+			echoFilteredSpots(xsw);
+		}
+		newLine(xsw, 0);
+		xsw.writeEndElement();
+		xsw.writeEndDocument();
+		xsw.flush();
+	}
+
+	private void echoTracks(final XMLStreamWriter xsw) throws XMLStreamException {
+		if (model.getTrackModel().getNTracks() == 0)
 			return;
-		List<Spot> spots;
 
-		Element spotIDElement, frameSpotsElement;
-		Element spotCollection = new Element(FILTERED_SPOT_ELEMENT_KEY);
+		Map<Integer, Set<DefaultWeightedEdge>> trackEdges = model.getTrackModel().getTrackEdges();
+		
+		// Prepare track features for writing: we separate ints from doubles 
+		List<String> trackIntFeatures = new ArrayList<String>();
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_ID);
+		trackIntFeatures.add(TrackIndexAnalyzer.TRACK_INDEX); // TODO is there a better way?
+		List<String> trackDoubleFeatures = new ArrayList<String>(model.getFeatureModel().getTrackFeatures());
+		trackDoubleFeatures.removeAll(trackIntFeatures);
+		
+		// Same thing for edge features
+		List<String> edgeIntFeatures = new ArrayList<String>();// TODO is there a better way?
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_SOURCE_ID);
+		edgeIntFeatures.add(EdgeTargetAnalyzer.SPOT_TARGET_ID);
+		List<String> edgeDoubleFeatures = new ArrayList<String>(model.getFeatureModel().getEdgeFeatures());
+		edgeDoubleFeatures.removeAll(edgeIntFeatures);
+		
+		newLine(xsw, 1);
+		xsw.writeStartElement(TRACK_COLLECTION_ELEMENT_KEY);
+		for (int trackID : trackEdges.keySet()) {
+			Set<DefaultWeightedEdge> track = trackEdges.get(trackID);
 
-		for(int frame : filteredSpots.keySet()) {
+			if (track.size() == 0) {
+				/* Special case: the track has only one spot in it, therefore no edge. 
+				 * It just should not be, since the model never returns a track with less
+				 * than one edge. So we skip writing it. */
+				continue;
+			}
+
+			newLine(xsw, 2);
+			xsw.writeStartElement(TRACK_ELEMENT_KEY);
+			xsw.writeAttribute(TRACK_NAME_ATTRIBUTE_NAME, model.getTrackModel().getTrackName(trackID));
+			
+			for(String feature : trackDoubleFeatures) {
+				Double val = model.getFeatureModel().getTrackFeature(trackID, feature);
+				xsw.writeAttribute(feature, val.toString());
+			}
+			
+			for(String feature : trackIntFeatures) {
+				int val = model.getFeatureModel().getTrackFeature(trackID, feature).intValue();
+				xsw.writeAttribute(feature, ""+val);
+			}
+
+			// Echo edges
+			for (DefaultWeightedEdge edge : track) {
+				newLine(xsw, 3);
+				xsw.writeEmptyElement(TRACK_EDGE_ELEMENT_KEY);
+				for(String feature : edgeDoubleFeatures) {
+					Double val = model.getFeatureModel().getEdgeFeature(edge, feature);
+					xsw.writeAttribute(feature, val.toString());
+				}
+				for(String feature : edgeIntFeatures) {
+					int val = model.getFeatureModel().getEdgeFeature(edge, feature).intValue();
+					xsw.writeAttribute(feature, ""+val);
+				}
+			}
+			newLine(xsw, 2);
+			xsw.writeEndElement();
+		}
+		newLine(xsw, 1);
+		xsw.writeEndElement();
+		logger.log("  Added tracks.\n");
+		return;
+	}
 
-			frameSpotsElement = new Element(FILTERED_SPOT_COLLECTION_ELEMENT_KEY);
-			frameSpotsElement.setAttribute(FRAME_ATTRIBUTE_NAME, ""+frame);
-			spots = filteredSpots.get(frame);
+	private void echoFilteredTracks(final XMLStreamWriter xsw) throws XMLStreamException {
+		if (model.getTrackModel().getFilteredTrackIDs() == null) {
+			return;
+		}
 
-			for(Spot spot : spots) {
-				spotIDElement = new Element(SPOT_ID_ELEMENT_KEY);
-				spotIDElement.setAttribute(SPOT_ID_ATTRIBUTE_NAME, ""+spot.ID());
-				frameSpotsElement.addContent(spotIDElement);
+		newLine(xsw, 1);
+		xsw.writeStartElement(FILTERED_TRACK_ELEMENT_KEY);
+		Set<Integer> filteredTrackKeys = model.getTrackModel().getFilteredTrackIDs();
+		for (int trackID : filteredTrackKeys) {
+			newLine(xsw, 2);
+			xsw.writeEmptyElement(TRACK_ID_ELEMENT_KEY);
+			xsw.writeAttribute(TrackIndexAnalyzer.TRACK_ID, ""+trackID);
+		}
+		newLine(xsw, 1);
+		xsw.writeEndElement();
+		logger.log("  Added filtered tracks.\n");
+	}
+
+	private void echoAllSpots(final XMLStreamWriter xsw) throws XMLStreamException {		
+		SpotCollection allSpots = model.getSpots();
+		if (null == allSpots || allSpots.isEmpty())
+			return; // and write nothing
+
+		newLine(xsw, 1);
+		xsw.writeStartElement(SPOT_COLLECTION_ELEMENT_KEY);
+		// Store total number of spots
+		xsw.writeAttribute(SPOT_COLLECTION_NSPOTS_ATTRIBUTE_NAME, ""+allSpots.getNSpots());
+		// Fetch feature columns once for all spots
+		final Collection<SpotFeatureStore.Column> columns = new ArrayList<SpotFeatureStore.Column>(allSpots.getFeatureColumns());
+
+		for(int frame : allSpots.keySet()) {
+			newLine(xsw, 2);
+			xsw.writeStartElement(SPOT_FRAME_COLLECTION_ELEMENT_KEY);
+			xsw.writeAttribute(FRAME_ATTRIBUTE_NAME, ""+frame);
+			for (Spot spot : allSpots.get(frame)) {
+				newLine(xsw, 3);
+				marshalSpot(xsw, spot, columns);
 			}
-			spotCollection.addContent(frameSpotsElement);
+			newLine(xsw, 2);
+			xsw.writeEndElement();
 		}
+		newLine(xsw, 1);
+		xsw.writeEndElement();
+		logger.log("  Added spots.\n");
+		return;
+	}
 
-		root.addContent(spotCollection);
+	private void echoFilteredSpots(final XMLStreamWriter xsw) throws XMLStreamException {
+		SpotCollection filteredSpots =  model.getFilteredSpots();
+		if (null == filteredSpots || filteredSpots.isEmpty())
+			return;
+
+		newLine(xsw, 1);
+		xsw.writeStartElement(FILTERED_SPOT_ELEMENT_KEY);
+		for(int frame : filteredSpots.keySet()) {
+			newLine(xsw, 2);
+			xsw.writeStartElement(FILTERED_SPOT_COLLECTION_ELEMENT_KEY);
+			xsw.writeAttribute(FRAME_ATTRIBUTE_NAME, ""+frame);
+			for(Spot spot : filteredSpots.get(frame)) {
+				newLine(xsw, 3);
+				xsw.writeEmptyElement(SPOT_ID_ELEMENT_KEY);
+				xsw.writeAttribute(SPOT_ID_ATTRIBUTE_NAME, ""+spot.ID());
+			}
+			newLine(xsw, 2);
+			xsw.writeEndElement();
+		}
+		newLine(xsw, 1);
+		xsw.writeEndElement();
 		logger.log("  Added spot selection.\n");
 		return;
 	}
 
-	private static final Element marshalSpot(final Spot spot) {
-		Collection<Attribute> attributes = new ArrayList<Attribute>();
-		Attribute IDattribute = new Attribute(SPOT_ID_ATTRIBUTE_NAME, ""+spot.ID());
-		attributes.add(IDattribute);
-		Attribute nameAttribute = new Attribute(SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
-		attributes.add(nameAttribute);
-		Double val;
-		Attribute featureAttribute;
-		for (String feature : spot.getFeatures().keySet()) {
-			val = spot.getFeature(feature);
-			if (null == val)
+	private static final void marshalSpot(final XMLStreamWriter xsw, final Spot spot, final Collection<SpotFeatureStore.Column> columns) throws XMLStreamException {
+		xsw.writeEmptyElement(SPOT_ELEMENT_KEY);
+		xsw.writeAttribute(SPOT_ID_ATTRIBUTE_NAME, ""+spot.ID());
+		xsw.writeAttribute(SPOT_NAME_ATTRIBUTE_NAME, spot.getName());
+		for (SpotFeatureStore.Column column : columns) {
+			if (!column.isSet(spot))
 				continue;
-			featureAttribute = new Attribute(feature, val.toString());
-			attributes.add(featureAttribute);
+			xsw.writeAttribute(column.getFeature(), Double.toString(column.get(spot)));
 		}
+	}
 
-		Element spotElement = new Element(SPOT_ELEMENT_KEY);
-		spotElement.setAttributes(attributes);
-		return spotElement;
+	/**
+	 * Write a JDom element prepared by {@link #process()}, with its content, at
+	 * the given indentation level.
+	 */
+	private static final void writeElement(final XMLStreamWriter xsw, final Element element, final int depth) throws XMLStreamException {
+		newLine(xsw, depth);
+		final List<Content> content = element.getContent();
+		if (content.isEmpty()) {
+			xsw.writeEmptyElement(element.getName());
+		} else {
+			xsw.writeStartElement(element.getName());
+		}
+		for (Attribute attribute : element.getAttributes()) {
+			xsw.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+		if (content.isEmpty()) {
+			return;
+		}
+		boolean hasChildren = false;
+		for (Content child : content) {
+			if (child instanceof Element) {
+				writeElement(xsw, (Element) child, depth + 1);
+				hasChildren = true;
+			} else if (child instanceof Text) {
+				xsw.writeCharacters(((Text) child).getText());
+			}
+		}
+		if (hasChildren) {
+			newLine(xsw, depth);
+		}
+		xsw.writeEndElement();
 	}
 
+	/**
+	 * Indent the file as the JDom pretty format does, so that it stays readable.
+	 */
+	private static final void newLine(final XMLStreamWriter xsw, final int depth) throws XMLStreamException {
+		xsw.writeCharacters("\n");
+		for (int i = 0; i < depth; i++) {
+			xsw.writeCharacters("  ");
+		}
+	}
 
 }
@@ -6,12 +6,15 @@
 import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
@@ -29,6 +32,9 @@
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
 import fiji.plugin.trackmate.tracking.hungarian.AssignmentProblem;
 import fiji.plugin.trackmate.tracking.hungarian.HungarianAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.LAPConnectedComponents;
+import fiji.plugin.trackmate.tracking.hungarian.SparseAssignmentAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
 
 /**
  * 
@@ -135,6 +141,8 @@ public class LAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotT
 
 	/** The cost matrix for linking individual track segments (step 2). */
 	protected double[][] segmentCosts = null;
+	/** The alternative cost used in the segment cost matrix, or NaN if it is unknown. */
+	protected double alternativeCost = Double.NaN;
 	/** Stores the objects to track as a list of Spots per frame.  */
 
 	/** Stores whether the default cost matrices from the paper should be used,
@@ -170,6 +178,8 @@ public class LAPTracker extends MultiThreadedBenchmarkAlgorithm implements SpotT
 	protected final SpotCollection spots;
 	/** The settings map that configures this tracker. */
 	protected Map<String, Object> settings;
+	/** Becomes false as soon as the linking of a frame pair failed. */
+	private final AtomicBoolean frameLinkingOk = new AtomicBoolean(true);
 
 	/*
 	 * CONSTRUCTOR
@@ -229,6 +239,8 @@ public SimpleDirectedWeightedGraph<Spot,DefaultWeightedEdge> getResult() {
 	 */
 	public void setSegmentCosts(double[][] segmentCosts) {
 		this.segmentCosts = segmentCosts;
+		// We cannot tell how the alternative costs were set, so we will not split the LAP
+		this.alternativeCost = Double.NaN;
 	}
 
 	/**
@@ -369,6 +381,7 @@ public boolean createTrackSegmentCostMatrix() {
 			return false;
 		}
 		segmentCosts = segCosts.getCostMatrix();
+		alternativeCost = segCosts.getAlternativeCost();
 		splittingMiddlePoints = segCosts.getSplittingMiddlePoints();
 		mergingMiddlePoints = segCosts.getMergingMiddlePoints();
 		return true;
@@ -439,12 +452,15 @@ public boolean linkTrackSegmentsToFinalTracks() {
 	 * For each frame, compute the cost matrix to link each spot to another spot in the next frame.
 	 * Then compute the optimal track segments using this cost matrix.
 	 * Finally, update the {@link #trackGraph} field with found links.
+	 * <p>
+	 * Each thread collects the links it finds in its own {@link LinkBuffer}. The 
+	 * buffers are added to the graph in one batch once all threads are done, so 
+	 * that threads never wait on each other. If linking any frame pair fails, the
+	 * other threads stop and no link is added.
 	 * 
 	 * @see LAPTracker#createFrameToFrameLinkingCostMatrix(List, List, TrackerSettings)
 	 */
 	public boolean solveLAPForTrackSegments() {
-		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
-		
 		// Prepare frame pairs in order, not necessarily separated by 1.
 		final ArrayList<int[]> framePairs = new ArrayList<int[]>(spots.keySet().size()-1);
 		final Iterator<Integer> frameIterator = spots.keySet().iterator(); 		
@@ -462,66 +478,23 @@ public boolean solveLAPForTrackSegments() {
 		// Prepare the thread array
 		final AtomicInteger ai = new AtomicInteger(0);
 		final AtomicInteger progress = new AtomicInteger(0);
+		frameLinkingOk.set(true);
+		final LinkBuffer[] links = new LinkBuffer[threads.length];
 		for (int ithread = 0; ithread < threads.length; ithread++) {
 
+			final LinkBuffer threadLinks = new LinkBuffer();
+			links[ithread] = threadLinks;
 			threads[ithread] = new Thread("LAPTracker track segment linking thread "+(1+ithread)+"/"+threads.length) {  
 
 				public void run() {
 
-					for (int i = ai.getAndIncrement(); i < framePairs.size(); i = ai.getAndIncrement()) {
+					for (int i = ai.getAndIncrement(); frameLinkingOk.get() && i < framePairs.size(); i = ai.getAndIncrement()) {
 
 						// Get frame pairs
 						final int frame0 = framePairs.get(i)[0];
 						final int frame1 = framePairs.get(i)[1];
 
-						// Get spots
-						final List<Spot> t0 = spots.get(frame0);
-						final List<Spot> t1 = spots.get(frame1);
-
-						// Create cost matrix
-						double[][] costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
-
-						// Special case: top-left corner of the cost matrix is all blocked: we do nothing for this pair
-						// We handle this special case here, because some solvers might hang with this.
-						boolean allBlocked = true;
-						for (int j = 0; j < t0.size(); j++) {
-							for (int k = 0; k < t1.size(); k++) {
-								if (costMatrix[j][k] != blockingValue) {
-									allBlocked = false;
-									break;
-								}
-								if (!allBlocked)
-									break;
-							}
-						}
-
-						if (!allBlocked) {
-							// Find solution
-							AssignmentProblem problem = new AssignmentProblem(costMatrix);
-							AssignmentAlgorithm solver = createAssignmentProblemSolver();
-							int[][] solutions = problem.solve(solver);
-
-							// Extend track segments using solutions: we update the graph edges
-							for (int j = 0; j < solutions.length; j++) {
-								if (solutions[j].length == 0)
-									continue;
-								int i0 = solutions[j][0];
-								int i1 = solutions[j][1];
-
-								if (i0 < t0.size() && i1 < t1.size() ) {
-									// Solution belong to the upper-left quadrant: we can connect the spots
-									Spot s0 = t0.get(i0);
-									Spot s1 = t1.get(i1);
-									// We set the edge weight to be the linking cost, for future reference. 
-									// This is NOT used in further tracking steps
-									double weight = costMatrix[i0][i1];
-									synchronized (graph) { // To avoid concurrent access, sad but true
-										DefaultWeightedEdge edge = graph.addEdge(s0, s1);
-										graph.setEdgeWeight(edge, weight);
-									}
-								} // otherwise we do not create any connection
-							}
-						}
+						linkFramePair(frame0, frame1, threadLinks);
 						logger.setProgress(0.5f * progress.incrementAndGet() / (float) framePairs.size());
 
 					}
@@ -532,12 +505,94 @@ public void run() {
 
 		logger.setStatus("Solving for track segments...");
 		SimpleMultiThreading.startAndJoin(threads);
+
+		if (!frameLinkingOk.get()) {
+			for (LinkBuffer threadLinks : links) {
+				threadLinks.clear();
+			}
+			logger.setProgress(0);
+			logger.setStatus("");
+			return false;
+		}
+
+		// Merge the links found by all threads
+		for (LinkBuffer threadLinks : links) {
+			threadLinks.addTo(graph);
+			threadLinks.clear();
+		}
 		logger.setProgress(0.5f);
 		logger.setStatus("");
 		return true;
 	}
 
 
+	/**
+	 * Hook for subclassers.
+	 * <p>
+	 * Solve the frame to frame LAP for the spots of the two given frames, and store the 
+	 * links found in the given buffer. This method is called concurrently by several
+	 * threads, each one with a different frame pair and its own buffer. It must not 
+	 * modify the {@link #graph}: the buffers are added to it when all threads are done.
+	 * <p>
+	 * Failures must be reported with {@link #frameLinkingFailed(String)}, not by
+	 * setting the error message directly.
+	 * 
+	 * @param frame0  the first frame 
+	 * @param frame1  the second frame 
+	 * @param links  the buffer of the calling thread, that receives the links found
+	 */
+	protected void linkFramePair(final int frame0, final int frame1, final LinkBuffer links) {
+		final List<Spot> t0 = spots.get(frame0);
+		final List<Spot> t1 = spots.get(frame1);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+
+		// Create cost matrix
+		double[][] costMatrix = createFrameToFrameLinkingCostMatrix(t0, t1, settings);
+		if (null == costMatrix) {
+			return;
+		}
+
+		// Special case: top-left corner of the cost matrix is all blocked: we do nothing for this pair
+		// We handle this special case here, because some solvers might hang with this.
+		boolean allBlocked = true;
+		for (int j = 0; j < t0.size(); j++) {
+			for (int k = 0; k < t1.size(); k++) {
+				if (costMatrix[j][k] != blockingValue) {
+					allBlocked = false;
+					break;
+				}
+				if (!allBlocked)
+					break;
+			}
+		}
+
+		if (!allBlocked) {
+			// Find solution
+			AssignmentProblem problem = new AssignmentProblem(costMatrix);
+			AssignmentAlgorithm solver = createAssignmentProblemSolver();
+			int[][] solutions = problem.solve(solver);
+
+			// Extend track segments using solutions: we update the graph edges
+			for (int j = 0; j < solutions.length; j++) {
+				if (solutions[j].length == 0)
+					continue;
+				int i0 = solutions[j][0];
+				int i1 = solutions[j][1];
+
+				if (i0 < t0.size() && i1 < t1.size() ) {
+					// Solution belong to the upper-left quadrant: we can connect the spots
+					Spot s0 = t0.get(i0);
+					Spot s1 = t1.get(i1);
+					// We set the edge weight to be the linking cost, for future reference. 
+					// This is NOT used in further tracking steps
+					double weight = costMatrix[i0][i1];
+					links.add(s0, s1, weight);
+				} // otherwise we do not create any connection
+			}
+		}
+	}
+
+
 	/**
 	 * Hook for subclassers.
 	 * <p>
@@ -546,36 +601,196 @@ public void run() {
 	 * @param t0  the list of spots in the first frame 
 	 * @param t1  the list of spots in the second frame 
 	 * @param settings  the tracker settings that specifies how this cost should be created
-	 * @return  the cost matrix as an array of array of double
+	 * @return  the cost matrix as an array of array of double, or <code>null</code> if it 
+	 * could not be created, after calling {@link #frameLinkingFailed(String)}
 	 */
 	protected double[][] createFrameToFrameLinkingCostMatrix(final List<Spot> t0, List<Spot> t1, final Map<String, Object> settings) {
 		// Create cost matrix
 		LinkingCostMatrixCreator objCosts = new LinkingCostMatrixCreator(t0, t1, settings);
 		if (!objCosts.checkInput() || !objCosts.process()) {
-			errorMessage = BASE_ERROR_MESSAGE + objCosts.getErrorMessage();
+			frameLinkingFailed(BASE_ERROR_MESSAGE + objCosts.getErrorMessage());
 			return null;
 		}
 		return objCosts.getCostMatrix();
 	}
 
+	/**
+	 * Records that the linking of a frame pair failed, which makes 
+	 * {@link #solveLAPForTrackSegments()} return <code>false</code>. This is called
+	 * concurrently by the linking threads: only the message of the first failure
+	 * is kept.
+	 * 
+	 * @param message  the error message
+	 */
+	protected void frameLinkingFailed(final String message) {
+		if (frameLinkingOk.compareAndSet(true, false)) {
+			errorMessage = message;
+		}
+	}
+
 
 
 
 	/**
 	 * Compute the optimal final track using the cost matrix 
 	 * {@link LAPTracker#segmentCosts}.
-	 * @return True if executes correctly, false otherwise.
+	 * <p>
+	 * If the cost matrix was built by this tracker, the LAP is not solved as a whole:
+	 * it is split in independent sub-problems, one per connected component of the
+	 * candidate links, which are solved in parallel. See 
+	 * {@link #solveLAPByConnectedComponents(SparseCostMatrix, double)}.
+	 * @return the solutions of the LAP, as arrays of 2 ints.
 	 */
 	public int[][] solveLAPForFinalTracks() {
-		// Solve the LAP using the Hungarian Algorithm
 		logger.setStatus("Solving for final tracks...");
-		AssignmentProblem problem = new AssignmentProblem(segmentCosts);
-		AssignmentAlgorithm solver = createAssignmentProblemSolver();
-		int[][] solutions = problem.solve(solver);
+
+		if (Double.isNaN(alternativeCost)) {
+			// Solve the LAP as a whole, using the Hungarian Algorithm
+			AssignmentProblem problem = new AssignmentProblem(segmentCosts);
+			AssignmentAlgorithm solver = createAssignmentProblemSolver();
+			int[][] solutions = problem.solve(solver);
+			return solutions;
+		}
+
+		// Extract the finite costs of the top-left quadrant
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final int nRows = trackSegments.size() + splittingMiddlePoints.size();
+		final int nCols = trackSegments.size() + mergingMiddlePoints.size();
+		final int[] number = new int[nRows];
+		int nEntries = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (segmentCosts[i][j] < blockingValue) {
+					number[i]++;
+					nEntries++;
+				}
+			}
+		}
+		final double[] cc = new double[nEntries];
+		final int[] kk = new int[nEntries];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (segmentCosts[i][j] < blockingValue) {
+					cc[index] = segmentCosts[i][j];
+					kk[index] = j;
+					index++;
+				}
+			}
+		}
+		final SparseCostMatrix topLeft = new SparseCostMatrix(cc, kk, number, nCols);
+		return solveLAPByConnectedComponents(topLeft, alternativeCost);
+	}
+
+
+	/**
+	 * Solve the LAP made of the given top-left quadrant completed by alternative costs,
+	 * by splitting it in independent sub-problems.
+	 * <p>
+	 * Candidate links only exist between segments that are close in time and space,
+	 * so the bipartite graph of finite costs is made of many small connected components.
+	 * Each of them, completed with its alternative costs, is a small LAP that does not 
+	 * interact with the others. They are solved concurrently on {@link #numThreads} threads,
+	 * largest first, with the solver returned by {@link #createAssignmentProblemSolver()}.
+	 * 
+	 * @param topLeft  the finite costs of the top-left quadrant of the LAP.
+	 * @param alternativeCost  the cost of not making a link.
+	 * @return the solutions of the complete LAP, with indices expressed in the complete 
+	 * matrix, as if it had been built by {@link SparseCostMatrix#withAlternativeCosts(double)}.
+	 */
+	protected int[][] solveLAPByConnectedComponents(final SparseCostMatrix topLeft, final double alternativeCost) {
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final int nRows = topLeft.getNRows();
+		final int nCols = topLeft.getNCols();
+		final LAPConnectedComponents components = new LAPConnectedComponents(topLeft);
+		final int nComponents = components.getNComponents();
+
+		// Largest problems first, for better load balancing
+		final Integer[] order = new Integer[nComponents];
+		for (int c = 0; c < nComponents; c++) {
+			order[c] = c;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return components.getSize(o2) - components.getSize(o1);
+			}
+		});
+
+		final int[][][] componentSolutions = new int[nComponents][][];
+		final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+		final AtomicInteger ai = new AtomicInteger(0);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread("LAPTracker track segment LAP thread "+(1+ithread)+"/"+threads.length) {
+
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < nComponents; i = ai.getAndIncrement()) {
+						final int c = order[i];
+						final int[] rows = components.getRows(c);
+						final int[] cols = components.getCols(c);
+						final SparseCostMatrix sub = components.getSubMatrix(c).withAlternativeCosts(alternativeCost);
+
+						final AssignmentAlgorithm solver = createAssignmentProblemSolver();
+						final int[][] local;
+						if (solver instanceof SparseAssignmentAlgorithm) {
+							local = ((SparseAssignmentAlgorithm) solver).computeAssignments(sub);
+						} else {
+							local = solver.computeAssignments(sub.toDense(blockingValue));
+						}
+
+						// Map local indices back to the complete matrix
+						final int[][] global = new int[local.length][];
+						int n = 0;
+						for (final int[] solution : local) {
+							if (solution.length == 0)
+								continue;
+							final int r = solution[0];
+							final int k = solution[1];
+							final int i0 = r < rows.length ? rows[r] : nRows + cols[r - rows.length];
+							final int j0 = k < cols.length ? cols[k] : nCols + rows[k - cols.length];
+							global[n++] = new int[] { i0, j0 };
+						}
+						componentSolutions[c] = Arrays.copyOf(global, n);
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		// Collect, adding the alternative assignments of isolated rows and columns
+		final int[] isolatedRows = components.getIsolatedRows();
+		final int[] isolatedCols = components.getIsolatedCols();
+		int nSolutions = isolatedRows.length + isolatedCols.length;
+		for (final int[][] cs : componentSolutions) {
+			nSolutions += cs.length;
+		}
+		final int[][] solutions = new int[nSolutions][];
+		int index = 0;
+		for (final int[][] cs : componentSolutions) {
+			for (final int[] solution : cs) {
+				solutions[index++] = solution;
+			}
+		}
+		for (final int i : isolatedRows) {
+			solutions[index++] = new int[] { i, nCols + i };
+		}
+		for (final int j : isolatedCols) {
+			solutions[index++] = new int[] { nRows + j, j };
+		}
 		return solutions;
 	}
 
 
+	/**
+	 * Hook for subclassers.
+	 * <p>
+	 * Returns the cost of the given assignment in the track segment LAP. It is used
+	 * to set the weight of the links created in step (2).
+	 */
+	protected double getSegmentCost(final int i, final int j) {
+		return segmentCosts[i][j];
+	}
+
 	/**
 	 * Uses DFS approach to create a List of track segments from the overall 
 	 * result of step 1
@@ -583,7 +798,7 @@ public int[][] solveLAPForFinalTracks() {
 	 * We have recorded the tracks as edges in the track graph, we now turn them
 	 * into multiple explicit sets of Spots, sorted by their {@link SpotFeature#POSITION_T}.
 	 */
-	private void compileTrackSegments() {
+	protected void compileTrackSegments() {
 
 		trackSegments = new ArrayList<SortedSet<Spot>>();
 		Collection<Spot> spotPool = new ArrayList<Spot>();
@@ -621,7 +836,7 @@ private void compileTrackSegments() {
 	 * Method: for each solution of the LAP, determine if it's a gap closing, merging, or
 	 * splitting event. If so, appropriately link the track segment Spots.
 	 */
-	private void compileFinalTracks(int[][] finalTrackSolutions) {
+	protected void compileFinalTracks(int[][] finalTrackSolutions) {
 		final int numTrackSegments = trackSegments.size();
 		final int numMergingMiddlePoints = mergingMiddlePoints.size();
 		final int numSplittingMiddlePoints = splittingMiddlePoints.size();
@@ -645,7 +860,7 @@ private void compileFinalTracks(int[][] finalTrackSolutions) {
 					SortedSet<Spot> segmentStart = trackSegments.get(j);
 					Spot end = segmentEnd.last();
 					Spot start = segmentStart.first();
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					DefaultWeightedEdge edge = graph.addEdge(end, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -658,7 +873,7 @@ private void compileFinalTracks(int[][] finalTrackSolutions) {
 					SortedSet<Spot> segmentEnd = trackSegments.get(i);
 					Spot end =  segmentEnd.last();
 					Spot middle = mergingMiddlePoints.get(j - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					DefaultWeightedEdge edge = graph.addEdge(end, middle);
 					graph.setEdgeWeight(edge, weight);
 
@@ -689,7 +904,7 @@ private void compileFinalTracks(int[][] finalTrackSolutions) {
 					SortedSet<Spot> segmentStart = trackSegments.get(j);
 					Spot start = segmentStart.first();
 					Spot mother = splittingMiddlePoints.get(i - numTrackSegments);
-					weight = segmentCosts[i][j];
+					weight = getSegmentCost(i, j);
 					DefaultWeightedEdge edge = graph.addEdge(mother, start);
 					graph.setEdgeWeight(edge, weight);
 
@@ -0,0 +1,102 @@
+package fiji.plugin.trackmate.tracking;
+
+import java.util.Arrays;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * A growable list of weighted links between spots, used by linking threads to
+ * collect the links they find without touching the shared graph. Once all the
+ * threads are done, the buffers are added to the graph one after the other with
+ * {@link #addTo(SimpleDirectedWeightedGraph)}, so that the graph never needs to be
+ * locked.
+ * <p>
+ * This class is not thread-safe: each thread must have its own buffer.
+ */
+public class LinkBuffer {
+
+	private Spot[] sources;
+	private Spot[] targets;
+	private double[] weights;
+	private int size;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public LinkBuffer(final int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		this.sources = new Spot[capacity];
+		this.targets = new Spot[capacity];
+		this.weights = new double[capacity];
+	}
+
+	public LinkBuffer() {
+		this(64);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Store a link from the source spot to the target spot, with the given weight.
+	 */
+	public void add(final Spot source, final Spot target, final double weight) {
+		if (size == sources.length) {
+			final int capacity = 2 * size;
+			sources = Arrays.copyOf(sources, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		sources[size] = source;
+		targets[size] = target;
+		weights[size] = weight;
+		size++;
+	}
+
+	/** @return the number of links stored in this buffer. */
+	public int size() {
+		return size;
+	}
+
+	public Spot getSource(final int index) {
+		return sources[index];
+	}
+
+	public Spot getTarget(final int index) {
+		return targets[index];
+	}
+
+	public double getWeight(final int index) {
+		return weights[index];
+	}
+
+	/**
+	 * Remove all the links from this buffer. Its capacity is kept.
+	 */
+	public void clear() {
+		Arrays.fill(sources, 0, size, null);
+		Arrays.fill(targets, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Add all the links of this buffer as edges of the given graph. The source and
+	 * target spots must already be vertices of the graph.
+	 */
+	public void addTo(final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph) {
+		for (int i = 0; i < size; i++) {
+			final DefaultWeightedEdge edge = graph.addEdge(sources[i], targets[i]);
+			graph.setEdgeWeight(edge, weights[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LinkBuffer with " + size + " links";
+	}
+}
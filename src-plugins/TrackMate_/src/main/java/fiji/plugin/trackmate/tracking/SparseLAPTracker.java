@@ -0,0 +1,186 @@
+package fiji.plugin.trackmate.tracking;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+
+import java.util.List;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.costmatrix.GridLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.costmatrix.SparseTrackSegmentCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.hungarian.AssignmentAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseAssignmentAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+/**
+ * A {@link LAPTracker} that never builds dense cost matrices.
+ * <p>
+ * Both the frame to frame linking and the track segment LAPs are built as
+ * {@link SparseCostMatrix}es that only store the finite costs, and are solved
+ * with the sparse {@link JonkerVolgenantAlgorithm}. The results are the same as
+ * for the {@link FastLAPTracker}, but memory scales with the number of candidate
+ * links instead of the square of the number of track segments, which makes
+ * gap-closing possible on large movies.
+ * <p>
+ * Frame to frame candidates are found with the {@link fiji.plugin.trackmate.SpotSpatialIndex}
+ * the {@link SpotCollection} keeps for each frame, and each linking thread reuses
+ * its own buffers over all the frame pairs it processes.
+ */
+public class SparseLAPTracker extends LAPTracker {
+
+	public static final String TRACKER_KEY = "SPARSE_LAP_TRACKER";
+	public static final String NAME = "Sparse LAP Tracker";
+	public static final String INFO_TEXT = "<html>" +
+			"This tracker is based on the Linear Assignment Problem mathematical framework. <br>" +
+			"Its implementation is adapted from the following paper: <br>" +
+			"<i>Robust single-particle tracking in live-cell time-lapse sequences</i> - <br>" +
+			"Jaqaman <i> et al.</i>, 2008, Nature Methods. <br>" +
+			"<p>" +
+			"It is identical to the LAP tracker, but only stores the costs of possible <br>" +
+			"links instead of the full cost matrices. The LAPs are solved with a sparse <br>" +
+			"version of the Jonker-Volgenant solver. This makes it suitable for very large <br>" +
+			"numbers of spots and track segments." +
+			" </html>";
+
+	private final static String BASE_ERROR_MESSAGE = "SparseLAPTracker: ";
+
+	/** The finite costs of the top-left quadrant of the track segment LAP (step 2). */
+	protected SparseCostMatrix sparseSegmentCosts;
+
+	/** 
+	 * The frame to frame cost matrix creators. Each linking thread gets its own, and 
+	 * reuses its buffers for all the frame pairs it links.
+	 */
+	private final ThreadLocal<GridLinkingCostMatrixCreator> linkingCosts = new ThreadLocal<GridLinkingCostMatrixCreator>() {
+		@Override
+		protected GridLinkingCostMatrixCreator initialValue() {
+			return new GridLinkingCostMatrixCreator(settings);
+		}
+	};
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	public SparseLAPTracker(final SpotCollection spots, final Logger logger) {
+		super(spots, logger);
+	}
+
+	public SparseLAPTracker(final SpotCollection spots) {
+		this(spots, Logger.VOID_LOGGER);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	protected AssignmentAlgorithm createAssignmentProblemSolver() {
+		return new JonkerVolgenantAlgorithm((Double) settings.get(KEY_BLOCKING_VALUE));
+	}
+
+	/**
+	 * Returns the finite costs used for step 2, linking track segments into final tracks.
+	 * This is the top-left quadrant of the LAP matrix, without alternative costs.
+	 * @return the cost matrix, or <code>null</code> if it has not been created yet.
+	 */
+	public SparseCostMatrix getSparseSegmentCosts() {
+		return sparseSegmentCosts;
+	}
+
+	@Override
+	protected void linkFramePair(final int frame0, final int frame1, final LinkBuffer links) {
+		final List<Spot> t0 = spots.get(frame0);
+		final List<Spot> t1 = spots.get(frame1);
+		final GridLinkingCostMatrixCreator objCosts = linkingCosts.get();
+		objCosts.setSpots(t0, t1, spots.getSpatialIndex(frame1));
+		if (!objCosts.checkInput() || !objCosts.process()) {
+			frameLinkingFailed(BASE_ERROR_MESSAGE + objCosts.getErrorMessage());
+			return;
+		}
+		final SparseCostMatrix costMatrix = objCosts.getCostMatrix();
+		if (null == costMatrix) {
+			// No possible link between these two frames
+			return;
+		}
+
+		final SparseAssignmentAlgorithm solver = (SparseAssignmentAlgorithm) createAssignmentProblemSolver();
+		final int[][] solutions = solver.computeAssignments(costMatrix);
+
+		for (final int[] solution : solutions) {
+			final int i0 = solution[0];
+			final int i1 = solution[1];
+			if (i0 < t0.size() && i1 < t1.size()) {
+				// Solution belong to the upper-left quadrant: we can connect the spots
+				final Spot s0 = t0.get(i0);
+				final Spot s1 = t1.get(i1);
+				final double weight = costMatrix.get(i0, i1, Double.NaN);
+				links.add(s0, s1, weight);
+			}
+		}
+	}
+
+	@Override
+	public boolean createTrackSegmentCostMatrix() {
+		final SparseTrackSegmentCostMatrixCreator segCosts = new SparseTrackSegmentCostMatrixCreator(trackSegments, settings);
+		segCosts.setLogger(logger);
+		segCosts.setNumThreads(numThreads);
+		if (!segCosts.checkInput() || !segCosts.process()) {
+			errorMessage = BASE_ERROR_MESSAGE + segCosts.getErrorMessage();
+			return false;
+		}
+		sparseSegmentCosts = segCosts.getTopLeftCostMatrix();
+		alternativeCost = segCosts.getAlternativeCost();
+		splittingMiddlePoints = segCosts.getSplittingMiddlePoints();
+		mergingMiddlePoints = segCosts.getMergingMiddlePoints();
+		logger.log(String.format("  Sparse cost matrix for track segments has %d x %d candidates with %d finite costs.\n",
+				sparseSegmentCosts.getNRows(), sparseSegmentCosts.getNCols(), sparseSegmentCosts.getNEntries()));
+		return true;
+	}
+
+	@Override
+	public boolean linkTrackSegmentsToFinalTracks() {
+		// Check that there are track segments.
+		if (null == trackSegments || trackSegments.size() < 1) {
+			errorMessage = "There are no track segments to link.";
+			return false;
+		}
+
+		// Check that the cost matrix for this step exists.
+		if (null == sparseSegmentCosts) {
+			errorMessage = "The segment cost matrix (step 2) does not exists.";
+			return false;
+		}
+
+		// Solve LAP
+		final int[][] finalTrackSolutions = solveLAPForFinalTracks();
+
+		// Compile LAP solutions into final tracks
+		compileFinalTracks(finalTrackSolutions);
+		return true;
+	}
+
+	@Override
+	public int[][] solveLAPForFinalTracks() {
+		logger.setStatus("Solving for final tracks...");
+		return solveLAPByConnectedComponents(sparseSegmentCosts, alternativeCost);
+	}
+
+	@Override
+	protected double getSegmentCost(final int i, final int j) {
+		return sparseSegmentCosts.get(i, j, Double.NaN);
+	}
+
+	@Override
+	public String toString() {
+		return NAME;
+	}
+
+	@Override
+	public String getKey() {
+		return TRACKER_KEY;
+	}
+
+}
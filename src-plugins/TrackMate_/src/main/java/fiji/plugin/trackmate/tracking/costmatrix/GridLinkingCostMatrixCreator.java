@@ -0,0 +1,207 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotSpatialIndex;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+/**
+ * Sparse counterpart of {@link LinkingCostMatrixCreator}, meant to be reused over
+ * many frame pairs.
+ * <p>
+ * Only the finite costs of linking a spot of frame t to a spot of frame t+1 are
+ * computed and stored. The alternative costs (no link) and the lower-right
+ * quadrant required to solve the LAP are then added around these costs by
+ * {@link SparseCostMatrix#withAlternativeCosts(double)}, so that the whole matrix
+ * scales with the number of candidate links.
+ * <p>
+ * The candidates of a spot of frame t are the spots of frame t+1 returned by the
+ * {@link SpotSpatialIndex} of frame t+1 within the max linking distance. Trackers
+ * should pass the index kept by their {@link SpotCollection}, so that it is built
+ * once and shared with the rest of the plugin. The buffers that collect the
+ * finite costs are reused from one frame pair to the next; only the returned
+ * {@link SparseCostMatrix} is allocated for each pair, with the exact size it needs.
+ * <p>
+ * If there is not a single candidate link between the two frames, the cost matrix
+ * returned by {@link #getCostMatrix()} is <code>null</code>.
+ * <p>
+ * An instance is <b>not</b> thread-safe: linking threads must each use their own.
+ * Call one of the <code>setSpots</code> methods before each call to {@link #process()}.
+ */
+public class GridLinkingCostMatrixCreator implements SparseCostMatrixCreator {
+
+	/** The Spots belonging to time frame t. */
+	protected List<Spot> t0;
+	/** The Spots belonging to time frame t+1. */
+	protected List<Spot> t1;
+	/** The spatial index of the spots of frame t+1. */
+	protected SpotSpatialIndex t1Index;
+	/** The settings to comply to create a cost matrix. */
+	protected final Map<String, Object> settings;
+	/** The cost matrix created by the class. */
+	protected SparseCostMatrix costs;
+	/** Stores a message describing an error incurred during use of the class. */
+	protected String errorMessage;
+
+	/*
+	 * BUFFERS, reused from one frame pair to the next
+	 */
+
+	/** Finite costs and their column index, row after row. */
+	private double[] cc = new double[0];
+	private int[] kk = new int[0];
+	/** Number of finite costs per row. */
+	private int[] number = new int[0];
+	/** The column of each spot of frame t+1. */
+	private final Map<Spot, Integer> columns = new IdentityHashMap<Spot, Integer>();
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public GridLinkingCostMatrixCreator(final Map<String, Object> settings) {
+		this.settings = settings;
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Set the two frames to link in the next call to {@link #process()}.
+	 * @param t1Index  the spatial index of the spots of frame t+1. It must contain
+	 * the same spots as <code>t1</code>.
+	 */
+	public void setSpots(final List<Spot> t0, final List<Spot> t1, final SpotSpatialIndex t1Index) {
+		this.t0 = t0;
+		this.t1 = t1;
+		this.t1Index = t1Index;
+	}
+
+	/**
+	 * Set the two frames to link in the next call to {@link #process()}, building
+	 * a new spatial index for the spots of frame t+1.
+	 */
+	public void setSpots(final List<Spot> t0, final List<Spot> t1) {
+		setSpots(t0, t1, null == t1 ? null : new SpotSpatialIndex(t1));
+	}
+
+	@Override
+	public boolean checkInput() {
+		boolean ok = true;
+		StringBuilder errorHolder = new StringBuilder();
+		ok = ok & checkParameter(settings, KEY_LINKING_MAX_DISTANCE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_LINKING_FEATURE_PENALTIES, Map.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_BLOCKING_VALUE, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.class, errorHolder);
+		ok = ok & checkParameter(settings, KEY_CUTOFF_PERCENTILE, Double.class, errorHolder);
+		if (null == t0 || null == t1 || null == t1Index) {
+			errorHolder.append("The spots to link have not been set.\n");
+			ok = false;
+		}
+		if (!ok) {
+			errorMessage = errorHolder.toString();
+		}
+		return ok;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean process() {
+		costs = null;
+		final int n0 = t0.size();
+		final int n1 = t1.size();
+		if (n0 == 0 || n1 == 0) {
+			// Nothing to link
+			return true;
+		}
+
+		final double maxDist = (Double) settings.get(KEY_LINKING_MAX_DISTANCE);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final Map<String, Double> featurePenalties = (Map<String, Double>) settings.get(KEY_LINKING_FEATURE_PENALTIES);
+		final double alternativeCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+
+		// Columns of the spots of frame t+1, to map the candidates of the spatial index
+		columns.clear();
+		for (int j = 0; j < n1; j++) {
+			columns.put(t1.get(j), j);
+		}
+
+		if (number.length < n0) {
+			number = new int[Math.max(n0, 2 * number.length)];
+		} else {
+			Arrays.fill(number, 0, n0, 0);
+		}
+		if (cc.length < n0) {
+			cc = new double[Math.max(n0, 2 * cc.length)];
+			kk = new int[cc.length];
+		}
+		int index = 0;
+		double max = Double.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < n0; i++) {
+			final Spot s0 = t0.get(i);
+			final int rowStart = index;
+			for (final Spot s1 : t1Index.getSpotsWithin(s0, maxDist)) {
+				final Integer j = columns.get(s1);
+				if (null == j) {
+					continue; // not in t1
+				}
+				final double cost = LAPUtils.computeLinkingCostFor(s0, s1, maxDist, blockingValue, featurePenalties);
+				if (cost >= blockingValue) {
+					continue;
+				}
+				if (index == cc.length) {
+					cc = Arrays.copyOf(cc, 2 * index);
+					kk = Arrays.copyOf(kk, 2 * index);
+				}
+				kk[index] = j;
+				cc[index] = cost;
+				index++;
+				if (cost > max) {
+					max = cost;
+				}
+			}
+			// The index returns candidates in no particular order; SparseCostMatrix sorts them
+			number[i] = index - rowStart;
+		}
+		columns.clear();
+
+		if (index == 0) {
+			// No candidate link
+			return true;
+		}
+
+		final SparseCostMatrix topLeft = new SparseCostMatrix(Arrays.copyOf(cc, index), Arrays.copyOf(kk, index), Arrays.copyOf(number, n0), n1);
+		costs = topLeft.withAlternativeCosts(alternativeCostFactor * max);
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * @return the complete sparse LAP matrix for the last frame pair processed, or
+	 * <code>null</code> if there is no possible link between the two frames.
+	 */
+	@Override
+	public SparseCostMatrix getCostMatrix() {
+		return costs;
+	}
+
+}
@@ -0,0 +1,14 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import mpicbg.imglib.algorithm.Algorithm;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+/**
+ * Interface for creating sparse cost matrices that can be used in LAP problems.
+ * Only finite costs are emitted: blocked assignments are never stored.
+ */
+public interface SparseCostMatrixCreator extends Algorithm {
+
+	public SparseCostMatrix getCostMatrix();
+
+}
@@ -0,0 +1,471 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_CUTOFF_PERCENTILE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+import fiji.plugin.trackmate.util.TMUtils;
+
+/**
+ * Sparse counterpart of {@link TrackSegmentCostMatrixCreator}.
+ * <p>
+ * The layout of the generated matrix is the same: the top-left quadrant holds
+ * the gap-closing, merging and splitting costs, and the three other quadrants
+ * hold the alternative costs. However:
+ * <ul>
+ * 	<li> only the finite costs of the top-left quadrant are computed and stored.
+ * Candidates are looked for using an index of segment starts and middle points
+ * per frame, so only segments that are close in time are compared, instead of
+ * all pairs of segments;
+ * 	<li> the alternative costs are not stored as dense quadrants. The top-left
+ * quadrant and the alternative cost are kept separately, so that the LAP can be
+ * split in independent sub-problems before the alternative costs are added by
+ * {@link SparseCostMatrix#withAlternativeCosts(double)}.
+ * </ul>
+ * The memory needed therefore scales with the number of candidate links, and not
+ * with the square of the number of segments.
+ * <p>
+ * As with the dense version, merging (resp. splitting) middle points that cannot
+ * participate to any merging (resp. splitting) event are pruned from the matrix.
+ */
+public class SparseTrackSegmentCostMatrixCreator implements SparseCostMatrixCreator, MultiThreaded {
+
+	/** The track segments. */
+	protected final List<SortedSet<Spot>> trackSegments;
+	/** The settings to comply to create a cost matrix. */
+	protected final Map<String, Object> settings;
+	/** The list of middle Spots which can participate in merge events. */
+	protected List<Spot> mergingMiddlePoints;
+	/** The list of middle Spots which can participate in splitting events. */
+	protected List<Spot> splittingMiddlePoints;
+	/** The finite costs of the top-left quadrant created by the class. */
+	protected SparseCostMatrix topLeft;
+	/** The cost used for alternative assignments, computed from the finite costs. */
+	protected double alternativeCost = Double.NaN;
+	/** Stores a message describing an error incurred during use of the class. */
+	protected String errorMessage;
+
+	private Logger logger = Logger.VOID_LOGGER;
+	private int numThreads;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public SparseTrackSegmentCostMatrixCreator(final List<SortedSet<Spot>> trackSegments, final Map<String, Object> settings) {
+		this.trackSegments = trackSegments;
+		this.settings = settings;
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	public void setLogger(final Logger logger) {
+		this.logger = logger;
+	}
+
+	@Override
+	public boolean checkInput() {
+		if (trackSegments.isEmpty()) {
+			errorMessage = "There are no track segments.";
+			return false;
+		}
+		final StringBuilder errorHolder = new StringBuilder();
+		if (!LAPUtils.checkSettingsValidity(settings, errorHolder)) {
+			errorMessage = errorHolder.toString();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean process() {
+
+		// 1 - Get parameter values
+		final boolean allowGapClosing = (Boolean) settings.get(KEY_ALLOW_GAP_CLOSING);
+		final boolean allowSplitting = (Boolean) settings.get(KEY_ALLOW_TRACK_SPLITTING);
+		final boolean allowMerging = (Boolean) settings.get(KEY_ALLOW_TRACK_MERGING);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final int frameCutoff = (Integer) settings.get(KEY_GAP_CLOSING_MAX_FRAME_GAP);
+		final double gcMaxDist = (Double) settings.get(KEY_GAP_CLOSING_MAX_DISTANCE);
+		final Map<String, Double> gcPenalties = (Map<String, Double>) settings.get(KEY_GAP_CLOSING_FEATURE_PENALTIES);
+		final double mMaxDist = (Double) settings.get(KEY_MERGING_MAX_DISTANCE);
+		final Map<String, Double> mPenalties = (Map<String, Double>) settings.get(KEY_MERGING_FEATURE_PENALTIES);
+		final double sMaxDist = (Double) settings.get(KEY_SPLITTING_MAX_DISTANCE);
+		final Map<String, Double> sPenalties = (Map<String, Double>) settings.get(KEY_SPLITTING_FEATURE_PENALTIES);
+
+		try {
+
+			// 2 - Index segment starts and middle points by frame
+
+			final int nSegments = trackSegments.size();
+			final Map<Integer, int[]> startsByFrame = indexSegmentStarts();
+
+			final List<Spot> middlePoints;
+			if (allowMerging || allowSplitting) {
+				middlePoints = getTrackSegmentMiddlePoints();
+			} else {
+				middlePoints = new ArrayList<Spot>(0);
+			}
+			final Map<Integer, int[]> middlesByFrame = indexByFrame(middlePoints);
+
+			// 3 - Compute candidate costs, row by row
+
+			logger.setStatus("Computing gap-closing, merging and splitting costs...");
+			logger.setProgress(0.55f);
+
+			// Gap-closing: column = segment index
+			final int[][] gcCols = new int[nSegments][];
+			final double[][] gcCosts = new double[nSegments][];
+			// Merging: column = index in middlePoints
+			final int[][] mCols = new int[nSegments][];
+			final double[][] mCosts = new double[nSegments][];
+			// Splitting: row = index in middlePoints, column = segment index
+			final int[][] sCols = new int[middlePoints.size()][];
+			final double[][] sCosts = new double[middlePoints.size()][];
+
+			final int nJobs = nSegments + middlePoints.size();
+			final AtomicInteger ai = new AtomicInteger(0);
+			final Thread[] threads = SimpleMultiThreading.newThreads(numThreads);
+			for (int ithread = 0; ithread < threads.length; ithread++) {
+				threads[ithread] = new Thread("TrackMate sparse segment cost thread " + (1 + ithread) + "/" + threads.length) {
+
+					@Override
+					public void run() {
+						for (int job = ai.getAndIncrement(); job < nJobs; job = ai.getAndIncrement()) {
+
+							if (job < nSegments) {
+								final Spot end = trackSegments.get(job).last();
+								final int endFrame = end.getFeature(Spot.FRAME).intValue();
+
+								if (allowGapClosing) {
+									// Frame cutoff. A value of 1 means a gap of 1 frame: target frames go from endFrame+1 to endFrame+frameCutoff+1
+									final List<int[]> candidates = new ArrayList<int[]>(frameCutoff + 1);
+									int n = 0;
+									for (int frame = endFrame + 1; frame <= endFrame + frameCutoff + 1; frame++) {
+										final int[] c = startsByFrame.get(frame);
+										if (null != c) {
+											candidates.add(c);
+											n += c.length;
+										}
+									}
+									int[] cols = new int[n];
+									double[] cst = new double[n];
+									int index = 0;
+									for (final int[] c : candidates) {
+										for (final int j : c) {
+											final Spot start = trackSegments.get(j).first();
+											final double cost = LAPUtils.computeLinkingCostFor(end, start, gcMaxDist, blockingValue, gcPenalties);
+											if (cost < blockingValue) {
+												cols[index] = j;
+												cst[index] = cost;
+												index++;
+											}
+										}
+									}
+									gcCols[job] = Arrays.copyOf(cols, index);
+									gcCosts[job] = Arrays.copyOf(cst, index);
+								} else {
+									gcCols[job] = new int[0];
+									gcCosts[job] = new double[0];
+								}
+
+								// We only merge from one frame to the next one, no more
+								final int[] c = allowMerging ? middlesByFrame.get(endFrame + 1) : null;
+								if (null != c) {
+									int[] cols = new int[c.length];
+									double[] cst = new double[c.length];
+									int index = 0;
+									for (final int m : c) {
+										final Spot middle = middlePoints.get(m);
+										final double cost = LAPUtils.computeLinkingCostFor(end, middle, mMaxDist, blockingValue, mPenalties);
+										if (cost < blockingValue) {
+											cols[index] = m;
+											cst[index] = cost;
+											index++;
+										}
+									}
+									mCols[job] = Arrays.copyOf(cols, index);
+									mCosts[job] = Arrays.copyOf(cst, index);
+								} else {
+									mCols[job] = new int[0];
+									mCosts[job] = new double[0];
+								}
+
+							} else {
+
+								// Splitting: the middle spot must be one frame behind the start spot
+								final int m = job - nSegments;
+								final Spot middle = middlePoints.get(m);
+								final int middleFrame = middle.getFeature(Spot.FRAME).intValue();
+								final int[] c = allowSplitting ? startsByFrame.get(middleFrame + 1) : null;
+								if (null != c) {
+									int[] cols = new int[c.length];
+									double[] cst = new double[c.length];
+									int index = 0;
+									for (final int j : c) {
+										final Spot start = trackSegments.get(j).first();
+										final double cost = LAPUtils.computeLinkingCostFor(start, middle, sMaxDist, blockingValue, sPenalties);
+										if (cost < blockingValue) {
+											cols[index] = j;
+											cst[index] = cost;
+											index++;
+										}
+									}
+									sCols[m] = Arrays.copyOf(cols, index);
+									sCosts[m] = Arrays.copyOf(cst, index);
+								} else {
+									sCols[m] = new int[0];
+									sCosts[m] = new double[0];
+								}
+							}
+						}
+					}
+				};
+			}
+			SimpleMultiThreading.startAndJoin(threads);
+
+			// 4 - Prune middle points that do not participate to any event
+
+			logger.setStatus("Completing cost matrix...");
+			logger.setProgress(0.7f);
+
+			final int[] mergingColumn = new int[middlePoints.size()];
+			Arrays.fill(mergingColumn, -1);
+			for (int i = 0; i < nSegments; i++) {
+				for (final int m : mCols[i]) {
+					mergingColumn[m] = 0;
+				}
+			}
+			mergingMiddlePoints = new ArrayList<Spot>();
+			splittingMiddlePoints = new ArrayList<Spot>();
+			for (int m = 0; m < middlePoints.size(); m++) {
+				if (mergingColumn[m] >= 0) {
+					mergingColumn[m] = nSegments + mergingMiddlePoints.size();
+					mergingMiddlePoints.add(middlePoints.get(m));
+				}
+				if (sCols[m].length > 0) {
+					splittingMiddlePoints.add(middlePoints.get(m));
+				}
+			}
+
+			// 5 - Assemble the top-left quadrant
+
+			final int nRows = nSegments + splittingMiddlePoints.size();
+			final int nCols = nSegments + mergingMiddlePoints.size();
+			final int[] number = new int[nRows];
+			int nEntries = 0;
+			for (int i = 0; i < nSegments; i++) {
+				number[i] = gcCols[i].length + mCols[i].length;
+				nEntries += number[i];
+			}
+			int row = nSegments;
+			for (int m = 0; m < middlePoints.size(); m++) {
+				if (sCols[m].length > 0) {
+					number[row++] = sCols[m].length;
+					nEntries += sCols[m].length;
+				}
+			}
+
+			final double[] cc = new double[nEntries];
+			final int[] kk = new int[nEntries];
+			int index = 0;
+			for (int i = 0; i < nSegments; i++) {
+				System.arraycopy(gcCols[i], 0, kk, index, gcCols[i].length);
+				System.arraycopy(gcCosts[i], 0, cc, index, gcCosts[i].length);
+				index += gcCols[i].length;
+				for (int k = 0; k < mCols[i].length; k++) {
+					kk[index] = mergingColumn[mCols[i][k]];
+					cc[index] = mCosts[i][k];
+					index++;
+				}
+			}
+			for (int m = 0; m < middlePoints.size(); m++) {
+				System.arraycopy(sCols[m], 0, kk, index, sCols[m].length);
+				System.arraycopy(sCosts[m], 0, cc, index, sCosts[m].length);
+				index += sCols[m].length;
+			}
+
+			topLeft = new SparseCostMatrix(cc, kk, number, nCols);
+
+			// 6 - Compute alternative costs
+			alternativeCost = getCutoff(cc);
+			return true;
+
+		} catch (OutOfMemoryError ome) {
+			errorMessage = "Not enough memory.";
+			topLeft = null;
+			return false;
+		}
+	}
+
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Returns the complete LAP matrix, built on demand from the top-left quadrant
+	 * and the alternative cost.
+	 */
+	@Override
+	public SparseCostMatrix getCostMatrix() {
+		if (null == topLeft) {
+			return null;
+		}
+		return topLeft.withAlternativeCosts(alternativeCost);
+	}
+
+	/**
+	 * Returns the finite gap-closing, merging and splitting costs, that is: the 
+	 * top-left quadrant of the LAP matrix. Rows are track segment ends followed by 
+	 * {@link #getSplittingMiddlePoints()}, columns are track segment starts followed by 
+	 * {@link #getMergingMiddlePoints()}.
+	 */
+	public SparseCostMatrix getTopLeftCostMatrix() {
+		return topLeft;
+	}
+
+	/**
+	 * @return the cost used for alternative assignments (track termination and initiation,
+	 * no splitting and no merging).
+	 */
+	public double getAlternativeCost() {
+		return alternativeCost;
+	}
+
+	/**
+	 * Returns a list which holds references to all the splitting middle points
+	 * within all the track segments, in the same order as they appear as rows
+	 * in the cost matrix, after the track segment rows.
+	 */
+	public List<Spot> getSplittingMiddlePoints() {
+		return splittingMiddlePoints;
+	}
+
+	/**
+	 * Returns a list which holds references to all the merging middle points
+	 * within all the track segments, in the same order as they appear as columns
+	 * in the cost matrix, after the track segment columns.
+	 */
+	public List<Spot> getMergingMiddlePoints() {
+		return mergingMiddlePoints;
+	}
+
+	@Override
+	public void setNumThreads() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Candidate spots for splitting or merging events: all the spots belonging
+	 * to a track segment with at least 2 spots.
+	 */
+	private List<Spot> getTrackSegmentMiddlePoints() {
+		int nSpots = 0;
+		for (final SortedSet<Spot> trackSegment : trackSegments) {
+			nSpots += trackSegment.size();
+		}
+		final List<Spot> middlePoints = new ArrayList<Spot>(nSpots);
+		for (final SortedSet<Spot> trackSegment : trackSegments) {
+			if (trackSegment.size() > 1) {
+				middlePoints.addAll(trackSegment);
+			}
+		}
+		return middlePoints;
+	}
+
+	/**
+	 * @return a map from frame to the indices of the segments starting in this frame.
+	 */
+	private Map<Integer, int[]> indexSegmentStarts() {
+		final List<Spot> starts = new ArrayList<Spot>(trackSegments.size());
+		for (final SortedSet<Spot> trackSegment : trackSegments) {
+			starts.add(trackSegment.first());
+		}
+		return indexByFrame(starts);
+	}
+
+	/**
+	 * @return a map from frame to the indices in the given list of the spots in this frame.
+	 */
+	private static Map<Integer, int[]> indexByFrame(final List<Spot> spots) {
+		final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+		for (final Spot spot : spots) {
+			final Integer frame = spot.getFeature(Spot.FRAME).intValue();
+			final Integer count = counts.get(frame);
+			counts.put(frame, null == count ? 1 : count + 1);
+		}
+		final Map<Integer, int[]> index = new HashMap<Integer, int[]>(counts.size());
+		for (final Integer frame : counts.keySet()) {
+			index.put(frame, new int[counts.get(frame)]);
+		}
+		final Map<Integer, Integer> fill = new HashMap<Integer, Integer>(counts.size());
+		for (int i = 0; i < spots.size(); i++) {
+			final Integer frame = spots.get(i).getFeature(Spot.FRAME).intValue();
+			final Integer f = fill.get(frame);
+			final int pos = null == f ? 0 : f;
+			index.get(frame)[pos] = i;
+			fill.put(frame, pos + 1);
+		}
+		return index;
+	}
+
+	/**
+	 * Calculates the CUTOFF_PERCENTILE cost of all the finite costs, and multiplies
+	 * it by the alternative linking cost factor.
+	 */
+	private double getCutoff(final double[] finiteCosts) {
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final double cutoffPercentile = (Double) settings.get(KEY_CUTOFF_PERCENTILE);
+		final double alternativeLinkingCostFactor = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR);
+
+		double cutoff = TMUtils.getPercentile(finiteCosts, cutoffPercentile);
+		if (!(cutoff < blockingValue)) {
+			cutoff = 10.0d; // Same fallback as for the dense matrix: no cost to calculate the cutoff from
+		}
+		return alternativeLinkingCostFactor * cutoff;
+	}
+
+}
@@ -105,6 +105,8 @@ public class TrackSegmentCostMatrixCreator extends LAPTrackerCostMatrixCreator {
 	protected List<Spot> mergingMiddlePoints;
 	/** The list of middle Spots which can participate in splitting events. */
 	protected List<Spot> splittingMiddlePoints;
+	/** The cost used for alternative assignments (no link), computed from the finite costs. */
+	protected double alternativeCost = Double.NaN;
 
 	private Logger logger = Logger.VOID_LOGGER;
 
@@ -173,6 +175,16 @@ public List<Spot> getMergingMiddlePoints() {
 	}
 
 
+	/**
+	 * Returns the cost used for alternative assignments (track termination and initiation, 
+	 * no splitting and no merging) in the matrix built by this creator. 
+	 * @return the alternative cost, or {@link Double#NaN} if the matrix has not been built yet.
+	 */
+	public double getAlternativeCost() {
+		return alternativeCost;
+	}
+
+
 	@Override
 	public boolean process() {
 		
@@ -201,6 +213,7 @@ public boolean process() {
 			logger.setStatus("Completing cost matrix...");
 			logger.setProgress(0.7f);
 			double cutoff = getCutoff(topLeft);
+			alternativeCost = cutoff;
 			Matrix topRight = getAlternativeScores(topLeft.getRowDimension(), cutoff);
 			Matrix bottomLeft = getAlternativeScores(topLeft.getColumnDimension(), cutoff);
 			Matrix bottomRight = getLowerRight(topLeft, cutoff);
@@ -0,0 +1,328 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * A sparse implementation of the Jonker-Volgenant algorithm, that solves the
+ * linear assignment problem directly on a {@link SparseCostMatrix}.
+ * <p>
+ * For reference, see:
+ * Jonker, R. and Volgenant, A. "A shortest augmenting path algorithm for dense
+ * and sparse linear assignment problems." Computing 38, 1987.
+ * <p>
+ * The algorithm works in two phases:
+ * <ol>
+ * 	<li> <b>Column reduction</b>: the dual variable of each column is set to its
+ * minimal cost, and each column is greedily assigned to the row where this
+ * minimum is reached, if that row is still free. On the cost matrices of the
+ * LAP trackers, most rows are assigned at this stage.
+ * 	<li> <b>Augmentation</b>: for each remaining free row, a shortest augmenting
+ * path is searched for with Dijkstra's algorithm on the reduced costs. Only the
+ * stored costs are visited, and a binary heap is used to pick the next column,
+ * so that the cost of one augmentation is proportional to the number of
+ * candidate links explored, not to the square of the problem size.
+ * </ol>
+ * Blocked assignments are simply not stored in the sparse matrix. When this
+ * solver is called with a dense matrix, entries larger than or equal to the
+ * blocking value are discarded before solving.
+ * <p>
+ * A row for which no augmenting path exists is left unassigned. With the
+ * matrices built following Jaqaman <i>et al.</i>, 2008, this never happens,
+ * since alternative costs guarantee that a complete assignment exists.
+ */
+public class JonkerVolgenantAlgorithm implements SparseAssignmentAlgorithm {
+
+	/** Dense entries larger than or equal to this value are considered blocked. */
+	private final double blockingValue;
+
+	/*
+	 * Heap used in the Dijkstra search.
+	 */
+	private int[] heapCols = new int[16];
+	private double[] heapDists = new double[16];
+	private int heapSize;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new solver that will consider dense entries larger than or equal
+	 * to the given value as blocked.
+	 */
+	public JonkerVolgenantAlgorithm(final double blockingValue) {
+		this.blockingValue = blockingValue;
+	}
+
+	/**
+	 * Creates a new solver that will consider dense entries equal to
+	 * {@link Double#MAX_VALUE} or to infinity as blocked.
+	 */
+	public JonkerVolgenantAlgorithm() {
+		this(Double.MAX_VALUE);
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	@Override
+	public int[][] computeAssignments(final double[][] costMatrix) {
+		final int nRows = costMatrix.length;
+		if (nRows == 0) {
+			return new int[0][];
+		}
+		final int nCols = costMatrix[0].length;
+
+		final int[] number = new int[nRows];
+		int n = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (costMatrix[i][j] < blockingValue) {
+					n++;
+				}
+			}
+		}
+		final double[] cc = new double[n];
+		final int[] kk = new int[n];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (costMatrix[i][j] < blockingValue) {
+					cc[index] = costMatrix[i][j];
+					kk[index] = j;
+					index++;
+					number[i]++;
+				}
+			}
+		}
+		return computeAssignments(new SparseCostMatrix(cc, kk, number, nCols));
+	}
+
+	@Override
+	public int[][] computeAssignments(final SparseCostMatrix cm) {
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+		final double[] cc = cm.cc;
+		final int[] kk = cm.kk;
+		final int[] number = cm.number;
+		final int[] start = cm.start;
+
+		// Column assigned to each row, and index in cc of the assigned cost
+		final int[] x = new int[nRows];
+		final int[] xk = new int[nRows];
+		Arrays.fill(x, -1);
+		// Row assigned to each column
+		final int[] y = new int[nCols];
+		Arrays.fill(y, -1);
+		// Column dual variables. Row duals are implicit: u[i] = c(i, x[i]) - v[x[i]]
+		final double[] v = new double[nCols];
+
+		/*
+		 * 1. Column reduction.
+		 */
+
+		final int[] argmin = new int[nCols];
+		Arrays.fill(argmin, -1);
+		Arrays.fill(v, Double.POSITIVE_INFINITY);
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				final int j = kk[k];
+				if (cc[k] < v[j]) {
+					v[j] = cc[k];
+					argmin[j] = k;
+				}
+			}
+		}
+		for (int j = 0; j < nCols; j++) {
+			if (argmin[j] < 0) {
+				v[j] = 0; // empty column
+			}
+		}
+		// Greedy assignment along column minima
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				final int j = kk[k];
+				if (argmin[j] == k && y[j] < 0) {
+					x[i] = j;
+					xk[i] = k;
+					y[j] = i;
+					break;
+				}
+			}
+		}
+
+		/*
+		 * 2. Augmentation of free rows by shortest paths.
+		 */
+
+		final double[] d = new double[nCols];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		final int[] pred = new int[nCols];
+		final int[] predk = new int[nCols];
+		final boolean[] ready = new boolean[nCols];
+		final int[] touched = new int[nCols];
+		final int[] readyList = new int[nCols];
+
+		for (int freeRow = 0; freeRow < nRows; freeRow++) {
+			if (x[freeRow] >= 0) {
+				continue;
+			}
+
+			int nTouched = 0;
+			int nReady = 0;
+			int endCol = -1;
+			heapSize = 0;
+
+			for (int k = start[freeRow]; k < start[freeRow] + number[freeRow]; k++) {
+				final int j = kk[k];
+				final double dist = cc[k] - v[j];
+				if (dist < d[j]) {
+					if (d[j] == Double.POSITIVE_INFINITY) {
+						touched[nTouched++] = j;
+					}
+					d[j] = dist;
+					pred[j] = freeRow;
+					predk[j] = k;
+					push(j, dist);
+				}
+			}
+
+			while (heapSize > 0) {
+				final double dist = heapDists[0];
+				final int j = pop();
+				if (ready[j] || dist > d[j]) {
+					continue; // stale heap entry
+				}
+				ready[j] = true;
+				readyList[nReady++] = j;
+
+				if (y[j] < 0) {
+					endCol = j;
+					break;
+				}
+
+				// Extend the path through the row currently assigned to this column
+				final int i = y[j];
+				final double ui = cc[xk[i]] - v[j];
+				for (int k = start[i]; k < start[i] + number[i]; k++) {
+					final int col = kk[k];
+					if (ready[col]) {
+						continue;
+					}
+					final double nd = dist + cc[k] - v[col] - ui;
+					if (nd < d[col]) {
+						if (d[col] == Double.POSITIVE_INFINITY) {
+							touched[nTouched++] = col;
+						}
+						d[col] = nd;
+						pred[col] = i;
+						predk[col] = k;
+						push(col, nd);
+					}
+				}
+			}
+
+			if (endCol >= 0) {
+				// Update column duals of the columns settled before the end column
+				final double dmin = d[endCol];
+				for (int r = 0; r < nReady; r++) {
+					final int j = readyList[r];
+					v[j] += d[j] - dmin;
+				}
+
+				// Augment along the path
+				int j = endCol;
+				while (true) {
+					final int i = pred[j];
+					final int previous = x[i];
+					y[j] = i;
+					x[i] = j;
+					xk[i] = predk[j];
+					if (i == freeRow) {
+						break;
+					}
+					j = previous;
+				}
+			}
+
+			// Reset the search arrays, only where they were touched
+			for (int t = 0; t < nTouched; t++) {
+				final int j = touched[t];
+				d[j] = Double.POSITIVE_INFINITY;
+				ready[j] = false;
+			}
+		}
+
+		/*
+		 * 3. Collect solutions.
+		 */
+
+		int nAssigned = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				nAssigned++;
+			}
+		}
+		final int[][] solutions = new int[nAssigned][];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (x[i] >= 0) {
+				solutions[index++] = new int[] { i, x[i] };
+			}
+		}
+		return solutions;
+	}
+
+	/*
+	 * BINARY HEAP
+	 */
+
+	private void push(final int col, final double dist) {
+		if (heapSize == heapCols.length) {
+			heapCols = Arrays.copyOf(heapCols, 2 * heapSize);
+			heapDists = Arrays.copyOf(heapDists, 2 * heapSize);
+		}
+		int pos = heapSize++;
+		while (pos > 0) {
+			final int parent = (pos - 1) / 2;
+			if (heapDists[parent] <= dist) {
+				break;
+			}
+			heapCols[pos] = heapCols[parent];
+			heapDists[pos] = heapDists[parent];
+			pos = parent;
+		}
+		heapCols[pos] = col;
+		heapDists[pos] = dist;
+	}
+
+	private int pop() {
+		final int top = heapCols[0];
+		heapSize--;
+		if (heapSize > 0) {
+			final int col = heapCols[heapSize];
+			final double dist = heapDists[heapSize];
+			int pos = 0;
+			while (true) {
+				int child = 2 * pos + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && heapDists[child + 1] < heapDists[child]) {
+					child++;
+				}
+				if (heapDists[child] >= dist) {
+					break;
+				}
+				heapCols[pos] = heapCols[child];
+				heapDists[pos] = heapDists[child];
+				pos = child;
+			}
+			heapCols[pos] = col;
+			heapDists[pos] = dist;
+		}
+		return top;
+	}
+
+}
@@ -0,0 +1,215 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * Decomposes the top-left quadrant of a LAP cost matrix into independent
+ * sub-problems.
+ * <p>
+ * Rows and columns of the quadrant are taken as the two vertex sets of a
+ * bipartite graph, where each finite cost is an edge. In the complete LAP
+ * matrix built following Jaqaman <i>et al.</i>, 2008 (see
+ * {@link SparseCostMatrix#withAlternativeCosts(double)}), the alternative costs
+ * only connect a row or a column to its own dummy counterpart. Therefore, each
+ * connected component of this graph, completed with its alternative costs, is a
+ * LAP that can be solved independently of the others, and the union of their
+ * solutions is the solution of the global LAP.
+ * <p>
+ * Rows and columns that have no finite cost at all are reported separately
+ * as isolated: their only possible assignment is the alternative one.
+ */
+public class LAPConnectedComponents {
+
+	private final SparseCostMatrix cm;
+	/** Global row indices, component after component. */
+	private final int[] rows;
+	/** Index in {@link #rows} of the first row of each component, plus a last element. */
+	private final int[] rowStart;
+	/** Global column indices, component after component. */
+	private final int[] cols;
+	/** Index in {@link #cols} of the first column of each component, plus a last element. */
+	private final int[] colStart;
+	/** Local index of each column in its component. */
+	private final int[] localCol;
+	private final int[] isolatedRows;
+	private final int[] isolatedCols;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	public LAPConnectedComponents(final SparseCostMatrix cm) {
+		this.cm = cm;
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+
+		// Union-find over rows (0..nRows-1) and columns (nRows..nRows+nCols-1)
+		final int[] parent = new int[nRows + nCols];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		for (int i = 0; i < nRows; i++) {
+			for (int k = cm.start[i]; k < cm.start[i] + cm.number[i]; k++) {
+				union(parent, i, nRows + cm.kk[k]);
+			}
+		}
+
+		// Label components that contain at least one cost
+		final int[] label = new int[parent.length];
+		Arrays.fill(label, -1);
+		int nComponents = 0;
+		int nIsolatedRows = 0;
+		int nIsolatedCols = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (cm.number[i] == 0) {
+				nIsolatedRows++;
+				continue;
+			}
+			final int root = find(parent, i);
+			if (label[root] < 0) {
+				label[root] = nComponents++;
+			}
+		}
+		// Every column with a cost is connected to a row, so it has a labelled root
+		final int[] colCount = new int[nCols];
+		for (int k = 0; k < cm.kk.length; k++) {
+			colCount[cm.kk[k]]++;
+		}
+		for (int j = 0; j < nCols; j++) {
+			if (colCount[j] == 0) {
+				nIsolatedCols++;
+			}
+		}
+
+		// Count rows and columns per component
+		final int[] nRowsPerComponent = new int[nComponents];
+		final int[] nColsPerComponent = new int[nComponents];
+		for (int i = 0; i < nRows; i++) {
+			if (cm.number[i] > 0) {
+				nRowsPerComponent[label[find(parent, i)]]++;
+			}
+		}
+		for (int j = 0; j < nCols; j++) {
+			if (colCount[j] > 0) {
+				nColsPerComponent[label[find(parent, nRows + j)]]++;
+			}
+		}
+		rowStart = new int[nComponents + 1];
+		colStart = new int[nComponents + 1];
+		for (int c = 0; c < nComponents; c++) {
+			rowStart[c + 1] = rowStart[c] + nRowsPerComponent[c];
+			colStart[c + 1] = colStart[c] + nColsPerComponent[c];
+		}
+
+		// Fill, keeping global order within each component
+		rows = new int[rowStart[nComponents]];
+		cols = new int[colStart[nComponents]];
+		localCol = new int[nCols];
+		isolatedRows = new int[nIsolatedRows];
+		isolatedCols = new int[nIsolatedCols];
+		final int[] rowFill = Arrays.copyOf(rowStart, nComponents);
+		final int[] colFill = Arrays.copyOf(colStart, nComponents);
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			if (cm.number[i] == 0) {
+				isolatedRows[index++] = i;
+			} else {
+				rows[rowFill[label[find(parent, i)]]++] = i;
+			}
+		}
+		index = 0;
+		for (int j = 0; j < nCols; j++) {
+			if (colCount[j] == 0) {
+				isolatedCols[index++] = j;
+				localCol[j] = -1;
+			} else {
+				final int c = label[find(parent, nRows + j)];
+				localCol[j] = colFill[c] - colStart[c];
+				cols[colFill[c]++] = j;
+			}
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/** @return the number of components that contain at least one finite cost. */
+	public int getNComponents() {
+		return rowStart.length - 1;
+	}
+
+	/** @return the global indices of the rows of the specified component, in ascending order. */
+	public int[] getRows(final int component) {
+		return Arrays.copyOfRange(rows, rowStart[component], rowStart[component + 1]);
+	}
+
+	/** @return the global indices of the columns of the specified component, in ascending order. */
+	public int[] getCols(final int component) {
+		return Arrays.copyOfRange(cols, colStart[component], colStart[component + 1]);
+	}
+
+	/** @return the size of the specified component, in number of rows plus number of columns. */
+	public int getSize(final int component) {
+		return rowStart[component + 1] - rowStart[component] + colStart[component + 1] - colStart[component];
+	}
+
+	/** @return the rows that have no finite cost. */
+	public int[] getIsolatedRows() {
+		return isolatedRows;
+	}
+
+	/** @return the columns that have no finite cost. */
+	public int[] getIsolatedCols() {
+		return isolatedCols;
+	}
+
+	/**
+	 * Returns the cost matrix of the specified component, with local indices:
+	 * local row <code>r</code> corresponds to global row <code>getRows(component)[r]</code>,
+	 * and similarly for columns.
+	 */
+	public SparseCostMatrix getSubMatrix(final int component) {
+		final int from = rowStart[component];
+		final int to = rowStart[component + 1];
+		final int[] number = new int[to - from];
+		int nEntries = 0;
+		for (int r = from; r < to; r++) {
+			number[r - from] = cm.number[rows[r]];
+			nEntries += number[r - from];
+		}
+		final double[] cc = new double[nEntries];
+		final int[] kk = new int[nEntries];
+		int index = 0;
+		for (int r = from; r < to; r++) {
+			final int i = rows[r];
+			for (int k = cm.start[i]; k < cm.start[i] + cm.number[i]; k++) {
+				cc[index] = cm.cc[k];
+				kk[index] = localCol[cm.kk[k]];
+				index++;
+			}
+		}
+		return new SparseCostMatrix(cc, kk, number, colStart[component + 1] - colStart[component]);
+	}
+
+	/*
+	 * UNION-FIND
+	 */
+
+	private static int find(final int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(final int[] parent, final int a, final int b) {
+		final int ra = find(parent, a);
+		final int rb = find(parent, b);
+		if (ra != rb) {
+			parent[ra] = rb;
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+/**
+ * Interface for assignment algorithms that can solve an assignment problem
+ * directly from a {@link SparseCostMatrix}, without ever building the dense
+ * cost matrix.
+ */
+public interface SparseAssignmentAlgorithm extends AssignmentAlgorithm {
+
+	/**
+	 * Solve this assignment problem for the given sparse cost matrix.
+	 * <p>
+	 * The solutions are returned in the same format as for
+	 * {@link AssignmentAlgorithm#computeAssignments(double[][])}. Only
+	 * assignments that correspond to a stored cost are returned.
+	 *
+	 * @param costMatrix  the sparse cost matrix. It is not modified by this call.
+	 * @return an array of solutions, as arrays of 2 ints.
+	 */
+	public int[][] computeAssignments(SparseCostMatrix costMatrix);
+
+}
@@ -0,0 +1,234 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import java.util.Arrays;
+
+/**
+ * A cost matrix that only stores the finite costs of an assignment problem,
+ * in the compressed sparse row (CSR) format.
+ * <p>
+ * The costs of row <code>i</code> are stored in {@link #cc}, from index
+ * <code>start[i]</code> (inclusive) to <code>start[i] + number[i]</code>
+ * (exclusive), and the matching column indices are stored at the same
+ * positions in {@link #kk}. Within a row, column indices are sorted in
+ * ascending order. Any entry that is not stored is considered to be blocked:
+ * the corresponding assignment is forbidden.
+ * <p>
+ * Memory therefore scales with the number of candidate assignments, and not
+ * with the square of the number of objects to assign.
+ */
+public class SparseCostMatrix {
+
+	/** The finite costs, row after row. */
+	final double[] cc;
+	/** The column index of each cost in {@link #cc}. */
+	final int[] kk;
+	/** The number of costs stored for each row. */
+	final int[] number;
+	/** The index in {@link #cc} of the first cost of each row. */
+	final int[] start;
+	/** The number of rows. */
+	final int nRows;
+	/** The number of columns. */
+	final int nCols;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new sparse cost matrix. Column indices within each row are
+	 * sorted upon creation, so rows can be given in any column order.
+	 *
+	 * @param cc  the finite costs, row after row.
+	 * @param kk  the column index of each cost, must have the same length than <code>cc</code>.
+	 * @param number  the number of costs for each row. Its length sets the number of rows.
+	 * @param nCols  the number of columns in the matrix.
+	 * @throws IllegalArgumentException if the arrays are inconsistent, or a column
+	 * index is out of bounds or repeated in a row.
+	 */
+	public SparseCostMatrix(final double[] cc, final int[] kk, final int[] number, final int nCols) {
+		if (cc.length != kk.length) {
+			throw new IllegalArgumentException("Cost and column index arrays must have the same length. Got " + cc.length + " and " + kk.length + ".");
+		}
+		this.cc = cc;
+		this.kk = kk;
+		this.number = number;
+		this.nRows = number.length;
+		this.nCols = nCols;
+		this.start = new int[nRows];
+
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			start[i] = index;
+			index += number[i];
+		}
+		if (index != cc.length) {
+			throw new IllegalArgumentException("Row numbers sum to " + index + " but there are " + cc.length + " costs.");
+		}
+
+		for (int i = 0; i < nRows; i++) {
+			sortRow(start[i], start[i] + number[i]);
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				if (kk[k] < 0 || kk[k] >= nCols) {
+					throw new IllegalArgumentException("Column index " + kk[k] + " at row " + i + " is out of bounds [0, " + nCols + "[.");
+				}
+				if (k > start[i] && kk[k] == kk[k - 1]) {
+					throw new IllegalArgumentException("Column index " + kk[k] + " is repeated at row " + i + ".");
+				}
+			}
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/** @return the number of rows in this matrix. */
+	public int getNRows() {
+		return nRows;
+	}
+
+	/** @return the number of columns in this matrix. */
+	public int getNCols() {
+		return nCols;
+	}
+
+	/** @return the number of finite costs stored in this matrix. */
+	public int getNEntries() {
+		return cc.length;
+	}
+
+	/**
+	 * Returns the cost stored at the given position, or the specified missing value
+	 * if there is no cost for this assignment.
+	 */
+	public double get(final int i, final int j, final double missingValue) {
+		final int k = Arrays.binarySearch(kk, start[i], start[i] + number[i], j);
+		if (k < 0) {
+			return missingValue;
+		}
+		return cc[k];
+	}
+
+	/**
+	 * Returns the transpose of this matrix.
+	 */
+	public SparseCostMatrix transpose() {
+		final int[] tnumber = new int[nCols];
+		for (int k = 0; k < kk.length; k++) {
+			tnumber[kk[k]]++;
+		}
+		final int[] tstart = new int[nCols];
+		for (int j = 1; j < nCols; j++) {
+			tstart[j] = tstart[j - 1] + tnumber[j - 1];
+		}
+		final double[] tcc = new double[cc.length];
+		final int[] tkk = new int[kk.length];
+		final int[] fill = Arrays.copyOf(tstart, nCols);
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				final int index = fill[kk[k]]++;
+				tcc[index] = cc[k];
+				tkk[index] = i;
+			}
+		}
+		return new SparseCostMatrix(tcc, tkk, tnumber, nRows);
+	}
+
+	/**
+	 * Returns the complete LAP matrix, as described in Jaqaman <i>et al.</i>, 2008,
+	 * built around this matrix, taken as the top-left quadrant.
+	 * <p>
+	 * For an <code>n x m</code> matrix, the returned matrix is <code>(n+m) x (n+m)</code>
+	 * and is made of:
+	 * <ul>
+	 * 	<li> this matrix, top-left;
+	 * 	<li> the alternative cost along the diagonal of the top-right <code>n x n</code> quadrant (no link for rows);
+	 * 	<li> the alternative cost along the diagonal of the bottom-left <code>m x m</code> quadrant (no link for columns);
+	 * 	<li> the transpose of this matrix, bottom-right, where every cost is replaced by the alternative cost.
+	 * </ul>
+	 * All the other entries are blocked, and are therefore never stored.
+	 *
+	 * @param alternativeCost  the cost of not making a link.
+	 */
+	public SparseCostMatrix withAlternativeCosts(final double alternativeCost) {
+		final int n = nRows + nCols;
+		final double[] lcc = new double[2 * cc.length + n];
+		final int[] lkk = new int[lcc.length];
+		final int[] lnumber = new int[n];
+		int index = 0;
+
+		// Top rows: top-left costs, then alternative on the top-right diagonal
+		for (int i = 0; i < nRows; i++) {
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				lcc[index] = cc[k];
+				lkk[index] = kk[k];
+				index++;
+			}
+			lcc[index] = alternativeCost;
+			lkk[index] = nCols + i;
+			index++;
+			lnumber[i] = number[i] + 1;
+		}
+
+		// Bottom rows: alternative on the bottom-left diagonal, then transposed pattern
+		final SparseCostMatrix t = transpose();
+		for (int j = 0; j < nCols; j++) {
+			lcc[index] = alternativeCost;
+			lkk[index] = j;
+			index++;
+			for (int k = t.start[j]; k < t.start[j] + t.number[j]; k++) {
+				lcc[index] = alternativeCost;
+				lkk[index] = nCols + t.kk[k];
+				index++;
+			}
+			lnumber[nRows + j] = t.number[j] + 1;
+		}
+
+		return new SparseCostMatrix(lcc, lkk, lnumber, n);
+	}
+
+	/**
+	 * Returns this matrix as a dense array of array of double, where entries
+	 * that are not stored are set to the given blocking value.
+	 */
+	public double[][] toDense(final double blockingValue) {
+		final double[][] dense = new double[nRows][nCols];
+		for (int i = 0; i < nRows; i++) {
+			Arrays.fill(dense[i], blockingValue);
+			for (int k = start[i]; k < start[i] + number[i]; k++) {
+				dense[i][kk[k]] = cc[k];
+			}
+		}
+		return dense;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ": " + nRows + " x " + nCols + " with " + cc.length + " non-blocked costs.";
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Insertion sort of the columns (and costs) in the given range. Rows are
+	 * expected to be small and usually already sorted.
+	 */
+	private void sortRow(final int from, final int to) {
+		for (int k = from + 1; k < to; k++) {
+			final int col = kk[k];
+			final double cost = cc[k];
+			int l = k - 1;
+			while (l >= from && kk[l] > col) {
+				kk[l + 1] = kk[l];
+				cc[l + 1] = cc[l];
+				l--;
+			}
+			kk[l + 1] = col;
+			cc[l + 1] = cost;
+		}
+	}
+
+}
@@ -5,14 +5,14 @@
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import net.imglib2.RealPoint;
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
-import net.imglib2.collection.KDTree;
 import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
@@ -21,8 +21,8 @@
 import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.SpotSpatialIndex;
 import fiji.plugin.trackmate.tracking.SpotTracker;
-import fiji.plugin.trackmate.util.TMUtils;
 
 public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	implements SpotTracker {
 
@@ -38,8 +38,8 @@ public class NearestNeighborTracker extends MultiThreadedBenchmarkAlgorithm	impl
 				"of each spot in the source frame. If the spots found are closer than the <br>" +
 				"maximal allowed distance, a link between the two is created. <br>" +
 				"<p>" +
-				"The nearest neighbor search relies upon the KD-tree technique implemented <br>" +
-				"in imglib by Johannes Schindelin and friends. This ensure a very efficient " +
+				"The nearest neighbor search relies upon the spatial index of the spot <br>" +
+				"collection, shared with the rest of TrackMate. This ensure a very efficient " +
 				"tracking and makes this tracker suitable for situation where a huge number <br>" +
 				"of particles are to be tracked over a very large number of frames. However, <br>" +
 				"because of the naiveness of its principles, it can result in pathological <br>" +
@@ -93,7 +93,6 @@ public boolean process() {
 		reset();
 		
 		final double maxLinkingDistance = (Double) settings.get(KEY_LINKING_MAX_DISTANCE);
-		final double maxDistSquare = maxLinkingDistance  * maxLinkingDistance;
 
 		final TreeSet<Integer> frames = new TreeSet<Integer>(spots.keySet());
 		Thread[] threads = new Thread[numThreads];
@@ -113,33 +112,27 @@ public void run() {
 						int sourceFrame = i;
 						int targetFrame = frames.higher(i);
 						List<Spot> sourceSpots = spots.get(sourceFrame);
-						List<Spot> targetSpots = spots.get(targetFrame);
-						
-						List<RealPoint> targetCoords = new ArrayList<RealPoint>(targetSpots.size());
-						List<FlagNode<Spot>> targetNodes = new ArrayList<FlagNode<Spot>>(targetSpots.size());
-						for(Spot spot : targetSpots) {
-							double[] coords = new double[3];
-							TMUtils.localize(spot, coords);
-							targetCoords.add(new RealPoint(coords));
-							targetNodes.add(new FlagNode<Spot>(spot));
-						}
-						
-						
-						KDTree<FlagNode<Spot>> tree = new KDTree<FlagNode<Spot>>(targetNodes, targetCoords);
-						NearestNeighborFlagSearchOnKDTree<Spot> search = new NearestNeighborFlagSearchOnKDTree<Spot>(tree);
+						SpotSpatialIndex targetIndex = spots.getSpatialIndex(targetFrame);
+						Set<Spot> visited = new HashSet<Spot>();
 						
 						// For each spot in the source frame, find its nearest neighbor in the target frame
 						for (Spot source : sourceSpots) {
 
-							double[] coords = new double[3];
-							TMUtils.localize(source, coords);
-							RealPoint sourceCoords = new RealPoint(coords);
-							search.search(sourceCoords);
-							
-							double squareDist = search.getSquareDistance();
-							FlagNode<Spot> targetNode = search.getSampler().get();
+							// Only the spots within the max linking distance are candidates
+							Spot target = null;
+							double squareDist = Double.POSITIVE_INFINITY;
+							for (Spot candidate : targetIndex.getSpotsWithin(source, maxLinkingDistance)) {
+								if (visited.contains(candidate)) {
+									continue;
+								}
+								double d2 = candidate.squareDistanceTo(source);
+								if (d2 < squareDist) {
+									squareDist = d2;
+									target = candidate;
+								}
+							}
 							
-							if (squareDist > maxDistSquare) {
+							if (null == target) {
 								// The closest we could find is too far. We skip this source spot and do not create a link
 								continue;								
 							}
@@ -147,9 +140,9 @@ public void run() {
 							// Everything is ok. This mode is free and below max dist. We create a link
 							// and mark this node as assigned.
 
-							targetNode.setVisited(true);
+							visited.add(target);
 							synchronized (graph) {
-								DefaultWeightedEdge edge = graph.addEdge(source, targetNode.getValue());
+								DefaultWeightedEdge edge = graph.addEdge(source, target);
 								graph.setEdgeWeight(edge, squareDist);
 							}
 
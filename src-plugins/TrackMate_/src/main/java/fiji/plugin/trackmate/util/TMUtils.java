@@ -237,7 +237,7 @@ public static final Comparator<Spot> createAscendingComparatorFor(final String f
 		return new Comparator<Spot>() {
 			@Override
 			public int compare(Spot o1, Spot o2) {
-				return o1.getFeature(feature).compareTo(o2.getFeature(feature));
+				return Double.compare(o1.getFeatureAsDouble(feature), o2.getFeatureAsDouble(feature));
 			}
 		};
 	}
@@ -246,7 +246,7 @@ public static final Comparator<Spot> createDescendingComparatorFor(final String
 		return new Comparator<Spot>() {
 			@Override
 			public int compare(Spot o1, Spot o2) {
-				return o2.getFeature(feature).compareTo(o1.getFeature(feature));
+				return Double.compare(o2.getFeatureAsDouble(feature), o1.getFeatureAsDouble(feature));
 			}
 		};
 	}
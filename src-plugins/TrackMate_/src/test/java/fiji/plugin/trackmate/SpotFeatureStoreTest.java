@@ -0,0 +1,278 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+
+import org.junit.Test;
+
+public class SpotFeatureStoreTest {
+
+	@Test
+	public void testPutAndGet() {
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		checkPutAndGet(spot);
+
+		// Same thing once the spot is attached to a store
+		final SpotCollection spots = new SpotCollection();
+		final Spot attached = new Spot(new double[] { 1, 2, 3 });
+		spots.add(attached, 0);
+		assertSame(spots.getFeatureStore(), attached.getFeatureStore());
+		checkPutAndGet(attached);
+		// Reading an unknown feature must not create a column for it
+		for (final SpotFeatureStore.Column column : spots.getFeatureStore().getColumns()) {
+			assertFalse("SpotFeatureStoreTest_UNSET".equals(column.getFeature()));
+		}
+		assertTrue(spots.getFeatureStore().getColumn("SpotFeatureStoreTest_NAN").isSet(attached));
+
+		// Two spots do not share values
+		final Spot other = new Spot(new double[] { 4, 5, 6 });
+		spots.add(other, 0);
+		assertEquals(27d, attached.squareDistanceTo(other), 0);
+		assertEquals(27d, spot.squareDistanceTo(other), 0);
+		assertFalse(spots.getFeatureStore().getColumn(Spot.QUALITY).isSet(other));
+		assertTrue(Double.isNaN(spots.getFeatureStore().getColumn(Spot.QUALITY).get(other)));
+	}
+
+	private static void checkPutAndGet(final Spot spot) {
+		assertEquals(1d, spot.getFeature(Spot.POSITION_X), 0);
+		assertEquals(3d, spot.getFeature(Spot.POSITION_Z), 0);
+		assertNull(spot.getFeature("SpotFeatureStoreTest_UNSET"));
+		assertTrue(Double.isNaN(spot.getFeatureAsDouble("SpotFeatureStoreTest_UNSET")));
+		assertFalse(spot.getFeatures().containsKey("SpotFeatureStoreTest_UNSET"));
+
+		spot.putFeature(Spot.QUALITY, 10);
+		spot.putFeature("SpotFeatureStoreTest_NAN", Double.NaN);
+		final Map<String, Double> features = spot.getFeatures();
+		assertEquals(10d, features.get(Spot.QUALITY), 0);
+		// A feature set to NaN must be reported as present
+		assertTrue(features.containsKey("SpotFeatureStoreTest_NAN"));
+		assertFalse(features.containsKey("SpotFeatureStoreTest_UNSET"));
+	}
+
+	@Test
+	public void testColumnValues() {
+		final SpotCollection collection = new SpotCollection();
+		final List<Spot> spots = new ArrayList<Spot>();
+		final double[] expected = new double[3 * SpotFeatureStore.PAGE_SIZE];
+		for (int i = 0; i < expected.length; i++) {
+			final Spot spot = new Spot(new double[] { i, 0, 0 });
+			spots.add(spot);
+			expected[i] = i;
+		}
+		collection.put(0, spots);
+		final SpotFeatureStore.Column column = collection.getFeatureStore().getColumn(Spot.POSITION_X);
+		assertArrayEquals(expected, column.values(spots, spots.size()), 0);
+
+		// The spots were attached in order, so their rows are contiguous
+		final double[] scanned = new double[expected.length + 2];
+		Arrays.fill(scanned, -1);
+		column.copy(0, expected.length, scanned, 1);
+		assertEquals(-1d, scanned[0], 0);
+		assertEquals(-1d, scanned[expected.length + 1], 0);
+		assertArrayEquals(expected, Arrays.copyOfRange(scanned, 1, expected.length + 1), 0);
+		// Rows past the last attached spot read as missing
+		final double[] beyond = new double[2];
+		column.copy(expected.length, expected.length + 2, beyond, 0);
+		assertTrue(Double.isNaN(beyond[0]) && Double.isNaN(beyond[1]));
+	}
+
+	@Test
+	public void testConcurrentWrites() {
+		final int nSpots = 10 * SpotFeatureStore.PAGE_SIZE;
+		final Spot[] spots = new Spot[nSpots];
+		for (int i = 0; i < nSpots; i++) {
+			spots[i] = new Spot(i);
+		}
+		// Half of the spots are attached to a store, the others keep their features
+		final SpotCollection collection = new SpotCollection();
+		collection.put(0, new ArrayList<Spot>(Arrays.asList(spots).subList(0, nSpots / 2)));
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(4);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < nSpots; i = ai.getAndIncrement()) {
+						spots[i].putFeature("SpotFeatureStoreTest_CONCURRENT", i);
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		for (int i = 0; i < nSpots; i++) {
+			assertEquals(i, spots[i].getFeature("SpotFeatureStoreTest_CONCURRENT"), 0);
+		}
+	}
+
+	@Test
+	public void testConcurrentColumnCreation() {
+		final int nSpots = 4 * SpotFeatureStore.PAGE_SIZE;
+		final Spot[] spots = new Spot[nSpots];
+		for (int i = 0; i < nSpots; i++) {
+			spots[i] = new Spot(i);
+		}
+		new SpotCollection().put(0, new ArrayList<Spot>(Arrays.asList(spots)));
+		final int nFeatures = 16;
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(8);
+		for (int ithread = 0; ithread < threads.length; ithread++) {
+			threads[ithread] = new Thread() {
+				@Override
+				public void run() {
+					// Every thread creates and grows the same columns, in a different order
+					for (int i = ai.getAndIncrement(); i < nSpots; i = ai.getAndIncrement()) {
+						final int offset = i % nFeatures;
+						for (int j = 0; j < nFeatures; j++) {
+							final int f = (j + offset) % nFeatures;
+							spots[i].putFeature("SpotFeatureStoreTest_CREATION_" + f, i + f);
+						}
+					}
+				}
+			};
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		for (int i = 0; i < nSpots; i++) {
+			for (int f = 0; f < nFeatures; f++) {
+				assertEquals(i + f, spots[i].getFeature("SpotFeatureStoreTest_CREATION_" + f), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testReleasedRowsAreReused() {
+		final SpotCollection collection = new SpotCollection();
+		final SpotFeatureStore store = collection.getFeatureStore();
+		final int nSpots = 2 * SpotFeatureStore.PAGE_SIZE;
+		final List<Spot> spots = new ArrayList<Spot>(nSpots);
+		for (int i = 0; i < nSpots; i++) {
+			final Spot spot = new Spot(new double[] { i, i, i });
+			spot.putFeature("SpotFeatureStoreTest_RECYCLED", i);
+			spots.add(spot);
+		}
+		collection.put(3, new ArrayList<Spot>(spots));
+		assertEquals(nSpots, store.getRowCount());
+
+		// Removed spots take their values back, and give their row back
+		for (final Spot spot : spots) {
+			assertTrue(collection.remove(spot, 3));
+			assertNull(spot.getFeatureStore());
+		}
+		assertEquals(0, store.getRowCount());
+		for (int i = 0; i < nSpots; i++) {
+			assertEquals(i, spots.get(i).getFeature("SpotFeatureStoreTest_RECYCLED"), 0);
+			assertEquals(3, spots.get(i).getFeature(Spot.FRAME), 0);
+		}
+
+		// New spots reuse these rows, and must not see the old values
+		for (int i = 0; i < nSpots; i++) {
+			final Spot spot = new Spot(i);
+			collection.add(spot, 0);
+			assertNull(spot.getFeature("SpotFeatureStoreTest_RECYCLED"));
+			assertNull(spot.getFeature(Spot.POSITION_X));
+		}
+		assertEquals(nSpots, store.getRowCount());
+		assertEquals(nSpots, store.getRowLimit());
+
+		// Removing a whole frame releases its spots too
+		collection.remove((Object) 0);
+		assertEquals(0, store.getRowCount());
+	}
+
+	@Test
+	public void testMovedSpotStaysAttached() {
+		final SpotCollection collection = new SpotCollection();
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		collection.add(spot, 0);
+		// This is how the model moves a spot
+		collection.add(spot, 1);
+		collection.remove(spot, 0);
+		assertSame(collection.getFeatureStore(), spot.getFeatureStore());
+		assertEquals(1, collection.getFeatureStore().getRowCount());
+	}
+
+	@Test
+	public void testStoresAreSeparate() {
+		final SpotCollection first = new SpotCollection();
+		final SpotCollection second = new SpotCollection();
+		final Spot spot = new Spot(new double[] { 1, 2, 3 });
+		spot.putFeature(Spot.QUALITY, 5);
+		first.add(spot, 0);
+		second.add(spot, 0);
+		// The spot stays in the store of the collection that owns it
+		assertSame(first.getFeatureStore(), spot.getFeatureStore());
+		assertEquals(0, second.getFeatureStore().getRowCount());
+		// The other collection can still read it and list its features
+		assertEquals(5, second.getFeatureStore().getColumn(Spot.QUALITY).get(spot), 0);
+		boolean found = false;
+		for (final SpotFeatureStore.Column column : second.getFeatureColumns()) {
+			found |= Spot.QUALITY.equals(column.getFeature());
+		}
+		assertTrue(found);
+		// And removing it there does not release it
+		second.remove(spot, 0);
+		assertSame(first.getFeatureStore(), spot.getFeatureStore());
+
+		// Filtered collections are views that share the store
+		final SpotCollection filtered = first.filter(new FeatureFilter(Spot.QUALITY, 1d, true));
+		assertSame(first.getFeatureStore(), filtered.getFeatureStore());
+		filtered.clear();
+		assertSame(first.getFeatureStore(), spot.getFeatureStore());
+	}
+
+	@Test
+	public void testFilter() {
+		final SpotCollection collection = new SpotCollection();
+		final List<Spot> spots = new ArrayList<Spot>();
+		for (int i = 0; i < 100; i++) {
+			final Spot spot = new Spot(new double[] { i, 0, 0 });
+			if (i % 10 != 0) {
+				spot.putFeature(Spot.QUALITY, i);
+			}
+			spots.add(spot);
+		}
+		// A spot that belongs to another store is tested on its own
+		final Spot foreign = new Spot(new double[] { 0, 0, 0 });
+		foreign.putFeature(Spot.QUALITY, 1);
+		new SpotCollection().add(foreign, 0);
+		spots.add(foreign);
+		collection.put(0, spots);
+		final Spot detached = new Spot(new double[] { 0, 0, 0 });
+		detached.putFeature(Spot.QUALITY, 99);
+		collection.add(detached, 1);
+		collection.remove(detached, 1);
+		// Modifying the frame list directly does not attach the spot
+		collection.get(1).add(detached);
+		assertNull(detached.getFeatureStore());
+
+		for (final boolean isAbove : new boolean[] { true, false }) {
+			final FeatureFilter filter = new FeatureFilter(Spot.QUALITY, 50d, isAbove);
+			final SpotCollection single = collection.filter(filter);
+			final List<FeatureFilter> filters = new ArrayList<FeatureFilter>();
+			filters.add(filter);
+			final SpotCollection multiple = collection.filter(filters);
+			for (final int frame : collection.keySet()) {
+				final List<Spot> expected = new ArrayList<Spot>();
+				for (final Spot spot : collection.get(frame)) {
+					final Double val = spot.getFeature(Spot.QUALITY);
+					if (null == val || (isAbove ? val >= 50 : val <= 50)) {
+						expected.add(spot);
+					}
+				}
+				assertEquals(expected, single.get(frame));
+				assertEquals(expected, multiple.get(frame));
+			}
+		}
+	}
+}
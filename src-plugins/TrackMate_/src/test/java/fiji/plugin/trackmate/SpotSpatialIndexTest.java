@@ -0,0 +1,192 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SpotSpatialIndexTest {
+
+	private static final int N_SPOTS = 500;
+
+	@Test
+	public void testAgainstBruteForce() {
+		final Random ran = new Random(1l);
+		final List<Spot> spots = createSpots(ran, N_SPOTS);
+		final SpotSpatialIndex index = new SpotSpatialIndex(spots);
+		assertEquals(N_SPOTS, index.size());
+
+		for (int t = 0; t < 100; t++) {
+			final Spot location = new Spot(new double[] { 120 * ran.nextDouble() - 10, 120 * ran.nextDouble() - 10, 20 * ran.nextDouble() });
+			final double radius = 15 * ran.nextDouble();
+
+			// Radius search
+			final HashSet<Spot> expected = new HashSet<Spot>();
+			for (final Spot spot : spots) {
+				if (spot.squareDistanceTo(location) <= radius * radius) {
+					expected.add(spot);
+				}
+			}
+			assertEquals(expected, new HashSet<Spot>(index.getSpotsWithin(location, radius)));
+
+			// k nearest
+			final int n = 1 + ran.nextInt(10);
+			final List<Spot> sorted = new ArrayList<Spot>(spots);
+			Collections.sort(sorted, new Comparator<Spot>() {
+				@Override
+				public int compare(final Spot o1, final Spot o2) {
+					return Double.compare(o1.squareDistanceTo(location), o2.squareDistanceTo(location));
+				}
+			});
+			final List<Spot> closest = index.getNClosestSpots(location, n);
+			assertEquals(n, closest.size());
+			for (int i = 0; i < n; i++) {
+				assertEquals(sorted.get(i).squareDistanceTo(location), closest.get(i).squareDistanceTo(location), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdates() {
+		final Random ran = new Random(2l);
+		final List<Spot> spots = createSpots(ran, N_SPOTS);
+		final SpotSpatialIndex index = new SpotSpatialIndex(5d);
+		for (final Spot spot : spots) {
+			index.add(spot);
+		}
+
+		// Move a spot far away
+		final Spot moved = spots.get(0);
+		final Spot origin = new Spot(new double[] { moved.getFeature(Spot.POSITION_X), moved.getFeature(Spot.POSITION_Y), moved.getFeature(Spot.POSITION_Z) });
+		moved.putFeature(Spot.POSITION_X, 1000);
+		assertTrue(index.update(moved));
+		assertTrue(!index.getSpotsWithin(origin, 1e-6).contains(moved));
+		final Spot far = new Spot(new double[] { 1001, moved.getFeature(Spot.POSITION_Y), moved.getFeature(Spot.POSITION_Z) });
+		assertEquals(moved, index.getClosestSpot(far));
+		assertEquals(moved, index.getSpotAt(far));
+
+		// Remove it
+		assertTrue(index.remove(moved));
+		assertEquals(N_SPOTS - 1, index.size());
+		assertNull(index.getSpotAt(far));
+
+		// Bounding box
+		final double[] min = new double[] { 20, 20, 0 };
+		final double[] max = new double[] { 60, 50, 20 };
+		int expected = 0;
+		for (final Spot spot : spots.subList(1, spots.size())) {
+			final double x = spot.getFeature(Spot.POSITION_X);
+			final double y = spot.getFeature(Spot.POSITION_Y);
+			if (x >= min[0] && x <= max[0] && y >= min[1] && y <= max[1]) {
+				expected++;
+			}
+		}
+		assertEquals(expected, index.getSpotsIn(min, max).size());
+	}
+
+	@Test
+	public void testSpotCollectionIndex() {
+		final Random ran = new Random(3l);
+		final SpotCollection collection = new SpotCollection();
+		final List<Spot> spots = createSpots(ran, N_SPOTS);
+		collection.put(0, new ArrayList<Spot>(spots));
+		final SpotSpatialIndex index = collection.getSpatialIndex(0);
+		assertEquals(N_SPOTS, index.size());
+
+		// Add and remove through the collection keep the index up to date
+		final Spot added = new Spot(new double[] { 50, 50, 0 });
+		added.putFeature(Spot.RADIUS, 2);
+		collection.add(added, 0);
+		assertEquals(N_SPOTS + 1, index.size());
+		assertEquals(added, collection.getClosestSpot(added, 0));
+		collection.remove(added, 0);
+		assertEquals(N_SPOTS, index.size());
+	}
+
+	@Test
+	public void testEmptyAndMissingFrames() {
+		final SpotCollection collection = new SpotCollection();
+		final Spot location = new Spot(new double[] { 1, 2, 3 });
+		assertNull(collection.getSpatialIndex(0));
+		assertNull(collection.getClosestSpot(location, 0));
+		assertNull(collection.getSpotAt(location, 0));
+		assertTrue(collection.getNClosestSpots(location, 0, 3).isEmpty());
+
+		collection.put(1, new ArrayList<Spot>());
+		assertEquals(0, collection.getSpatialIndex(1).size());
+		assertNull(collection.getClosestSpot(location, 1));
+		assertNull(collection.getSpotAt(location, 1));
+		assertTrue(collection.getNClosestSpots(location, 1, 3).isEmpty());
+
+		// The empty index follows spots added later
+		collection.add(location, 1);
+		assertEquals(location, collection.getClosestSpot(location, 1));
+	}
+
+	@Test
+	public void testLargeRadiusAndRemovals() {
+		final Random ran = new Random(4l);
+		final List<Spot> spots = createSpots(ran, N_SPOTS);
+		// Tiny cells: any reasonable radius spans more cells than are occupied
+		final SpotSpatialIndex index = new SpotSpatialIndex(0.01);
+		for (final Spot spot : spots) {
+			index.add(spot);
+		}
+		final List<Spot> remaining = new ArrayList<Spot>(spots);
+		for (int t = 0; t < 50; t++) {
+			// Remove a few spots at each round, to exercise the cell table removal
+			for (int i = 0; i < 5; i++) {
+				assertTrue(index.remove(remaining.remove(ran.nextInt(remaining.size()))));
+			}
+			final Spot location = new Spot(new double[] { 100 * ran.nextDouble(), 100 * ran.nextDouble(), 10 * ran.nextDouble() });
+			final double radius = 50 * ran.nextDouble();
+			final HashSet<Spot> expected = new HashSet<Spot>();
+			for (final Spot spot : remaining) {
+				if (spot.squareDistanceTo(location) <= radius * radius) {
+					expected.add(spot);
+				}
+			}
+			assertEquals(expected, new HashSet<Spot>(index.getSpotsWithin(location, radius)));
+		}
+		assertEquals(remaining.size(), index.size());
+	}
+
+	@Test
+	public void testUpdateThroughCollection() {
+		final Random ran = new Random(5l);
+		final SpotCollection collection = new SpotCollection();
+		final List<Spot> spots = createSpots(ran, N_SPOTS);
+		collection.put(3, new ArrayList<Spot>(spots));
+		collection.getSpatialIndex(3);
+
+		final Spot moved = spots.get(0);
+		moved.putFeature(Spot.POSITION_X, 1000);
+		collection.updateSpatialIndex(moved);
+		assertEquals(moved, collection.getClosestSpot(new Spot(new double[] { 999, moved.getFeature(Spot.POSITION_Y), moved.getFeature(Spot.POSITION_Z) }), 3));
+
+		// A stale Spot.FRAME feature does not prevent the update
+		final Spot other = spots.get(1);
+		other.putFeature(Spot.FRAME, 7);
+		other.putFeature(Spot.POSITION_X, -1000);
+		collection.updateSpatialIndex(other);
+		assertEquals(other, collection.getClosestSpot(new Spot(new double[] { -999, other.getFeature(Spot.POSITION_Y), other.getFeature(Spot.POSITION_Z) }), 3));
+	}
+
+	private static List<Spot> createSpots(final Random ran, final int n) {
+		final List<Spot> spots = new ArrayList<Spot>(n);
+		for (int i = 0; i < n; i++) {
+			final Spot spot = new Spot(new double[] { 100 * ran.nextDouble(), 100 * ran.nextDouble(), 10 * ran.nextDouble() });
+			spot.putFeature(Spot.RADIUS, 1 + 2 * ran.nextDouble());
+			spots.add(spot);
+		}
+		return spots;
+	}
+}
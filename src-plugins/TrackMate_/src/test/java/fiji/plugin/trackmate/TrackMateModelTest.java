@@ -1,8 +1,11 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -339,6 +342,80 @@ public void modelChanged(ModelChangeEvent event) {
 
 	}
 
+	/**
+	 * Test that a model update only rebuilds and signals the tracks it touched, 
+	 * and leaves the other tracks untouched.
+	 */
+	@Test
+	public void testOnlyTouchedTracksAreUpdated() {
+		final TrackMateModel model = new TrackMateModel();
+		// Track A with 3 spots
+		final Spot s1 = new Spot(new double[3], "S1");
+		final Spot s2 = new Spot(new double[3], "S2");
+		final Spot s3 = new Spot(new double[3], "S3");
+		// Track B with 2 spots
+		final Spot s4 = new Spot(new double[3], "S4");
+		final Spot s5 = new Spot(new double[3], "S5");
+
+		model.beginUpdate();
+		try {
+			model.addSpotTo(s1, 0);
+			model.addSpotTo(s2, 1);
+			model.addSpotTo(s3, 2);
+			model.addSpotTo(s4, 0);
+			model.addSpotTo(s5, 1);
+			model.addEdge(s1, s2, 0);
+			model.addEdge(s2, s3, 0);
+			model.addEdge(s4, s5, 0);
+		} finally {
+			model.endUpdate();
+		}
+
+		final TrackGraphModel trackModel = model.getTrackModel();
+		assertEquals(2, trackModel.getNTracks());
+		final Integer trackA = trackModel.getTrackIDOf(s1);
+		final Integer trackB = trackModel.getTrackIDOf(s4);
+		final String nameA = trackModel.getTrackName(trackA);
+		final String nameB = trackModel.getTrackName(trackB);
+		trackModel.setFilteredTrackID(trackB, false, false);
+
+		final Set<Integer> updated = new HashSet<Integer>();
+		model.addTrackMateModelChangeListener(new ModelChangeListener() {
+			@Override
+			public void modelChanged(ModelChangeEvent event) {
+				updated.addAll(event.getTrackUpdated());
+			}
+		});
+
+		// Cut s3 from track A
+		model.beginUpdate();
+		try {
+			model.removeEdge(s2, s3);
+		} finally {
+			model.endUpdate();
+		}
+
+		assertEquals(2, trackModel.getNTracks());
+		// Track A was rebuilt, and is the only one signaled
+		final Integer newTrackA = trackModel.getTrackIDOf(s1);
+		assertEquals(newTrackA, trackModel.getTrackIDOf(s2));
+		assertNull(trackModel.getTrackIDOf(s3));
+		assertEquals(1, updated.size());
+		assertTrue(updated.contains(newTrackA));
+		assertEquals(nameA, trackModel.getTrackName(newTrackA));
+		assertTrue(trackModel.isTrackFiltered(newTrackA));
+		assertEquals(2, trackModel.getTrackSpots(newTrackA).size());
+		assertEquals(1, trackModel.getTrackEdges(newTrackA).size());
+		// Track B was left alone
+		assertEquals(trackB, trackModel.getTrackIDOf(s4));
+		assertEquals(nameB, trackModel.getTrackName(trackB));
+		assertFalse(trackModel.isTrackFiltered(trackB));
+		assertTrue(trackModel.getTrackIDs().contains(trackB));
+		// and the old track A is gone
+		assertFalse(trackA.equals(newTrackA));
+		assertFalse(trackModel.getTrackIDs().contains(trackA));
+	}
+
 
 
 
@@ -0,0 +1,72 @@
+package fiji.plugin.trackmate.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fiji.plugin.trackmate.tracking.hungarian.HungarianAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.JonkerVolgenantAlgorithm;
+import fiji.plugin.trackmate.tracking.hungarian.MunkresKuhnAlgorithm;
+
+/**
+ * Benchmarks the dense assignment solvers on random square cost matrices.
+ * The solvers modify the matrix they are given, so each invocation works on 
+ * a fresh copy, made outside of the measured time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssignmentBenchmark {
+
+	/** Number of rows and columns of the cost matrix. */
+	@Param({ "100", "500" })
+	public int size;
+
+	/** Fraction of the assignments that are blocked. */
+	@Param({ "0", "0.9" })
+	public double blockedFraction;
+
+	private static final double BLOCKING_VALUE = Double.MAX_VALUE;
+
+	private double[][] costs;
+	private double[][] matrix;
+
+	@Setup
+	public void setup() {
+		costs = SyntheticData.createCostMatrix(size, blockedFraction, BLOCKING_VALUE, 1l);
+	}
+
+	@Setup(Level.Invocation)
+	public void copyMatrix() {
+		matrix = SyntheticData.copy(costs);
+	}
+
+	@Benchmark
+	public int[][] hungarian() {
+		return new HungarianAlgorithm().computeAssignments(matrix);
+	}
+
+	@Benchmark
+	public int[][] munkresKuhn() {
+		return new MunkresKuhnAlgorithm().computeAssignments(matrix);
+	}
+
+	@Benchmark
+	public int[][] jonkerVolgenant() {
+		return new JonkerVolgenantAlgorithm(BLOCKING_VALUE).computeAssignments(matrix);
+	}
+}
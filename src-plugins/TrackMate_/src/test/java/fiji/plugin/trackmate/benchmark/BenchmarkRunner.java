@@ -0,0 +1,29 @@
+package fiji.plugin.trackmate.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the TrackMate benchmarks. 
+ * <p>
+ * Without argument, all the benchmarks of this package are run. Otherwise, the 
+ * first argument is a regular expression that selects the benchmarks to run, 
+ * e.g. <code>TrackingBenchmark</code> or <code>AssignmentBenchmark.hungarian</code>.
+ * The results are printed and saved to <code>trackmate-benchmarks.json</code>, so 
+ * that two runs can be compared.
+ */
+public class BenchmarkRunner {
+
+	public static void main(final String[] args) throws RunnerException {
+		final String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+		final Options options = new OptionsBuilder()
+				.include(include)
+				.resultFormat(ResultFormatType.JSON)
+				.result("trackmate-benchmarks.json")
+				.build();
+		new Runner(options).run();
+	}
+}
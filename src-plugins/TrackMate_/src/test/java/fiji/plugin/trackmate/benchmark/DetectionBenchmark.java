@@ -0,0 +1,79 @@
+package fiji.plugin.trackmate.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.img.ImgPlus;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.detection.DogDetector;
+import fiji.plugin.trackmate.detection.DownsampleLogDetector;
+import fiji.plugin.trackmate.detection.LogDetector;
+import fiji.plugin.trackmate.detection.SpotDetector;
+import fiji.plugin.trackmate.detection.TiledDetectorTest;
+
+/**
+ * Benchmarks the spot detectors on a synthetic 2D image of blobs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectionBenchmark {
+
+	/** Width and height of the image, in pixels. */
+	@Param({ "256", "1024" })
+	public int size;
+
+	/** Number of blobs per 100 x 100 pixels. */
+	@Param({ "1", "10" })
+	public int density;
+
+	private static final double RADIUS = 3;
+	private static final int DOWNSAMPLING_FACTOR = 2;
+
+	private ImgPlus<UnsignedByteType> img;
+
+	@Setup
+	public void setup() {
+		final int nBlobs = density * size * size / 10000;
+		img = TiledDetectorTest.createBlobImage(size, size, nBlobs, RADIUS, 1l);
+	}
+
+	@Benchmark
+	public List<Spot> logDetector() {
+		return detect(new LogDetector<UnsignedByteType>(img, RADIUS, 0, true, false));
+	}
+
+	@Benchmark
+	public List<Spot> dogDetector() {
+		return detect(new DogDetector<UnsignedByteType>(img, RADIUS, 0, true, false));
+	}
+
+	@Benchmark
+	public List<Spot> downsampleLogDetector() {
+		return detect(new DownsampleLogDetector<UnsignedByteType>(img, RADIUS, 0, DOWNSAMPLING_FACTOR));
+	}
+
+	private static final List<Spot> detect(final SpotDetector<UnsignedByteType> detector) {
+		if (!detector.checkInput() || !detector.process()) {
+			throw new RuntimeException(detector.getErrorMessage());
+		}
+		return detector.getResult();
+	}
+}
@@ -0,0 +1,112 @@
+package fiji.plugin.trackmate.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackMateModel;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.io.TmXmlReader;
+import fiji.plugin.trackmate.io.TmXmlStreamReader;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+
+/**
+ * Benchmarks writing and reading TrackMate XML files, for a model made of
+ * straight tracks built on a synthetic field of particles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IOBenchmark {
+
+	/** Number of frames, which is also the number of spots per track. */
+	@Param({ "50" })
+	public int nFrames;
+
+	/** Number of tracks. */
+	@Param({ "100", "2000" })
+	public int nTracks;
+
+	private TrackMate_ plugin;
+	private File writeFile;
+	private File readFile;
+
+	@Setup
+	public void setup() throws IOException {
+		final SpotCollection spots = SyntheticData.createSpotField(nFrames, nTracks, 0.01, 1, 1l);
+		final TrackMateModel model = new TrackMateModel();
+		model.setSpots(spots, false);
+		model.setFilteredSpots(spots, false);
+		model.getTrackModel().setGraph(SyntheticData.createTracks(spots));
+		plugin = new TrackMate_(model);
+		plugin.initModules();
+		plugin.computeEdgeFeatures(false);
+		plugin.computeTrackFeatures(false);
+
+		writeFile = File.createTempFile("TrackMateBenchmark", ".xml");
+		readFile = File.createTempFile("TrackMateBenchmark", ".xml");
+		write(readFile);
+	}
+
+	@TearDown
+	public void tearDown() {
+		writeFile.delete();
+		readFile.delete();
+	}
+
+	@Benchmark
+	public File xmlWriter() throws IOException {
+		return write(writeFile);
+	}
+
+	@Benchmark
+	public TrackMateModel xmlReader() {
+		final TrackMate_ target = newPlugin();
+		return read(new TmXmlReader(readFile, target), target);
+	}
+
+	@Benchmark
+	public TrackMateModel xmlStreamReader() {
+		final TrackMate_ target = newPlugin();
+		return read(new TmXmlStreamReader(readFile, target), target);
+	}
+
+	private File write(final File file) throws IOException {
+		final TmXmlWriter writer = new TmXmlWriter(plugin);
+		if (!writer.checkInput() || !writer.process()) {
+			throw new RuntimeException(writer.getErrorMessage());
+		}
+		writer.writeToFile(file);
+		return file;
+	}
+
+	private static final TrackMate_ newPlugin() {
+		final TrackMate_ target = new TrackMate_();
+		target.initModules();
+		return target;
+	}
+
+	private static final TrackMateModel read(final TmXmlReader reader, final TrackMate_ target) {
+		if (!reader.checkInput() || !reader.process()) {
+			throw new RuntimeException(reader.getErrorMessage());
+		}
+		return target.getModel();
+	}
+}
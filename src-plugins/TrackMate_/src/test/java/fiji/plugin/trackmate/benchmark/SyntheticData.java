@@ -0,0 +1,112 @@
+package fiji.plugin.trackmate.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.detection.TiledDetectorTest;
+
+/**
+ * Generators for the synthetic data used by the benchmarks. All generators are
+ * seeded, so that two runs benchmark exactly the same data. The blob images of
+ * the detection benchmarks come from {@link TiledDetectorTest}.
+ */
+public class SyntheticData {
+
+	private SyntheticData() {}
+
+	/**
+	 * Create a field of particles moving by a random walk. There are
+	 * <code>nSpots</code> particles in each of the <code>nFrames</code> frames,
+	 * in a 2D box whose size is set so that there is on average one particle in
+	 * a square of side <code>1/sqrt(density)</code>.
+	 *
+	 * @param displacement  the standard deviation of the particle displacement from one frame to the next.
+	 */
+	public static SpotCollection createSpotField(final int nFrames, final int nSpots, final double density, final double displacement, final long seed) {
+		final Random ran = new Random(seed);
+		final double size = Math.sqrt(nSpots / density);
+		final double[][] positions = new double[nSpots][2];
+		for (int i = 0; i < nSpots; i++) {
+			positions[i][0] = size * ran.nextDouble();
+			positions[i][1] = size * ran.nextDouble();
+		}
+
+		final SpotCollection spots = new SpotCollection();
+		for (int t = 0; t < nFrames; t++) {
+			final List<Spot> frame = new ArrayList<Spot>(nSpots);
+			for (int i = 0; i < nSpots; i++) {
+				positions[i][0] += displacement * ran.nextGaussian();
+				positions[i][1] += displacement * ran.nextGaussian();
+				final Spot spot = new Spot(new double[] { positions[i][0], positions[i][1], 0 });
+				spot.putFeature(Spot.POSITION_T, t);
+				spot.putFeature(Spot.FRAME, t);
+				spot.putFeature(Spot.RADIUS, 1);
+				spot.putFeature(Spot.QUALITY, ran.nextDouble());
+				frame.add(spot);
+			}
+			spots.put(t, frame);
+		}
+		return spots;
+	}
+
+	/**
+	 * Create the graph that links each particle of a spot field made by
+	 * {@link #createSpotField(int, int, double, double, long)} to itself in the next
+	 * frame. There are therefore as many tracks as particles.
+	 */
+	public static SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> createTracks(final SpotCollection spots) {
+		final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> graph = new SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+		List<Spot> previous = null;
+		for (Integer frame : spots.keySet()) {
+			final List<Spot> current = spots.get(frame);
+			for (Spot spot : current) {
+				graph.addVertex(spot);
+			}
+			if (null != previous) {
+				for (int i = 0; i < current.size(); i++) {
+					final DefaultWeightedEdge edge = graph.addEdge(previous.get(i), current.get(i));
+					graph.setEdgeWeight(edge, previous.get(i).squareDistanceTo(current.get(i)));
+				}
+			}
+			previous = current;
+		}
+		return graph;
+	}
+
+	/**
+	 * Create a dense square cost matrix with random costs between 0 and 1, and the given
+	 * fraction of blocked entries. The diagonal is never blocked, so there is always
+	 * a solution.
+	 */
+	public static double[][] createCostMatrix(final int size, final double blockedFraction, final double blockingValue, final long seed) {
+		final Random ran = new Random(seed);
+		final double[][] costs = new double[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if (i != j && ran.nextDouble() < blockedFraction) {
+					costs[i][j] = blockingValue;
+				} else {
+					costs[i][j] = ran.nextDouble();
+				}
+			}
+		}
+		return costs;
+	}
+
+	/**
+	 * @return a deep copy of the given matrix. Some solvers modify the matrix they are given.
+	 */
+	public static double[][] copy(final double[][] matrix) {
+		final double[][] copy = new double[matrix.length][];
+		for (int i = 0; i < matrix.length; i++) {
+			copy[i] = matrix[i].clone();
+		}
+		return copy;
+	}
+}
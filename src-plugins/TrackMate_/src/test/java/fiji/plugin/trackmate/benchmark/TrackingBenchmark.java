@@ -0,0 +1,105 @@
+package fiji.plugin.trackmate.benchmark;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.FastLAPTracker;
+import fiji.plugin.trackmate.tracking.LAPTracker;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.SparseLAPTracker;
+import fiji.plugin.trackmate.tracking.SpotTracker;
+import fiji.plugin.trackmate.tracking.kdtree.NearestNeighborTracker;
+
+/**
+ * Benchmarks the spot trackers on a synthetic field of particles moving by
+ * a random walk. Gap-closing is off, so that the dense trackers can deal with
+ * the largest fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackingBenchmark {
+
+	/** Number of frames. */
+	@Param({ "20" })
+	public int nFrames;
+
+	/** Number of particles per frame. */
+	@Param({ "100", "1000" })
+	public int nSpots;
+
+	/** Number of particles per unit area. */
+	@Param({ "0.01", "0.1" })
+	public double density;
+
+	private static final double DISPLACEMENT = 1;
+	private static final double MAX_DISTANCE = 5;
+
+	private SpotCollection spots;
+	private Map<String, Object> lapSettings;
+	private Map<String, Object> nnSettings;
+
+	@Setup
+	public void setup() {
+		spots = SyntheticData.createSpotField(nFrames, nSpots, density, DISPLACEMENT, 1l);
+
+		lapSettings = LAPUtils.getDefaultLAPSettingsMap();
+		lapSettings.put(KEY_LINKING_MAX_DISTANCE, MAX_DISTANCE);
+		lapSettings.put(KEY_ALLOW_GAP_CLOSING, false);
+
+		nnSettings = new HashMap<String, Object>();
+		nnSettings.put(KEY_LINKING_MAX_DISTANCE, MAX_DISTANCE);
+	}
+
+	@Benchmark
+	public SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> lapTracker() {
+		return track(new LAPTracker(spots, Logger.VOID_LOGGER), lapSettings);
+	}
+
+	@Benchmark
+	public SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> fastLapTracker() {
+		return track(new FastLAPTracker(spots, Logger.VOID_LOGGER), lapSettings);
+	}
+
+	@Benchmark
+	public SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> sparseLapTracker() {
+		return track(new SparseLAPTracker(spots, Logger.VOID_LOGGER), lapSettings);
+	}
+
+	@Benchmark
+	public SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> nearestNeighborTracker() {
+		return track(new NearestNeighborTracker(spots, Logger.VOID_LOGGER), nnSettings);
+	}
+
+	private static final SimpleDirectedWeightedGraph<Spot, DefaultWeightedEdge> track(final SpotTracker tracker, final Map<String, Object> settings) {
+		tracker.setSettings(settings);
+		if (!tracker.checkInput() || !tracker.process()) {
+			throw new RuntimeException(tracker.getErrorMessage());
+		}
+		return tracker.getResult();
+	}
+}
@@ -0,0 +1,155 @@
+package fiji.plugin.trackmate.detection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.SpotNeighborhood;
+
+public class TiledDetectorTest {
+
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 150;
+	private static final int N_BLOBS = 30;
+	private static final double RADIUS = 3;
+	/** Does not divide the image size, so that there are partial tiles. */
+	private static final int TILE_SIZE = 37;
+	/** Relative tolerance on the quality of a spot found by both detectors. */
+	private static final double QUALITY_TOLERANCE = 1e-2;
+
+	private static ImgPlus<UnsignedByteType> img;
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		img = createBlobImage(WIDTH, HEIGHT, N_BLOBS, RADIUS, 1l);
+	}
+
+	@Test
+	public void testLogDetector() {
+		final double threshold = threshold(new LogDetector<UnsignedByteType>(img, RADIUS, 0, false, false));
+		final List<Spot> expected = detect(new LogDetector<UnsignedByteType>(img, RADIUS, threshold, false, false));
+		for (final int numThreads : new int[] { 1, 3 }) {
+			final TiledDetector<UnsignedByteType> tiled = new TiledDetector<UnsignedByteType>(img, RADIUS, threshold, false, false, TILE_SIZE);
+			tiled.setNumThreads(numThreads);
+			assertSameSpots(expected, detect(tiled), threshold);
+		}
+	}
+
+	@Test
+	public void testDogDetector() {
+		final double threshold = threshold(new DogDetector<UnsignedByteType>(img, RADIUS, 0, false, false));
+		final List<Spot> expected = detect(new DogDetector<UnsignedByteType>(img, RADIUS, threshold, false, false));
+		for (final int numThreads : new int[] { 1, 3 }) {
+			final TiledDogDetector<UnsignedByteType> tiled = new TiledDogDetector<UnsignedByteType>(img, RADIUS, threshold, false, false, TILE_SIZE);
+			tiled.setNumThreads(numThreads);
+			assertSameSpots(expected, detect(tiled), threshold);
+		}
+	}
+
+	@Test
+	public void testSingleTile() {
+		// A tile larger than the image must give exactly the untiled result
+		final List<Spot> expected = detect(new LogDetector<UnsignedByteType>(img, RADIUS, 0, true, false));
+		final List<Spot> actual = detect(new TiledDetector<UnsignedByteType>(img, RADIUS, 0, true, false, Math.max(WIDTH, HEIGHT)));
+		assertSameSpots(expected, actual, 0);
+	}
+
+	@Test
+	public void testBadTileSize() {
+		assertFalse(new TiledDetector<UnsignedByteType>(img, RADIUS, 0, false, false, 0).checkInput());
+	}
+
+	/*
+	 * STATIC METHODS
+	 */
+
+	/**
+	 * Create a 2D image of the given size, with the given number of bright blobs
+	 * of the given radius (in pixels) at random positions, on a noisy background.
+	 * Also used by the detection benchmarks.
+	 */
+	public static ImgPlus<UnsignedByteType> createBlobImage(final int width, final int height, final int nBlobs, final double radius, final long seed) {
+		final Random ran = new Random(seed);
+		final Img<UnsignedByteType> source = new ArrayImgFactory<UnsignedByteType>().create(new int[] { width, height }, new UnsignedByteType());
+		final ImgPlus<UnsignedByteType> img = new ImgPlus<UnsignedByteType>(source, "Blobs", new AxisType[] { Axes.X, Axes.Y }, new double[] { 1, 1 });
+
+		for (UnsignedByteType pixel : img) {
+			pixel.set(ran.nextInt(20));
+		}
+
+		for (int i = 0; i < nBlobs; i++) {
+			final Spot blob = new Spot(new double[] { width * ran.nextDouble(), height * ran.nextDouble(), 0 });
+			blob.putFeature(Spot.RADIUS, radius);
+			final int intensity = 100 + ran.nextInt(100);
+			final SpotNeighborhood<UnsignedByteType> disc = new SpotNeighborhood<UnsignedByteType>(blob, img);
+			for (UnsignedByteType pixel : disc) {
+				pixel.set(intensity);
+			}
+		}
+		return img;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * @return a threshold that keeps the blobs and discards the background noise:
+	 * a fifth of the best quality found by the given detector.
+	 */
+	private static double threshold(final SpotDetector<UnsignedByteType> detector) {
+		double max = 0;
+		for (final Spot spot : detect(detector)) {
+			max = Math.max(max, spot.getFeature(Spot.QUALITY));
+		}
+		return max / 5;
+	}
+
+	/**
+	 * Checks that each spot of one list is matched by a spot of the other at the
+	 * same position and with about the same quality. Spots whose quality is within
+	 * the tolerance of the threshold may be found by one detector only.
+	 */
+	private static void assertSameSpots(final List<Spot> expected, final List<Spot> actual, final double threshold) {
+		final double minQuality = threshold * (1 + QUALITY_TOLERANCE);
+		assertMatched(expected, actual, minQuality, "missing from the tiled detection");
+		assertMatched(actual, expected, minQuality, "not found by the untiled detection");
+	}
+
+	private static void assertMatched(final List<Spot> spots, final List<Spot> candidates, final double minQuality, final String message) {
+		for (final Spot spot : spots) {
+			final double quality = spot.getFeature(Spot.QUALITY);
+			if (quality < minQuality) {
+				continue;
+			}
+			boolean found = false;
+			for (final Spot candidate : candidates) {
+				if (candidate.squareDistanceTo(spot) < 1e-12
+						&& Math.abs(candidate.getFeature(Spot.QUALITY) - quality) <= QUALITY_TOLERANCE * Math.abs(quality)) {
+					found = true;
+					break;
+				}
+			}
+			assertTrue("Spot at " + spot.getFeature(Spot.POSITION_X) + ", " + spot.getFeature(Spot.POSITION_Y)
+					+ " with quality " + quality + " is " + message + ".", found);
+		}
+	}
+
+	private static List<Spot> detect(final SpotDetector<UnsignedByteType> detector) {
+		assertTrue(detector.getErrorMessage(), detector.checkInput() && detector.process());
+		return detector.getResult();
+	}
+}
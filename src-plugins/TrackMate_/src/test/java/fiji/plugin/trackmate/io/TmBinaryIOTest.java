@@ -0,0 +1,333 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackGraphModel;
+import fiji.plugin.trackmate.TrackMateModel;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.benchmark.SyntheticData;
+
+public class TmBinaryIOTest {
+
+	private static final int N_FRAMES = 10;
+	private static final int N_TRACKS = 20;
+
+	private TrackMate_ plugin;
+	private final List<File> files = new ArrayList<File>();
+
+	@Before
+	public void setUp() {
+		plugin = createPlugin();
+	}
+
+	@After
+	public void tearDown() {
+		for (final File file : files) {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return a plugin holding a synthetic session, with named spots, filtered
+	 * spots, named and filtered tracks, and edge and track features.
+	 */
+	static TrackMate_ createPlugin() {
+		final SpotCollection spots = SyntheticData.createSpotField(N_FRAMES, N_TRACKS, 0.01, 1, 1l);
+		int i = 0;
+		for (final Spot spot : spots) {
+			// Non-ASCII names, to check the name blob encoding
+			spot.setName("Spot é" + (i++));
+		}
+
+		// Leave one spot out of three out of the filtered spots
+		final SpotCollection filteredSpots = new SpotCollection();
+		for (final Integer frame : spots.keySet()) {
+			final List<Spot> kept = new ArrayList<Spot>();
+			final List<Spot> all = spots.get(frame);
+			for (int j = 0; j < all.size(); j++) {
+				if (j % 3 != 0) {
+					kept.add(all.get(j));
+				}
+			}
+			filteredSpots.put(frame, kept);
+		}
+
+		final TrackMateModel model = new TrackMateModel();
+		model.setSpots(spots, false);
+		model.setFilteredSpots(filteredSpots, false);
+		model.getTrackModel().setGraph(SyntheticData.createTracks(spots));
+		final TrackMate_ plugin = new TrackMate_(model);
+		plugin.initModules();
+		plugin.computeEdgeFeatures(false);
+		plugin.computeTrackFeatures(false);
+
+		// Name the tracks, and leave the first one out of the filtered tracks
+		final TrackGraphModel trackModel = model.getTrackModel();
+		final Set<Integer> filteredTrackIDs = new HashSet<Integer>(trackModel.getTrackIDs());
+		filteredTrackIDs.remove(trackModel.getTrackIDs().iterator().next());
+		trackModel.setFilteredTrackIDs(filteredTrackIDs, false);
+		for (final Integer trackID : trackModel.getTrackIDs()) {
+			trackModel.setTrackName(trackID, "Track é" + trackID);
+		}
+		return plugin;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File file = write(plugin);
+		assertTrue(TmBinaryReader.isBinaryFile(file));
+		assertModelEquals(plugin.getModel(), read(file).getModel());
+	}
+
+	@Test
+	public void testColumnAccess() throws IOException {
+		final File file = write(plugin);
+		final TmBinaryReader reader = new TmBinaryReader(file, newPlugin());
+		assertTrue(reader.checkInput());
+		assertEquals(N_FRAMES * N_TRACKS, reader.getNSpots());
+		assertEquals((N_FRAMES - 1) * N_TRACKS, reader.getNEdges());
+		assertEquals(N_TRACKS, reader.getNTracks());
+		assertEquals(N_FRAMES, reader.getFrames().length);
+
+		final Map<Integer, Spot> spots = spotsByID(plugin.getModel().getSpots());
+		for (final int frame : reader.getFrames()) {
+			assertEquals(N_TRACKS, reader.getNSpots(frame));
+			final IntBuffer IDs = reader.getSpotIDs(frame);
+			final DoubleBuffer xs = reader.getSpotFeature(frame, Spot.POSITION_X);
+			assertNotNull(xs);
+			for (int i = 0; i < reader.getNSpots(frame); i++) {
+				final Spot spot = spots.get(IDs.get(i));
+				assertEquals(frame, spot.getFeature(Spot.FRAME), 0d);
+				assertEquals(spot.getFeature(Spot.POSITION_X), xs.get(i), 0d);
+			}
+		}
+		assertNull(reader.getSpotIDs(N_FRAMES + 1));
+		assertEquals(0, reader.getNSpots(N_FRAMES + 1));
+	}
+
+	@Test
+	public void testReadSingleFrame() throws IOException {
+		final File file = write(plugin);
+		final TmBinaryReader reader = new TmBinaryReader(file, newPlugin());
+		assertTrue(reader.checkInput());
+		final int frame = N_FRAMES / 2;
+		final List<Spot> expected = plugin.getModel().getSpots().get(frame);
+		final List<Spot> actual = reader.readSpots(frame);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).ID(), actual.get(i).ID());
+			assertEquals(expected.get(i).getName(), actual.get(i).getName());
+			assertEquals(expected.get(i).getFeatures(), actual.get(i).getFeatures());
+		}
+		assertNull(reader.readSpots(N_FRAMES + 1));
+	}
+
+	@Test
+	public void testConverterRoundTrip() throws IOException {
+		final File binary = write(plugin);
+		final File xml = tempFile(".xml");
+		final File binary2 = tempFile(TmBinaryWriter.FILE_EXTENSION);
+		final Logger logger = new Logger.StringBuilderLogger();
+		assertTrue(logger.toString(), TmBinaryConverter.binaryToXml(binary, xml, logger));
+		assertFalse(TmBinaryReader.isBinaryFile(xml));
+		assertTrue(logger.toString(), TmBinaryConverter.xmlToBinary(xml, binary2, logger));
+		assertModelEquals(plugin.getModel(), read(binary2).getModel());
+	}
+
+	@Test
+	public void testTruncatedFile() throws IOException {
+		final File file = write(plugin);
+		final long length = file.length();
+		final File truncated = tempFile(TmBinaryWriter.FILE_EXTENSION);
+		// In the magic bytes, in the header, in the spot table and at the very end
+		for (final long size : new long[] { 4, 20, length / 2, length - 1 }) {
+			copy(file, truncated, size);
+			final TmBinaryReader reader = new TmBinaryReader(truncated, newPlugin());
+			assertFalse("File truncated to " + size + " bytes was read", reader.checkInput() && reader.process());
+			assertFalse(reader.getErrorMessage().isEmpty());
+		}
+	}
+
+	@Test
+	public void testCorruptFile() throws IOException {
+		final File file = write(plugin);
+
+		// Wrong magic bytes
+		final File corrupt = tempFile(TmBinaryWriter.FILE_EXTENSION);
+		copy(file, corrupt, file.length());
+		RandomAccessFile raf = new RandomAccessFile(corrupt, "rw");
+		try {
+			raf.seek(0);
+			raf.write('X');
+		} finally {
+			raf.close();
+		}
+		assertFalse(TmBinaryReader.isBinaryFile(corrupt));
+		TmBinaryReader reader = new TmBinaryReader(corrupt, newPlugin());
+		assertFalse(reader.checkInput());
+		assertFalse(reader.getErrorMessage().isEmpty());
+
+		// Huge number of frames, then of spots in the first frame: the spot
+		// tables go past the end of the file
+		for (final long offset : new long[] { 0, 16 }) {
+			copy(file, corrupt, file.length());
+			raf = new RandomAccessFile(corrupt, "rw");
+			try {
+				raf.seek(12);
+				final int headerLength = Integer.reverseBytes(raf.readInt());
+				final long spotsStart = (16 + headerLength + 7) / 8 * 8;
+				raf.seek(spotsStart + offset);
+				raf.writeInt(Integer.reverseBytes(Integer.MAX_VALUE / 8));
+			} finally {
+				raf.close();
+			}
+			reader = new TmBinaryReader(corrupt, newPlugin());
+			assertFalse(reader.checkInput() && reader.process());
+			assertFalse(reader.getErrorMessage().isEmpty());
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Checks that two models have the same spots, filtered spots, tracks, filtered
+	 * tracks, names and features. Spots are matched by ID, tracks through their spots.
+	 */
+	static void assertModelEquals(final TrackMateModel expected, final TrackMateModel actual) {
+		// Spots, with their names and features
+		final Map<Integer, Spot> expectedSpots = spotsByID(expected.getSpots());
+		final Map<Integer, Spot> actualSpots = spotsByID(actual.getSpots());
+		assertEquals(expectedSpots.keySet(), actualSpots.keySet());
+		for (final Integer ID : expectedSpots.keySet()) {
+			final Spot e = expectedSpots.get(ID);
+			final Spot a = actualSpots.get(ID);
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.getFeatures(), a.getFeatures());
+		}
+		for (final Integer frame : expected.getSpots().keySet()) {
+			assertEquals(ids(expected.getSpots().get(frame)), ids(actual.getSpots().get(frame)));
+			assertEquals(ids(expected.getFilteredSpots().get(frame)), ids(actual.getFilteredSpots().get(frame)));
+		}
+
+		// Tracks, matched through the IDs of their spots
+		final TrackGraphModel et = expected.getTrackModel();
+		final TrackGraphModel at = actual.getTrackModel();
+		final FeatureModel efm = expected.getFeatureModel();
+		final FeatureModel afm = actual.getFeatureModel();
+		assertEquals(et.getNTracks(), at.getNTracks());
+		assertEquals(et.getNFilteredTracks(), at.getNFilteredTracks());
+		for (final Integer trackID : et.getTrackIDs()) {
+			final Spot first = et.getTrackSpots(trackID).iterator().next();
+			final Integer actualID = at.getTrackIDOf(actualSpots.get(first.ID()));
+			assertNotNull(actualID);
+			assertEquals(ids(et.getTrackSpots(trackID)), ids(at.getTrackSpots(actualID)));
+			assertEquals(et.getTrackName(trackID), at.getTrackName(actualID));
+			assertEquals(et.isTrackFiltered(trackID), at.isTrackFiltered(actualID));
+			for (final String feature : efm.getTrackFeatures()) {
+				assertEquals(feature, efm.getTrackFeature(trackID, feature), afm.getTrackFeature(actualID, feature));
+			}
+
+			// Edges, with their features
+			final Map<String, DefaultWeightedEdge> actualEdges = new HashMap<String, DefaultWeightedEdge>();
+			for (final DefaultWeightedEdge edge : at.getTrackEdges(actualID)) {
+				actualEdges.put(at.getEdgeSource(edge).ID() + "-" + at.getEdgeTarget(edge).ID(), edge);
+			}
+			assertEquals(et.getTrackEdges(trackID).size(), actualEdges.size());
+			for (final DefaultWeightedEdge edge : et.getTrackEdges(trackID)) {
+				final DefaultWeightedEdge actualEdge = actualEdges.get(et.getEdgeSource(edge).ID() + "-" + et.getEdgeTarget(edge).ID());
+				assertNotNull(actualEdge);
+				assertEquals(et.getEdgeWeight(edge), at.getEdgeWeight(actualEdge), 0d);
+				for (final String feature : efm.getEdgeFeatures()) {
+					assertEquals(feature, efm.getEdgeFeature(edge, feature), afm.getEdgeFeature(actualEdge, feature));
+				}
+			}
+		}
+	}
+
+	private static Map<Integer, Spot> spotsByID(final SpotCollection spots) {
+		final Map<Integer, Spot> map = new HashMap<Integer, Spot>();
+		for (final Spot spot : spots) {
+			map.put(spot.ID(), spot);
+		}
+		return map;
+	}
+
+	private static Set<Integer> ids(final Iterable<Spot> spots) {
+		final Set<Integer> IDs = new HashSet<Integer>();
+		if (null != spots) {
+			for (final Spot spot : spots) {
+				IDs.add(spot.ID());
+			}
+		}
+		return IDs;
+	}
+
+	static TrackMate_ newPlugin() {
+		final TrackMate_ plugin = new TrackMate_();
+		plugin.initModules();
+		return plugin;
+	}
+
+	private File write(final TrackMate_ source) throws IOException {
+		final File file = tempFile(TmBinaryWriter.FILE_EXTENSION);
+		final TmBinaryWriter writer = new TmBinaryWriter(source);
+		assertTrue(writer.getErrorMessage(), writer.checkInput() && writer.process());
+		writer.writeToFile(file);
+		return file;
+	}
+
+	private static TrackMate_ read(final File file) {
+		final TrackMate_ target = newPlugin();
+		final TmBinaryReader reader = new TmBinaryReader(file, target);
+		assertTrue(reader.getErrorMessage(), reader.checkInput() && reader.process());
+		return target;
+	}
+
+	private File tempFile(final String suffix) throws IOException {
+		final File file = File.createTempFile("TmBinaryIOTest", suffix);
+		files.add(file);
+		return file;
+	}
+
+	/** Copy the first <code>size</code> bytes of a file to another. */
+	private static void copy(final File from, final File to, final long size) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(from, "r");
+		final RandomAccessFile out = new RandomAccessFile(to, "rw");
+		try {
+			out.setLength(0);
+			final byte[] bytes = new byte[(int) size];
+			in.readFully(bytes);
+			out.write(bytes);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
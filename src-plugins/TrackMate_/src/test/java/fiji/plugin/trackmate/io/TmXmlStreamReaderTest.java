@@ -0,0 +1,83 @@
+package fiji.plugin.trackmate.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureFilter;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackMate_;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+
+public class TmXmlStreamReaderTest {
+
+	/** The reference file, written once from the synthetic session. */
+	private static File file;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws IOException {
+		final TrackMate_ plugin = TmBinaryIOTest.createPlugin();
+		final Settings settings = plugin.getModel().getSettings();
+		settings.initialSpotFilterValue = 0.1;
+		settings.addSpotFilter(new FeatureFilter(Spot.QUALITY, 0.2, true));
+		settings.addTrackFilter(new FeatureFilter(TrackDurationAnalyzer.TRACK_DURATION, 3d, true));
+
+		file = File.createTempFile("TmXmlStreamReaderTest", ".xml");
+		final TmXmlWriter writer = new TmXmlWriter(plugin, "A log");
+		assertTrue(writer.getErrorMessage(), writer.checkInput() && writer.process());
+		writer.writeToFile(file);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		file.delete();
+	}
+
+	@Test
+	public void testSameModelAsJDOMReader() {
+		final TrackMate_ expected = TmBinaryIOTest.newPlugin();
+		final TmXmlReader reader = new TmXmlReader(file, expected);
+		assertTrue(reader.getErrorMessage(), reader.checkInput() && reader.process());
+
+		final TrackMate_ actual = TmBinaryIOTest.newPlugin();
+		final TmXmlStreamReader streamReader = new TmXmlStreamReader(file, actual);
+		assertTrue(streamReader.getErrorMessage(), streamReader.checkInput() && streamReader.process());
+
+		assertEquals(reader.getLogText(), streamReader.getLogText());
+		TmBinaryIOTest.assertModelEquals(expected.getModel(), actual.getModel());
+
+		final Settings es = expected.getModel().getSettings();
+		final Settings as = actual.getModel().getSettings();
+		assertEquals(es.initialSpotFilterValue, as.initialSpotFilterValue);
+		assertFiltersEqual(es.getSpotFilters(), as.getSpotFilters());
+		assertFiltersEqual(es.getTrackFilters(), as.getTrackFilters());
+	}
+
+	@Test
+	public void testCancel() {
+		final TmXmlStreamReader streamReader = new TmXmlStreamReader(file, TmBinaryIOTest.newPlugin());
+		assertTrue(streamReader.checkInput());
+		streamReader.cancel();
+		assertTrue(streamReader.isCanceled());
+		assertFalse(streamReader.process());
+		assertFalse(streamReader.getErrorMessage().isEmpty());
+	}
+
+	private static void assertFiltersEqual(final List<FeatureFilter> expected, final List<FeatureFilter> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).feature, actual.get(i).feature);
+			assertEquals(expected.get(i).value, actual.get(i).value);
+			assertEquals(expected.get(i).isAbove, actual.get(i).isAbove);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package fiji.plugin.trackmate.tracking.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.tracking.LAPUtils;
+import fiji.plugin.trackmate.tracking.hungarian.SparseCostMatrix;
+
+public class GridLinkingCostMatrixCreatorTest {
+
+	/**
+	 * The spatial index must find exactly the same candidates as testing all
+	 * spot pairs, including when the same creator is reused on frames of
+	 * different sizes, and with the index kept by a {@link SpotCollection}.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSameAsAllPairs() {
+		final Map<String, Object> settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put(KEY_LINKING_MAX_DISTANCE, 5d);
+		final double maxDist = (Double) settings.get(KEY_LINKING_MAX_DISTANCE);
+		final double blockingValue = (Double) settings.get(KEY_BLOCKING_VALUE);
+		final Map<String, Double> featurePenalties = (Map<String, Double>) settings.get(KEY_LINKING_FEATURE_PENALTIES);
+		final Random ran = new Random(1l);
+		final GridLinkingCostMatrixCreator creator = new GridLinkingCostMatrixCreator(settings);
+
+		final int[] sizes = new int[] { 200, 50, 400, 3 };
+		for (int n : sizes) {
+			final List<Spot> t0 = randomSpots(ran, n);
+			final List<Spot> t1 = randomSpots(ran, n + 7);
+			final SpotCollection spots = new SpotCollection();
+			spots.put(0, t0);
+			spots.put(1, t1);
+
+			for (final boolean shared : new boolean[] { true, false }) {
+				if (shared) {
+					creator.setSpots(t0, t1, spots.getSpatialIndex(1));
+				} else {
+					creator.setSpots(t0, t1);
+				}
+				assertTrue(creator.getErrorMessage(), creator.checkInput() && creator.process());
+				final SparseCostMatrix actual = creator.getCostMatrix();
+
+				int nEntries = 0;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < t0.size(); i++) {
+					for (int j = 0; j < t1.size(); j++) {
+						final double cost = LAPUtils.computeLinkingCostFor(t0.get(i), t1.get(j), maxDist, blockingValue, featurePenalties);
+						if (cost >= blockingValue) {
+							if (null != actual) {
+								assertTrue(Double.isNaN(actual.get(i, j, Double.NaN)));
+							}
+							continue;
+						}
+						assertEquals(cost, actual.get(i, j, Double.NaN), 1e-12);
+						nEntries++;
+						max = Math.max(max, cost);
+					}
+				}
+				if (nEntries == 0) {
+					// Few spots may be too far apart to be linked
+					assertNull(actual);
+					continue;
+				}
+				// Plus the alternative costs around the top-left quadrant
+				assertEquals(t0.size() + t1.size(), actual.getNRows());
+				assertEquals(t0.size() + t1.size(), actual.getNCols());
+				assertEquals(2 * nEntries + t0.size() + t1.size(), actual.getNEntries());
+				final double alternativeCost = (Double) settings.get(KEY_ALTERNATIVE_LINKING_COST_FACTOR) * max;
+				assertEquals(alternativeCost, actual.get(0, t1.size(), Double.NaN), 1e-12);
+			}
+		}
+	}
+
+	/**
+	 * The creator must refuse to run without spots.
+	 */
+	@Test
+	public void testSpotsNotSet() {
+		final GridLinkingCostMatrixCreator creator = new GridLinkingCostMatrixCreator(LAPUtils.getDefaultLAPSettingsMap());
+		assertFalse(creator.checkInput());
+		assertNotNull(creator.getErrorMessage());
+	}
+
+	/**
+	 * Spots too far apart must give no cost matrix at all.
+	 */
+	@Test
+	public void testNoCandidate() {
+		final Map<String, Object> settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.put(KEY_LINKING_MAX_DISTANCE, 1d);
+		final List<Spot> t0 = new ArrayList<Spot>();
+		final List<Spot> t1 = new ArrayList<Spot>();
+		t0.add(new Spot(new double[] { 0, 0, 0 }));
+		t1.add(new Spot(new double[] { 10, 0, 0 }));
+		t1.add(new Spot(new double[] { -1.5, 0, 0 }));
+
+		final GridLinkingCostMatrixCreator grid = new GridLinkingCostMatrixCreator(settings);
+		grid.setSpots(t0, t1);
+		assertTrue(grid.checkInput() && grid.process());
+		assertNull(grid.getCostMatrix());
+	}
+
+	private static List<Spot> randomSpots(final Random ran, final int n) {
+		final List<Spot> spots = new ArrayList<Spot>(n);
+		for (int i = 0; i < n; i++) {
+			// Some negative coordinates, and a thin Z range
+			spots.add(new Spot(new double[] { 100 * ran.nextDouble() - 20, 100 * ran.nextDouble(), 3 * ran.nextDouble() }));
+		}
+		return spots;
+	}
+}
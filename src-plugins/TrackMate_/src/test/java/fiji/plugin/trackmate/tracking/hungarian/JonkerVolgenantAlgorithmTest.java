@@ -0,0 +1,109 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JonkerVolgenantAlgorithmTest {
+
+	private static final double BLOCKED = Double.MAX_VALUE;
+
+	/**
+	 * Compare the sparse solver to the Munkres-Kuhn solver on random LAP matrices,
+	 * built as in the LAP trackers around a random sparse top-left quadrant.
+	 */
+	@Test
+	public void testAgainstMunkresKuhn() {
+		final Random ran = new Random(1l);
+		for (int t = 0; t < 500; t++) {
+			final int nRows = 1 + ran.nextInt(15);
+			final int nCols = 1 + ran.nextInt(15);
+			final double density = ran.nextDouble();
+
+			final SparseCostMatrix topLeft = randomSparseMatrix(ran, nRows, nCols, density);
+			final SparseCostMatrix lap = topLeft.withAlternativeCosts(50d);
+			final double[][] dense = toDense(lap);
+
+			final int[][] sparseSolutions = new JonkerVolgenantAlgorithm().computeAssignments(lap);
+			final int[][] denseSolutions = new AssignmentProblem(dense).solve(new MunkresKuhnAlgorithm());
+
+			assertEquals("The assignment should be complete, ", lap.getNRows(), sparseSolutions.length);
+			assertEquals("Total cost should be optimal, ", totalCost(dense, denseSolutions), totalCost(dense, sparseSolutions), 1e-9);
+
+			final boolean[] assigned = new boolean[lap.getNCols()];
+			for (final int[] solution : sparseSolutions) {
+				assertFalse("Column " + solution[1] + " is assigned twice.", assigned[solution[1]]);
+				assigned[solution[1]] = true;
+			}
+		}
+	}
+
+	/**
+	 * The dense entry point must give the same results as the sparse one.
+	 */
+	@Test
+	public void testDenseInput() {
+		final Random ran = new Random(2l);
+		final SparseCostMatrix lap = randomSparseMatrix(ran, 20, 30, 0.2).withAlternativeCosts(50d);
+		final double[][] dense = toDense(lap);
+
+		final int[][] fromSparse = new JonkerVolgenantAlgorithm().computeAssignments(lap);
+		final int[][] fromDense = new JonkerVolgenantAlgorithm().computeAssignments(dense);
+		assertEquals(totalCost(dense, fromSparse), totalCost(dense, fromDense), 1e-9);
+	}
+
+	@Test
+	public void testTranspose() {
+		final Random ran = new Random(3l);
+		final SparseCostMatrix m = randomSparseMatrix(ran, 7, 11, 0.4);
+		final SparseCostMatrix t = m.transpose();
+		assertEquals(m.getNEntries(), t.getNEntries());
+		for (int i = 0; i < m.getNRows(); i++) {
+			for (int j = 0; j < m.getNCols(); j++) {
+				assertEquals(m.get(i, j, BLOCKED), t.get(j, i, BLOCKED), 0d);
+			}
+		}
+	}
+
+	private static SparseCostMatrix randomSparseMatrix(final Random ran, final int nRows, final int nCols, final double density) {
+		final int[] number = new int[nRows];
+		int[] kk = new int[nRows * nCols];
+		double[] cc = new double[nRows * nCols];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (ran.nextDouble() < density) {
+					kk[index] = j;
+					cc[index] = Math.floor(100 * ran.nextDouble());
+					index++;
+					number[i]++;
+				}
+			}
+		}
+		kk = Arrays.copyOf(kk, index);
+		cc = Arrays.copyOf(cc, index);
+		return new SparseCostMatrix(cc, kk, number, nCols);
+	}
+
+	private static double[][] toDense(final SparseCostMatrix m) {
+		final double[][] dense = new double[m.getNRows()][m.getNCols()];
+		for (int i = 0; i < m.getNRows(); i++) {
+			for (int j = 0; j < m.getNCols(); j++) {
+				dense[i][j] = m.get(i, j, BLOCKED);
+			}
+		}
+		return dense;
+	}
+
+	private static double totalCost(final double[][] costs, final int[][] solutions) {
+		double sum = 0;
+		for (final int[] solution : solutions) {
+			sum += costs[solution[0]][solution[1]];
+		}
+		return sum;
+	}
+}
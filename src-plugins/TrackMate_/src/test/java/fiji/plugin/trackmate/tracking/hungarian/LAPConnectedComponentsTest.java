@@ -0,0 +1,80 @@
+package fiji.plugin.trackmate.tracking.hungarian;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LAPConnectedComponentsTest {
+
+	private static final double ALTERNATIVE_COST = 30d;
+
+	/**
+	 * Solving each component separately must yield the same total cost as solving
+	 * the global LAP.
+	 */
+	@Test
+	public void testDecompositionIsExact() {
+		final Random ran = new Random(1l);
+		for (int t = 0; t < 200; t++) {
+			final SparseCostMatrix topLeft = randomBlockMatrix(ran, 40, 35, 0.05);
+			final LAPConnectedComponents components = new LAPConnectedComponents(topLeft);
+
+			// Every row and column is either isolated or in exactly one component
+			int nRows = components.getIsolatedRows().length;
+			int nCols = components.getIsolatedCols().length;
+			for (int c = 0; c < components.getNComponents(); c++) {
+				nRows += components.getRows(c).length;
+				nCols += components.getCols(c).length;
+			}
+			assertEquals(topLeft.getNRows(), nRows);
+			assertEquals(topLeft.getNCols(), nCols);
+
+			// Global solution
+			final SparseCostMatrix lap = topLeft.withAlternativeCosts(ALTERNATIVE_COST);
+			final double globalCost = totalCost(lap, new JonkerVolgenantAlgorithm().computeAssignments(lap));
+
+			// Per component. Isolated rows and columns can only take their alternative cost
+			double cost = ALTERNATIVE_COST * (components.getIsolatedRows().length + components.getIsolatedCols().length);
+			for (int c = 0; c < components.getNComponents(); c++) {
+				final SparseCostMatrix sub = components.getSubMatrix(c).withAlternativeCosts(ALTERNATIVE_COST);
+				cost += totalCost(sub, new JonkerVolgenantAlgorithm().computeAssignments(sub));
+			}
+			assertEquals(globalCost, cost, 1e-9);
+		}
+	}
+
+	/**
+	 * Random matrix where costs only exist close to the diagonal, like for
+	 * segments that are close in time.
+	 */
+	private static SparseCostMatrix randomBlockMatrix(final Random ran, final int nRows, final int nCols, final double density) {
+		final int[] number = new int[nRows];
+		int[] kk = new int[nRows * nCols];
+		double[] cc = new double[nRows * nCols];
+		int index = 0;
+		for (int i = 0; i < nRows; i++) {
+			for (int j = 0; j < nCols; j++) {
+				if (Math.abs(i - j) < 5 && ran.nextDouble() < 10 * density) {
+					kk[index] = j;
+					cc[index] = Math.floor(50 * ran.nextDouble());
+					index++;
+					number[i]++;
+				}
+			}
+		}
+		kk = Arrays.copyOf(kk, index);
+		cc = Arrays.copyOf(cc, index);
+		return new SparseCostMatrix(cc, kk, number, nCols);
+	}
+
+	private static double totalCost(final SparseCostMatrix m, final int[][] solutions) {
+		double sum = 0;
+		for (final int[] solution : solutions) {
+			sum += m.get(solution[0], solution[1], Double.NaN);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,518 @@
+package trainableSegmentation;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import hr.irb.fastRandomForest.FastRandomForest;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.io.FileSaver;
+import ij.process.FloatProcessor;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+/**
+ * Headless batch segmentation of directories of images with a saved
+ * classifier. The model is loaded once, and the images go through a
+ * pipeline of stages (read, features, classify, write) that share a
+ * single thread pool. Each stage hands the image over to the next one by
+ * submitting a new task, so no thread of the pool ever waits for another
+ * stage. The number of images in the pipeline is bounded, so the memory
+ * used does not depend on the number of images, and each result is
+ * written as soon as it is ready.
+ * <p>
+ * Images are processed in parallel (one image per thread), so the
+ * features of each image are computed in a single thread.
+ * <p>
+ * Usage from the command line:
+ * <pre>
+ * java trainableSegmentation.BatchSegmentation classifier.model inputDir outputDir [probability]
+ * </pre>
+ */
+public class BatchSegmentation
+{
+	/** segmentation holding the classifier and the feature settings */
+	private final WekaSegmentation segmentation = new WekaSegmentation();
+	/** train header of the loaded classifier */
+	private Instances trainHeader = null;
+	/** number of threads of the pool */
+	private int numThreads = Prefs.getThreads();
+	/** maximum number of images in the pipeline */
+	private int maxImagesInFlight = 0;
+	/** create probability maps instead of a classification */
+	private boolean probabilityMaps = false;
+	/** number of processed images between two throughput reports */
+	private int reportInterval = 100;
+
+	/** thread pool shared by all the stages */
+	private ExecutorService exe = null;
+	/** classifier used by each thread (copies, unless the classifier is thread safe) */
+	private ThreadLocal<AbstractClassifier> threadClassifier = null;
+
+	/** number of images processed by the last call to process() */
+	private final AtomicInteger numProcessed = new AtomicInteger();
+	/** number of images that could not be processed by the last call to process() */
+	private final AtomicInteger numFailed = new AtomicInteger();
+	/** duration of the last call to process(), in ms */
+	private long processingTime = 0;
+
+	/**
+	 * Load the classifier (.model file) to use for all the images
+	 *
+	 * @param filename complete path and file name of the classifier
+	 * @return false if error
+	 */
+	public boolean loadClassifier(String filename)
+	{
+		if( false == segmentation.loadClassifier(filename) )
+			return false;
+		trainHeader = segmentation.getTrainHeader();
+		if( null == trainHeader || trainHeader.numAttributes() < 1 )
+		{
+			IJ.log("Error: no attributes were found on the model header");
+			return false;
+		}
+		final AbstractClassifier classifier = segmentation.getClassifier();
+		threadClassifier = new ThreadLocal<AbstractClassifier>()
+		{
+			@Override
+			protected AbstractClassifier initialValue()
+			{
+				// The Weka random forest classifiers do not need to be duplicated on each thread
+				// (that saves much memory)
+				if( classifier instanceof FastRandomForest || classifier instanceof RandomForest )
+					return classifier;
+				try {
+					return (AbstractClassifier) (AbstractClassifier.makeCopy( classifier ));
+				} catch (Exception e) {
+					throw new RuntimeException("The classifier could not be copied to classify in a multi-thread way.", e);
+				}
+			}
+		};
+		IJ.log("Loaded " + filename + " (number of attributes = " + trainHeader.numAttributes() + ")");
+		return true;
+	}
+
+	/**
+	 * Classify all the images of a directory and write the results (as TIFF
+	 * files with the same names) to another directory
+	 *
+	 * @param inputDir directory with the images to classify
+	 * @param outputDir directory to write the results to
+	 * @return false if the directories are not valid, no classifier is loaded, or the process was interrupted
+	 */
+	public boolean process(File inputDir, File outputDir)
+	{
+		final File[] files = inputDir.listFiles();
+		if( null == files )
+		{
+			IJ.log("Error: " + inputDir + " is not a directory");
+			return false;
+		}
+		Arrays.sort(files);
+		final ArrayList<File> imageFiles = new ArrayList<File>();
+		for(File file : files)
+			if(file.isFile() && false == file.isHidden())
+				imageFiles.add(file);
+		return process(imageFiles, outputDir);
+	}
+
+	/**
+	 * Classify a list of images and write the results (as TIFF files with
+	 * the same names) to a directory
+	 *
+	 * @param imageFiles images to classify
+	 * @param outputDir directory to write the results to
+	 * @return false if no classifier is loaded or the process was interrupted
+	 */
+	public boolean process(final ArrayList<File> imageFiles, final File outputDir)
+	{
+		if( null == trainHeader )
+		{
+			IJ.log("Error: no classifier was loaded");
+			return false;
+		}
+		if( false == outputDir.isDirectory() && false == outputDir.mkdirs() )
+		{
+			IJ.log("Error: " + outputDir + " could not be created");
+			return false;
+		}
+
+		if( null == exe )
+			exe = Executors.newFixedThreadPool( numThreads );
+		final int maxInFlight = maxImagesInFlight > 0 ? maxImagesInFlight : 2 * numThreads;
+		final Semaphore inFlight = new Semaphore( maxInFlight );
+
+		numProcessed.set(0);
+		numFailed.set(0);
+		final long start = System.currentTimeMillis();
+
+		IJ.log("Processing " + imageFiles.size() + " image files in " + numThreads + " thread(s)...");
+
+		try{
+			for(final File file : imageFiles)
+			{
+				// Wait for an image to leave the pipeline if it is full
+				inFlight.acquire();
+				final Job job = new Job(file, new File(outputDir, getResultName(file.getName())), inFlight, start);
+				exe.submit(job.read());
+			}
+			// Wait for the last images
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		}
+		catch(InterruptedException e)
+		{
+			IJ.log("The batch segmentation was interrupted by the user.");
+			shutDownNow();
+			return false;
+		}
+		finally{
+			processingTime = System.currentTimeMillis() - start;
+		}
+
+		IJ.log("Batch segmentation done: " + numProcessed.get() + " image(s) processed, "
+				+ numFailed.get() + " failed, in " + processingTime + " ms ("
+				+ String.format("%.2f", getThroughput()) + " images/s).");
+		return true;
+	}
+
+	/**
+	 * Shut down the thread pool. It is created again if needed.
+	 */
+	public void shutDownNow()
+	{
+		if( null != exe )
+			exe.shutdownNow();
+		exe = null;
+	}
+
+	/**
+	 * Image going through the pipeline. Each stage returns the task of
+	 * the next stage, which is submitted to the shared thread pool.
+	 */
+	private class Job
+	{
+		final File input;
+		final File output;
+		final Semaphore inFlight;
+		final long start;
+
+		ImagePlus image = null;
+		TiledFeatureStack[] features = null;
+		ImagePlus result = null;
+
+		Job(File input, File output, Semaphore inFlight, long start)
+		{
+			this.input = input;
+			this.output = output;
+			this.inFlight = inFlight;
+			this.start = start;
+		}
+
+		/** Read the image */
+		Runnable read()
+		{
+			return new Runnable(){
+				public void run()
+				{
+					try{
+						image = IJ.openImage( input.getPath() );
+						if( null == image )
+						{
+							fail("could not be opened");
+							return;
+						}
+						exe.submit( computeFeatures() );
+					}
+					catch(Throwable t)
+					{
+						fail(t);
+					}
+				}
+			};
+		}
+
+		/** Compute the features of each slice */
+		Runnable computeFeatures()
+		{
+			return new Runnable(){
+				public void run()
+				{
+					try{
+						final ImageStack stack = image.getImageStack();
+						features = new TiledFeatureStack[ stack.getSize() ];
+						for(int i=1; i<=stack.getSize(); i++)
+						{
+							final TiledFeatureStack tfs = segmentation.createTiledFeatureStack( stack.getProcessor(i) );
+							tfs.setMultiThreaded(false);
+							// Compute the tiles now only if they all fit in the cache
+							if( tfs.getNumTilesX() * tfs.getNumTilesY() <= tfs.getCacheSize() )
+								tfs.computeTilesIn( new Rectangle(0, 0, tfs.getWidth(), tfs.getHeight()) );
+							if( tfs.getNumAttributes() + 1 != trainHeader.numAttributes() )
+							{
+								fail("has " + tfs.getNumAttributes() + " features, but the classifier expects "
+										+ (trainHeader.numAttributes() - 1));
+								return;
+							}
+							features[i-1] = tfs;
+						}
+						exe.submit( classify() );
+					}
+					catch(Throwable t)
+					{
+						fail(t);
+					}
+				}
+			};
+		}
+
+		/** Classify each slice */
+		Runnable classify()
+		{
+			return new Runnable(){
+				public void run()
+				{
+					try{
+						final int width = image.getWidth();
+						final int height = image.getHeight();
+						final int numChannels = probabilityMaps ? trainHeader.numClasses() : 1;
+						final ImageStack classified = new ImageStack(width, height);
+						final AtomicInteger counter = new AtomicInteger();
+
+						for(int i=0; i<features.length; i++)
+						{
+							final float[][] pixels = new float[numChannels][width * height];
+							final boolean done = WekaSegmentation.classifyTiles(features[i], trainHeader,
+									threadClassifier.get(), pixels, new AtomicInteger(0), 1, counter, probabilityMaps).call();
+							if( false == done )
+							{
+								fail("was interrupted");
+								return;
+							}
+							// Release the features as soon as possible
+							features[i] = null;
+							for(int c=0; c<numChannels; c++)
+								classified.addSlice(probabilityMaps ? trainHeader.classAttribute().value(c) : "",
+										new FloatProcessor(width, height, pixels[c], null));
+						}
+						image = null;
+
+						if( probabilityMaps )
+						{
+							result = new ImagePlus("classified_" + input.getName(), classified);
+							result.setDimensions(numChannels, classified.getSize() / numChannels, 1);
+							if( classified.getSize() > numChannels )
+								result.setOpenAsHyperStack(true);
+						}
+						else
+						{
+							// Convert each slice on its own, as it is done for the slices of a class image
+							final ImageStack classes = new ImageStack(width, height);
+							for(int i=1; i<=classified.getSize(); i++)
+								classes.addSlice("", classified.getProcessor(i).convertToByte(true));
+							result = new ImagePlus("classified_" + input.getName(), classes);
+						}
+						exe.submit( write() );
+					}
+					catch(Throwable t)
+					{
+						fail(t);
+					}
+				}
+			};
+		}
+
+		/** Write the result and leave the pipeline */
+		Runnable write()
+		{
+			return new Runnable(){
+				public void run()
+				{
+					try{
+						final FileSaver fs = new FileSaver( result );
+						final boolean saved = result.getStackSize() > 1 ?
+								fs.saveAsTiffStack( output.getPath() ) : fs.saveAsTiff( output.getPath() );
+						if( false == saved )
+						{
+							fail("result could not be saved to " + output);
+							return;
+						}
+						result = null;
+						final int n = numProcessed.incrementAndGet();
+						if( reportInterval > 0 && 0 == n % reportInterval )
+						{
+							final double seconds = (System.currentTimeMillis() - start) / 1000.0;
+							IJ.log(n + " images processed (" + String.format("%.2f", n / seconds) + " images/s)");
+						}
+						inFlight.release();
+					}
+					catch(Throwable t)
+					{
+						fail(t);
+					}
+				}
+			};
+		}
+
+		void fail(String message)
+		{
+			IJ.log("Error: " + input + " " + message);
+			leave();
+		}
+
+		void fail(Throwable t)
+		{
+			IJ.log("Error when processing " + input + ": " + t);
+			t.printStackTrace();
+			leave();
+		}
+
+		/** Drop the data of a failed image and let the next one in */
+		void leave()
+		{
+			image = null;
+			features = null;
+			result = null;
+			numFailed.incrementAndGet();
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Get the name of the result file of an image
+	 * @param fileName name of the input image
+	 * @return same name with the TIFF extension
+	 */
+	private static String getResultName(String fileName)
+	{
+		final int dot = fileName.lastIndexOf('.');
+		return (dot > 0 ? fileName.substring(0, dot) : fileName) + ".tif";
+	}
+
+	/**
+	 * Get the throughput of the last call to process()
+	 * @return number of processed images per second
+	 */
+	public double getThroughput()
+	{
+		if( processingTime <= 0 )
+			return 0;
+		return numProcessed.get() * 1000.0 / processingTime;
+	}
+
+	/**
+	 * Get the number of images processed by the last call to process()
+	 * @return number of images classified and written
+	 */
+	public int getNumProcessed()
+	{
+		return numProcessed.get();
+	}
+
+	/**
+	 * Get the number of images that could not be processed by the last call to process()
+	 * @return number of failed images
+	 */
+	public int getNumFailed()
+	{
+		return numFailed.get();
+	}
+
+	/**
+	 * Set the number of threads of the pool (the pool is created again)
+	 * @param numThreads number of threads, 0 to use the ImageJ setting
+	 */
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads = numThreads > 0 ? numThreads : Prefs.getThreads();
+		shutDownNow();
+	}
+
+	/**
+	 * Set the maximum number of images in the pipeline
+	 * @param maxImagesInFlight number of images, 0 for twice the number of threads
+	 */
+	public void setMaxImagesInFlight(int maxImagesInFlight)
+	{
+		this.maxImagesInFlight = maxImagesInFlight;
+	}
+
+	/**
+	 * Set the creation of probability maps instead of a classification
+	 * @param probabilityMaps true to create a probability map per class
+	 */
+	public void setProbabilityMaps(boolean probabilityMaps)
+	{
+		this.probabilityMaps = probabilityMaps;
+	}
+
+	/**
+	 * Set the number of processed images between two throughput reports in the log
+	 * @param reportInterval number of images, 0 to report only at the end
+	 */
+	public void setReportInterval(int reportInterval)
+	{
+		this.reportInterval = reportInterval;
+	}
+
+	/**
+	 * Get the segmentation that holds the classifier and the feature settings
+	 * (to change the feature tile size, for instance)
+	 * @return segmentation used by the batch
+	 */
+	public WekaSegmentation getWekaSegmentation()
+	{
+		return segmentation;
+	}
+
+	/**
+	 * Classify a directory of images from the command line
+	 *
+	 * @param args classifier file, input directory, output directory and,
+	 * optionally, "probability" to create probability maps
+	 */
+	public static void main(String[] args)
+	{
+		if( args.length < 3 )
+		{
+			System.err.println("Usage: BatchSegmentation classifier.model inputDir outputDir [probability]");
+			System.exit(1);
+		}
+		final BatchSegmentation batch = new BatchSegmentation();
+		batch.setProbabilityMaps( args.length > 3 && args[3].equalsIgnoreCase("probability") );
+		boolean ok = batch.loadClassifier( args[0] );
+		if( ok )
+			ok = batch.process( new File(args[1]), new File(args[2]) );
+		batch.shutDownNow();
+		System.exit( ok ? 0 : 1 );
+	}
+}
@@ -0,0 +1,815 @@
+package trainableSegmentation;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Lazy version of {@link FeatureStack}: the image features are computed
+ * tile by tile, only when a pixel of the tile is requested, and the computed
+ * tiles are kept in a bounded LRU cache. The memory used is therefore
+ * proportional to the cache size instead of the image size.
+ * <p>
+ * Each tile is computed by a regular {@link FeatureStack} on a crop of the
+ * original image that includes a margin (halo) around the tile, so the
+ * filters see the same neighborhood they would see on the whole image. The
+ * halo is then discarded. With the default halo, the features of local filters
+ * (Gaussian, Sobel, Hessian, DoG, membranes, variance, mean, etc.) match the
+ * ones of the whole image. Filters that depend on the whole image (Gabor
+ * normalization, anisotropic diffusion, Lipschitz) give slightly different
+ * values depending on the tiling. Changing any filter parameter empties
+ * the cache.
+ * <p>
+ * Feature indices follow the {@link FeatureStack} convention: from 1 (the
+ * original image) to {@link #getSize()}.
+ */
+public class TiledFeatureStack
+{
+	/** default tile side (in pixels) */
+	public static final int DEFAULT_TILE_SIZE = 512;
+	/** default maximum number of tiles kept in memory */
+	public static final int DEFAULT_CACHE_SIZE = 16;
+
+	/** original input image (float or RGB) */
+	private final ImageProcessor originalImage;
+	/** image width */
+	private final int width;
+	/** image height */
+	private final int height;
+	/** flag to specify the use of color features */
+	private final boolean colorFeatures;
+	/** side of the (square) tiles */
+	private final int tileSize;
+	/** number of tiles along x */
+	private final int numTilesX;
+	/** number of tiles along y */
+	private final int numTilesY;
+
+	/** minimum sigma/radius used in the filters */
+	private float minimumSigma = 1;
+	/** maximum sigma/radius used in the filters */
+	private float maximumSigma = 16;
+	/** use neighborhood flag */
+	private boolean useNeighbors = false;
+	/** expected membrane thickness (in pixels) */
+	private int membraneSize = 1;
+	/** size of the patch to use to enhance membranes (in pixels, NxN) */
+	private int membranePatchSize = 19;
+	/** flags of filters to be used */
+	private boolean[] enableFeatures = null;
+	/** margin added around the tiles, -1 to compute it from the filter parameters */
+	private int halo = -1;
+	/** compute the features of each tile with several threads */
+	private boolean multiThreaded = true;
+	/** names of the features to use, null to use all of them */
+	private ArrayList<String> featureNames = null;
+
+	/** feature names (including the original image), null until the first tile is computed */
+	private volatile String[] labels = null;
+	/** maximum number of tiles in the cache */
+	private int cacheSize;
+	/** computed tiles, in access order */
+	private final LinkedHashMap<Integer, Tile> cache;
+	/** tiles being computed, so that threads asking for the same tile wait instead of computing it again */
+	private final HashMap<Integer, FutureTask<Tile>> pending = new HashMap<Integer, FutureTask<Tile>>();
+	/** number of times the cache was cleared, to discard tiles computed with old settings */
+	private int generation = 0;
+
+	/**
+	 * Construct a lazy feature stack with the default tile and cache sizes
+	 * @param ip original image
+	 */
+	public TiledFeatureStack(ImageProcessor ip)
+	{
+		this(ip, DEFAULT_TILE_SIZE, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Construct a lazy feature stack
+	 * @param ip original image
+	 * @param tileSize side of the tiles (in pixels)
+	 * @param cacheSize maximum number of tiles kept in memory
+	 */
+	public TiledFeatureStack(ImageProcessor ip, int tileSize, int cacheSize)
+	{
+		if( ip instanceof ColorProcessor )
+		{
+			this.originalImage = ip;
+			this.colorFeatures = true;
+		}
+		else
+		{
+			this.originalImage = ip.duplicate().convertToFloat();
+			this.colorFeatures = false;
+		}
+		this.width = ip.getWidth();
+		this.height = ip.getHeight();
+		this.tileSize = Math.max(1, tileSize);
+		this.numTilesX = (width + this.tileSize - 1) / this.tileSize;
+		this.numTilesY = (height + this.tileSize - 1) / this.tileSize;
+		this.cacheSize = Math.max(1, cacheSize);
+		this.cache = new LinkedHashMap<Integer, Tile>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest)
+			{
+				return size() > TiledFeatureStack.this.cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Construct a lazy feature stack with the default tile and cache sizes
+	 * @param image original image
+	 */
+	public TiledFeatureStack(ImagePlus image)
+	{
+		this(image.getProcessor());
+	}
+
+	/**
+	 * Get the feature value of a pixel. The tile that contains the pixel
+	 * is computed if it is not in the cache.
+	 *
+	 * @param index feature index (from 1 to {@link #getSize()})
+	 * @param x x- pixel coordinate
+	 * @param y y- pixel coordinate
+	 * @return feature value
+	 */
+	public float getValue(int index, int x, int y)
+	{
+		final Tile tile = getTile(x / tileSize, y / tileSize);
+		return tile.values[index - 1][(y - tile.y) * tile.width + (x - tile.x)];
+	}
+
+	/**
+	 * Get the bilinear interpolation of a feature at a sub-pixel position,
+	 * the way {@link ImageProcessor#getInterpolatedValue(double, double)} does
+	 * on a float slice of a {@link FeatureStack}
+	 *
+	 * @param index feature index (from 1 to {@link #getSize()})
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @return interpolated feature value
+	 */
+	public double getInterpolatedValue(int index, double x, double y)
+	{
+		if (x < -1 || x >= width || y < -1 || y >= height)
+			return 0;
+		if (x < 0.0) x = 0.0;
+		if (x >= width - 1.0) x = width - 1.001;
+		if (y < 0.0) y = 0.0;
+		if (y >= height - 1.0) y = height - 1.001;
+
+		final int xbase = (int) x;
+		final int ybase = (int) y;
+		final double xFraction = x - xbase;
+		final double yFraction = y - ybase;
+		final double lowerLeft = getValue(index, xbase, ybase);
+		final double lowerRight = getValue(index, xbase + 1, ybase);
+		final double upperRight = getValue(index, xbase + 1, ybase + 1);
+		final double upperLeft = getValue(index, xbase, ybase + 1);
+		final double upperAverage = upperLeft + xFraction * (upperRight - upperLeft);
+		final double lowerAverage = lowerLeft + xFraction * (lowerRight - lowerLeft);
+		return lowerAverage + yFraction * (upperAverage - lowerAverage);
+	}
+
+	/**
+	 * Fill a buffer with the feature vector of a pixel, without allocating
+	 * anything once the tile is in the cache. The buffer must have at least
+	 * {@link #getNumAttributes()} elements.
+	 *
+	 * @param x x- pixel coordinate
+	 * @param y y- pixel coordinate
+	 * @param values output buffer
+	 */
+	public void getFeatureVector(int x, int y, double[] values)
+	{
+		final Tile tile = getTile(x / tileSize, y / tileSize);
+		final int offset = (y - tile.y) * tile.width + (x - tile.x);
+		int n = 0;
+		for (; n < tile.values.length; n++)
+			values[n] = tile.values[n][offset];
+
+		// Neighbors of the original image, with mirror boundary conditions
+		if(useNeighbors)
+		{
+			for(int i=-1;  i < 2; i++)
+				for(int j = -1; j < 2; j++)
+				{
+					if(i==0 && j==0)
+						continue;
+					values[n] = getPixelMirrorConditions(x+i, y+j);
+					n++;
+				}
+		}
+	}
+
+	/**
+	 * Create instance (feature vector) of a specific coordinate
+	 *
+	 * @param x x- axis coordinate
+	 * @param y y- axis coordinate
+	 * @param classValue class value to be assigned
+	 * @return corresponding instance
+	 */
+	public DenseInstance createInstance(int x, int y, int classValue)
+	{
+		final double[] values = new double[ getNumAttributes() + 1 ];
+		getFeatureVector(x, y, values);
+		// Assign class
+		values[values.length-1] = (double) classValue;
+		return new DenseInstance(1.0, values);
+	}
+
+	/**
+	 * Fill a buffer with the feature vectors of a row of pixels, reading
+	 * their tile only once. The pixels must all belong to the same tile, and
+	 * each row of the buffer must have at least {@link #getNumAttributes()}
+	 * elements.
+	 *
+	 * @param x x- coordinate of the first pixel
+	 * @param y y- coordinate of the pixels
+	 * @param length number of pixels
+	 * @param values output buffer, one feature vector per pixel
+	 */
+	public void getFeatureVectors(int x, int y, int length, double[][] values)
+	{
+		final Tile tile = getTile(x / tileSize, y / tileSize);
+		final int offset = (y - tile.y) * tile.width + (x - tile.x);
+		final int nFeatures = tile.values.length;
+		for(int n=0; n<nFeatures; n++)
+		{
+			final float[] feature = tile.values[n];
+			for(int i=0; i<length; i++)
+				values[i][n] = feature[offset + i];
+		}
+
+		if(useNeighbors)
+		{
+			for(int p=0; p<length; p++)
+			{
+				int n = nFeatures;
+				for(int i=-1;  i < 2; i++)
+					for(int j = -1; j < 2; j++)
+					{
+						if(i==0 && j==0)
+							continue;
+						values[p][n] = getPixelMirrorConditions(x+p+i, y+j);
+						n++;
+					}
+			}
+		}
+	}
+
+	/**
+	 * Create an empty set of instances with the data structure of the
+	 * feature vectors (features, neighbors if they are used, and classes)
+	 *
+	 * @param classes list of classes names
+	 * @return empty set of instances, with the class as last attribute
+	 */
+	public Instances createHeader(ArrayList<String> classes)
+	{
+		final ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+		for (int i=1; i<=getSize(); i++)
+			attributes.add(new Attribute(getSliceLabel(i)));
+
+		if(useNeighbors)
+			for (int i=0; i<8; i++)
+				attributes.add(new Attribute("original_neighbor_" + (i+1)));
+
+		attributes.add(new Attribute("class", classes));
+		final Instances dataInfo = new Instances("segment", attributes, 1);
+		dataInfo.setClassIndex(dataInfo.numAttributes()-1);
+		return dataInfo;
+	}
+
+	/**
+	 * Get the pixel value of the original image with mirror boundary conditions,
+	 * as {@link FeatureStack#getPixelMirrorConditions(ImageProcessor, int, int)} does.
+	 * It is read from the original image, so that no neighbor tile is computed.
+	 */
+	private double getPixelMirrorConditions(int x, int y)
+	{
+		int x2 = x < 0 ? -x : x;
+		int y2 = y < 0 ? -y : y;
+
+		if(x2 >= width)
+			x2 = 2 * (width - 1) - x2;
+
+		if(y2 >= height)
+			y2 = 2 * (height - 1) - y2;
+
+		return originalImage.getPixelValue(x2, y2);
+	}
+
+	/**
+	 * Get a tile, computing it if it is not in the cache. Tiles are computed
+	 * outside of the cache lock, so that several threads can compute
+	 * different tiles at the same time. Threads asking for a tile that is
+	 * being computed wait for it.
+	 *
+	 * @param tileX tile column
+	 * @param tileY tile row
+	 * @return computed tile
+	 */
+	private Tile getTile(final int tileX, final int tileY)
+	{
+		final Integer key = tileY * numTilesX + tileX;
+		final int currentGeneration;
+		FutureTask<Tile> task;
+		boolean compute = false;
+		synchronized (cache)
+		{
+			final Tile tile = cache.get(key);
+			if(null != tile)
+				return tile;
+			currentGeneration = generation;
+			task = pending.get(key);
+			if(null == task)
+			{
+				task = new FutureTask<Tile>(new Callable<Tile>(){
+					public Tile call()
+					{
+						return computeTile(tileX, tileY);
+					}
+				});
+				pending.put(key, task);
+				compute = true;
+			}
+		}
+		if(compute)
+		{
+			task.run();
+			synchronized (cache)
+			{
+				if(pending.get(key) == task)
+					pending.remove(key);
+				// Do not cache tiles computed with outdated settings
+				if(currentGeneration == generation)
+				{
+					try {
+						cache.put(key, task.get());
+					} catch (ExecutionException e) {
+						// thrown to the caller below
+					} catch (InterruptedException e) {
+						// cannot happen, the task is done
+					}
+				}
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Compute the features of a tile on a crop of the original image
+	 * that includes the halo
+	 *
+	 * @param tileX tile column
+	 * @param tileY tile row
+	 * @return computed tile
+	 */
+	private Tile computeTile(int tileX, int tileY)
+	{
+		final Rectangle core = getTileBounds(tileX, tileY);
+		final int margin = getHalo();
+		final Rectangle crop = new Rectangle(core.x - margin, core.y - margin,
+				core.width + 2 * margin, core.height + 2 * margin).intersection(new Rectangle(0, 0, width, height));
+
+		final ImageProcessor cropped;
+		synchronized (originalImage)
+		{
+			originalImage.setRoi(crop);
+			cropped = originalImage.crop();
+			originalImage.resetRoi();
+		}
+
+		final FeatureStack fs = new FeatureStack(cropped);
+		if(null != enableFeatures)
+			fs.setEnabledFeatures(enableFeatures);
+		fs.setMembranePatchSize(membranePatchSize);
+		fs.setMembraneSize(membraneSize);
+		fs.setMaximumSigma(maximumSigma);
+		fs.setMinimumSigma(minimumSigma);
+		fs.setUseNeighbors(useNeighbors);
+		if( false == (multiThreaded ? fs.updateFeaturesMT() : fs.updateFeaturesST()) )
+			throw new RuntimeException("Features of tile (" + tileX + ", " + tileY + ") could not be computed.");
+		if(null != featureNames)
+			WekaSegmentation.filterFeatureStackByList(featureNames, fs);
+
+		final int nFeatures = fs.getSize();
+		synchronized (cache)
+		{
+			if(null == labels)
+			{
+				labels = new String[nFeatures];
+				for(int i=1; i<=nFeatures; i++)
+					labels[i-1] = fs.getSliceLabel(i);
+			}
+		}
+
+		// Discard the halo
+		final int dx = core.x - crop.x;
+		final int dy = core.y - crop.y;
+		final float[][] values = new float[nFeatures][core.width * core.height];
+		for(int i=1; i<=nFeatures; i++)
+		{
+			final ImageProcessor ip = fs.getProcessor(i);
+			final float[] v = values[i-1];
+			for(int y=0, n=0; y<core.height; y++)
+				for(int x=0; x<core.width; x++, n++)
+					v[n] = ip.getPixelValue(x + dx, y + dy);
+		}
+		return new Tile(core.x, core.y, core.width, values);
+	}
+
+	/**
+	 * Get the bounds of a tile (without halo)
+	 *
+	 * @param tileX tile column
+	 * @param tileY tile row
+	 * @return tile rectangle, in image coordinates
+	 */
+	public Rectangle getTileBounds(int tileX, int tileY)
+	{
+		final int x = tileX * tileSize;
+		final int y = tileY * tileSize;
+		return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+	}
+
+	/**
+	 * Get the indices of the tiles that intersect a rectangle, so only
+	 * those need to be computed (for instance to read the features
+	 * of a trace)
+	 *
+	 * @param bounds rectangle in image coordinates
+	 * @return list of tile indices, as {column, row}
+	 */
+	public ArrayList<int[]> getTilesIn(Rectangle bounds)
+	{
+		final ArrayList<int[]> tiles = new ArrayList<int[]>();
+		final Rectangle r = bounds.intersection(new Rectangle(0, 0, width, height));
+		if(r.isEmpty())
+			return tiles;
+		for(int ty = r.y / tileSize; ty <= (r.y + r.height - 1) / tileSize; ty++)
+			for(int tx = r.x / tileSize; tx <= (r.x + r.width - 1) / tileSize; tx++)
+				tiles.add(new int[]{tx, ty});
+		return tiles;
+	}
+
+	/**
+	 * Compute the tiles that intersect a rectangle (if they are not
+	 * cached yet). Only as many tiles as the cache can hold are kept.
+	 *
+	 * @param bounds rectangle in image coordinates
+	 */
+	public void computeTilesIn(Rectangle bounds)
+	{
+		for(int[] t : getTilesIn(bounds))
+		{
+			if (Thread.currentThread().isInterrupted())
+				return;
+			getTile(t[0], t[1]);
+		}
+	}
+
+	/**
+	 * Get the margin added around each tile before computing its features.
+	 * Unless set with {@link #setHalo(int)}, it covers the support of the
+	 * largest filter kernel.
+	 *
+	 * @return margin in pixels
+	 */
+	public int getHalo()
+	{
+		if(halo >= 0)
+			return halo;
+		return (int) Math.ceil(5 * maximumSigma) + membranePatchSize;
+	}
+
+	/**
+	 * Set the margin added around each tile (-1 to compute it from the
+	 * filter parameters)
+	 * @param halo margin in pixels
+	 */
+	public void setHalo(int halo)
+	{
+		if(halo == this.halo)
+			return;
+		this.halo = halo;
+		clearCache();
+	}
+
+	/**
+	 * Remove all tiles from the cache
+	 */
+	public void clearCache()
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+			// tiles being computed with the old settings are not shared anymore
+			pending.clear();
+			labels = null;
+			generation++;
+		}
+	}
+
+	/**
+	 * Set the maximum number of tiles kept in memory
+	 * @param cacheSize number of tiles
+	 */
+	public void setCacheSize(int cacheSize)
+	{
+		synchronized (cache)
+		{
+			this.cacheSize = Math.max(1, cacheSize);
+			// Evict the least recently used tiles
+			while(cache.size() > this.cacheSize)
+				cache.remove(cache.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Get the maximum number of tiles kept in memory
+	 * @return number of tiles
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	/**
+	 * Get the number of features (including the original image). The first
+	 * tile is computed if needed.
+	 * @return number of features
+	 */
+	public int getSize()
+	{
+		if(null == labels)
+			getTile(0, 0);
+		return labels.length;
+	}
+
+	/**
+	 * Get the number of attributes of a feature vector (without the class),
+	 * that is the number of features plus the neighbors if they are used
+	 * @return number of attributes
+	 */
+	public int getNumAttributes()
+	{
+		return getSize() + (useNeighbors ? 8 : 0);
+	}
+
+	/**
+	 * Get feature label
+	 * @param index feature index (from 1 to {@link #getSize()})
+	 * @return feature label
+	 */
+	public String getSliceLabel(int index)
+	{
+		if(null == labels)
+			getTile(0, 0);
+		return labels[index - 1];
+	}
+
+	/**
+	 * Set the names of the features to use. The other features are removed
+	 * from the tiles, as {@link WekaSegmentation#filterFeatureStackByList()} does
+	 * on whole feature stacks.
+	 *
+	 * @param featureNames list of feature names to use (null to use all the features)
+	 */
+	public void setFeatureNames(ArrayList<String> featureNames)
+	{
+		if(null == featureNames ? null == this.featureNames : featureNames.equals(this.featureNames))
+			return;
+		this.featureNames = null == featureNames ? null : new ArrayList<String>(featureNames);
+		clearCache();
+	}
+
+	/**
+	 * Set list of boolean flags for enabled features. The cache is only
+	 * cleared if the flags change.
+	 * @param enableFeatures list of boolean flags to enable features
+	 */
+	public void setEnabledFeatures(boolean[] enableFeatures)
+	{
+		if(Arrays.equals(enableFeatures, this.enableFeatures))
+			return;
+		this.enableFeatures = null == enableFeatures ? null : enableFeatures.clone();
+		clearCache();
+	}
+
+	/**
+	 * Get the list of enabled features flags
+	 * @return list of boolean flags (true means the feature is selected)
+	 */
+	public boolean[] getEnabledFeatures()
+	{
+		return enableFeatures;
+	}
+
+	/**
+	 * Set the minimum sigma to use in the filters
+	 * @param minSigma sigma value
+	 */
+	public void setMinimumSigma(float minSigma)
+	{
+		if(minSigma == this.minimumSigma)
+			return;
+		this.minimumSigma = minSigma;
+		clearCache();
+	}
+
+	/**
+	 * Set the maximum sigma to use in the filters
+	 * @param maxSigma sigma value
+	 */
+	public void setMaximumSigma(float maxSigma)
+	{
+		if(maxSigma == this.maximumSigma)
+			return;
+		this.maximumSigma = maxSigma;
+		clearCache();
+	}
+
+	/**
+	 * Set the expected membrane thickness
+	 * @param membraneSize membrane thickness
+	 */
+	public void setMembraneSize(int membraneSize)
+	{
+		if(membraneSize == this.membraneSize)
+			return;
+		this.membraneSize = membraneSize;
+		clearCache();
+	}
+
+	/**
+	 * Set the membrane patch size (it must be an odd number)
+	 * @param patchSize membrane patch size
+	 */
+	public void setMembranePatchSize(int patchSize)
+	{
+		if(patchSize % 2 == 0)
+			patchSize ++;
+		if(patchSize == this.membranePatchSize)
+			return;
+		this.membranePatchSize = patchSize;
+		clearCache();
+	}
+
+	/**
+	 * Set the use of the neighbors as features
+	 * @param useNeighbors flag to decide the use of neighbors
+	 */
+	public void setUseNeighbors(boolean useNeighbors)
+	{
+		this.useNeighbors = useNeighbors;
+	}
+
+	/**
+	 * Check the use of the neighbors as features
+	 *
+	 * @return true if the neighbors are being used
+	 */
+	public boolean useNeighborhood()
+	{
+		return useNeighbors;
+	}
+
+	/**
+	 * Set the use of several threads to compute the features of a tile. Use
+	 * a single thread when many stacks are computed in parallel.
+	 * @param multiThreaded false to compute the features in the calling thread
+	 */
+	public void setMultiThreaded(boolean multiThreaded)
+	{
+		this.multiThreaded = multiThreaded;
+	}
+
+	/**
+	 * Check if the original image is RGB
+	 * @return true if color features are used
+	 */
+	public boolean isColor()
+	{
+		return colorFeatures;
+	}
+
+	/**
+	 * Get image width
+	 * @return image width
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Get image height
+	 * @return image height
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Get the side of the tiles
+	 * @return tile size (in pixels)
+	 */
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+
+	/**
+	 * Get the number of tile columns
+	 * @return number of tiles along x
+	 */
+	public int getNumTilesX()
+	{
+		return numTilesX;
+	}
+
+	/**
+	 * Get the number of tile rows
+	 * @return number of tiles along y
+	 */
+	public int getNumTilesY()
+	{
+		return numTilesY;
+	}
+
+	/**
+	 * Features of a tile, stored as one float array per feature
+	 */
+	private static class Tile
+	{
+		final int x;
+		final int y;
+		final int width;
+		final float[][] values;
+
+		Tile(int x, int y, int width, float[][] values)
+		{
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.values = values;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Tiled feature stack (" + width + "x" + height + ", " + numTilesX + "x" + numTilesY
+				+ " tiles of " + tileSize + " pixels, " + cache.size() + "/" + cacheSize + " in cache)";
+	}
+}
@@ -121,6 +121,12 @@ public class WekaSegmentation {
 	private ImagePlus classifiedImage;
 	/** features to be used in the training */
 	private FeatureStackArray featureStackArray = null;
+	/** side of the tiles of the lazy feature stacks used in the training (0 to compute the features of whole slices) */
+	private int featureTileSize = 0;
+	/** maximum number of tiles kept in memory by each lazy feature stack */
+	private int featureCacheSize = TiledFeatureStack.DEFAULT_CACHE_SIZE;
+	/** lazy feature stacks (one per slice), only used if featureTileSize is larger than 0 */
+	private TiledFeatureStack[] tiledFeatureStacks = null;
 	/** set of instances for the whole training image */
 	private Instances wholeImageData;
 	/** set of instances from loaded data (previously saved segmentation) */
@@ -285,6 +291,12 @@ public WekaSegmentation()
 
 		classifier = rf;
 		
+		// Feature settings (no feature stacks until an image is set), 
+		// so a classifier can be loaded without image
+		featureStackArray = new FeatureStackArray(0,
+				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
+				enabledFeatures);
+		
 		// start with two classes
 		addClass();
 		addClass();
@@ -303,6 +315,7 @@ public void setTrainingImage(ImagePlus imp)
 		featureStackArray = new FeatureStackArray(trainingImage.getImageStackSize(),
 				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
 				enabledFeatures);
+		tiledFeatureStacks = null;
 		
 		featureStackToUpdateTrain = new boolean[trainingImage.getImageStackSize()];
 		featureStackToUpdateTest = new boolean[trainingImage.getImageStackSize()];
@@ -699,7 +712,10 @@ public boolean saveData(final String pathname)
 			return false;
 		}
 
-		if(featureStackArray.isEmpty() || updateFeatures)
+		// Lazy features: only the tiles under the traces will be computed
+		if(featureTileSize > 0)
+			updateTiledFeatureStacks();
+		else if(featureStackArray.isEmpty() || updateFeatures)
 		{
 			IJ.log("Creating feature stack...");
 			if ( false == featureStackArray.updateFeaturesMT(featureStackToUpdateTrain) )
@@ -1783,6 +1799,81 @@ public FeatureStackArray getFeatureStackArray()
 	{
 		return this.featureStackArray;
 	}
+
+	/**
+	 * Get the lazy feature stack of a slice of the training image, with
+	 * the current feature settings
+	 *
+	 * @param i number of feature stack slice (>=1)
+	 * @return lazy feature stack of the corresponding slice
+	 */
+	public TiledFeatureStack getTiledFeatureStack(int i)
+	{
+		if(featureTileSize <= 0)
+			return null;
+		updateTiledFeatureStacks();
+		return this.tiledFeatureStacks[i-1];
+	}
+
+	/**
+	 * Create a lazy feature stack of an image to classify, with the same
+	 * features as the current classifier. If no feature tile size is set,
+	 * the whole image is a single tile.
+	 * 
+	 * @param ip image to classify
+	 * @return lazy feature stack of the image
+	 */
+	public TiledFeatureStack createTiledFeatureStack(ImageProcessor ip)
+	{
+		final int tileSize = featureTileSize > 0 ? featureTileSize : Math.max(ip.getWidth(), ip.getHeight());
+		final TiledFeatureStack features = new TiledFeatureStack(ip, tileSize, featureCacheSize);
+		features.setEnabledFeatures(featureStackArray.getEnabledFeatures());
+		features.setMaximumSigma(maximumSigma);
+		features.setMinimumSigma(minimumSigma);
+		features.setMembranePatchSize(membranePatchSize);
+		features.setMembraneSize(membraneThickness);
+		features.setFeatureNames(featureNames);
+		return features;
+	}
+
+	/**
+	 * Set the side of the tiles used to compute the features lazily. When
+	 * it is larger than 0, the training computes only the tiles that
+	 * contain traces, instead of the features of the whole slices.
+	 *
+	 * @param tileSize tile side in pixels (0 to compute the features of whole slices)
+	 */
+	public void setFeatureTileSize(int tileSize)
+	{
+		this.featureTileSize = Math.max(0, tileSize);
+	}
+
+	/**
+	 * Get the side of the tiles used to compute the features lazily
+	 * @return tile side in pixels (0 if the features of whole slices are computed)
+	 */
+	public int getFeatureTileSize()
+	{
+		return featureTileSize;
+	}
+
+	/**
+	 * Set the maximum number of tiles of features kept in memory per slice
+	 * @param cacheSize number of tiles
+	 */
+	public void setFeatureCacheSize(int cacheSize)
+	{
+		this.featureCacheSize = Math.max(1, cacheSize);
+	}
+
+	/**
+	 * Get the maximum number of tiles of features kept in memory per slice
+	 * @return number of tiles
+	 */
+	public int getFeatureCacheSize()
+	{
+		return featureCacheSize;
+	}
 	
 	/**
 	 * Get loaded (or accumulated) training instances
@@ -1814,7 +1905,10 @@ public boolean loadNewImage( ImagePlus newImage )
 		// Accumulate current data in "loadedTrainingData"
 		IJ.log("Storing previous image instances...");
 
-		if(featureStackArray.isEmpty() || updateFeatures)
+		// Lazy features: only the tiles under the traces will be computed
+		if(featureTileSize > 0)
+			updateTiledFeatureStacks();
+		else if(featureStackArray.isEmpty() || updateFeatures)
 		{
 			IJ.log("Creating feature stack...");
 			if ( false == featureStackArray.updateFeaturesMT(featureStackToUpdateTrain) )
@@ -1870,6 +1964,7 @@ else if (null == data)
 		featureStackArray = new FeatureStackArray(trainingImage.getImageStackSize(),
 				minimumSigma, maximumSigma, useNeighbors, membraneThickness, membranePatchSize,
 				enabledFeatures);
+		tiledFeatureStacks = null;
 		
 		// Remove traces from the lists and ROI overlays and initialize each feature stack
 		IJ.log("Removing previous markings...");
@@ -3485,10 +3580,16 @@ public Instances createTrainingInstances()
 	{
 		//IJ.log("create training instances: num of features = " + featureStackArray.getNumOfFeatures());
 
+		final boolean tiled = featureTileSize > 0;
+		if(tiled)
+			updateTiledFeatureStacks();
+		final TiledFeatureStack reference = tiled ? getReferenceTiledFeatureStack() : null;
+		final int numOfFeatures = tiled ? reference.getSize() : featureStackArray.getNumOfFeatures();
+
 		ArrayList<Attribute> attributes = new ArrayList<Attribute>();
-		for (int i=1; i<=featureStackArray.getNumOfFeatures(); i++)
+		for (int i=1; i<=numOfFeatures; i++)
 		{
-			String attString = featureStackArray.getLabel(i);
+			String attString = tiled ? reference.getSliceLabel(i) : featureStackArray.getLabel(i);
 			attributes.add(new Attribute(attString));
 			//IJ.log("Add attribute " + attString);
 		}
@@ -3554,12 +3655,16 @@ public Instances createTrainingInstances()
 
 							for (int i=0; i<n; i++)
 							{
-								double[] values = new double[featureStackArray.getNumOfFeatures()+1];
+								double[] values = new double[numOfFeatures+1];
 
-								for (int z=1; z<=featureStackArray.getNumOfFeatures(); z++)
-									values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getPixelValue(x[i], y[i]);
+								if(tiled)
+									for (int z=1; z<=numOfFeatures; z++)
+										values[z-1] = tiledFeatureStacks[sliceNum-1].getValue(z, x[i], y[i]);
+								else
+									for (int z=1; z<=numOfFeatures; z++)
+										values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getPixelValue(x[i], y[i]);
 								
-								values[featureStackArray.getNumOfFeatures()] = (double) l;
+								values[numOfFeatures] = (double) l;
 								trainingData.add(new DenseInstance(1.0, values));
 								// increase number of instances for this class
 								nl ++;
@@ -3591,17 +3696,20 @@ public Instances createTrainingInstances()
 
 								int n2 = width;
 								do {
-									if(x >= 0 && x < featureStackArray.get(sliceNum-1).getWidth() 
-											&& y >= 0 && y <featureStackArray.get(sliceNum-1).getHeight())
+									if(x >= 0 && x < trainingImage.getWidth() 
+											&& y >= 0 && y < trainingImage.getHeight())
 									{
-										double[] values = new double[featureStackArray.getNumOfFeatures()+1];
-										if(colorFeatures)
-											for (int z=1; z<=featureStackArray.getNumOfFeatures(); z++)
+										double[] values = new double[numOfFeatures+1];
+										if(tiled)
+											for (int z=1; z<=numOfFeatures; z++)
+												values[z-1] = tiledFeatureStacks[sliceNum-1].getInterpolatedValue(z, x, y);
+										else if(colorFeatures)
+											for (int z=1; z<=numOfFeatures; z++)
 												values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getInterpolatedPixel(x, y);
 										else
-											for (int z=1; z<=featureStackArray.getNumOfFeatures(); z++)
+											for (int z=1; z<=numOfFeatures; z++)
 												values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getInterpolatedValue(x, y);
-										values[featureStackArray.getNumOfFeatures()] = (double) l;
+										values[numOfFeatures] = (double) l;
 										trainingData.add(new DenseInstance(1.0, values));
 										// increase number of instances for this class
 										nl ++;
@@ -3625,10 +3733,14 @@ public Instances createTrainingInstances()
 							for(int y = rect.y; y < lastY; y++)
 								if(shapeRoi.contains(x, y))
 								{
-									double[] values = new double[featureStackArray.getNumOfFeatures()+1];
-									for (int z=1; z<=featureStackArray.getNumOfFeatures(); z++)
-										values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getPixelValue(x, y);
-									values[featureStackArray.getNumOfFeatures()] = (double) l;
+									double[] values = new double[numOfFeatures+1];
+									if(tiled)
+										for (int z=1; z<=numOfFeatures; z++)
+											values[z-1] = tiledFeatureStacks[sliceNum-1].getValue(z, x, y);
+									else
+										for (int z=1; z<=numOfFeatures; z++)
+											values[z-1] = featureStackArray.get(sliceNum-1).getProcessor(z).getPixelValue(x, y);
+									values[numOfFeatures] = (double) l;
 									trainingData.add(new DenseInstance(1.0, values));
 									// increase number of instances for this class
 									nl ++;
@@ -3645,11 +3757,58 @@ public Instances createTrainingInstances()
 			return null;
 
 		// Set the index of the class attribute
-		trainingData.setClassIndex(featureStackArray.getNumOfFeatures());
+		trainingData.setClassIndex(numOfFeatures);
 
 		return trainingData;
 	}
 
+	/**
+	 * Create or update the lazy feature stacks of the training image with
+	 * the current feature settings. The tiles already computed are kept
+	 * if the settings did not change.
+	 */
+	private void updateTiledFeatureStacks()
+	{
+		final int numSlices = trainingImage.getImageStackSize();
+		if(null == tiledFeatureStacks || tiledFeatureStacks.length != numSlices)
+			tiledFeatureStacks = new TiledFeatureStack[numSlices];
+
+		for(int i=0; i<numSlices; i++)
+		{
+			if(null == tiledFeatureStacks[i] || tiledFeatureStacks[i].getTileSize() != featureTileSize)
+				tiledFeatureStacks[i] = new TiledFeatureStack(trainingImage.getImageStack().getProcessor(i+1),
+						featureTileSize, featureCacheSize);
+			final TiledFeatureStack tfs = tiledFeatureStacks[i];
+			tfs.setCacheSize(featureCacheSize);
+			tfs.setEnabledFeatures(featureStackArray.getEnabledFeatures());
+			tfs.setMembranePatchSize(membranePatchSize);
+			tfs.setMembraneSize(membraneThickness);
+			tfs.setMaximumSigma(maximumSigma);
+			tfs.setMinimumSigma(minimumSigma);
+			tfs.setUseNeighbors(featureStackArray.useNeighborhood());
+			tfs.setFeatureNames(featureNames);
+		}
+	}
+
+	/**
+	 * Get the lazy feature stack of the first slice with traces, after
+	 * computing the tiles of its first trace, so the feature names are read
+	 * from a tile that is needed anyway
+	 *
+	 * @return reference lazy feature stack
+	 */
+	private TiledFeatureStack getReferenceTiledFeatureStack()
+	{
+		for(int n=0; n<trainingImage.getImageStackSize(); n++)
+			for(int i=0; i<numOfClasses; i++)
+				if(examples[n].get(i).size() > 0)
+				{
+					tiledFeatureStacks[n].computeTilesIn(examples[n].get(i).get(0).getBounds());
+					return tiledFeatureStacks[n];
+				}
+		return tiledFeatureStacks[0];
+	}
+
 	/**
 	 * Create instances of a feature stack (to be submitted to an Executor Service)
 	 * 
@@ -3702,7 +3861,12 @@ public boolean trainClassifier()
 
 		// Create feature stack if necessary (training from traces
 		// and the features stack is empty or the settings changed)
-		if(nonEmpty > 1 && featureStackArray.isEmpty() || updateFeatures)
+		if(featureTileSize > 0)
+		{
+			// Lazy features: only the tiles under the traces will be computed
+			updateTiledFeatureStacks();
+		}
+		else if(nonEmpty > 1 && featureStackArray.isEmpty() || updateFeatures)
 		{
 			IJ.showStatus("Creating feature stack...");
 			IJ.log("Creating feature stack...");
@@ -3883,35 +4047,24 @@ public void run()
 				for (int i = startSlice; i < startSlice + numSlices; i++)
 				{
 					final ImagePlus slice = new ImagePlus(imp.getImageStack().getSliceLabel(i), imp.getImageStack().getProcessor(i));
-                    // Create feature stack for slice
-                    IJ.showStatus("Creating features...");
-                    IJ.log("Creating features for slice " + i +  "...");
-                    final FeatureStack sliceFeatures = new FeatureStack(slice);
-                    // Use the same features as the current classifier
-                    sliceFeatures.setEnabledFeatures(featureStackArray.getEnabledFeatures());
-                    sliceFeatures.setMaximumSigma(maximumSigma);
-                    sliceFeatures.setMinimumSigma(minimumSigma);
-                    sliceFeatures.setMembranePatchSize(membranePatchSize);
-                    sliceFeatures.setMembraneSize(membraneThickness);
-                    sliceFeatures.updateFeaturesST();
-                    filterFeatureStackByList(featureNames, sliceFeatures);
- 
-                    final Instances sliceData = sliceFeatures.createInstances(classNames);
-                    sliceData.setClassIndex(sliceData.numAttributes() - 1); 
+					// Create lazy feature stack for slice
+					final TiledFeatureStack sliceFeatures = createTiledFeatureStack(slice.getProcessor());
+					// Slices are already processed in parallel
+					sliceFeatures.setMultiThreaded(false);
+
+					final Instances dataInfo = sliceFeatures.createHeader(classNames);
 
 					IJ.log("Classifying slice " + i + " in " + numFurtherThreads + " thread(s)...");
-					final ImagePlus classImage = applyClassifier(sliceData, slice.getWidth(), slice.getHeight(), numFurtherThreads, probabilityMaps);
+					final ImageStack classStack = applyClassifier(sliceFeatures, dataInfo, numFurtherThreads, probabilityMaps);
 					
-					if( null == classImage )
+					if( null == classStack )
 					{
 						IJ.log("Error while applying classifier!");
 						return;
 					}
 											
-					classImage.setTitle("classified_" + slice.getTitle());
-					if(probabilityMaps)
-						classImage.setProcessor(classImage.getProcessor().duplicate());
-					else
+					final ImagePlus classImage = new ImagePlus("classified_" + slice.getTitle(), classStack);
+					if(false == probabilityMaps)
 						classImage.setProcessor(classImage.getProcessor().convertToByte(true).duplicate());
 					classifiedSlices[i-1] = classImage;
 				}
@@ -4665,6 +4818,15 @@ public void applyClassifier(int numThreads, boolean classify)
 		if (numThreads == 0)
 			numThreads = Prefs.getThreads();
 
+		// Lazy features: classify tile by tile, without feature stack array
+		if(featureTileSize > 0)
+		{
+			IJ.log("Classifying whole image tile by tile using " + numThreads + " threads...");
+			classifiedImage = applyClassifierTiled(numThreads, classify);
+			IJ.log("Finished segmentation of whole image.\n");
+			return;
+		}
+
 		// Check if all feature stacks were used during training
 		boolean allUsed = true;
 		for(int j=0; j<featureStackToUpdateTest.length; j++)
@@ -5075,6 +5237,243 @@ public void run() {
 		return classImg;
 	}
 	
+	/**
+	 * Apply current classifier to the training image using the lazy feature
+	 * stacks, slice by slice and tile by tile
+	 * 
+	 * @param numThreads number of threads to use
+	 * @param probabilityMaps probability flag. True: probability maps are calculated, false: binary classification 
+	 * @return result image containing the probability maps or the binary classification
+	 */
+	private ImagePlus applyClassifierTiled(
+			int numThreads, 
+			boolean probabilityMaps)
+	{
+		updateTiledFeatureStacks();
+
+		ArrayList<String> classNames = null;
+		
+		if(null != loadedClassNames)
+			classNames = loadedClassNames;
+		else
+		{
+			classNames = new ArrayList<String>();
+
+			for(int j=0; j<trainingImage.getImageStackSize(); j++)
+				for(int i = 0; i < numOfClasses; i++)					
+					if(examples[j].get(i).size() > 0)
+						if(false == classNames.contains(getClassLabels()[i]))
+							classNames.add(getClassLabels()[i]);
+		}
+
+		// Create instances information (each instance needs a pointer to this)
+		final Instances dataInfo = getReferenceTiledFeatureStack().createHeader(classNames);
+
+		final long start = System.currentTimeMillis();
+
+		final ImageStack classStack = new ImageStack(trainingImage.getWidth(), trainingImage.getHeight());
+		for(int z=0; z<tiledFeatureStacks.length; z++)
+		{
+			IJ.showStatus("Classifying slice " + (z+1) + "...");
+			final ImageStack sliceResult = applyClassifier(tiledFeatureStacks[z], dataInfo, numThreads, probabilityMaps);
+			if(null == sliceResult)
+				return null;
+			for(int c=1; c<=sliceResult.getSize(); c++)
+				classStack.addSlice(sliceResult.getSliceLabel(c), sliceResult.getProcessor(c));
+		}
+
+		final long end = System.currentTimeMillis();
+		IJ.log("Classifying whole image data took: " + (end-start) + "ms");
+
+		return new ImagePlus(probabilityMaps ? "Probability maps" : "Classification result", classStack);
+	}
+
+	/**
+	 * Apply current classifier to a lazy feature stack. The tiles are
+	 * classified concurrently, in bands of rows, so that all threads are used
+	 * even if there are fewer tiles than threads (e.g. a single tile when no
+	 * feature tile size is set). The feature vectors of each row are read
+	 * into a buffer that every thread reuses for the whole image, and the
+	 * results are written straight into the output processors, so no set of
+	 * instances is created and the memory used does not depend on the image
+	 * size (besides the result).
+	 * 
+	 * @param features lazy feature stack of the image to classify
+	 * @param dataInfo empty set of instances containing the data structure (attributes and classes)
+	 * @param numThreads The number of threads to use. Set to zero for auto-detection.
+	 * @param probabilityMaps probability flag. True: probability maps are calculated, false: binary classification 
+	 * @return stack containing the probability maps or the binary classification (null if error)
+	 */
+	public ImageStack applyClassifier(
+			final TiledFeatureStack features,
+			final Instances dataInfo,
+			int numThreads, 
+			boolean probabilityMaps)
+	{
+		if (numThreads == 0)
+			numThreads = Prefs.getThreads();
+
+		final int width = features.getWidth();
+		final int height = features.getHeight();
+		final int numChannels = (probabilityMaps ? dataInfo.numClasses() : 1);
+		final int numPixels = width * height;
+
+		// Pixels of the result processors, filled by the threads
+		final float[][] pixels = new float[numChannels][numPixels];
+
+		final ExecutorService exe = Executors.newFixedThreadPool(numThreads);
+		final ArrayList< Future<Boolean> > futures = new ArrayList< Future<Boolean> >();
+
+		final AtomicInteger nextBand = new AtomicInteger(0);
+		final AtomicInteger counter = new AtomicInteger();
+
+		// Give every thread several bands of rows to classify
+		final int numTiles = features.getNumTilesX() * features.getNumTilesY();
+		final int bandsPerTile = Math.max(1, Math.min(features.getTileSize(),
+				(4 * numThreads + numTiles - 1) / numTiles));
+
+		for(int i = 0; i < numThreads; i++)
+		{
+			if (Thread.currentThread().isInterrupted()) 
+			{
+				exe.shutdownNow();
+				return null;
+			}
+
+			AbstractClassifier classifierCopy = null;
+			try {
+				// The Weka random forest classifiers do not need to be duplicated on each thread 
+				// (that saves much memory)
+				if( classifier instanceof FastRandomForest || classifier instanceof RandomForest )
+					classifierCopy = classifier;
+				else
+					classifierCopy = (AbstractClassifier) (AbstractClassifier.makeCopy( classifier ));
+			} catch (Exception e) {
+				IJ.log("Error: classifier could not be copied to classify in a multi-thread way.");
+				e.printStackTrace();
+			}
+
+			futures.add(exe.submit(classifyTiles(features, dataInfo, classifierCopy, pixels, nextBand, bandsPerTile, counter, probabilityMaps)));
+		}
+
+		ScheduledExecutorService monitor = Executors.newScheduledThreadPool(1);
+		ScheduledFuture task = monitor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				IJ.showProgress(counter.get(), numPixels);
+			}
+		}, 0, 1, TimeUnit.SECONDS);
+
+		// Join threads
+		try {
+			for(Future<Boolean> f : futures)
+				if(false == f.get())
+					return null;
+		} catch (InterruptedException e) {
+			exe.shutdownNow();
+			return null;
+		} catch (ExecutionException e) {
+			IJ.log("Could not apply Classifier!");
+			e.printStackTrace();
+			exe.shutdownNow();
+			return null;
+		} finally {
+			exe.shutdown();
+			task.cancel(true);
+			monitor.shutdownNow();
+			IJ.showProgress(1);
+		}
+
+		final ImageStack classStack = new ImageStack(width, height);
+		for (int c = 0; c < numChannels; c++)
+			classStack.addSlice(probabilityMaps ? getClassLabels()[c] : "", new FloatProcessor(width, height, pixels[c], null));
+		return classStack;
+	}
+
+	/**
+	 * Classify the tiles of a lazy feature stack concurrently. Each tile is
+	 * split into the same number of bands of rows, and each thread takes the
+	 * next band to classify until all of them are done. The bands are handed
+	 * out tile by tile, so the threads share the tile in the cache.
+	 * 
+	 * @param features lazy feature stack with the feature vectors
+	 * @param dataInfo empty set of instances containing the data structure (attributes and classes)
+	 * @param classifier current classifier
+	 * @param pixels pixels of the result processors, one array per channel
+	 * @param nextBand index of the next band to classify, shared by all threads
+	 * @param bandsPerTile number of bands of rows per tile
+	 * @param counter auxiliary counter to be able to update the progress bar
+	 * @param probabilityMaps if true return a probability map for each class instead of a classified image
+	 * @return false if the thread was interrupted
+	 */
+	static Callable<Boolean> classifyTiles(
+			final TiledFeatureStack features,
+			final Instances dataInfo,
+			final AbstractClassifier classifier,
+			final float[][] pixels,
+			final AtomicInteger nextBand,
+			final int bandsPerTile,
+			final AtomicInteger counter,
+			final boolean probabilityMaps)
+	{
+		if (Thread.currentThread().isInterrupted()) 
+			return null;
+		
+		return new Callable<Boolean>(){
+
+			public Boolean call() throws Exception
+			{
+				final int width = features.getWidth();
+				final int tileSize = features.getTileSize();
+				final int numTilesX = features.getNumTilesX();
+				final int numBands = numTilesX * features.getNumTilesY() * bandsPerTile;
+				final int numClasses = dataInfo.numClasses();
+
+				// Feature vectors of a row of a tile. The instances keep a reference 
+				// to their values (not a copy), so they are created only once.
+				// The class value (last attribute) is never written and stays 0.
+				final double[][] values = new double[tileSize][dataInfo.numAttributes()];
+				final DenseInstance[] instances = new DenseInstance[tileSize];
+				for(int i=0; i<tileSize; i++)
+				{
+					instances[i] = new DenseInstance(1.0, values[i]);
+					instances[i].setDataset(dataInfo);
+				}
+
+				for(int band = nextBand.getAndIncrement(); band < numBands; band = nextBand.getAndIncrement())
+				{
+					if (Thread.currentThread().isInterrupted()) 
+						return false;
+
+					final int tile = band / bandsPerTile;
+					final int b = band % bandsPerTile;
+					final Rectangle r = features.getTileBounds(tile % numTilesX, tile / numTilesX);
+					final int firstRow = r.y + b * r.height / bandsPerTile;
+					final int lastRow = r.y + (b + 1) * r.height / bandsPerTile;
+					for(int y = firstRow; y < lastRow; y++)
+					{
+						features.getFeatureVectors(r.x, y, r.width, values);
+						int index = r.x + y * width;
+						for(int i=0; i<r.width; i++, index++)
+						{
+							if (probabilityMaps)
+							{							
+								final double[] prob = classifier.distributionForInstance( instances[i] );
+								for(int k = 0 ; k < numClasses; k++)
+									pixels[k][index] = (float) prob[k];
+							}
+							else
+							{
+								pixels[0][index] = (float) classifier.classifyInstance( instances[i] );
+							}
+						}
+					}
+					counter.addAndGet(r.width * (lastRow - firstRow));
+				}
+				return true;
+			}
+		};
+	}
+
 	/**
 	 * Classify instances concurrently
 	 * 
@@ -0,0 +1,607 @@
+package trainableSegmentation.metrics;
+
+/**
+ *
+ * License: GPL
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License 2
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Sparse contingency table between two labelings of the same pixels (the
+ * original labels and the proposed labels). Only the label pairs that
+ * actually occur are stored, as packed long keys (original label in the
+ * upper 32 bits, proposed label in the lower 32 bits) sorted in ascending
+ * order, together with their pixel counts. The tables of each slice are
+ * built by sorting the packed keys of the slice and counting the runs, and
+ * the tables of different slices are combined by merging. The memory used
+ * is therefore proportional to the number of different label pairs, and not
+ * to the product of the number of labels as with a dense matrix.
+ * <p>
+ * Pixels with label 0 in the original labels (background) are not stored,
+ * since none of the adapted Rand index statistics use them. Label 0 in the
+ * proposed labels (un-assigned "out" space) is stored.
+ */
+public class ContingencyTable
+{
+	/** sorted packed label pairs (original label << 32 | proposed label) */
+	private long[] keys;
+	/** number of pixels of each label pair */
+	private long[] counts;
+	/** number of label pairs in the table */
+	private int size;
+	/** total number of pixels (including the background ones) */
+	private long numPixels;
+	/** largest proposed label in the table */
+	private int maxProposedLabel;
+
+	/**
+	 * Create an empty contingency table
+	 */
+	public ContingencyTable()
+	{
+		this.keys = new long[ 0 ];
+		this.counts = new long[ 0 ];
+	}
+
+	/**
+	 * Create a contingency table between two label images of the same size
+	 *
+	 * @param originalLabels original labels, one per pixel
+	 * @param proposedLabels proposed labels, one per pixel
+	 * @param buffer working array with at least as many elements as pixels (it can be null)
+	 */
+	public ContingencyTable(
+			final int[] originalLabels,
+			final int[] proposedLabels,
+			long[] buffer)
+	{
+		if( null == buffer || buffer.length < originalLabels.length )
+			buffer = new long[ originalLabels.length ];
+
+		// pack the label pairs of the non-background pixels
+		int n = 0;
+		for( int i = 0; i < originalLabels.length; i++ )
+			if( originalLabels[ i ] != 0 )
+				buffer[ n++ ] = ( (long) originalLabels[ i ] << 32 ) | ( proposedLabels[ i ] & 0xffffffffL );
+
+		Arrays.sort( buffer, 0, n );
+
+		// count the runs of equal keys
+		int runs = 0;
+		for( int i = 0; i < n; i++ )
+			if( i == 0 || buffer[ i ] != buffer[ i - 1 ] )
+				runs++;
+
+		this.keys = new long[ runs ];
+		this.counts = new long[ runs ];
+		for( int i = 0; i < n; i++ )
+		{
+			if( i == 0 || buffer[ i ] != buffer[ i - 1 ] )
+				keys[ size++ ] = buffer[ i ];
+			counts[ size - 1 ]++;
+			maxProposedLabel = Math.max( maxProposedLabel, (int) buffer[ i ] );
+		}
+		this.numPixels = originalLabels.length;
+	}
+
+	/**
+	 * Add the counts of another table to this one
+	 *
+	 * @param other contingency table to merge with this one
+	 */
+	public void merge( ContingencyTable other )
+	{
+		final long[] mergedKeys = new long[ size + other.size ];
+		final long[] mergedCounts = new long[ size + other.size ];
+		int i = 0, j = 0, k = 0;
+		while( i < size || j < other.size )
+		{
+			if( j == other.size || ( i < size && keys[ i ] < other.keys[ j ] ) )
+			{
+				mergedKeys[ k ] = keys[ i ];
+				mergedCounts[ k++ ] = counts[ i++ ];
+			}
+			else if( i == size || other.keys[ j ] < keys[ i ] )
+			{
+				mergedKeys[ k ] = other.keys[ j ];
+				mergedCounts[ k++ ] = other.counts[ j++ ];
+			}
+			else
+			{
+				mergedKeys[ k ] = keys[ i ];
+				mergedCounts[ k++ ] = counts[ i++ ] + other.counts[ j++ ];
+			}
+		}
+		this.keys = mergedKeys;
+		this.counts = mergedCounts;
+		this.size = k;
+		this.numPixels += other.numPixels;
+		this.maxProposedLabel = Math.max( maxProposedLabel, other.maxProposedLabel );
+	}
+
+	/**
+	 * Get the number of different (non-background) label pairs
+	 * @return number of entries of the table
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Get the total number of pixels, including the background of the
+	 * original labels
+	 * @return number of pixels used to build the table
+	 */
+	public long getNumPixels()
+	{
+		return numPixels;
+	}
+
+	/**
+	 * Get the number of pixels with the given pair of labels
+	 *
+	 * @param originalLabel label in the original labels (larger than 0)
+	 * @param proposedLabel label in the proposed labels
+	 * @return number of pixels with both labels
+	 */
+	public long getCount(
+			int originalLabel,
+			int proposedLabel)
+	{
+		final int index = Arrays.binarySearch( keys, 0, size,
+				( (long) originalLabel << 32 ) | ( proposedLabel & 0xffffffffL ) );
+		return index < 0 ? 0 : counts[ index ];
+	}
+
+	/**
+	 * Calculate the Rand index and its derived statistics from the table,
+	 * with the same definitions as {@link RandError#getRandIndexStats(ShortProcessor, ShortProcessor)}:
+	 * background pixels of the original labels are pruned out and pixels
+	 * with proposed label 0 do not form positive pairs.
+	 *
+	 * @return Rand index value and derived statistics
+	 */
+	public ClassificationStatistics getRandIndexStats()
+	{
+		// number of pixels that are "in" (not background) in
+		// the original labels
+		double n = 0;
+		// sums of rows and their number of pairs
+		double nPosTrue = 0;
+		double rowSum = 0;
+		// sums of columns (prune out the zero component in the proposal)
+		final double[] nj = new double[ maxProposedLabel + 1 ];
+		// true positives: pairs in the same class in both labelings
+		double truePositives = 0;
+
+		for( int k = 0; k < size; k++ )
+		{
+			final double c = counts[ k ];
+			final int proposedLabel = (int) keys[ k ];
+			n += c;
+			rowSum += c;
+			if( k == size - 1 || ( keys[ k + 1 ] >>> 32 ) != ( keys[ k ] >>> 32 ) )
+			{
+				nPosTrue += rowSum * ( rowSum - 1.0 ) / 2.0;
+				rowSum = 0;
+			}
+			if( proposedLabel != 0 )
+			{
+				nj[ proposedLabel ] += c;
+				truePositives += c * ( c - 1.0 ) / 2.0;
+			}
+		}
+
+		// number of pairs actually classified as positive (in the prediction)
+		double nPosActual = 0;
+		for( int j = 1; j < nj.length; j++ )
+			nPosActual += nj[ j ] * ( nj[ j ] - 1.0 ) / 2.0;
+
+		// total number of pairs (after pruning background pixels
+		// of the original labels)
+		final double nPairsTotal = n * ( n - 1.0 ) / 2.0;
+
+		// trueNegatives = nNegTrue - falsePositives = (nPairsTotal - nPosTrue) - (nPosActual - truePositives)
+		final double trueNegatives = nPairsTotal + truePositives - nPosTrue - nPosActual;
+		final double falsePositives = nPosActual - truePositives;
+		final double falseNegatives = ( nPairsTotal - nPosActual ) - trueNegatives;
+
+		final double randIndex = ( truePositives + trueNegatives ) / nPairsTotal;
+
+		return new ClassificationStatistics( truePositives, trueNegatives,
+				falsePositives, falseNegatives, randIndex );
+	}
+
+	/**
+	 * Calculate the precision, recall and Rand index value with the
+	 * definitions of {@link RandError#adaptedRandIndexStats3DN2(ImagePlus, ImagePlus)}
+	 *
+	 * @return precision, recall and Rand index value
+	 */
+	public double[] getAdaptedRandIndexStatsN2()
+	{
+		final double n = numPixels;
+		final double[] bj = new double[ maxProposedLabel + 1 ];
+		double sumA = 0;
+		double sumAB = 0;
+		double aux = 0;
+		double rowSum = 0;
+
+		for( int k = 0; k < size; k++ )
+		{
+			final double c = counts[ k ];
+			final int proposedLabel = (int) keys[ k ];
+			rowSum += c;
+			if( k == size - 1 || ( keys[ k + 1 ] >>> 32 ) != ( keys[ k ] >>> 32 ) )
+			{
+				sumA += rowSum * rowSum;
+				rowSum = 0;
+			}
+			if( proposedLabel == 0 )
+				aux += c;
+			else
+			{
+				bj[ proposedLabel ] += c;
+				sumAB += c * c;
+			}
+		}
+
+		double sumB = 0;
+		for( int j = 1; j < bj.length; j++ )
+			sumB += bj[ j ] * bj[ j ];
+
+		sumB += aux / n;
+		sumAB += aux / n;
+
+		return new double[]{ sumAB / sumB, sumAB / sumA, 1.0 - ( sumA + sumB - 2.0 * sumAB ) / ( n * n ) };
+	}
+
+	/**
+	 * Build the contingency table between two label stacks. The stacks are
+	 * divided in slabs of consecutive slices that are processed in parallel,
+	 * each thread reusing its own buffers.
+	 *
+	 * @param originalLabels original labels (2D image or stack, 8, 16 or 32-bit)
+	 * @param proposedLabels proposed labels (same dimensions as the original labels)
+	 * @param numThreads number of threads to use
+	 * @return contingency table or null if the sizes do not match
+	 */
+	public static ContingencyTable build(
+			final ImagePlus originalLabels,
+			final ImagePlus proposedLabels,
+			int numThreads)
+	{
+		if( originalLabels.getWidth() != proposedLabels.getWidth()
+				|| originalLabels.getHeight() != proposedLabels.getHeight()
+				|| originalLabels.getImageStackSize() != proposedLabels.getImageStackSize() )
+		{
+			IJ.log( "Error: original and proposed label sizes do not fit." );
+			return null;
+		}
+
+		final ImageStack labelSlices = originalLabels.getImageStack();
+		final ImageStack proposalSlices = proposedLabels.getImageStack();
+		final int nSlices = labelSlices.getSize();
+		numThreads = Math.max( 1, Math.min( numThreads, nSlices ) );
+
+		final ExecutorService exe = Executors.newFixedThreadPool( numThreads );
+		final ArrayList< Future<ContingencyTable> > futures = new ArrayList< Future<ContingencyTable> >();
+
+		final ContingencyTable table = new ContingencyTable();
+		try{
+			for( int t = 0; t < numThreads; t++ )
+			{
+				final int first = 1 + (int) ( (long) nSlices * t / numThreads );
+				final int last = (int) ( (long) nSlices * ( t + 1 ) / numThreads );
+				futures.add( exe.submit( new Callable<ContingencyTable>()
+				{
+					public ContingencyTable call()
+					{
+						final int nPixels = labelSlices.getWidth() * labelSlices.getHeight();
+						final int[] labels1 = new int[ nPixels ];
+						final int[] labels2 = new int[ nPixels ];
+						final long[] buffer = new long[ nPixels ];
+						final ContingencyTable slab = new ContingencyTable();
+						for( int slice = first; slice <= last; slice++ )
+						{
+							getLabels( labelSlices.getProcessor( slice ), labels1 );
+							getLabels( proposalSlices.getProcessor( slice ), labels2 );
+							slab.merge( new ContingencyTable( labels1, labels2, buffer ) );
+						}
+						return slab;
+					}
+				}));
+			}
+
+			// Wait for the jobs to be done
+			for( Future<ContingencyTable> f : futures )
+				table.merge( f.get() );
+		}
+		catch( Exception ex )
+		{
+			IJ.log( "Error when building the contingency table in a concurrent way." );
+			ex.printStackTrace();
+			return null;
+		}
+		finally{
+			exe.shutdown();
+		}
+
+		return table;
+	}
+
+	/**
+	 * Calculate the Rand index statistics between some original labels and
+	 * the corresponding proposed labels for a list of thresholds, with the
+	 * definitions of {@link RandError#getRandIndexStats(double)}: for each
+	 * threshold both images are binarized, their 4-connected components are
+	 * labeled and the statistics of each slice are added (the Rand index is
+	 * averaged over the slices).
+	 * <p>
+	 * All thresholds are evaluated in a single pass over the stacks: the
+	 * slices are processed in parallel, each slice is read and converted
+	 * only once, and the components of the original labels are only labeled
+	 * again when their binarization changes with the threshold.
+	 *
+	 * @param originalLabels original labels (2D image or stack)
+	 * @param proposedLabels proposed labels (same dimensions as the original labels)
+	 * @param thresholds threshold values to binarize the images
+	 * @param numThreads number of threads to use
+	 * @return Rand index value and derived statistics for each threshold (null if error)
+	 */
+	public static ArrayList< ClassificationStatistics > getRandIndexStats(
+			final ImagePlus originalLabels,
+			final ImagePlus proposedLabels,
+			final double[] thresholds,
+			int numThreads)
+	{
+		if( originalLabels.getWidth() != proposedLabels.getWidth()
+				|| originalLabels.getHeight() != proposedLabels.getHeight()
+				|| originalLabels.getImageStackSize() != proposedLabels.getImageStackSize() )
+		{
+			IJ.log( "Error: original and proposed label sizes do not fit." );
+			return null;
+		}
+
+		final ImageStack labelSlices = originalLabels.getImageStack();
+		final ImageStack proposalSlices = proposedLabels.getImageStack();
+		final int width = labelSlices.getWidth();
+		final int height = labelSlices.getHeight();
+		final int nSlices = labelSlices.getSize();
+		numThreads = Math.max( 1, Math.min( numThreads, nSlices ) );
+
+		// statistics per threshold and slice
+		final ClassificationStatistics[][] sliceStats = new ClassificationStatistics[ thresholds.length ][ nSlices ];
+
+		final ExecutorService exe = Executors.newFixedThreadPool( numThreads );
+		final ArrayList< Future<Boolean> > futures = new ArrayList< Future<Boolean> >();
+
+		try{
+			for( int t = 0; t < numThreads; t++ )
+			{
+				final int first = (int) ( (long) nSlices * t / numThreads );
+				final int last = (int) ( (long) nSlices * ( t + 1 ) / numThreads );
+				futures.add( exe.submit( new Callable<Boolean>()
+				{
+					public Boolean call()
+					{
+						final int nPixels = width * height;
+						final int[] components1 = new int[ nPixels ];
+						final int[] components2 = new int[ nPixels ];
+						final int[] parent = new int[ nPixels + 1 ];
+						final long[] buffer = new long[ nPixels ];
+
+						for( int slice = first; slice < last; slice++ )
+						{
+							final float[] label = (float[]) labelSlices.getProcessor( slice + 1 ).convertToFloat().getPixels();
+							final float[] proposal = (float[]) proposalSlices.getProcessor( slice + 1 ).convertToFloat().getPixels();
+							int previousForeground = -1;
+							for( int i = 0; i < thresholds.length; i++ )
+							{
+								// the binarizations of consecutive thresholds are nested, so
+								// the same number of foreground pixels means the same image
+								final int foreground = countAbove( label, thresholds[ i ] );
+								if( foreground != previousForeground )
+								{
+									labelComponents( label, width, height, thresholds[ i ], components1, parent );
+									previousForeground = foreground;
+								}
+								labelComponents( proposal, width, height, thresholds[ i ], components2, parent );
+								sliceStats[ i ][ slice ] = new ContingencyTable( components1, components2, buffer ).getRandIndexStats();
+							}
+						}
+						return true;
+					}
+				}));
+			}
+
+			// Wait for the jobs to be done
+			for( Future<Boolean> f : futures )
+				f.get();
+		}
+		catch( Exception ex )
+		{
+			IJ.log( "Error when calculating Rand index statistics in a concurrent way." );
+			ex.printStackTrace();
+			return null;
+		}
+		finally{
+			exe.shutdown();
+		}
+
+		final ArrayList< ClassificationStatistics > cs = new ArrayList< ClassificationStatistics >();
+		for( int i = 0; i < thresholds.length; i++ )
+		{
+			double randIndex = 0;
+			double tp = 0;
+			double tn = 0;
+			double fp = 0;
+			double fn = 0;
+			for( ClassificationStatistics s : sliceStats[ i ] )
+			{
+				randIndex += s.metricValue;
+				tp += s.truePositives;
+				tn += s.trueNegatives;
+				fp += s.falsePositives;
+				fn += s.falseNegatives;
+			}
+			cs.add( new ClassificationStatistics( tp, tn, fp, fn, randIndex / nSlices ) );
+		}
+		return cs;
+	}
+
+	/**
+	 * Copy the labels of an image into an integer array
+	 *
+	 * @param ip label image (8, 16 or 32-bit)
+	 * @param labels output array with as many elements as pixels
+	 */
+	static void getLabels(
+			ImageProcessor ip,
+			int[] labels)
+	{
+		if( ip instanceof ShortProcessor )
+		{
+			final short[] pixels = (short[]) ip.getPixels();
+			for( int i = 0; i < pixels.length; i++ )
+				labels[ i ] = pixels[ i ] & 0xffff;
+		}
+		else if( ip instanceof ByteProcessor )
+		{
+			final byte[] pixels = (byte[]) ip.getPixels();
+			for( int i = 0; i < pixels.length; i++ )
+				labels[ i ] = pixels[ i ] & 0xff;
+		}
+		else
+		{
+			for( int i = 0; i < labels.length; i++ )
+				labels[ i ] = (int) ip.getf( i );
+		}
+	}
+
+	/**
+	 * Count the pixels above a threshold
+	 *
+	 * @param pixels image pixels
+	 * @param threshold binarization threshold
+	 * @return number of pixels larger than the threshold
+	 */
+	static int countAbove(
+			float[] pixels,
+			double threshold)
+	{
+		int count = 0;
+		for( int i = 0; i < pixels.length; i++ )
+			if( pixels[ i ] > threshold )
+				count++;
+		return count;
+	}
+
+	/**
+	 * Label the 4-connected components of the pixels above a threshold
+	 * (two passes with union-find). The background is labeled 0 and the
+	 * components from 1 to the number of components.
+	 *
+	 * @param pixels image pixels
+	 * @param width image width
+	 * @param height image height
+	 * @param threshold binarization threshold
+	 * @param components output labels, one per pixel
+	 * @param parent working array with at least one more element than pixels
+	 * @return number of components
+	 */
+	static int labelComponents(
+			float[] pixels,
+			int width,
+			int height,
+			double threshold,
+			int[] components,
+			int[] parent)
+	{
+		// first pass: provisional labels and their equivalences
+		parent[ 0 ] = 0;
+		int next = 1;
+		for( int y = 0, i = 0; y < height; y++ )
+			for( int x = 0; x < width; x++, i++ )
+			{
+				if( pixels[ i ] <= threshold )
+				{
+					components[ i ] = 0;
+					continue;
+				}
+				final int left = x > 0 ? components[ i - 1 ] : 0;
+				final int up = y > 0 ? components[ i - width ] : 0;
+				if( left == 0 && up == 0 )
+				{
+					parent[ next ] = next;
+					components[ i ] = next++;
+				}
+				else if( left == 0 || up == 0 )
+					components[ i ] = left + up;
+				else
+				{
+					final int rootLeft = find( parent, left );
+					final int rootUp = find( parent, up );
+					if( rootLeft < rootUp )
+						parent[ rootUp ] = rootLeft;
+					else
+						parent[ rootLeft ] = rootUp;
+					components[ i ] = left;
+				}
+			}
+
+		// resolve the equivalences into consecutive labels (roots
+		// always have smaller labels than their children)
+		int numComponents = 0;
+		for( int l = 1; l < next; l++ )
+			parent[ l ] = parent[ l ] == l ? ++numComponents : parent[ parent[ l ] ];
+
+		// second pass
+		for( int i = 0; i < pixels.length; i++ )
+			components[ i ] = parent[ components[ i ] ];
+
+		return numComponents;
+	}
+
+	/**
+	 * Find the root of a provisional label (with path halving)
+	 */
+	private static int find(
+			int[] parent,
+			int label)
+	{
+		while( parent[ label ] != label )
+		{
+			parent[ label ] = parent[ parent[ label ] ];
+			label = parent[ label ];
+		}
+		return label;
+	}
+}
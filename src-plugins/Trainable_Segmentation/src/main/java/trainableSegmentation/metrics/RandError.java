@@ -158,49 +158,11 @@ public double getMetricValue(double binaryThreshold)
 	 */
 	public ClassificationStatistics getRandIndexStats( double binaryThreshold )
 	{
-		final ImageStack labelSlices = originalLabels.getImageStack();
-		final ImageStack proposalSlices = proposedLabels.getImageStack();
-
-		double randIndex = 0;
-		double tp = 0;
-		double tn = 0;
-		double fp = 0;
-		double fn = 0;
-
-		// Executor service to produce concurrent threads
-		final ExecutorService exe = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
-		final ArrayList< Future<ClassificationStatistics> > futures = new ArrayList< Future<ClassificationStatistics> >();
+		final ArrayList< ClassificationStatistics > cs = ContingencyTable.getRandIndexStats( 
+				originalLabels, proposedLabels, new double[]{ binaryThreshold }, 
+				Runtime.getRuntime().availableProcessors() );
 
-		try{
-			for(int i = 1; i <= labelSlices.getSize(); i++)
-			{
-				futures.add(exe.submit( getRandIndexStatsConcurrent(labelSlices.getProcessor(i).convertToFloat(),
-											proposalSlices.getProcessor(i).convertToFloat(),										
-											binaryThreshold ) ) );
-			}
-
-			// Wait for the jobs to be done
-			for(Future<ClassificationStatistics> f : futures)
-			{
-				ClassificationStatistics cs = f.get();
-				randIndex += cs.metricValue;
-				tp += cs.truePositives;
-				tn += cs.trueNegatives;
-				fp += cs.falsePositives;
-				fn += cs.falseNegatives;
-			}			
-		}
-		catch(Exception ex)
-		{
-			IJ.log("Error when calculating rand error in a concurrent way.");
-			ex.printStackTrace();
-		}
-		finally{
-			exe.shutdown();
-		}
-
-		return new ClassificationStatistics( tp, tn, fp, fn, randIndex / labelSlices.getSize() );
+		return null == cs ? null : cs.get( 0 );
 	}
 	
 	/**
@@ -240,24 +202,35 @@ public ArrayList< ClassificationStatistics > getRandIndexStats(
 			return null;
 		}
 		
-		ArrayList< ClassificationStatistics > cs = new ArrayList<ClassificationStatistics>();
+		final ArrayList< Double > thresholdList = new ArrayList< Double >();
+		for(double th = minThreshold; th <= maxThreshold; th += stepThreshold)
+			thresholdList.add( th );
+		final double[] thresholds = new double[ thresholdList.size() ];
+		for(int i = 0; i < thresholds.length; i++)
+			thresholds[ i ] = thresholdList.get( i );
+		
+		if( verbose ) 
+			IJ.log("  Calculating Rand index statistics for " + thresholds.length + " threshold values...");
+		
+		// All thresholds are evaluated in a single pass over the stacks
+		ArrayList< ClassificationStatistics > cs = ContingencyTable.getRandIndexStats( 
+				originalLabels, proposedLabels, thresholds, Runtime.getRuntime().availableProcessors() );
+		if( null == cs )
+			return null;
 		
 		double bestFscore = 0;
 		double bestTh = minThreshold;
 		
-		for(double th = minThreshold; th <= maxThreshold; th += stepThreshold)
+		for(int i = 0; i < thresholds.length; i++)
 		{
-			if( verbose ) 
-				IJ.log("  Calculating Rand index statistics for threshold value " + String.format("%.3f", th) + "...");
-			cs.add( getRandIndexStats( th ));
-			final double fScore = cs.get( cs.size()-1 ).fScore;
+			final double fScore = cs.get( i ).fScore;
 			if( fScore > bestFscore )
 			{
 				bestFscore = fScore;
-				bestTh = th;
+				bestTh = thresholds[ i ];
 			}
 			if( verbose )
-				IJ.log("    F-score = " + fScore);
+				IJ.log("    F-score = " + fScore + " (threshold = " + String.format("%.3f", thresholds[ i ]) + ")");
 		}
 		
 		if( verbose )
@@ -786,132 +759,19 @@ public static double adaptedRandIndex3D(
 	public static ClassificationStatistics adaptedRandIndexStats3D(
 			ImagePlus originalLabels,
 			ImagePlus proposedLabels)
-		{
-			if( originalLabels.getImageStack().getProcessor( 1 ) instanceof ShortProcessor == false 
-					|| proposedLabels.getImageStack().getProcessor( 1 ) instanceof ShortProcessor == false)
-				return null;
-		
-			//IJ.log( "Calculating adapted Rand index stats...");
-						
-			int nSlices = originalLabels.getImageStackSize();
-			
-			int maxIDGroundTruth = 0;
-			int maxIDProposal = 0;
-							
-			// Calculate larger IDs of both clusters
-			for( int slice = 1; slice <= nSlices; slice ++ )
-			{
-				ImageProcessor gt = originalLabels.getImageStack().getProcessor( slice );
-				gt.resetMinAndMax();
-				if ( maxIDGroundTruth < gt.getMax() )
-					maxIDGroundTruth = (int) gt.getMax();
-				ImageProcessor proposal = proposedLabels.getImageStack().getProcessor( slice );
-				proposal.resetMinAndMax();
-				if ( maxIDProposal < proposal.getMax() )
-					maxIDProposal = (int) proposal.getMax();
-			}
-			
-			double agreements = 0;
-
-			
-			// Form the contingency matrix
-			long[][]cont = new long[ maxIDGroundTruth + 1] [ maxIDProposal + 1];
-			double[] ni = new double[ cont.length    ];
-			double[] nj = new double[ cont[0].length ];
-			
-			// number of pixels that are "in" (not background) in
-			// cluster number 1 (ground truth)
-			double n = 0;						
-			
-			for( int slice = 1; slice <= nSlices; slice ++ )
-			{
-				//IJ.log(" Processing slice " + slice +"...");
-				
-				ShortProcessor cluster1 = (ShortProcessor) originalLabels.getImageStack().getProcessor( slice );
-				ShortProcessor cluster2 = (ShortProcessor) proposedLabels.getImageStack().getProcessor( slice );
-				
-				final short[] pixels1 = (short[]) cluster1.getPixels();
-				final short[] pixels2 = (short[]) cluster2.getPixels();
-				
-				double nPixels = pixels1.length;
-				
-														
-				for(int i=0; i<nPixels; i++)
-				{						
-					cont[ pixels1[i] & 0xffff ] [ pixels2[i] & 0xffff ] ++;
-					if( pixels1[ i ] > 0)
-						n++;
-				}
-			}
-			// sum of squares of sums of rows
-			// (skip background objects in the first cluster)
-
-			for(int i=1; i<cont.length; i++)
-				for(int j=0; j<cont[0].length; j++)
-				{
-					ni[ i ] += cont[ i ][ j ];				
-				}
-
-			// sum of squares of sums of columns
-			// (prune out the zero component in the labeling (un-assigned "out" space))				
-			for(int j=1; j<cont[0].length; j++)
-				for(int i=1; i<cont.length; i++)
-				{
-					nj[ j ] += cont[ i ][ j ];
-				}
-			
-			
-			// true positives - type (i): objects in the pair are placed in the 
-			// same class in cluster1 and in the same class in claster2
-			// (prune out the zero component in the labeling (un-assigned "out" space))
-			double truePositives = 0;
-			for(int j=1; j<cont[0].length; j++)
-				for(int i=1; i<cont.length; i++)			
-					truePositives += cont[ i ][ j ] * ( cont[ i ][ j ] - 1.0 ); // / 2.0;			
-
-			// total number of pairs (after pruning background pixels
-			// of the ground truth)
-			double nPairsTotal = n * (n-1.0);// / 2.0 ;
-
-			// total number of positive samples in ground truth
-			double nPosTrue = 0;
-			for(int k=0; k<ni.length; k++)
-				nPosTrue += ni[ k ] * (ni[ k ]-1.0);// /2.0;
-
-			// number of pairs actually classified as positive (in the prediction)
-			double nPosActual = 0;
-			for(int k=0; k<nj.length; k++)
-				nPosActual += nj[ k ] * (nj[ k ]-1.0); ///2.0;				
-
-			// true negatives - type (ii): objects in the pair are placed in different 
-			// classes in cluster1 and in different classes in claster2
-			// trueNegatives = 	nNegTrue - falsePositives = (nPairsTotal - nPosTrue) - (nPosActual - truePositives)	
-			double trueNegatives = nPairsTotal + truePositives - nPosTrue - nPosActual;
-
-			//IJ.log("  agreements = " + (truePositives + trueNegatives) );
-
-			agreements += truePositives + trueNegatives;	// number of agreements
-
-
-			double falsePositives = nPosActual - truePositives;
-			double nNegActual = nPairsTotal - nPosActual;
-			double falseNegatives = nNegActual - trueNegatives;
+	{
+		if( originalLabels.getImageStack().getProcessor( 1 ) instanceof ShortProcessor == false 
+				|| proposedLabels.getImageStack().getProcessor( 1 ) instanceof ShortProcessor == false)
+			return null;
 
-			truePositives /= 2.0;
-			trueNegatives /= 2.0;
-			falsePositives /= 2.0;
-			falseNegatives /= 2.0;
-						
+		// Form the (sparse) contingency table, slab by slab in parallel
+		final ContingencyTable table = ContingencyTable.build( originalLabels, proposedLabels, 
+				Runtime.getRuntime().availableProcessors() );
+		if( null == table )
+			return null;
 
-			// agreements /= 2.0;
-			// nPairsTotal /= 2.0;
-			
-			
-			double randIndex = agreements / nPairsTotal;
-			
-			return new ClassificationStatistics( truePositives, trueNegatives, falsePositives,  falseNegatives, randIndex);
-		}
-	
+		return table.getRandIndexStats();
+	}
 	
 	/**
 	 * Calculate the Rand index stats between to 3D clusters, as described by
@@ -945,95 +805,14 @@ public static double[] adaptedRandIndexStats3DN2(
 				|| segB.getImageStack().getProcessor( 1 ) instanceof ShortProcessor == false)
 			return null;
 
-		//IJ.log( "Calculating adapted Rand index stats...");
-
-		int nSlices = segA.getImageStackSize();
-
-		int nLabelsA = 0;
-		int nLabelsB = 0;
-
-		// Calculate larger IDs of both clusters
-		for( int slice = 1; slice <= nSlices; slice ++ )
-		{
-			ImageProcessor gt = segA.getImageStack().getProcessor( slice );
-			gt.resetMinAndMax();
-			if ( nLabelsA < gt.getMax() )
-				nLabelsA = (int) gt.getMax();
-			ImageProcessor proposal = segB.getImageStack().getProcessor( slice );
-			proposal.resetMinAndMax();
-			if ( nLabelsB < proposal.getMax() )
-				nLabelsB = (int) proposal.getMax();
-		}
-
-		// Form the contingency matrix
-		long[][]pij = new long[ nLabelsA + 1] [ nLabelsB + 1];		
-
-		double n = segA.getImageStackSize() * segA.getWidth() * segA.getHeight();
-
-		for( int slice = 1; slice <= nSlices; slice ++ )
-		{
-			//IJ.log(" Processing slice " + slice +"...");
-
-			ShortProcessor cluster1 = (ShortProcessor) segA.getImageStack().getProcessor( slice );
-			ShortProcessor cluster2 = (ShortProcessor) segB.getImageStack().getProcessor( slice );
-
-			final short[] pixels1 = (short[]) cluster1.getPixels();
-			final short[] pixels2 = (short[]) cluster2.getPixels();
-
-			double nPixels = pixels1.length;				
-
-			for(int i=0; i<nPixels; i++)									
-				pij[ pixels1[i] & 0xffff ] [ pixels2[i] & 0xffff ] ++;
-		}
-
-
-
-		// sum of squares of sums of rows
-		// (skip background objects in the first cluster)
-		double[] ai = new double[ pij.length ];
-		for(int i=1; i<pij.length; i++)
-			for(int j=0; j<pij[0].length; j++)
-			{
-				ai[ i ] += pij[ i ][ j ];				
-			}
-
-		// sum of squares of sums of columns
-		// (prune out the zero component in the labeling (un-assigned "out" space))
-		double[] bj = new double[ pij[0].length ];
-		for(int j=1; j<pij[0].length; j++)
-			for(int i=1; i<pij.length; i++)
-			{
-				bj[ j ] += pij[ i ][ j ];
-			}
-
-		double[] pi0 = new double[ pij.length ];
-		double aux = 0;
-		for(int i=1; i<pij.length; i++)
-		{
-			pi0[ i ] = pij[ i ][ 0 ];
-			aux += pi0[ i ];
-		}
-
-		double sumA = 0;
-		for(int i=0; i<ai.length; i++)
-			sumA += ai[ i ] * ai[ i ];
-
-		double sumB = 0;
-		for(int j=0; j<bj.length; j++)
-			sumB += bj[ j ] * bj[ j ];
-
-		sumB += aux/n;
-
-
-		double sumAB = 0;
-		for(int i=1; i<pij.length; i++)
-			for(int j=1; j<pij[0].length; j++)
-				sumAB += pij[ i ][ j ] * pij[ i ][ j ]; 
-
-		sumAB += aux/n;
+		// Form the (sparse) contingency table, slab by slab in parallel
+		final ContingencyTable table = ContingencyTable.build( segA, segB, 
+				Runtime.getRuntime().availableProcessors() );
+		if( null == table )
+			return null;
 
 		// return precision, recall and Rand index value
-		return new double[]{ sumAB/sumB, sumAB/sumA, 1.0 - (sumA+sumB-2.0*sumAB)/(n*n) };
+		return table.getAdaptedRandIndexStatsN2();
 	}
 	
 	/**
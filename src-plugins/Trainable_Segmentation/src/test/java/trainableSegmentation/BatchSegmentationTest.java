@@ -0,0 +1,98 @@
+package trainableSegmentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.io.FileSaver;
+import ij.process.ByteProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchSegmentationTest {
+
+	private static final int SIZE = 64;
+
+	private static File dir;
+	private static File model;
+
+	/**
+	 * Trains a classifier on an image whose left half is dark and whose
+	 * right half is bright.
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws IOException {
+		dir = File.createTempFile("BatchSegmentationTest", "");
+		dir.delete();
+		assertTrue(dir.mkdirs());
+
+		final WekaSegmentation segmentation = new WekaSegmentation(halves(new Random(1)));
+		segmentation.addExample(0, new Roi(4, 4, 16, SIZE - 8), 1);
+		segmentation.addExample(1, new Roi(SIZE - 20, 4, 16, SIZE - 8), 1);
+		assertTrue(segmentation.trainClassifier());
+
+		model = new File(dir, "classifier.model");
+		assertTrue(segmentation.saveClassifier(model.getPath()));
+		segmentation.shutDownNow();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		delete(dir);
+	}
+
+	@Test
+	public void testClassifyStack() {
+		final File input = new File(dir, "input");
+		final File output = new File(dir, "output");
+		assertTrue(input.mkdirs());
+
+		final Random random = new Random(2);
+		final ImageStack stack = new ImageStack(SIZE, SIZE);
+		for(int i = 0; i < 3; i++)
+			stack.addSlice("", halves(random).getProcessor());
+		assertTrue(new FileSaver(new ImagePlus("stack", stack)).saveAsTiffStack(new File(input, "stack.tif").getPath()));
+
+		final BatchSegmentation batch = new BatchSegmentation();
+		batch.setNumThreads(2);
+		assertTrue(batch.loadClassifier(model.getPath()));
+		assertTrue(batch.process(input, output));
+		batch.shutDownNow();
+
+		assertEquals(1, batch.getNumProcessed());
+		assertEquals(0, batch.getNumFailed());
+
+		final ImagePlus result = IJ.openImage(new File(output, "stack.tif").getPath());
+		assertEquals(3, result.getStackSize());
+		assertEquals(8, result.getBitDepth());
+		for(int i = 1; i <= 3; i++) {
+			final ByteProcessor ip = (ByteProcessor) result.getStack().getProcessor(i);
+			assertTrue(ip.get(8, SIZE / 2) < ip.get(SIZE - 8, SIZE / 2));
+		}
+	}
+
+	private static ImagePlus halves(final Random random) {
+		final ByteProcessor ip = new ByteProcessor(SIZE, SIZE);
+		for(int y = 0; y < SIZE; y++)
+			for(int x = 0; x < SIZE; x++)
+				ip.set(x, y, (x < SIZE / 2 ? 40 : 200) + random.nextInt(20));
+		return new ImagePlus("halves", ip);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if(children != null)
+			for(final File child : children)
+				delete(child);
+		file.delete();
+	}
+}